@@ -25,6 +25,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicMarkableReference;
 import java.util.concurrent.atomic.AtomicReference;
@@ -39,6 +40,7 @@ import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -51,6 +53,8 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
     private final HttpConnection connection;
     private final ResponseNotifier responseNotifier;
     private ContentDecoder decoder;
+    private ByteBuffer buffer;
+    private ContentCallback stalled;
 
     public HttpReceiver(HttpConnection connection)
     {
@@ -63,16 +67,48 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         EndPoint endPoint = connection.getEndPoint();
         HttpClient client = connection.getHttpClient();
         ByteBufferPool bufferPool = client.getByteBufferPool();
-        ByteBuffer buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
+        // A non null buffer means that parsing has been stalled by a content listener and
+        // that it is now resumed: the buffer may still contain bytes that must be parsed,
+        // and the parser must be invoked even if it does not, to complete the response.
+        ByteBuffer buffer = this.buffer;
+        boolean resume = buffer != null;
+        if (resume)
+            this.buffer = null;
+        else
+            buffer = bufferPool.acquire(client.getResponseBufferSize(), true);
+        boolean retained = false;
         try
         {
             while (true)
             {
+                if (resume || buffer.hasRemaining())
+                {
+                    resume = false;
+                    parser.parseNext(buffer);
+                    ContentCallback callback = stalled;
+                    if (callback != null)
+                    {
+                        stalled = null;
+                        // The buffer must be retained before the callback is
+                        // allowed to resume parsing from another thread
+                        this.buffer = buffer;
+                        if (callback.stall())
+                        {
+                            LOG.debug("Parsing stalled for {}", connection);
+                            retained = true;
+                            return;
+                        }
+                        this.buffer = null;
+                        resume = true;
+                    }
+                    continue;
+                }
+
                 int read = endPoint.fill(buffer);
                 LOG.debug("Read {} bytes from {}", read, connection);
                 if (read > 0)
                 {
-                    parse(buffer);
+                    continue;
                 }
                 else if (read == 0)
                 {
@@ -98,16 +134,11 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
         }
         finally
         {
-            bufferPool.release(buffer);
+            if (!retained)
+                bufferPool.release(buffer);
         }
     }
 
-    private void parse(ByteBuffer buffer)
-    {
-        while (buffer.hasRemaining())
-            parser.parseNext(buffer);
-    }
-
     private void fillInterested()
     {
         State state = this.state.get();
@@ -268,7 +299,14 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
                     LOG.debug("{} {}: {} bytes", decoder, response, buffer.remaining());
                 }
 
-                responseNotifier.notifyContent(conversation.getResponseListeners(), response, buffer);
+                ContentCallback callback = new ContentCallback();
+                responseNotifier.notifyContent(conversation.getResponseListeners(), response, buffer, callback);
+                // Stop parsing until the content has been consumed
+                if (callback.isPending())
+                {
+                    stalled = callback;
+                    return true;
+                }
             }
         }
         return false;
@@ -404,4 +442,78 @@ public class HttpReceiver implements HttpParser.ResponseHandler<ByteBuffer>
     {
         IDLE, RECEIVE, FAILURE
     }
+
+    /**
+     * <p>Resumes parsing when the content has been consumed by asynchronous content listeners.</p>
+     */
+    private class ContentCallback implements Callback
+    {
+        private final AtomicReference<ContentState> state = new AtomicReference<>(ContentState.PENDING);
+
+        private boolean isPending()
+        {
+            return state.get() == ContentState.PENDING;
+        }
+
+        private boolean stall()
+        {
+            return state.compareAndSet(ContentState.PENDING, ContentState.STALLED);
+        }
+
+        @Override
+        public void succeeded()
+        {
+            if (!state.compareAndSet(ContentState.PENDING, ContentState.CONSUMED))
+            {
+                if (state.compareAndSet(ContentState.STALLED, ContentState.CONSUMED))
+                {
+                    LOG.debug("Parsing resumed for {}", connection);
+                    // The content may have been consumed by a write completed by a selector
+                    // thread: do not parse and notify listeners in that thread
+                    try
+                    {
+                        connection.getHttpClient().getExecutor().execute(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                receive();
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException x)
+                    {
+                        LOG.debug(x);
+                        failAndClose(x);
+                        releaseBuffer();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            ContentState previous = state.getAndSet(ContentState.CONSUMED);
+            if (previous != ContentState.CONSUMED)
+            {
+                failAndClose(x);
+                if (previous == ContentState.STALLED)
+                    releaseBuffer();
+            }
+        }
+
+        private void releaseBuffer()
+        {
+            ByteBuffer buffer = HttpReceiver.this.buffer;
+            HttpReceiver.this.buffer = null;
+            if (buffer != null)
+                connection.getHttpClient().getByteBufferPool().release(buffer);
+        }
+    }
+
+    private enum ContentState
+    {
+        PENDING, STALLED, CONSUMED
+    }
 }
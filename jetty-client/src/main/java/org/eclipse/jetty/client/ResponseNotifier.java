@@ -20,11 +20,13 @@ package org.eclipse.jetty.client;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -78,10 +80,46 @@ public class ResponseNotifier
 
     public void notifyContent(List<Response.ResponseListener> listeners, Response response, ByteBuffer buffer)
     {
+        ByteBuffer content = buffer.slice();
         for (Response.ResponseListener listener : listeners)
-            if (listener instanceof Response.ContentListener)
+            if (listener instanceof Response.AsyncContentListener)
+                notifyContent((Response.AsyncContentListener)listener, response, content.slice(), new Callback.Adapter());
+            else if (listener instanceof Response.ContentListener)
                 notifyContent((Response.ContentListener)listener, response, buffer);
+    }
 
+    /**
+     * <p>Notifies the content to the given listeners; the given callback is completed
+     * when all {@link Response.AsyncContentListener}s have completed their callbacks.</p>
+     *
+     * @param listeners the listeners to notify
+     * @param response the response
+     * @param buffer the content
+     * @param callback the callback completed when the content has been consumed by all listeners
+     */
+    public void notifyContent(List<Response.ResponseListener> listeners, Response response, ByteBuffer buffer, Callback callback)
+    {
+        // Synchronous listeners may consume the buffer, keep a view for asynchronous ones
+        ByteBuffer content = buffer.slice();
+        int asyncListeners = 0;
+        for (Response.ResponseListener listener : listeners)
+        {
+            if (listener instanceof Response.AsyncContentListener)
+                ++asyncListeners;
+            else if (listener instanceof Response.ContentListener)
+                notifyContent((Response.ContentListener)listener, response, buffer);
+        }
+
+        if (asyncListeners == 0)
+        {
+            callback.succeeded();
+            return;
+        }
+
+        Callback asyncCallback = asyncListeners == 1 ? callback : new CountingCallback(callback, asyncListeners);
+        for (Response.ResponseListener listener : listeners)
+            if (listener instanceof Response.AsyncContentListener)
+                notifyContent((Response.AsyncContentListener)listener, response, content.slice(), asyncCallback);
     }
 
     private void notifyContent(Response.ContentListener listener, Response response, ByteBuffer buffer)
@@ -96,6 +134,19 @@ public class ResponseNotifier
         }
     }
 
+    private void notifyContent(Response.AsyncContentListener listener, Response response, ByteBuffer buffer, Callback callback)
+    {
+        try
+        {
+            listener.onContent(response, buffer, callback);
+        }
+        catch (Exception x)
+        {
+            LOG.info("Exception while notifying listener " + listener, x);
+            callback.failed(x);
+        }
+    }
+
     public void notifySuccess(List<Response.ResponseListener> listeners, Response response)
     {
         for (Response.ResponseListener listener : listeners)
@@ -186,4 +237,34 @@ public class ResponseNotifier
         conversation.complete();
         notifyComplete(listeners, new Result(request, requestFailure, response, responseFailure));
     }
+
+    /**
+     * <p>Completes the wrapped callback when it has been succeeded the given number of times,
+     * or as soon as it is failed.</p>
+     */
+    private static class CountingCallback implements Callback
+    {
+        private final AtomicInteger count;
+        private final Callback callback;
+
+        private CountingCallback(Callback callback, int count)
+        {
+            this.callback = callback;
+            this.count = new AtomicInteger(count);
+        }
+
+        @Override
+        public void succeeded()
+        {
+            if (count.decrementAndGet() == 0)
+                callback.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            if (count.getAndSet(-1) > 0)
+                callback.failed(x);
+        }
+    }
 }
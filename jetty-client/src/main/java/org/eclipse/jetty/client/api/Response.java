@@ -25,6 +25,7 @@ import java.util.List;
 import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.Callback;
 
 /**
  * <p>{@link Response} represents a HTTP response and offers methods to retrieve status code, HTTP version
@@ -116,6 +117,25 @@ public interface Response
         public void onContent(Response response, ByteBuffer content);
     }
 
+    /**
+     * <p>Asynchronous version of {@link ContentListener}.</p>
+     * <p>The content buffer is not copied and the response is not read further until the callback
+     * is completed, so that a slow consumer exerts back-pressure on the server.</p>
+     */
+    public interface AsyncContentListener extends ResponseListener
+    {
+        /**
+         * Callback method invoked when the response content has been received.
+         * This method may be invoked multiple times; the {@code content} buffer must not be used
+         * after the {@code callback} has been completed.
+         *
+         * @param response the response containing the response line data and the headers
+         * @param content the content bytes received
+         * @param callback the callback to complete when the content has been consumed
+         */
+        public void onContent(Response response, ByteBuffer content, Callback callback);
+    }
+
     public interface SuccessListener extends ResponseListener
     {
         /**
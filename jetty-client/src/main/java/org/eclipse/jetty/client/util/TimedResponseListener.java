@@ -27,11 +27,12 @@ import org.eclipse.jetty.client.Schedulable;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.Scheduler;
 
-public class TimedResponseListener implements Response.Listener, Schedulable, Runnable
+public class TimedResponseListener implements Response.Listener, Response.AsyncContentListener, Schedulable, Runnable
 {
     private static final Logger LOG = Log.getLogger(TimedResponseListener.class);
 
@@ -75,6 +76,20 @@ public class TimedResponseListener implements Response.Listener, Schedulable, Ru
             ((Response.ContentListener)delegate).onContent(response, content);
     }
 
+    @Override
+    public void onContent(Response response, ByteBuffer content, Callback callback)
+    {
+        if (delegate instanceof Response.AsyncContentListener)
+        {
+            ((Response.AsyncContentListener)delegate).onContent(response, content, callback);
+        }
+        else
+        {
+            onContent(response, content);
+            callback.succeeded();
+        }
+    }
+
     @Override
     public void onSuccess(Response response)
     {
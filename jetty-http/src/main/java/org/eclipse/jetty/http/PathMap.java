@@ -18,12 +18,14 @@
 
 package org.eclipse.jetty.http;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 
 import org.eclipse.jetty.util.LazyList;
 import org.eclipse.jetty.util.StringMap;
@@ -55,6 +57,10 @@ import org.eclipse.jetty.util.URIUtil;
  * as it is assumed they would have been either encoded in the original URL or
  * stripped from the path.
  * <P>
+ * Matching is done against an immutable trie of the path specifications, built on
+ * the first match after a modification and then shared by all the matching threads,
+ * so that the best match is found in one pass over the path without allocation.
+ * <P>
  * This class is not synchronized.  If concurrent modifications are
  * possible then it should be synchronized at a higher level.
  *
@@ -87,6 +93,7 @@ public class PathMap<O> extends HashMap<String,O>
     MappedEntry<O> _default=null;
     final Set _entrySet;
     boolean _nodefault=false;
+    private volatile Index<O> _index;
 
     /* --------------------------------------------------------------- */
     public PathMap()
@@ -137,6 +144,7 @@ public class PathMap<O> extends HashMap<String,O>
             MappedEntry<O> entry = new MappedEntry<>("",object);
             entry.setMapped("");
             _exactMap.put("", entry);
+            _index=null;
             return super.put("", object);
         }
 
@@ -188,6 +196,7 @@ public class PathMap<O> extends HashMap<String,O>
             }
         }
 
+        _index=null;
         return old;
     }
 
@@ -215,6 +224,10 @@ public class PathMap<O> extends HashMap<String,O>
         if (path==null)
             return null;
 
+        Index<O> index=_index;
+        if (index==null)
+            _index=index=new Index<>(_exactMap,_prefixMap,_suffixMap);
+
         int l=path.length();
 
         MappedEntry<O> entry=null;
@@ -222,37 +235,24 @@ public class PathMap<O> extends HashMap<String,O>
         //special case
         if (l == 1 && path.charAt(0)=='/')
         {
-            entry = _exactMap.get("");
+            entry = index._paths._exact[0];
             if (entry != null)
                 return entry;
         }
 
-        // try exact match
-        entry=_exactMap.get(path,0,l);
+        // exact or longest prefix match
+        entry=index.matchPath(path);
         if (entry!=null)
             return entry;
 
-        // prefix search
-        int i=l;
-        while((i=path.lastIndexOf('/',i-1))>=0)
-        {
-            entry=_prefixMap.get(path,0,i);
-            if (entry!=null)
-                return entry;
-        }
-
         // Prefix Default
         if (_prefixDefault!=null)
             return _prefixDefault;
 
         // Extension search
-        i=0;
-        while ((i=path.indexOf('.',i+1))>0)
-        {
-            entry=_suffixMap.get(path,i+1,l-i-1);
-            if (entry!=null)
-                return entry;
-        }
+        entry=index.matchSuffix(path);
+        if (entry!=null)
+            return entry;
 
         // Default
         return _default;
@@ -361,6 +361,7 @@ public class PathMap<O> extends HashMap<String,O>
             }
             else
                 _exactMap.remove(spec);
+            _index=null;
         }
         return super.remove(pathSpec);
     }
@@ -374,6 +375,7 @@ public class PathMap<O> extends HashMap<String,O>
         _suffixMap.clear();
         _default=null;
         _defaultSingletonList=null;
+        _index=null;
         super.clear();
     }
 
@@ -514,6 +516,172 @@ public class PathMap<O> extends HashMap<String,O>
         return path;
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** Immutable snapshot of the exact, prefix and suffix specifications.
+     * Exact and prefix specifications share a trie walked from the start of the
+     * path, suffix specifications are in a trie of reversed suffixes walked
+     * from the end of the path.
+     */
+    private static final class Index<O>
+    {
+        private final Trie<O> _paths;
+        private final Trie<O> _suffixes;
+
+        private Index(StringMap<MappedEntry<O>> exacts, StringMap<MappedEntry<O>> prefixes, StringMap<MappedEntry<O>> suffixes)
+        {
+            TrieBuilder<O> paths = new TrieBuilder<>();
+            for (Map.Entry<String,MappedEntry<O>> entry : exacts.entrySet())
+                paths.add(entry.getKey(),false)._exact=entry.getValue();
+            for (Map.Entry<String,MappedEntry<O>> entry : prefixes.entrySet())
+                paths.add(entry.getKey(),false)._prefix=entry.getValue();
+            _paths=new Trie<>(paths);
+
+            TrieBuilder<O> reversed = new TrieBuilder<>();
+            for (Map.Entry<String,MappedEntry<O>> entry : suffixes.entrySet())
+                reversed.add(entry.getKey(),true)._exact=entry.getValue();
+            _suffixes=new Trie<>(reversed);
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the exact match of the path, or else the longest prefix match
+         */
+        private MappedEntry<O> matchPath(String path)
+        {
+            Trie<O> trie=_paths;
+            MappedEntry<O> prefix=null;
+            int node=0;
+            for (int i=0;i<path.length();i++)
+            {
+                char c=path.charAt(i);
+                if (c=='/' && trie._prefix[node]!=null)
+                    prefix=trie._prefix[node];
+                node=trie.next(node,c);
+                if (node<0)
+                    return prefix;
+            }
+            MappedEntry<O> exact=trie._exact[node];
+            return exact==null?prefix:exact;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the match of the longest extension of the path, ignoring a leading '.'
+         */
+        private MappedEntry<O> matchSuffix(String path)
+        {
+            Trie<O> trie=_suffixes;
+            MappedEntry<O> suffix=null;
+            int node=0;
+            for (int i=path.length();i-->1;)
+            {
+                char c=path.charAt(i);
+                if (c=='.' && trie._exact[node]!=null)
+                    suffix=trie._exact[node];
+                node=trie.next(node,c);
+                if (node<0)
+                    break;
+            }
+            return suffix;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** Array based trie.
+     * The children of node {@code n} are the nodes {@code _child[_first[n]]}
+     * to {@code _child[_first[n+1]-1]}, reached by the sorted characters at
+     * the same indexes of {@code _chars}. The root is node 0.
+     */
+    private static final class Trie<O>
+    {
+        private final int[] _first;
+        private final char[] _chars;
+        private final int[] _child;
+        private final MappedEntry<O>[] _exact;
+        private final MappedEntry<O>[] _prefix;
+
+        @SuppressWarnings("unchecked")
+        private Trie(TrieBuilder<O> builder)
+        {
+            // Number the nodes breadth first, so that the children of a node are contiguous
+            List<TrieBuilder<O>> nodes = new ArrayList<>();
+            nodes.add(builder);
+            for (int n=0;n<nodes.size();n++)
+                nodes.addAll(nodes.get(n)._children.values());
+
+            int size=nodes.size();
+            _first=new int[size+1];
+            _chars=new char[size-1];
+            _child=new int[size-1];
+            _exact=new MappedEntry[size];
+            _prefix=new MappedEntry[size];
+
+            int edge=0;
+            for (int n=0;n<size;n++)
+            {
+                TrieBuilder<O> node=nodes.get(n);
+                _exact[n]=node._exact;
+                _prefix[n]=node._prefix;
+                _first[n]=edge;
+                for (Map.Entry<Character,TrieBuilder<O>> child : node._children.entrySet())
+                {
+                    _chars[edge]=child.getKey();
+                    _child[edge]=edge+1;
+                    edge++;
+                }
+            }
+            _first[size]=edge;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return the child of the node reached by the character, or -1
+         */
+        private int next(int node, char c)
+        {
+            int low=_first[node];
+            int high=_first[node+1]-1;
+            while (low<=high)
+            {
+                int mid=(low+high)>>>1;
+                char m=_chars[mid];
+                if (m<c)
+                    low=mid+1;
+                else if (m>c)
+                    high=mid-1;
+                else
+                    return _child[mid];
+            }
+            return -1;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static final class TrieBuilder<O>
+    {
+        private final Map<Character,TrieBuilder<O>> _children = new TreeMap<>();
+        private MappedEntry<O> _exact;
+        private MappedEntry<O> _prefix;
+
+        private TrieBuilder<O> add(String key, boolean reverse)
+        {
+            TrieBuilder<O> node=this;
+            int l=key.length();
+            for (int i=0;i<l;i++)
+            {
+                Character c=key.charAt(reverse?l-1-i:i);
+                TrieBuilder<O> child=node._children.get(c);
+                if (child==null)
+                    node._children.put(c,child=new TrieBuilder<>());
+                node=child;
+            }
+            return node;
+        }
+    }
+
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
     /* ------------------------------------------------------------ */
@@ -0,0 +1,80 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class PathMapBenchmarkTest
+{
+    @Ignore
+    @Test
+    public void testGetMatch() throws Exception
+    {
+        // A mapping typical of a web application with a few frameworks
+        PathMap<String> map = new PathMap<>();
+        map.put("/", "default");
+        map.put("*.jsp", "jsp");
+        map.put("*.jspx", "jsp");
+        map.put("*.do", "action");
+        map.put("/index.html", "welcome");
+        map.put("/api/*", "api");
+        map.put("/api/v1/*", "api1");
+        map.put("/api/v2/*", "api2");
+        map.put("/api/v2/users/*", "users");
+        map.put("/static/*", "static");
+        map.put("/ws/*", "websocket");
+        map.put("/admin/console", "console");
+        map.put("/admin/*", "admin");
+        for (int i = 0; i < 50; ++i)
+            map.put("/module" + i + "/*", "module" + i);
+
+        String[] paths = {
+                "/index.html",
+                "/api/v2/users/1234/profile",
+                "/api/v1/orders",
+                "/static/js/lib/jquery.min.js",
+                "/module42/page/detail.jsp",
+                "/shop/cart/checkout.do",
+                "/admin/console",
+                "/some/unmapped/deep/path/file.txt"};
+
+        int iterations = 5_000_000;
+        for (int warmup = 0; warmup < 2; ++warmup)
+            run(map, paths, iterations / 10);
+
+        long begin = System.nanoTime();
+        int matches = run(map, paths, iterations);
+        long end = System.nanoTime();
+        Assert.assertEquals(iterations, matches);
+        System.err.printf("getMatch: %d ns/op%n", (end - begin) / iterations);
+    }
+
+    private int run(PathMap<String> map, String[] paths, int iterations)
+    {
+        int matches = 0;
+        for (int i = 0; i < iterations; ++i)
+        {
+            if (map.getMatch(paths[i % paths.length]) != null)
+                ++matches;
+        }
+        return matches;
+    }
+}
@@ -137,6 +137,35 @@ public class PathMapTest
         assertEquals("match / with ''", "10", p.getMatch("/").getValue());
     }
 
+    @Test
+    public void testMatchAfterModification() throws Exception
+    {
+        PathMap<String> p = new PathMap<>();
+        p.put("/a/*", "1");
+        p.put("/a/b/*", "2");
+        p.put("*.gz", "3");
+        p.put("/", "4");
+
+        assertEquals("2", p.match("/a/b/c.gz"));
+        assertEquals("1", p.match("/a/bc"));
+        assertEquals("3", p.match("/x/y.tar.gz"));
+        assertEquals("4", p.match("/x/y.gzip"));
+        assertEquals("4", p.match("/x/y"));
+
+        p.remove("/a/b/*");
+        p.put("*.tar.gz", "5");
+        assertEquals("1", p.match("/a/b/c.gz"));
+        assertEquals("5", p.match("/x/y.tar.gz"));
+        assertEquals("3", p.match("/x/y.gz"));
+
+        p.put("/a/b/c.gz", "6");
+        assertEquals("6", p.match("/a/b/c.gz"));
+        assertEquals("1", p.match("/a/b/c.gz/d"));
+
+        p.clear();
+        assertEquals(null, p.match("/a/b/c.gz"));
+    }
+
     /**
      * See JIRA issue: JETTY-88.
      */
@@ -0,0 +1,70 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.nio.ByteBuffer;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * <p>{@link ProxyServlet} that relays the upstream response content without copying it
+ * and without blocking.</p>
+ * <p>Each upstream content buffer is written to the downstream connection directly, and the
+ * upstream response is not read further until the write completes, so that the memory used
+ * by each exchange is bounded by one response buffer and a slow downstream client slows
+ * down the upstream server rather than blocking a thread.</p>
+ * <p>Responses that have been wrapped, for example by a filter, are relayed as in
+ * {@link ProxyServlet}.</p>
+ */
+public class AsyncProxyServlet extends ProxyServlet
+{
+    @Override
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, final Response proxyResponse, ByteBuffer content, final Callback callback)
+    {
+        if (!(response instanceof org.eclipse.jetty.server.Response))
+        {
+            super.onResponseContent(request, response, proxyResponse, content, callback);
+            return;
+        }
+
+        final int requestId = getRequestId(request);
+        final int length = content.remaining();
+        HttpOutput output = ((org.eclipse.jetty.server.Response)response).getHttpOutput();
+        output.sendContent(content, false, new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                _log.debug("{} proxying content to downstream: {} bytes", requestId, length);
+                callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                _log.debug(requestId + " proxying content to downstream failed", x);
+                callback.failed(x);
+            }
+        });
+    }
+}
@@ -0,0 +1,264 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+
+/**
+ * <p>A server to which {@link BalancerServlet} proxies requests.</p>
+ * <p>{@link BalancerMember} tracks the number of requests in flight and a peak-sensitive
+ * exponentially weighted moving average of the response latency, which are used by
+ * {@link BalancerPolicy}s, and the consecutive failures, which are used to eject the
+ * member from the balancer for a while.</p>
+ */
+@ManagedObject("Balancer Member")
+public class BalancerMember
+{
+    private final AtomicInteger _inFlight = new AtomicInteger();
+    private final AtomicLong _requests = new AtomicLong();
+    private final AtomicLong _failures = new AtomicLong();
+    private final AtomicInteger _consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger _ejections = new AtomicInteger();
+    private final String _name;
+    private final String _proxyTo;
+    private final URI _backendURI;
+    private volatile long _ejectedUntil;
+    private volatile boolean _healthy = true;
+    private long _latency;
+    private long _latencyTime;
+    private long _latencyDecay = 1;
+
+    public BalancerMember(String name, String proxyTo)
+    {
+        _name = name;
+        _proxyTo = proxyTo;
+        _backendURI = URI.create(_proxyTo).normalize();
+    }
+
+    @ManagedAttribute("The name of this member")
+    public String getName()
+    {
+        return _name;
+    }
+
+    @ManagedAttribute("The URI requests are proxied to")
+    public String getProxyTo()
+    {
+        return _proxyTo;
+    }
+
+    public URI getBackendURI()
+    {
+        return _backendURI;
+    }
+
+    @ManagedAttribute("The number of requests in flight")
+    public int getInFlight()
+    {
+        return _inFlight.get();
+    }
+
+    @ManagedAttribute("The total number of requests")
+    public long getRequests()
+    {
+        return _requests.get();
+    }
+
+    @ManagedAttribute("The total number of failed requests")
+    public long getFailures()
+    {
+        return _failures.get();
+    }
+
+    @ManagedAttribute("The number of consecutive failed requests")
+    public int getConsecutiveFailures()
+    {
+        return _consecutiveFailures.get();
+    }
+
+    @ManagedAttribute("The number of times this member has been ejected")
+    public int getEjections()
+    {
+        return _ejections.get();
+    }
+
+    @ManagedAttribute("Whether this member passes health checks")
+    public boolean isHealthy()
+    {
+        return _healthy;
+    }
+
+    public void setHealthy(boolean healthy)
+    {
+        _healthy = healthy;
+    }
+
+    @ManagedAttribute("Whether this member is currently ejected")
+    public boolean isEjected()
+    {
+        return isEjected(System.nanoTime());
+    }
+
+    public boolean isEjected(long now)
+    {
+        return _ejectedUntil - now > 0;
+    }
+
+    /**
+     * @param now the current time, in nanoseconds
+     * @return whether this member is healthy and not ejected
+     */
+    public boolean isAvailable(long now)
+    {
+        return _healthy && !isEjected(now);
+    }
+
+    /**
+     * <p>The returned value decays with the time elapsed since the last sample, so that a member
+     * that was slow once is eventually tried again and gets a chance to report a new latency.</p>
+     *
+     * @return the peak-sensitive moving average of the response latency, in nanoseconds
+     */
+    public synchronized long getLatency()
+    {
+        return decayedLatency(System.nanoTime());
+    }
+
+    private long decayedLatency(long now)
+    {
+        if (_latency == 0)
+            return 0;
+        double weight = Math.exp(-(double)(now - _latencyTime) / _latencyDecay);
+        return (long)(_latency * weight);
+    }
+
+    @ManagedAttribute("The moving average of the response latency, in ms")
+    public long getLatencyAverage()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(getLatency());
+    }
+
+    /**
+     * <p>Called when a request is proxied to this member.</p>
+     */
+    public void onRequestBegin()
+    {
+        _requests.incrementAndGet();
+        _inFlight.incrementAndGet();
+    }
+
+    /**
+     * <p>Called when a request for which {@link #onRequestBegin()} was called
+     * fails before being proxied to this member.</p>
+     */
+    public void onRequestAbort()
+    {
+        _inFlight.decrementAndGet();
+    }
+
+    /**
+     * <p>Called when a request proxied to this member completes.</p>
+     *
+     * @param latency the request latency, in nanoseconds
+     * @param decay the time it takes for a latency sample to decay, in nanoseconds
+     * @param failed whether the request failed
+     * @param maxConsecutiveFailures the consecutive failures above which this member is ejected,
+     * or a non positive number to never eject
+     * @param ejectionTime the base time this member is ejected for, in nanoseconds
+     */
+    public void onRequestComplete(long latency, long decay, boolean failed, int maxConsecutiveFailures, long ejectionTime)
+    {
+        _inFlight.decrementAndGet();
+        updateLatency(latency, decay);
+        if (failed)
+        {
+            _failures.incrementAndGet();
+            int failures = _consecutiveFailures.incrementAndGet();
+            if (maxConsecutiveFailures > 0 && failures >= maxConsecutiveFailures)
+                eject(ejectionTime);
+        }
+        else
+        {
+            _consecutiveFailures.set(0);
+            _ejections.set(0);
+        }
+    }
+
+    private synchronized void updateLatency(long latency, long decay)
+    {
+        long now = System.nanoTime();
+        _latencyDecay = Math.max(1, decay);
+        long current = decayedLatency(now);
+        if (latency > current)
+        {
+            // Track peaks immediately
+            _latency = latency;
+        }
+        else
+        {
+            // The decayed latency already accounts for the weight of the previous average
+            double weight = Math.exp(-(double)(now - _latencyTime) / _latencyDecay);
+            _latency = (long)(current + latency * (1 - weight));
+        }
+        _latencyTime = now;
+    }
+
+    private void eject(long ejectionTime)
+    {
+        long now = System.nanoTime();
+        if (isEjected(now))
+            return;
+        // Repeat offenders are ejected for longer
+        int ejections = Math.min(_ejections.incrementAndGet(), 10);
+        _ejectedUntil = now + ejectionTime * ejections;
+        _consecutiveFailures.set(0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[name=%s,proxyTo=%s,inFlight=%d,latency=%dms,healthy=%b,ejected=%b]",
+                getClass().getSimpleName(), _name, _proxyTo, getInFlight(), getLatencyAverage(), isHealthy(), isEjected());
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return _name.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        BalancerMember that = (BalancerMember)obj;
+        return _name.equals(that._name);
+    }
+}
@@ -0,0 +1,127 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>{@link BalancerPolicy} selects the {@link BalancerMember} to which {@link BalancerServlet}
+ * proxies a request.</p>
+ */
+public interface BalancerPolicy
+{
+    /**
+     * @param members the members available for selection, never empty
+     * @return the selected member
+     */
+    public BalancerMember select(List<BalancerMember> members);
+
+    /**
+     * <p>Selects members in turn.</p>
+     */
+    public static class RoundRobin implements BalancerPolicy
+    {
+        private final AtomicLong counter = new AtomicLong();
+
+        @Override
+        public BalancerMember select(List<BalancerMember> members)
+        {
+            int index = (int)(counter.getAndIncrement() % members.size());
+            return members.get(index);
+        }
+    }
+
+    /**
+     * <p>Selects the member with the least requests in flight.</p>
+     */
+    public static class LeastInFlight implements BalancerPolicy
+    {
+        private final AtomicLong counter = new AtomicLong();
+
+        @Override
+        public BalancerMember select(List<BalancerMember> members)
+        {
+            // Start from a different member each time to spread ties
+            int size = members.size();
+            int start = (int)(counter.getAndIncrement() % size);
+            BalancerMember result = null;
+            for (int i = 0; i < size; ++i)
+            {
+                BalancerMember member = members.get((start + i) % size);
+                if (result == null || member.getInFlight() < result.getInFlight())
+                    result = member;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * <p>Selects the member with the least cost, where the cost is the moving average of the
+     * latency, which tracks latency peaks immediately, weighted by the requests in flight.</p>
+     */
+    public static class PeakEWMA implements BalancerPolicy
+    {
+        @Override
+        public BalancerMember select(List<BalancerMember> members)
+        {
+            BalancerMember result = null;
+            double resultCost = Double.MAX_VALUE;
+            for (BalancerMember member : members)
+            {
+                double cost = cost(member);
+                if (cost < resultCost)
+                {
+                    result = member;
+                    resultCost = cost;
+                }
+            }
+            return result;
+        }
+
+        static double cost(BalancerMember member)
+        {
+            return (member.getLatency() + 1D) * (member.getInFlight() + 1);
+        }
+    }
+
+    /**
+     * <p>Selects the least loaded of two members chosen at random, which avoids
+     * the herd behavior of always selecting the least loaded member.</p>
+     */
+    public static class PowerOfTwoChoices implements BalancerPolicy
+    {
+        @Override
+        public BalancerMember select(List<BalancerMember> members)
+        {
+            int size = members.size();
+            if (size == 1)
+                return members.get(0);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first)
+                ++second;
+            BalancerMember member1 = members.get(first);
+            BalancerMember member2 = members.get(second);
+            return PeakEWMA.cost(member2) < PeakEWMA.cost(member1) ? member2 : member1;
+        }
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.proxy;
 
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -25,15 +26,51 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.TimedResponseListener;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>{@link ProxyServlet} that balances requests among a set of {@link BalancerMember}s.</p>
+ * <p>Members are selected by a {@link BalancerPolicy}; members whose requests fail repeatedly
+ * are ejected for a while, and members may optionally be probed periodically so that
+ * unhealthy members are not selected.</p>
+ * <p>Besides the {@code balancerMember.<name>.proxyTo}, {@code stickySessions} and
+ * {@code proxyPassReverse} init parameters, the following init parameters may be used:</p>
+ * <ul>
+ * <li>balancerPolicy - one of {@code roundRobin} (the default), {@code leastInFlight},
+ * {@code peakEWMA}, {@code powerOfTwoChoices} or the class name of a {@link BalancerPolicy}</li>
+ * <li>maxConsecutiveFailures - the consecutive failures after which a member is ejected,
+ * 0 to never eject (defaults to 5)</li>
+ * <li>ejectionTime - the base time in milliseconds a member is ejected for, which grows
+ * with repeated ejections (defaults to 30000)</li>
+ * <li>latencyDecay - the time in milliseconds it takes for a latency sample to decay (defaults to 10000)</li>
+ * <li>healthCheckPath - the path probed to check the health of members, no probes if absent</li>
+ * <li>healthCheckInterval - the interval in milliseconds between probes (defaults to 10000)</li>
+ * </ul>
+ * <p>The servlet is put in the context to leverage {@code ContextHandler.MANAGED_ATTRIBUTES}
+ * so that members can be added and removed via JMX.</p>
+ */
+@ManagedObject("Balancer Servlet")
 public class BalancerServlet extends ProxyServlet
 {
     private static final String BALANCER_MEMBER_PREFIX = "balancerMember.";
+    private static final String BALANCER_MEMBER_ATTRIBUTE = BalancerServlet.class.getName() + ".balancerMember";
+    private static final String START_TIME_ATTRIBUTE = BalancerServlet.class.getName() + ".startTime";
     private static final List<String> FORBIDDEN_CONFIG_PARAMETERS;
 
     static
@@ -59,10 +96,17 @@ public class BalancerServlet extends ProxyServlet
     private static final String JSESSIONID = "jsessionid";
     private static final String JSESSIONID_URL_PREFIX = JSESSIONID + "=";
 
-    private final List<BalancerMember> _balancerMembers = new ArrayList<>();
-    private final AtomicLong counter = new AtomicLong();
+    private final List<BalancerMember> _balancerMembers = new CopyOnWriteArrayList<>();
     private boolean _stickySessions;
     private boolean _proxyPassReverse;
+    private volatile BalancerPolicy _balancerPolicy = new BalancerPolicy.RoundRobin();
+    private volatile int _maxConsecutiveFailures = 5;
+    private volatile long _ejectionTime = 30000;
+    private volatile long _latencyDecay = 10000;
+    private String _healthCheckPath;
+    private long _healthCheckInterval = 10000;
+    private volatile Scheduler.Task _healthCheckTask;
+    private volatile boolean _destroyed;
 
     @Override
     public void init() throws ServletException
@@ -72,6 +116,21 @@ public class BalancerServlet extends ProxyServlet
         initStickySessions();
         initBalancers();
         initProxyPassReverse();
+        initBalancerPolicy();
+        initHealthCheck();
+
+        // Put the servlet in the context to leverage ContextHandler.MANAGED_ATTRIBUTES
+        getServletContext().setAttribute(getServletConfig().getServletName() + ".Balancer", this);
+    }
+
+    @Override
+    public void destroy()
+    {
+        _destroyed = true;
+        Scheduler.Task task = _healthCheckTask;
+        if (task != null)
+            task.cancel();
+        super.destroy();
     }
 
     private void validateConfig() throws ServletException
@@ -109,6 +168,172 @@ public class BalancerServlet extends ProxyServlet
         _proxyPassReverse = Boolean.parseBoolean(getServletConfig().getInitParameter("proxyPassReverse"));
     }
 
+    private void initBalancerPolicy() throws ServletException
+    {
+        ServletConfig config = getServletConfig();
+
+        String value = config.getInitParameter("balancerPolicy");
+        if (value != null)
+            _balancerPolicy = newBalancerPolicy(value.trim());
+
+        value = config.getInitParameter("maxConsecutiveFailures");
+        if (value != null)
+            _maxConsecutiveFailures = Integer.parseInt(value);
+
+        value = config.getInitParameter("ejectionTime");
+        if (value != null)
+            _ejectionTime = Long.parseLong(value);
+
+        value = config.getInitParameter("latencyDecay");
+        if (value != null)
+            _latencyDecay = Long.parseLong(value);
+    }
+
+    protected BalancerPolicy newBalancerPolicy(String name) throws ServletException
+    {
+        switch (name)
+        {
+            case "roundRobin":
+                return new BalancerPolicy.RoundRobin();
+            case "leastInFlight":
+                return new BalancerPolicy.LeastInFlight();
+            case "peakEWMA":
+                return new BalancerPolicy.PeakEWMA();
+            case "powerOfTwoChoices":
+                return new BalancerPolicy.PowerOfTwoChoices();
+            default:
+            {
+                try
+                {
+                    return (BalancerPolicy)Thread.currentThread().getContextClassLoader().loadClass(name).newInstance();
+                }
+                catch (Exception x)
+                {
+                    throw new UnavailableException("balancerPolicy " + name + " cannot be instantiated: " + x);
+                }
+            }
+        }
+    }
+
+    private void initHealthCheck()
+    {
+        ServletConfig config = getServletConfig();
+
+        String value = config.getInitParameter("healthCheckInterval");
+        if (value != null)
+            _healthCheckInterval = Long.parseLong(value);
+
+        _healthCheckPath = config.getInitParameter("healthCheckPath");
+        if (_healthCheckPath != null)
+            scheduleHealthCheck();
+    }
+
+    private void scheduleHealthCheck()
+    {
+        if (!_destroyed)
+            _healthCheckTask = getHttpClient().getScheduler().schedule(new HealthCheck(), _healthCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public BalancerPolicy getBalancerPolicy()
+    {
+        return _balancerPolicy;
+    }
+
+    public void setBalancerPolicy(BalancerPolicy balancerPolicy)
+    {
+        _balancerPolicy = balancerPolicy;
+    }
+
+    @ManagedAttribute("The balancer policy")
+    public String getBalancerPolicyName()
+    {
+        return _balancerPolicy.getClass().getSimpleName();
+    }
+
+    @ManagedAttribute("The consecutive failures after which a member is ejected, 0 to never eject")
+    public int getMaxConsecutiveFailures()
+    {
+        return _maxConsecutiveFailures;
+    }
+
+    public void setMaxConsecutiveFailures(int maxConsecutiveFailures)
+    {
+        _maxConsecutiveFailures = maxConsecutiveFailures;
+    }
+
+    @ManagedAttribute("The base time a member is ejected for, in ms")
+    public long getEjectionTime()
+    {
+        return _ejectionTime;
+    }
+
+    public void setEjectionTime(long ejectionTime)
+    {
+        _ejectionTime = ejectionTime;
+    }
+
+    @ManagedAttribute("The time it takes for a latency sample to decay, in ms")
+    public long getLatencyDecay()
+    {
+        return _latencyDecay;
+    }
+
+    public void setLatencyDecay(long latencyDecay)
+    {
+        _latencyDecay = latencyDecay;
+    }
+
+    @ManagedAttribute(value = "The path probed to check the health of members", readonly = true)
+    public String getHealthCheckPath()
+    {
+        return _healthCheckPath;
+    }
+
+    @ManagedAttribute(value = "The interval between health checks, in ms", readonly = true)
+    public long getHealthCheckInterval()
+    {
+        return _healthCheckInterval;
+    }
+
+    public List<BalancerMember> getBalancerMembers()
+    {
+        return Collections.unmodifiableList(_balancerMembers);
+    }
+
+    @ManagedAttribute("The balancer members")
+    public List<String> getBalancerMemberStates()
+    {
+        List<String> result = new ArrayList<>();
+        for (BalancerMember balancerMember : _balancerMembers)
+            result.add(balancerMember.toString());
+        return result;
+    }
+
+    @ManagedOperation(value = "Adds a balancer member", impact = "ACTION")
+    public boolean addBalancerMember(@Name(value = "name", description = "The member name") String name,
+                                     @Name(value = "proxyTo", description = "The URI requests are proxied to") String proxyTo)
+    {
+        BalancerMember balancerMember = new BalancerMember(name, proxyTo);
+        synchronized (_balancerMembers)
+        {
+            if (_balancerMembers.contains(balancerMember))
+                return false;
+            _balancerMembers.add(balancerMember);
+        }
+        _log.info("Added {}", balancerMember);
+        return true;
+    }
+
+    @ManagedOperation(value = "Removes a balancer member", impact = "ACTION")
+    public boolean removeBalancerMember(@Name(value = "name", description = "The member name") String name)
+    {
+        BalancerMember balancerMember = findBalancerMemberByName(name);
+        if (balancerMember == null || !_balancerMembers.remove(balancerMember))
+            return false;
+        _log.info("Removed {}", balancerMember);
+        return true;
+    }
+
     private Set<String> getBalancerNames() throws ServletException
     {
         Set<String> names = new HashSet<>();
@@ -126,32 +351,108 @@ public class BalancerServlet extends ProxyServlet
         return names;
     }
 
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        if (_balancerMembers.isEmpty())
+        {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try
+        {
+            super.service(request, response);
+        }
+        catch (IOException | ServletException | RuntimeException | Error x)
+        {
+            // The request failed before being proxied, the member is not to blame
+            BalancerMember balancerMember = (BalancerMember)request.getAttribute(BALANCER_MEMBER_ATTRIBUTE);
+            if (balancerMember != null)
+            {
+                request.removeAttribute(BALANCER_MEMBER_ATTRIBUTE);
+                balancerMember.onRequestAbort();
+            }
+            throw x;
+        }
+    }
+
     @Override
     protected URI rewriteURI(HttpServletRequest request)
     {
         BalancerMember balancerMember = selectBalancerMember(request);
+        if (balancerMember == null)
+            return null;
         _log.debug("Selected {}", balancerMember);
         String path = request.getRequestURI();
         String query = request.getQueryString();
         if (query != null)
             path += "?" + query;
-        return URI.create(balancerMember.getProxyTo() + "/" + path).normalize();
+        URI result = URI.create(balancerMember.getProxyTo() + "/" + path).normalize();
+        request.setAttribute(BALANCER_MEMBER_ATTRIBUTE, balancerMember);
+        request.setAttribute(START_TIME_ATTRIBUTE, System.nanoTime());
+        balancerMember.onRequestBegin();
+        return result;
     }
 
     private BalancerMember selectBalancerMember(HttpServletRequest request)
     {
+        long now = System.nanoTime();
         if (_stickySessions)
         {
             String name = getBalancerMemberNameFromSessionId(request);
             if (name != null)
             {
                 BalancerMember balancerMember = findBalancerMemberByName(name);
-                if (balancerMember != null)
+                if (balancerMember != null && balancerMember.isAvailable(now))
                     return balancerMember;
             }
         }
-        int index = (int)(counter.getAndIncrement() % _balancerMembers.size());
-        return _balancerMembers.get(index);
+
+        List<BalancerMember> members = new ArrayList<>(_balancerMembers);
+        List<BalancerMember> available = new ArrayList<>(members.size());
+        for (BalancerMember balancerMember : members)
+        {
+            if (balancerMember.isAvailable(now))
+                available.add(balancerMember);
+        }
+        // If no member is available, better to try one than to fail
+        if (available.isEmpty())
+            available = members;
+        if (available.isEmpty())
+            return null;
+        return _balancerPolicy.select(available);
+    }
+
+    @Override
+    protected void onResponseSuccess(HttpServletRequest request, HttpServletResponse response, Response proxyResponse)
+    {
+        int status = proxyResponse.getStatus();
+        boolean failed = status == HttpServletResponse.SC_BAD_GATEWAY ||
+                status == HttpServletResponse.SC_SERVICE_UNAVAILABLE ||
+                status == HttpServletResponse.SC_GATEWAY_TIMEOUT;
+        onRequestComplete(request, failed);
+        super.onResponseSuccess(request, response, proxyResponse);
+    }
+
+    @Override
+    protected void onResponseFailure(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, Throwable failure)
+    {
+        onRequestComplete(request, true);
+        super.onResponseFailure(request, response, proxyResponse, failure);
+    }
+
+    private void onRequestComplete(HttpServletRequest request, boolean failed)
+    {
+        BalancerMember balancerMember = (BalancerMember)request.getAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        if (balancerMember == null)
+            return;
+        request.removeAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        long latency = System.nanoTime() - (Long)request.getAttribute(START_TIME_ATTRIBUTE);
+        boolean wasEjected = balancerMember.isEjected();
+        balancerMember.onRequestComplete(latency, TimeUnit.MILLISECONDS.toNanos(_latencyDecay), failed,
+                _maxConsecutiveFailures, TimeUnit.MILLISECONDS.toNanos(_ejectionTime));
+        if (!wasEjected && balancerMember.isEjected())
+            _log.info("Ejected {}", balancerMember);
     }
 
     private BalancerMember findBalancerMemberByName(String name)
@@ -251,57 +552,38 @@ public class BalancerServlet extends ProxyServlet
         return true;
     }
 
-    private static class BalancerMember
+    private class HealthCheck implements Runnable
     {
-        private final String _name;
-        private final String _proxyTo;
-        private final URI _backendURI;
-
-        public BalancerMember(String name, String proxyTo)
-        {
-            _name = name;
-            _proxyTo = proxyTo;
-            _backendURI = URI.create(_proxyTo).normalize();
-        }
-
-        public String getName()
-        {
-            return _name;
-        }
-
-        public String getProxyTo()
-        {
-            return _proxyTo;
-        }
-
-        public URI getBackendURI()
-        {
-            return _backendURI;
-        }
-
-        @Override
-        public String toString()
-        {
-            return String.format("%s[name=%s,proxyTo=%s]", getClass().getSimpleName(), _name, _proxyTo);
-        }
-
         @Override
-        public int hashCode()
+        public void run()
         {
-            return _name.hashCode();
+            try
+            {
+                for (BalancerMember balancerMember : _balancerMembers)
+                    check(balancerMember);
+            }
+            finally
+            {
+                scheduleHealthCheck();
+            }
         }
 
-        @Override
-        public boolean equals(Object obj)
+        private void check(final BalancerMember balancerMember)
         {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            BalancerMember that = (BalancerMember)obj;
-            return _name.equals(that._name);
+            URI uri = URI.create(balancerMember.getProxyTo() + "/" + _healthCheckPath).normalize();
+            org.eclipse.jetty.client.api.Request request = getHttpClient().newRequest(uri);
+            request.send(new TimedResponseListener(_healthCheckInterval, TimeUnit.MILLISECONDS, request, new Response.CompleteListener()
+            {
+                @Override
+                public void onComplete(Result result)
+                {
+                    int status = result.getResponse().getStatus();
+                    boolean healthy = !result.isFailed() && status >= 200 && status < 400;
+                    if (healthy != balancerMember.isHealthy())
+                        _log.info("Health check of {} {}", balancerMember, healthy ? "passed" : "failed");
+                    balancerMember.setHealthy(healthy);
+                }
+            }));
         }
     }
 }
@@ -23,11 +23,15 @@ import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -49,6 +53,9 @@ import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.Scheduler;
@@ -57,6 +64,7 @@ import org.eclipse.jetty.util.thread.TimerScheduler;
 /**
  * <p>Implementation of a {@link Handler} that supports HTTP CONNECT.</p>
  */
+@ManagedObject("CONNECT Handler")
 public class ConnectHandler extends HandlerWrapper
 {
     protected static final Logger LOG = Log.getLogger(ConnectHandler.class);
@@ -70,6 +78,11 @@ public class ConnectHandler extends HandlerWrapper
     private long connectTimeout = 15000;
     private long idleTimeout = 30000;
     private int bufferSize = 4096;
+    private boolean directRelay;
+    private final Set<DownstreamConnection> tunnels = Collections.newSetFromMap(new ConcurrentHashMap<DownstreamConnection, Boolean>());
+    private final AtomicLong tunnelsTotal = new AtomicLong();
+    private final AtomicLong closedBytesUpstream = new AtomicLong();
+    private final AtomicLong closedBytesDownstream = new AtomicLong();
 
     public ConnectHandler()
     {
@@ -153,6 +166,91 @@ public class ConnectHandler extends HandlerWrapper
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * @return whether tunnels relay bytes directly from the selector callbacks,
+     * rather than dispatching the relaying to the executor
+     */
+    @ManagedAttribute("Whether tunnels relay bytes directly from the selector callbacks")
+    public boolean isDirectRelay()
+    {
+        return directRelay;
+    }
+
+    /**
+     * <p>Direct relaying avoids a dispatch to the executor for every read, but {@link #read(EndPoint, ByteBuffer)}
+     * and {@link #write(EndPoint, ByteBuffer, Callback)} must then never block.</p>
+     *
+     * @param directRelay whether tunnels relay bytes directly from the selector callbacks
+     */
+    public void setDirectRelay(boolean directRelay)
+    {
+        this.directRelay = directRelay;
+    }
+
+    @ManagedAttribute("The number of open tunnels")
+    public int getTunnels()
+    {
+        return tunnels.size();
+    }
+
+    @ManagedAttribute("The total number of tunnels")
+    public long getTunnelsTotal()
+    {
+        return tunnelsTotal.get();
+    }
+
+    @ManagedAttribute("The total number of bytes relayed from clients to servers")
+    public long getBytesUpstream()
+    {
+        long result = closedBytesUpstream.get();
+        for (DownstreamConnection tunnel : tunnels)
+            result += tunnel.getBytesIn();
+        return result;
+    }
+
+    @ManagedAttribute("The total number of bytes relayed from servers to clients")
+    public long getBytesDownstream()
+    {
+        long result = closedBytesDownstream.get();
+        for (DownstreamConnection tunnel : tunnels)
+            result += tunnel.getBytesOut();
+        return result;
+    }
+
+    /**
+     * @return the client address, the server address, the bytes relayed in each direction,
+     * the age and the mean throughput of each open tunnel
+     */
+    @ManagedAttribute("The statistics of the open tunnels")
+    public List<String> getTunnelStatistics()
+    {
+        long now = System.currentTimeMillis();
+        List<String> result = new ArrayList<>();
+        for (DownstreamConnection tunnel : tunnels)
+        {
+            Connection upstream = tunnel.getConnection();
+            long upstreamBytes = tunnel.getBytesIn();
+            long downstreamBytes = tunnel.getBytesOut();
+            long age = Math.max(1, now - tunnel.getCreatedTimeStamp());
+            result.add(String.format("%s<=>%s up=%dB down=%dB age=%dms throughput=%dB/s",
+                    tunnel.getEndPoint().getRemoteAddress(),
+                    upstream == null ? null : upstream.getEndPoint().getRemoteAddress(),
+                    upstreamBytes,
+                    downstreamBytes,
+                    age,
+                    (upstreamBytes + downstreamBytes) * 1000 / age));
+        }
+        return result;
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        tunnelsTotal.set(0);
+        closedBytesUpstream.set(0);
+        closedBytesDownstream.set(0);
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -286,6 +384,8 @@ public class ConnectHandler extends HandlerWrapper
 
         upstreamConnection.setConnection(downstreamConnection);
         downstreamConnection.setConnection(upstreamConnection);
+        tunnels.add(downstreamConnection);
+        tunnelsTotal.incrementAndGet();
         LOG.debug("Connection setup completed: {}<->{}", downstreamConnection, upstreamConnection);
 
         HttpServletResponse response = connectContext.getResponse();
@@ -509,10 +609,20 @@ public class ConnectHandler extends HandlerWrapper
 
         public UpstreamConnection(EndPoint endPoint, Executor executor, ByteBufferPool bufferPool, ConnectContext connectContext)
         {
-            super(endPoint, executor, bufferPool, connectContext.getContext());
+            super(endPoint, executor, bufferPool, connectContext.getContext(), ConnectHandler.this.isDirectRelay());
             this.connectContext = connectContext;
         }
 
+        @Override
+        public void onClose()
+        {
+            super.onClose();
+            closedBytesDownstream.addAndGet(getBytesIn());
+            Connection connection = getConnection();
+            if (connection != null)
+                tunnels.remove(connection);
+        }
+
         @Override
         public void onOpen()
         {
@@ -540,10 +650,18 @@ public class ConnectHandler extends HandlerWrapper
 
         public DownstreamConnection(EndPoint endPoint, Executor executor, ByteBufferPool bufferPool, ConcurrentMap<String, Object> context, ByteBuffer buffer)
         {
-            super(endPoint, executor, bufferPool, context);
+            super(endPoint, executor, bufferPool, context, ConnectHandler.this.isDirectRelay());
             this.buffer = buffer;
         }
 
+        @Override
+        public void onClose()
+        {
+            super.onClose();
+            closedBytesUpstream.addAndGet(getBytesIn());
+            tunnels.remove(this);
+        }
+
         @Override
         public void onOpen()
         {
@@ -22,28 +22,55 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.util.Callback;
-import org.eclipse.jetty.util.ForkInvoker;
 import org.eclipse.jetty.util.log.Logger;
 
+/**
+ * <p>A connection of a tunnel that relays the bytes read from its endpoint to the endpoint
+ * of the other connection of the tunnel.</p>
+ * <p>Each direction of the tunnel uses a single buffer, which is retained across writes that
+ * cannot complete immediately and released when there is nothing to read; reads continue in
+ * a loop as long as writes complete immediately.</p>
+ * <p>If the relay is direct, bytes are relayed from the selector callbacks, otherwise
+ * relaying is dispatched to the executor.</p>
+ */
 public abstract class ProxyConnection extends AbstractConnection
 {
     protected static final Logger LOG = ConnectHandler.LOG;
-    private final ForkInvoker<Void> invoker = new ProxyForkInvoker();
+    private final AtomicReference<WriteState> writeState = new AtomicReference<>(WriteState.IDLE);
+    private final Callback writeCallback = new WriteCallback();
+    private final Runnable relay = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onFillable();
+        }
+    };
     private final ByteBufferPool bufferPool;
     private final ConcurrentMap<String, Object> context;
+    private final boolean directRelay;
     private Connection connection;
+    private ByteBuffer buffer;
+    private volatile long bytesIn;
 
     protected ProxyConnection(EndPoint endp, Executor executor, ByteBufferPool bufferPool, ConcurrentMap<String, Object> context)
     {
-        super(endp, executor);
+        this(endp, executor, bufferPool, context, false);
+    }
+
+    protected ProxyConnection(EndPoint endp, Executor executor, ByteBufferPool bufferPool, ConcurrentMap<String, Object> context, boolean directRelay)
+    {
+        super(endp, executor, !directRelay);
         this.bufferPool = bufferPool;
         this.context = context;
+        this.directRelay = directRelay;
     }
 
     public ByteBufferPool getByteBufferPool()
@@ -66,55 +93,88 @@ public abstract class ProxyConnection extends AbstractConnection
         this.connection = connection;
     }
 
+    public boolean isDirectRelay()
+    {
+        return directRelay;
+    }
+
+    /**
+     * @return the number of bytes read from this connection's endpoint
+     */
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    /**
+     * @return the number of bytes relayed to this connection's endpoint
+     */
+    @Override
+    public long getBytesOut()
+    {
+        Connection connection = getConnection();
+        return connection == null ? 0 : connection.getBytesIn();
+    }
+
     @Override
     public void onFillable()
     {
-        final ByteBuffer buffer = getByteBufferPool().acquire(getInputBufferSize(), true);
+        ByteBuffer buffer = this.buffer;
+        if (buffer == null)
+            buffer = this.buffer = getByteBufferPool().acquire(getInputBufferSize(), true);
         try
         {
-            final int filled = read(getEndPoint(), buffer);
-            LOG.debug("{} filled {} bytes", this, filled);
-            if (filled > 0)
+            while (true)
             {
-                write(getConnection().getEndPoint(), buffer, new Callback()
+                int filled = read(getEndPoint(), buffer);
+                LOG.debug("{} filled {} bytes", this, filled);
+                if (filled > 0)
                 {
-                    @Override
-                    public void succeeded()
-                    {
-                        LOG.debug("{} wrote {} bytes", this, filled);
-                        bufferPool.release(buffer);
-                        invoker.invoke(null);
-                    }
-
-                    @Override
-                    public void failed(Throwable x)
+                    bytesIn += filled;
+                    writeState.set(WriteState.PENDING);
+                    write(getConnection().getEndPoint(), buffer, writeCallback);
+                    // The buffer is retained if the write did not complete immediately
+                    if (writeState.compareAndSet(WriteState.PENDING, WriteState.ASYNC))
+                        return;
+                    if (writeState.get() == WriteState.FAILED)
                     {
-                        LOG.debug(this + " failed to write " + filled + " bytes", x);
-                        bufferPool.release(buffer);
-                        connection.close();
+                        releaseBuffer();
+                        return;
                     }
-                });
-            }
-            else if (filled == 0)
-            {
-                bufferPool.release(buffer);
-                fillInterested();
-            }
-            else
-            {
-                bufferPool.release(buffer);
-                connection.getEndPoint().shutdownOutput();
+                }
+                else if (filled == 0)
+                {
+                    // Nothing to relay, release the buffer while idle
+                    releaseBuffer();
+                    fillInterested();
+                    return;
+                }
+                else
+                {
+                    releaseBuffer();
+                    connection.getEndPoint().shutdownOutput();
+                    return;
+                }
             }
         }
         catch (IOException x)
         {
             LOG.debug(this + " could not fill", x);
-            bufferPool.release(buffer);
+            releaseBuffer();
             close();
             connection.close();
         }
     }
 
+    private void releaseBuffer()
+    {
+        ByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        if (buffer != null)
+            bufferPool.release(buffer);
+    }
+
     protected abstract int read(EndPoint endPoint, ByteBuffer buffer) throws IOException;
 
     protected abstract void write(EndPoint endPoint, ByteBuffer buffer, Callback callback);
@@ -128,29 +188,34 @@ public abstract class ProxyConnection extends AbstractConnection
                 getEndPoint().getRemoteAddress().getPort());
     }
 
-    private class ProxyForkInvoker extends ForkInvoker<Void> implements Runnable
+    private class WriteCallback implements Callback
     {
-        private ProxyForkInvoker()
-        {
-            super(4);
-        }
-
-        @Override
-        public void fork(Void arg)
-        {
-            getExecutor().execute(this);
-        }
-        
         @Override
-        public void run()
+        public void succeeded()
         {
-            onFillable();
+            LOG.debug("{} wrote bytes", ProxyConnection.this);
+            if (writeState.compareAndSet(WriteState.PENDING, WriteState.IDLE))
+                return;
+            // The write completed asynchronously, resume relaying
+            writeState.set(WriteState.IDLE);
+            if (directRelay)
+                onFillable();
+            else
+                getExecutor().execute(relay);
         }
 
         @Override
-        public void call(Void arg)
+        public void failed(Throwable x)
         {
-            onFillable();
+            LOG.debug(ProxyConnection.this + " failed to write bytes", x);
+            if (writeState.getAndSet(WriteState.FAILED) == WriteState.ASYNC)
+                releaseBuffer();
+            connection.close();
         }
     }
+
+    private enum WriteState
+    {
+        IDLE, PENDING, ASYNC, FAILED
+    }
 }
@@ -48,6 +48,7 @@ import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -135,6 +136,11 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
+    protected HttpClient getHttpClient()
+    {
+        return _client;
+    }
+
     public long getTimeout()
     {
         return _timeout;
@@ -485,6 +491,49 @@ public class ProxyServlet extends HttpServlet
         _log.debug("{} proxying content to downstream: {} bytes", getRequestId(request), length);
     }
 
+    /**
+     * <p>Relays the given response content to the downstream client.</p>
+     * <p>The upstream response is not read further until the callback is completed,
+     * so that a slow downstream client exerts back-pressure on the upstream server.
+     * This implementation writes the content in a blocking way by calling
+     * {@link #onResponseContent(HttpServletRequest, HttpServletResponse, Response, byte[], int, int)}
+     * and then completes the callback.</p>
+     *
+     * @param request the downstream request
+     * @param response the downstream response
+     * @param proxyResponse the upstream response
+     * @param content the upstream response content, not to be used after the callback is completed
+     * @param callback the callback to complete when the content has been relayed
+     * @see AsyncProxyServlet
+     */
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, ByteBuffer content, Callback callback)
+    {
+        byte[] buffer;
+        int offset;
+        int length = content.remaining();
+        if (content.hasArray())
+        {
+            buffer = content.array();
+            offset = content.arrayOffset() + content.position();
+        }
+        else
+        {
+            buffer = new byte[length];
+            content.get(buffer);
+            offset = 0;
+        }
+
+        try
+        {
+            onResponseContent(request, response, proxyResponse, buffer, offset, length);
+            callback.succeeded();
+        }
+        catch (IOException x)
+        {
+            callback.failed(x);
+        }
+    }
+
     protected void onResponseSuccess(HttpServletRequest request, HttpServletResponse response, Response proxyResponse)
     {
         AsyncContext asyncContext = (AsyncContext)request.getAttribute(ASYNC_CONTEXT);
@@ -619,7 +668,7 @@ public class ProxyServlet extends HttpServlet
         }
     }
 
-    private class ProxyResponseListener extends Response.Listener.Empty
+    private class ProxyResponseListener extends Response.Listener.Empty implements Response.AsyncContentListener
     {
         private final HttpServletRequest request;
         private final HttpServletResponse response;
@@ -670,31 +719,9 @@ public class ProxyServlet extends HttpServlet
         }
 
         @Override
-        public void onContent(Response proxyResponse, ByteBuffer content)
+        public void onContent(Response proxyResponse, ByteBuffer content, Callback callback)
         {
-            byte[] buffer;
-            int offset;
-            int length = content.remaining();
-            if (content.hasArray())
-            {
-                buffer = content.array();
-                offset = content.arrayOffset();
-            }
-            else
-            {
-                buffer = new byte[length];
-                content.get(buffer);
-                offset = 0;
-            }
-
-            try
-            {
-                onResponseContent(request, response, proxyResponse, buffer, offset, length);
-            }
-            catch (IOException x)
-            {
-                proxyResponse.abort(x);
-            }
+            onResponseContent(request, response, proxyResponse, content, callback);
         }
 
         @Override
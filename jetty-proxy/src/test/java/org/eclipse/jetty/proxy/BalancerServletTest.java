@@ -22,6 +22,9 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletException;
@@ -31,6 +34,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -47,7 +53,10 @@ public class BalancerServletTest
     private static final String CONTEXT_PATH = "/context";
     private static final String SERVLET_PATH = "/mapping";
 
+    private final Map<String, String> initParameters = new HashMap<>();
     private boolean stickySessions;
+    private Class<? extends BalancerServlet> balancerServletClass = BalancerServlet.class;
+    private ServletHolder balancerServletHolder;
     private Server server1;
     private Server server2;
     private Server balancer;
@@ -63,21 +72,30 @@ public class BalancerServletTest
     @After
     public void dispose() throws Exception
     {
-        server1.stop();
-        server2.stop();
-        balancer.stop();
+        if (server1 != null)
+            server1.stop();
+        if (server2 != null)
+            server2.stop();
+        if (balancer != null)
+            balancer.stop();
         client.stop();
     }
 
     protected void startBalancer(Class<? extends HttpServlet> servletClass) throws Exception
     {
-        server1 = createServer(new ServletHolder(servletClass), "node1");
+        startBalancer(new ServletHolder(servletClass), new ServletHolder(servletClass));
+    }
+
+    protected void startBalancer(ServletHolder servletHolder1, ServletHolder servletHolder2) throws Exception
+    {
+        server1 = createServer(servletHolder1, "node1");
         server1.start();
 
-        server2 = createServer(new ServletHolder(servletClass), "node2");
+        server2 = createServer(servletHolder2, "node2");
         server2.start();
 
-        ServletHolder balancerServletHolder = new ServletHolder(BalancerServlet.class);
+        balancerServletHolder = new ServletHolder(balancerServletClass);
+        balancerServletHolder.setInitParameters(initParameters);
         balancerServletHolder.setInitParameter("stickySessions", String.valueOf(stickySessions));
         balancerServletHolder.setInitParameter("proxyPassReverse", "true");
         balancerServletHolder.setInitParameter("balancerMember." + "node1" + ".proxyTo", "http://localhost:" + getServerPort(server1));
@@ -160,6 +178,190 @@ public class BalancerServletTest
         Assert.assertEquals("success", msg);
     }
 
+    @Test
+    public void testPeakEWMABalancerAvoidsSlowMember() throws Exception
+    {
+        initParameters.put("balancerPolicy", "peakEWMA");
+        startBalancer(newNodeServletHolder("node1", 500, 200), newNodeServletHolder("node2", 0, 200));
+        Map<String, Integer> counts = sendRequestsToBalancer(10);
+        // At most one request may have gone to the slow member before its latency was known
+        Assert.assertTrue(counts.toString(), counts.get("node2") >= 9);
+    }
+
+    @Test
+    public void testPeakEWMALatencyDecays() throws Exception
+    {
+        BalancerMember balancerMember = new BalancerMember("node1", "http://localhost:8080");
+        balancerMember.onRequestBegin();
+        balancerMember.onRequestComplete(TimeUnit.MILLISECONDS.toNanos(500), TimeUnit.MILLISECONDS.toNanos(100), false, 0, 0);
+        Assert.assertTrue(balancerMember.getLatencyAverage() > 400);
+
+        // Without new samples, a slow member must not be avoided forever
+        TimeUnit.MILLISECONDS.sleep(500);
+        Assert.assertTrue(balancerMember.getLatencyAverage() < 50);
+    }
+
+    @Test
+    public void testRequestFailingBeforeProxyDoesNotLeakInFlight() throws Exception
+    {
+        balancerServletClass = FailingBalancerServlet.class;
+        startBalancer(newNodeServletHolder("node1", 0, 200), newNodeServletHolder("node2", 0, 200));
+
+        ContentResponse response = client.newRequest("localhost", getServerPort(balancer))
+                .path(CONTEXT_PATH + SERVLET_PATH + "/fail")
+                .send()
+                .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, response.getStatus());
+
+        BalancerServlet balancerServlet = (BalancerServlet)balancerServletHolder.getServlet();
+        BalancerMember node1 = getBalancerMember(balancerServlet, "node1");
+        BalancerMember node2 = getBalancerMember(balancerServlet, "node2");
+        Assert.assertEquals(1, node1.getRequests() + node2.getRequests());
+        Assert.assertEquals(0, node1.getInFlight() + node2.getInFlight());
+    }
+
+    @Test
+    public void testLeastInFlightBalancerAvoidsBusyMember() throws Exception
+    {
+        initParameters.put("balancerPolicy", "leastInFlight");
+        startBalancer(newNodeServletHolder("node1", 0, 200), newNodeServletHolder("node2", 0, 200));
+
+        // Keep one member busy
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.newRequest("localhost", getServerPort(balancer))
+                .path(CONTEXT_PATH + SERVLET_PATH + "/busy")
+                .send(new Response.CompleteListener()
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        latch.countDown();
+                    }
+                });
+        BalancerServlet balancerServlet = (BalancerServlet)balancerServletHolder.getServlet();
+        BalancerMember node1 = getBalancerMember(balancerServlet, "node1");
+        BalancerMember node2 = getBalancerMember(balancerServlet, "node2");
+        while (node1.getInFlight() + node2.getInFlight() == 0)
+            TimeUnit.MILLISECONDS.sleep(10);
+
+        String idle = node1.getInFlight() > 0 ? "node2" : "node1";
+        Map<String, Integer> counts = sendRequestsToBalancer(5);
+        Assert.assertEquals(counts.toString(), 5, (int)counts.get(idle));
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesBalancer() throws Exception
+    {
+        initParameters.put("balancerPolicy", "powerOfTwoChoices");
+        startBalancer(newNodeServletHolder("node1", 0, 200), newNodeServletHolder("node2", 0, 200));
+        Map<String, Integer> counts = sendRequestsToBalancer(10);
+        Assert.assertEquals(10, counts.get("node1") + counts.get("node2"));
+    }
+
+    @Test
+    public void testFailingMemberIsEjectedAndReadmitted() throws Exception
+    {
+        initParameters.put("maxConsecutiveFailures", "2");
+        initParameters.put("ejectionTime", "1000");
+        startBalancer(newNodeServletHolder("node1", 0, 503), newNodeServletHolder("node2", 0, 200));
+
+        // Round robin sends 2 requests to the failing member, which is then ejected
+        sendRequestsToBalancer(4);
+        BalancerServlet balancerServlet = (BalancerServlet)balancerServletHolder.getServlet();
+        Assert.assertTrue(getBalancerMember(balancerServlet, "node1").isEjected());
+        Map<String, Integer> counts = sendRequestsToBalancer(10);
+        Assert.assertEquals(10, (int)counts.get("node2"));
+
+        // Wait for the ejection to expire
+        TimeUnit.MILLISECONDS.sleep(1500);
+        Assert.assertFalse(getBalancerMember(balancerServlet, "node1").isEjected());
+        counts = sendRequestsToBalancer(4);
+        Assert.assertEquals(2, (int)counts.get("node1"));
+    }
+
+    @Test
+    public void testUnhealthyMemberIsNotSelected() throws Exception
+    {
+        initParameters.put("healthCheckPath", CONTEXT_PATH + SERVLET_PATH + "/health");
+        initParameters.put("healthCheckInterval", "100");
+        ServletHolder unhealthy = newNodeServletHolder("node1", 0, 200);
+        unhealthy.setInitParameter("healthStatus", "500");
+        startBalancer(unhealthy, newNodeServletHolder("node2", 0, 200));
+
+        BalancerServlet balancerServlet = (BalancerServlet)balancerServletHolder.getServlet();
+        BalancerMember balancerMember = getBalancerMember(balancerServlet, "node1");
+        for (int i = 0; i < 50 && balancerMember.isHealthy(); ++i)
+            TimeUnit.MILLISECONDS.sleep(100);
+        Assert.assertFalse(balancerMember.isHealthy());
+        Assert.assertTrue(getBalancerMember(balancerServlet, "node2").isHealthy());
+
+        Map<String, Integer> counts = sendRequestsToBalancer(10);
+        Assert.assertEquals(10, (int)counts.get("node2"));
+    }
+
+    @Test
+    public void testAddAndRemoveBalancerMembers() throws Exception
+    {
+        startBalancer(newNodeServletHolder("node1", 0, 200), newNodeServletHolder("node2", 0, 200));
+        BalancerServlet balancerServlet = (BalancerServlet)balancerServletHolder.getServlet();
+
+        Assert.assertTrue(balancerServlet.removeBalancerMember("node1"));
+        Assert.assertFalse(balancerServlet.removeBalancerMember("node1"));
+        Map<String, Integer> counts = sendRequestsToBalancer(4);
+        Assert.assertEquals(4, (int)counts.get("node2"));
+
+        Assert.assertTrue(balancerServlet.addBalancerMember("node3", "http://localhost:" + getServerPort(server1)));
+        Assert.assertFalse(balancerServlet.addBalancerMember("node3", "http://localhost:" + getServerPort(server1)));
+        counts = sendRequestsToBalancer(4);
+        Assert.assertEquals(2, (int)counts.get("node1"));
+        Assert.assertEquals(2, (int)counts.get("node2"));
+
+        Assert.assertTrue(balancerServlet.removeBalancerMember("node2"));
+        Assert.assertTrue(balancerServlet.removeBalancerMember("node3"));
+        ContentResponse response = client.newRequest("localhost", getServerPort(balancer))
+                .path(CONTEXT_PATH + SERVLET_PATH + "/none")
+                .send()
+                .get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+    }
+
+    private ServletHolder newNodeServletHolder(String node, long delay, int status)
+    {
+        ServletHolder servletHolder = new ServletHolder(NodeServlet.class);
+        servletHolder.setInitParameter("node", node);
+        servletHolder.setInitParameter("delay", String.valueOf(delay));
+        servletHolder.setInitParameter("status", String.valueOf(status));
+        return servletHolder;
+    }
+
+    private BalancerMember getBalancerMember(BalancerServlet balancerServlet, String name)
+    {
+        for (BalancerMember balancerMember : balancerServlet.getBalancerMembers())
+        {
+            if (balancerMember.getName().equals(name))
+                return balancerMember;
+        }
+        return null;
+    }
+
+    private Map<String, Integer> sendRequestsToBalancer(int count) throws Exception
+    {
+        Map<String, Integer> result = new HashMap<>();
+        result.put("node1", 0);
+        result.put("node2", 0);
+        for (int i = 0; i < count; ++i)
+        {
+            ContentResponse response = client.newRequest("localhost", getServerPort(balancer))
+                    .path(CONTEXT_PATH + SERVLET_PATH + "/node")
+                    .send()
+                    .get(5, TimeUnit.SECONDS);
+            String node = response.getHeaders().get("X-Node");
+            result.put(node, result.get(node) + 1);
+        }
+        return result;
+    }
+
     private String readFirstLine(byte[] responseBytes) throws IOException
     {
         BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(responseBytes)));
@@ -197,4 +399,41 @@ public class BalancerServletTest
             }
         }
     }
+
+    public static final class FailingBalancerServlet extends BalancerServlet
+    {
+        @Override
+        protected void customizeProxyRequest(Request proxyRequest, HttpServletRequest request)
+        {
+            throw new IllegalStateException("explicitly_thrown_by_test");
+        }
+    }
+
+    public static final class NodeServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+        {
+            resp.setHeader("X-Node", getInitParameter("node"));
+            if (req.getRequestURI().endsWith("/health"))
+            {
+                String healthStatus = getInitParameter("healthStatus");
+                resp.setStatus(healthStatus == null ? HttpServletResponse.SC_OK : Integer.parseInt(healthStatus));
+                return;
+            }
+
+            try
+            {
+                long delay = Long.parseLong(getInitParameter("delay"));
+                if (req.getRequestURI().endsWith("/busy"))
+                    delay += 1000;
+                TimeUnit.MILLISECONDS.sleep(delay);
+            }
+            catch (InterruptedException x)
+            {
+                throw new ServletException(x);
+            }
+            resp.setStatus(Integer.parseInt(getInitParameter("status")));
+        }
+    }
 }
@@ -576,6 +576,18 @@ public class ConnectHandlerTest extends AbstractConnectHandlerTest
     @Test
     public void testCONNECTAndPOSTWithBigBody() throws Exception
     {
+        testCONNECTAndPOSTWithBigBody(false);
+    }
+
+    @Test
+    public void testCONNECTAndPOSTWithBigBodyWithDirectRelay() throws Exception
+    {
+        testCONNECTAndPOSTWithBigBody(true);
+    }
+
+    private void testCONNECTAndPOSTWithBigBody(boolean directRelay) throws Exception
+    {
+        connectHandler.setDirectRelay(directRelay);
         String hostPort = "localhost:" + serverConnector.getLocalPort();
 
         String request = "" +
@@ -611,6 +623,12 @@ public class ConnectHandlerTest extends AbstractConnectHandlerTest
             response = readResponse(input);
             Assert.assertEquals("200", response.getCode());
             Assert.assertEquals("POST /echo\r\n" + body, response.getBody());
+
+            Assert.assertEquals(1, connectHandler.getTunnels());
+            Assert.assertEquals(1, connectHandler.getTunnelsTotal());
+            Assert.assertTrue(connectHandler.getBytesUpstream() > body.length());
+            Assert.assertTrue(connectHandler.getBytesDownstream() > body.length());
+            Assert.assertEquals(1, connectHandler.getTunnelStatistics().size());
         }
     }
 
@@ -322,7 +322,19 @@ public class ProxyServletTest
     @Test
     public void testProxyWithBigResponseContentWithSlowReader() throws Exception
     {
-        prepareProxy(new ProxyServlet());
+        testProxyWithBigResponseContentWithSlowReader(new ProxyServlet());
+    }
+
+    @Slow
+    @Test
+    public void testAsyncProxyWithBigResponseContentWithSlowReader() throws Exception
+    {
+        testProxyWithBigResponseContentWithSlowReader(new AsyncProxyServlet());
+    }
+
+    private void testProxyWithBigResponseContentWithSlowReader(ProxyServlet proxyServlet) throws Exception
+    {
+        prepareProxy(proxyServlet);
 
         // Create a 6 MiB file
         final int length = 6 * 1024;
@@ -49,6 +49,7 @@ public abstract class PatternRule extends Rule
     public void setPattern(String pattern)
     {
         _pattern = pattern;
+        RuleIndex.invalidate();
     }
 
     /* ------------------------------------------------------------ */
@@ -42,6 +42,7 @@ public abstract class RegexRule extends Rule
     public void setRegex(String regex)
     {
         _regex=Pattern.compile(regex);
+        RuleIndex.invalidate();
     }
 
     /* ------------------------------------------------------------ */
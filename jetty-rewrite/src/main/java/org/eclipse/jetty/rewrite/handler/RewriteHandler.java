@@ -19,6 +19,7 @@
 package org.eclipse.jetty.rewrite.handler;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -26,6 +27,9 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 
 /* ------------------------------------------------------------ */
 /**
@@ -176,6 +180,7 @@ import org.eclipse.jetty.server.handler.HandlerWrapper;
  * </pre>
  *
  */
+@ManagedObject("Rewrite Handler")
 public class RewriteHandler extends HandlerWrapper
 {
 
@@ -301,6 +306,23 @@ public class RewriteHandler extends HandlerWrapper
     }
 
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times each rule has been applied
+     */
+    @ManagedAttribute("The number of times each rule has been applied")
+    public List<String> getRuleStatistics()
+    {
+        return _rules.getRuleStatistics();
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="Resets the number of times each rule has been applied", impact="ACTION")
+    public void resetRuleStatistics()
+    {
+        _rules.resetRuleStatistics();
+    }
+
     /* ------------------------------------------------------------ */
     /* (non-Javadoc)
      * @see org.eclipse.jetty.server.handler.HandlerWrapper#handle(java.lang.String, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse, int)
@@ -19,6 +19,12 @@
 package org.eclipse.jetty.rewrite.handler;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +47,7 @@ public class RuleContainer extends Rule
     private static final Logger LOG = Log.getLogger(RuleContainer.class);
 
     protected Rule[] _rules;
+    private volatile Index _index;
     
     protected String _originalPathAttribute;
     protected boolean _rewriteRequestURI=true;
@@ -91,6 +98,7 @@ public class RuleContainer extends Rule
      */
     public void setRules(Rule[] rules)
     {
+        _index=null;
         if (_legacy==null)
             _rules = rules;
         else
@@ -111,6 +119,7 @@ public class RuleContainer extends Rule
     public void addRule(Rule rule)
     {
         _rules = ArrayUtil.addToArray(_rules,rule,Rule.class);
+        _index=null;
     }
    
 
@@ -195,12 +204,21 @@ public class RuleContainer extends Rule
     protected String apply(String target, HttpServletRequest request, HttpServletResponse response) throws IOException
     {
         boolean original_set=_originalPathAttribute==null;
-                
-        for (Rule rule : _rules)
+
+        Rule[] rules=_rules;
+        if (rules==null)
+            return target;
+        Index index=getIndex(rules);
+
+        // Only the rules that may match the target are tried, in order
+        BitSet candidates=index._rules.candidates(target);
+        for (int r=candidates.nextSetBit(0); r>=0; r=candidates.nextSetBit(r+1))
         {
+            Rule rule=rules[r];
             String applied=rule.matchAndApply(target,request, response);
             if (applied!=null)
             {       
+                index._matches[r].incrementAndGet();
                 LOG.debug("applied {}",rule);
                 LOG.debug("rewrote {} to {}",target,applied);
                 if (!original_set)
@@ -220,6 +238,9 @@ public class RuleContainer extends Rule
                 if (_rewritePathInfo)
                     ((Request)request).setPathInfo(applied);
 
+                // The following rules must match the rewritten target
+                if (!applied.equals(target))
+                    candidates=index._rules.candidates(applied);
                 target=applied;
                 
                 if (rule.isHandling())
@@ -238,4 +259,89 @@ public class RuleContainer extends Rule
 
         return target;
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of times each rule has been applied, in the form {@code count rule},
+     * including the rules of nested containers
+     */
+    public List<String> getRuleStatistics()
+    {
+        List<String> result = new ArrayList<>();
+        Rule[] rules=_rules;
+        if (rules!=null)
+            addRuleStatistics(getIndex(rules),"",result);
+        return result;
+    }
+
+    private void addRuleStatistics(Index index, String indent, List<String> result)
+    {
+        for (int r=0;r<index._matches.length;r++)
+        {
+            Rule rule=index._ruleArray[r];
+            result.add(indent+index._matches[r].get()+" "+rule);
+            if (rule instanceof RuleContainer)
+            {
+                Rule[] rules=((RuleContainer)rule)._rules;
+                if (rules!=null)
+                    ((RuleContainer)rule).addRuleStatistics(((RuleContainer)rule).getIndex(rules),indent+"  ",result);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Resets the number of times each rule has been applied, including the rules of nested containers.
+     */
+    public void resetRuleStatistics()
+    {
+        Index index=_index;
+        if (index==null)
+            return;
+        for (int r=0;r<index._matches.length;r++)
+        {
+            index._matches[r].set(0);
+            if (index._ruleArray[r] instanceof RuleContainer)
+                ((RuleContainer)index._ruleArray[r]).resetRuleStatistics();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private Index getIndex(Rule[] rules)
+    {
+        Index index=_index;
+        if (index==null || index._ruleArray!=rules || !index._rules.isValid())
+        {
+            index=new Index(rules,index);
+            _index=index;
+        }
+        return index;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Index
+    {
+        private final Rule[] _ruleArray;
+        private final RuleIndex _rules;
+        private final AtomicLong[] _matches;
+
+        private Index(Rule[] rules, Index previous)
+        {
+            _ruleArray=rules;
+            _rules=new RuleIndex(rules);
+
+            // Keep the counters of rules that were already there
+            Map<Rule,AtomicLong> counters=new IdentityHashMap<>();
+            if (previous!=null)
+                for (int r=0;r<previous._matches.length;r++)
+                    counters.put(previous._ruleArray[r],previous._matches[r]);
+            _matches=new AtomicLong[rules.length];
+            for (int r=0;r<rules.length;r++)
+            {
+                AtomicLong counter=counters.get(rules[r]);
+                _matches[r]=counter==null?new AtomicLong():counter;
+            }
+        }
+    }
 }
@@ -0,0 +1,297 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.rewrite.handler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Dispatch structure compiled from the rules of a {@link RuleContainer}.
+ * <p>
+ * Given a target, the index returns the rules that may match it: exact and prefix
+ * patterns of {@link PatternRule}s are looked up in a path trie, suffix patterns in a
+ * trie of reversed suffixes, and the regular expressions of {@link RegexRule}s are
+ * combined into one alternation that yields the first regex that may match.
+ * Other rules are always candidates. Candidates are then matched by the rules themselves,
+ * in order, so the index only saves the rules that cannot match.
+ */
+final class RuleIndex
+{
+    private static final AtomicInteger __generation = new AtomicInteger();
+
+    private final int _generation = __generation.get();
+    private final int _size;
+    private final BitSet _always = new BitSet();
+    private final Map<String, BitSet> _exact = new HashMap<>();
+    private final Node _prefixes = new Node();
+    private final Node _suffixes = new Node();
+    private final BitSet _regexes = new BitSet();
+    private Pattern _regex;
+    private int[] _regexGroups;
+    private int[] _regexRules;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Invalidates the compiled indexes, called when the pattern of a rule changes.
+     */
+    static void invalidate()
+    {
+        __generation.incrementAndGet();
+    }
+
+    /* ------------------------------------------------------------ */
+    RuleIndex(Rule[] rules)
+    {
+        _size = rules == null ? 0 : rules.length;
+        List<String> regexes = new ArrayList<>();
+        List<Integer> regexRules = new ArrayList<>();
+        for (int i = 0; i < _size; i++)
+        {
+            Rule rule = rules[i];
+            if (rule instanceof PatternRule && !overridesMatch(rule, PatternRule.class))
+                indexPattern(((PatternRule)rule).getPattern(), i);
+            else if (rule instanceof RegexRule && !overridesMatch(rule, RegexRule.class) && ((RegexRule)rule).getRegex() != null)
+            {
+                regexes.add(((RegexRule)rule).getRegex());
+                regexRules.add(i);
+            }
+            else
+                _always.set(i);
+        }
+        compileRegexes(regexes, regexRules);
+    }
+
+    /* ------------------------------------------------------------ */
+    boolean isValid()
+    {
+        return _generation == __generation.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    int size()
+    {
+        return _size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param target the target to match
+     * @return the indexes of the rules that may match the target
+     */
+    BitSet candidates(String target)
+    {
+        BitSet result = (BitSet)_always.clone();
+
+        BitSet exact = _exact.get(target);
+        if (exact != null)
+            result.or(exact);
+
+        // Prefixes match the target up to a '/' or up to its end
+        int length = target.length();
+        Node node = _prefixes;
+        for (int i = 0; node != null; i++)
+        {
+            if (node._rules != null && (i == length || target.charAt(i) == '/'))
+                result.or(node._rules);
+            if (i == length)
+                break;
+            node = node.child(target.charAt(i));
+        }
+
+        // Suffixes are matched from the end of the target
+        node = _suffixes;
+        for (int i = length; node != null; i--)
+        {
+            if (node._rules != null)
+                result.or(node._rules);
+            if (i == 0)
+                break;
+            node = node.child(target.charAt(i - 1));
+        }
+
+        if (_regex != null)
+        {
+            // The first alternative that matches bounds the regexes that may match
+            Matcher matcher = _regex.matcher(target);
+            if (matcher.matches())
+            {
+                for (int i = 0; i < _regexGroups.length; i++)
+                {
+                    if (matcher.start(_regexGroups[i]) >= 0)
+                    {
+                        for (int j = i; j < _regexRules.length; j++)
+                            result.set(_regexRules[j]);
+                        break;
+                    }
+                }
+            }
+        }
+        else
+        {
+            result.or(_regexes);
+        }
+
+        return result;
+    }
+
+    /* ------------------------------------------------------------ */
+    private void indexPattern(String pattern, int rule)
+    {
+        if (pattern == null || pattern.length() == 0)
+        {
+            // Let the rule fail as it would without the index
+            _always.set(rule);
+            return;
+        }
+
+        char c = pattern.charAt(0);
+        if (c == '/')
+        {
+            if (pattern.length() == 1)
+            {
+                _always.set(rule);
+                return;
+            }
+            add(_exact, pattern, rule);
+            if (pattern.endsWith("/*"))
+                _prefixes.add(pattern, 0, pattern.length() - 2, false).set(rule);
+        }
+        else if (c == '*')
+        {
+            _suffixes.add(pattern, 1, pattern.length(), true).set(rule);
+        }
+        // Other patterns never match
+    }
+
+    /* ------------------------------------------------------------ */
+    private void compileRegexes(List<String> regexes, List<Integer> rules)
+    {
+        for (int rule : rules)
+            _regexes.set(rule);
+        if (regexes.isEmpty())
+            return;
+
+        // Wrap each regex in a group and track where its group is
+        StringBuilder builder = new StringBuilder();
+        int[] groups = new int[regexes.size()];
+        int group = 1;
+        for (int i = 0; i < regexes.size(); i++)
+        {
+            String regex = regexes.get(i);
+            // Back references would be renumbered by the combination
+            if (regex.matches("(?s).*\\\\([1-9]|k<).*"))
+                return;
+            if (i > 0)
+                builder.append('|');
+            builder.append('(').append(regex).append(')');
+            groups[i] = group;
+            group += 1 + Pattern.compile(regex).matcher("").groupCount();
+        }
+
+        try
+        {
+            _regex = Pattern.compile(builder.toString());
+        }
+        catch (PatternSyntaxException x)
+        {
+            // For example duplicate named groups, do without the pre-filter
+            return;
+        }
+        _regexGroups = groups;
+        _regexRules = new int[rules.size()];
+        for (int i = 0; i < _regexRules.length; i++)
+            _regexRules[i] = rules.get(i);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void add(Map<String, BitSet> map, String key, int rule)
+    {
+        BitSet rules = map.get(key);
+        if (rules == null)
+            map.put(key, rules = new BitSet());
+        rules.set(rule);
+    }
+
+    /* ------------------------------------------------------------ */
+    private static boolean overridesMatch(Rule rule, Class<? extends Rule> base)
+    {
+        try
+        {
+            return rule.getClass().getMethod("matchAndApply", String.class, HttpServletRequest.class, HttpServletResponse.class).getDeclaringClass() != base;
+        }
+        catch (NoSuchMethodException x)
+        {
+            return true;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static class Node
+    {
+        private char[] _chars = new char[0];
+        private Node[] _children = new Node[0];
+        private BitSet _rules;
+
+        private Node child(char c)
+        {
+            for (int i = 0; i < _chars.length; i++)
+                if (_chars[i] == c)
+                    return _children[i];
+            return null;
+        }
+
+        private BitSet add(String key, int from, int to, boolean reverse)
+        {
+            Node node = this;
+            int length = to - from;
+            for (int i = 0; i < length; i++)
+            {
+                char c = key.charAt(reverse ? to - 1 - i : from + i);
+                Node child = node.child(c);
+                if (child == null)
+                {
+                    child = new Node();
+                    int n = node._chars.length;
+                    char[] chars = new char[n + 1];
+                    System.arraycopy(node._chars, 0, chars, 0, n);
+                    chars[n] = c;
+                    Node[] children = new Node[n + 1];
+                    System.arraycopy(node._children, 0, children, 0, n);
+                    children[n] = child;
+                    node._chars = chars;
+                    node._children = children;
+                }
+                node = child;
+            }
+            if (node._rules == null)
+                node._rules = new BitSet();
+            return node._rules;
+        }
+    }
+}
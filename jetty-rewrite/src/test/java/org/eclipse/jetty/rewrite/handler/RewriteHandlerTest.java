@@ -19,6 +19,7 @@
 package org.eclipse.jetty.rewrite.handler;
 
 import java.io.IOException;
+import java.util.List;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -164,6 +165,53 @@ public class RewriteHandlerTest extends AbstractRuleTestCase
         assertTrue(_request.isHandled());
     }
 
+    @Test
+    public void testMixedRulesKeepOrder() throws Exception
+    {
+        RewriteRegexRule regex = new RewriteRegexRule();
+        regex.setRegex("/aaa/(.*)\\.jsp");
+        regex.setReplacement("/jsp/$1");
+        RewritePatternRule suffix = new RewritePatternRule();
+        suffix.setPattern("*.html");
+        suffix.setReplacement("/html");
+        RewritePatternRule exact = new RewritePatternRule();
+        exact.setPattern("/jsp/page");
+        exact.setReplacement("/exact");
+        _handler.setRules(new Rule[]{regex,_rule1,suffix,exact,_rule2});
+        _handler.setRewriteRequestURI(false);
+        _handler.setRewritePathInfo(false);
+
+        _request.setHandled(false);
+        _handler.handle("/aaa/page.jsp",_request,_request, _response);
+        assertEquals("/exact",_request.getAttribute("target"));
+
+        _request.setHandled(false);
+        _handler.handle("/aaa/page.html",_request,_request, _response);
+        assertEquals("/html",_request.getAttribute("target"));
+
+        _request.setHandled(false);
+        _handler.handle("/zzz/page.jsp",_request,_request, _response);
+        assertEquals("/zzz/page.jsp",_request.getAttribute("target"));
+
+        List<String> statistics = _handler.getRuleStatistics();
+        assertEquals(5,statistics.size());
+        assertTrue(statistics.get(0).startsWith("1 "));
+        assertTrue(statistics.get(1).startsWith("1 "));
+        assertTrue(statistics.get(2).startsWith("1 "));
+        assertTrue(statistics.get(3).startsWith("1 "));
+        assertTrue(statistics.get(4).startsWith("0 "));
+
+        // Changing a pattern after the rules were indexed must be seen
+        exact.setPattern("/jsp/*");
+        _request.setHandled(false);
+        _handler.handle("/aaa/other.jsp",_request,_request, _response);
+        assertEquals("/exact/other",_request.getAttribute("target"));
+        assertTrue(_handler.getRuleStatistics().get(3).startsWith("2 "));
+
+        _handler.resetRuleStatistics();
+        for (String statistic : _handler.getRuleStatistics())
+            assertTrue(statistic.startsWith("0 "));
+    }
 
     public void testEncodedPattern() throws Exception
     {
@@ -42,6 +42,7 @@ import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.EndPoint;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.server.handler.ErrorHandler;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.URIUtil;
 import org.eclipse.jetty.util.log.Log;
@@ -633,6 +634,24 @@ public class HttpChannel<T> implements HttpParser.RequestHandler<T>, Runnable
         }
     }
 
+    /**
+     * <p>Requests to write (in a non-blocking way) the given response content buffer,
+     * committing the response if needed.</p>
+     *
+     * @param content  the content buffer to write
+     * @param complete whether the content is complete for the response
+     * @param callback the callback to notify when the write completes
+     */
+    protected void write(ByteBuffer content, boolean complete, Callback callback)
+    {
+        if (isCommitted())
+            _transport.send(null, content, complete, callback);
+        else if (_committed.compareAndSet(false, true))
+            _transport.send(_response.newResponseInfo(), content, complete, callback);
+        else
+            callback.failed(new IOException("Concurrent commit"));
+    }
+
     protected void execute(Runnable task)
     {
         _connector.getExecutor().execute(task);
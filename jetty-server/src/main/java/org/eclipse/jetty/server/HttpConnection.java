@@ -322,115 +322,10 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
     @Override
     public void send(HttpGenerator.ResponseInfo info, ByteBuffer content, boolean lastContent) throws IOException
     {
-        // If we are still expecting a 100 continues
-        if (_channel.isExpecting100Continue())
-            // then we can't be persistent
-            _generator.setPersistent(false);
-
-
-        ByteBuffer header = null;
-        ByteBuffer chunk = null;
-        out: while (true)
-        {
-            HttpGenerator.Result result = _generator.generateResponse(info, header, chunk, content, lastContent);
-            if (LOG.isDebugEnabled())
-                LOG.debug("{} generate: {} ({},{},{})@{}",
-                        this,
-                        result,
-                        BufferUtil.toSummaryString(header),
-                        BufferUtil.toSummaryString(content),
-                        lastContent,
-                        _generator.getState());
-
-            switch (result)
-            {
-                case NEED_HEADER:
-                {
-                    header = _bufferPool.acquire(_config.getResponseHeaderSize(), false);
-                    continue;
-                }
-                case NEED_CHUNK:
-                {
-                    chunk = _chunk;
-                    if (chunk==null)
-                        chunk = _chunk = _bufferPool.acquire(HttpGenerator.CHUNK_SIZE, false);
-                    continue;
-                }
-                case FLUSH:
-                {
-                    // Don't write the chunk or the content if this is a HEAD response
-                    if (_channel.getRequest().isHead())
-                    {
-                        BufferUtil.clear(chunk);
-                        BufferUtil.clear(content);
-                    }
-
-                    // If we have a header
-                    if (BufferUtil.hasContent(header))
-                    {
-                        // we know there will not be a chunk, so write either header+content or just the header
-                        if (BufferUtil.hasContent(content))
-                            blockingWrite(header, content);
-                        else
-                            blockingWrite(header);
-                    }
-                    else if (BufferUtil.hasContent(chunk))
-                    {
-                        if (BufferUtil.hasContent(content))
-                            blockingWrite(chunk,content);
-                        else
-                            blockingWrite(chunk);
-                    }
-                    else if (BufferUtil.hasContent(content))
-                    {
-                        blockingWrite(content);
-                    }
-                    continue;
-                }
-                case SHUTDOWN_OUT:
-                {
-                    getEndPoint().shutdownOutput();
-                    continue;
-                }
-                case DONE:
-                {
-                    if (header!=null)
-                        _bufferPool.release(header);
-                    if (chunk!=null)
-                        _bufferPool.release(chunk);
-                    break out;
-                }
-                case CONTINUE:
-                {
-                    break;
-                }
-                default:
-                {
-                    throw new IllegalStateException("generateResponse="+result);
-                }
-            }
-        }
-    }
-
-    @Override
-    public void send(ResponseInfo info, ByteBuffer content, boolean lastContent, Callback callback)
-    {
+        // Generate and write as the asynchronous send does, and wait for it to complete
+        send(info, content, lastContent, _writeBlocker);
         try
         {
-            send(info,content,lastContent);
-            callback.succeeded();
-        }
-        catch (IOException e)
-        {
-            callback.failed(e);
-        }
-    }
-
-    private void blockingWrite(ByteBuffer... bytes) throws IOException
-    {
-        try
-        {
-            getEndPoint().write(_writeBlocker, bytes);
             _writeBlocker.block();
         }
         catch (InterruptedException x)
@@ -443,6 +338,17 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         }
     }
 
+    @Override
+    public void send(ResponseInfo info, ByteBuffer content, boolean lastContent, Callback callback)
+    {
+        // If we are still expecting a 100 continues
+        if (_channel.isExpecting100Continue())
+            // then we can't be persistent
+            _generator.setPersistent(false);
+
+        new SendCallback(info,content,lastContent,callback).generate();
+    }
+
     @Override
     public void completed()
     {
@@ -520,6 +426,142 @@ public class HttpConnection extends AbstractConnection implements Runnable, Http
         return _requestBuffer;
     }
 
+    /**
+     * <p>Generates the response and writes it without blocking, resuming the
+     * generation each time a write completes.</p>
+     * <p>The blocking send uses it too, waiting on its callback.</p>
+     */
+    private class SendCallback implements Callback
+    {
+        private final ResponseInfo _info;
+        private final ByteBuffer _content;
+        private final boolean _lastContent;
+        private final Callback _callback;
+        private ByteBuffer _header;
+
+        private SendCallback(ResponseInfo info, ByteBuffer content, boolean lastContent, Callback callback)
+        {
+            _info = info;
+            _content = content;
+            _lastContent = lastContent;
+            _callback = callback;
+        }
+
+        private void generate()
+        {
+            try
+            {
+                while (true)
+                {
+                    ByteBuffer chunk = _chunk;
+                    HttpGenerator.Result result = _generator.generateResponse(_info, _header, chunk, _content, _lastContent);
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("{} generate: {} ({},{},{})@{}",
+                                HttpConnection.this,
+                                result,
+                                BufferUtil.toSummaryString(_header),
+                                BufferUtil.toSummaryString(_content),
+                                _lastContent,
+                                _generator.getState());
+
+                    switch (result)
+                    {
+                        case NEED_HEADER:
+                        {
+                            _header = _bufferPool.acquire(_config.getResponseHeaderSize(), false);
+                            continue;
+                        }
+                        case NEED_CHUNK:
+                        {
+                            if (chunk==null)
+                                _chunk = _bufferPool.acquire(HttpGenerator.CHUNK_SIZE, false);
+                            continue;
+                        }
+                        case FLUSH:
+                        {
+                            // Don't write the chunk or the content if this is a HEAD response
+                            if (_channel.getRequest().isHead())
+                            {
+                                BufferUtil.clear(chunk);
+                                BufferUtil.clear(_content);
+                            }
+
+                            // Return and resume generating when the write completes
+                            boolean content = BufferUtil.hasContent(_content);
+                            if (BufferUtil.hasContent(_header))
+                            {
+                                if (content)
+                                    getEndPoint().write(this, _header, _content);
+                                else
+                                    getEndPoint().write(this, _header);
+                            }
+                            else if (BufferUtil.hasContent(chunk))
+                            {
+                                if (content)
+                                    getEndPoint().write(this, chunk, _content);
+                                else
+                                    getEndPoint().write(this, chunk);
+                            }
+                            else if (content)
+                            {
+                                getEndPoint().write(this, _content);
+                            }
+                            else
+                            {
+                                continue;
+                            }
+                            return;
+                        }
+                        case SHUTDOWN_OUT:
+                        {
+                            getEndPoint().shutdownOutput();
+                            continue;
+                        }
+                        case DONE:
+                        {
+                            releaseHeader();
+                            _callback.succeeded();
+                            return;
+                        }
+                        case CONTINUE:
+                        {
+                            continue;
+                        }
+                        default:
+                        {
+                            throw new IllegalStateException("generateResponse="+result);
+                        }
+                    }
+                }
+            }
+            catch (Exception x)
+            {
+                failed(x);
+            }
+        }
+
+        @Override
+        public void succeeded()
+        {
+            generate();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            releaseHeader();
+            _callback.failed(x);
+        }
+
+        private void releaseHeader()
+        {
+            ByteBuffer header = _header;
+            _header = null;
+            if (header!=null)
+                _bufferPool.release(header);
+        }
+    }
+
     private class Input extends ByteBufferHttpInput
     {
         @Override
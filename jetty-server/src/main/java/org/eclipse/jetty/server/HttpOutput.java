@@ -33,6 +33,7 @@ import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -224,6 +225,76 @@ public class HttpOutput extends ServletOutputStream
         write(s.getBytes(_channel.getResponse().getCharacterEncoding()));
     }
 
+    /**
+     * <p>Writes the given content without blocking and without copying it.</p>
+     * <p>Content previously aggregated is written first; the content buffer must not be
+     * modified and no other write must be performed until the callback is completed.</p>
+     *
+     * @param content the content to write
+     * @param complete whether the content is the last content of the response
+     * @param callback the callback to notify when the content has been written
+     */
+    public void sendContent(final ByteBuffer content, final boolean complete, final Callback callback)
+    {
+        if (_closed)
+        {
+            callback.failed(new EofException());
+            return;
+        }
+
+        _written += content.remaining();
+        final boolean last = complete && !_channel.getResponse().isIncluding();
+        if (complete)
+            _closed = true;
+
+        final Callback written = !complete ? callback : new Callback()
+        {
+            @Override
+            public void succeeded()
+            {
+                releaseAggregate();
+                callback.succeeded();
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                releaseAggregate();
+                callback.failed(x);
+            }
+        };
+
+        if (BufferUtil.hasContent(_aggregate))
+        {
+            _channel.write(_aggregate, false, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    _channel.write(content, last, written);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    written.failed(x);
+                }
+            });
+        }
+        else
+        {
+            _channel.write(content, last, written);
+        }
+    }
+
+    private void releaseAggregate()
+    {
+        ByteBuffer aggregate = _aggregate;
+        _aggregate = null;
+        if (aggregate != null)
+            _channel.getConnector().getByteBufferPool().release(aggregate);
+    }
+
     public void sendContent(Object content) throws IOException
     {
         if (isClosed())
@@ -22,8 +22,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.servlet.http.Cookie;
 
@@ -45,7 +55,13 @@ import org.eclipse.jetty.util.log.Logger;
  * Format (single log format). This log format can be output by most web
  * servers, and almost all web log analysis software can understand these
  * formats.
- *
+ * <p>
+ * By default each log line is written synchronously by the request thread.
+ * In {@link #setAsync(boolean) async} mode request threads instead encode the
+ * line to bytes in a preallocated ring buffer of lines, without taking a lock,
+ * and a single background thread writes the lines to the log in large batches.
+ * When the ring buffer is full, request threads either wait for the writer or
+ * drop and count the line, depending on {@link #setBlockOnOverflow(boolean)}.
  */
 
 /* ------------------------------------------------------------ */
@@ -71,12 +87,16 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     private boolean _logCookies = false;
     private boolean _logServer = false;
     private boolean _logDispatch = false;
+    private boolean _async = false;
+    private int _ringBufferSize = 4096;
+    private boolean _blockOnOverflow = true;
 
     private transient OutputStream _out;
     private transient OutputStream _fileOut;
     private transient DateCache _logDateCache;
     private transient PathMap _ignorePathMap;
     private transient Writer _writer;
+    private transient RingBuffer _ring;
 
     /* ------------------------------------------------------------ */
     /**
@@ -452,6 +472,122 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
         return _logDispatch;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Controls whether log lines are written by a background thread.
+     *
+     * @param async true - log lines are queued in a ring buffer and written in batches,
+     *              false - log lines are written by the request thread
+     */
+    public void setAsync(boolean async)
+    {
+        _async = async;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Retrieve the async logging flag.
+     *
+     * @return value of the flag
+     */
+    @ManagedAttribute("log lines are written by a background thread")
+    public boolean isAsync()
+    {
+        return _async;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the number of log lines that may be queued in async mode.
+     * The size is rounded up to a power of 2.
+     *
+     * @param size the number of lines in the ring buffer
+     */
+    public void setRingBufferSize(int size)
+    {
+        _ringBufferSize = size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Retrieve the number of log lines that may be queued in async mode.
+     *
+     * @return the number of lines in the ring buffer
+     */
+    @ManagedAttribute("number of lines that may be queued in async mode")
+    public int getRingBufferSize()
+    {
+        return _ringBufferSize;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Controls what request threads do when the ring buffer is full in async mode.
+     *
+     * @param block true - request threads wait for space in the ring buffer,
+     *              false - the log line is dropped and counted
+     */
+    public void setBlockOnOverflow(boolean block)
+    {
+        _blockOnOverflow = block;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Retrieve the block on overflow flag.
+     *
+     * @return value of the flag
+     */
+    @ManagedAttribute("request threads wait when the ring buffer is full, rather than drop the line")
+    public boolean isBlockOnOverflow()
+    {
+        return _blockOnOverflow;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of log lines queued and not yet written in async mode
+     */
+    @ManagedAttribute("number of lines queued and not yet written")
+    public long getQueueDepth()
+    {
+        RingBuffer ring=_ring;
+        return ring==null?0:ring.getDepth();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the maximum number of log lines queued in async mode
+     */
+    @ManagedAttribute("maximum number of lines queued")
+    public long getMaxQueueDepth()
+    {
+        RingBuffer ring=_ring;
+        return ring==null?0:ring._maxDepth.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of log lines that waited for space in the ring buffer
+     */
+    @ManagedAttribute("number of lines that waited for space in the ring buffer")
+    public long getBlockedLines()
+    {
+        RingBuffer ring=_ring;
+        return ring==null?0:ring._blocked.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of log lines dropped because the ring buffer was full
+     */
+    @ManagedAttribute("number of lines dropped because the ring buffer was full")
+    public long getDroppedLines()
+    {
+        RingBuffer ring=_ring;
+        return ring==null?0:ring._dropped.get();
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Writes the request and response information to the output stream.
@@ -584,6 +720,14 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
             }
 
             buf.append(StringUtil.__LINE_SEPARATOR);
+
+            RingBuffer ring=_ring;
+            if (ring!=null)
+            {
+                ring.offer(buf);
+                return;
+            }
+
             String log = buf.toString();
             synchronized(this)
             {
@@ -670,6 +814,7 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
             _ignorePathMap = null;
 
         _writer = new OutputStreamWriter(_out);
+        _ring = _async ? new RingBuffer(_ringBufferSize) : null;
         super.doStart();
     }
 
@@ -682,6 +827,10 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
     @Override
     protected void doStop() throws Exception
     {
+        RingBuffer ring=_ring;
+        if (ring!=null)
+            ring.stop();
+
         synchronized (this)
         {
             super.doStop();
@@ -711,4 +860,216 @@ public class NCSARequestLog extends AbstractLifeCycle implements RequestLog
             _writer = null;
         }
     }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * A multiple producer, single consumer ring buffer of encoded log lines.
+     * <p>
+     * A request thread claims a position by CAS of the claimed count, encodes its
+     * line into the preallocated byte array of the slot, and publishes the slot by
+     * setting its sequence to the position+1. The writer thread copies published
+     * lines, in order, into a batch buffer that is written to the log when it is
+     * full or when no more lines are published, and releases each slot by advancing
+     * the consumed count.
+     */
+    private class RingBuffer implements Runnable
+    {
+        private static final int SLOT_SIZE=256;
+        private static final int BATCH_SIZE=64*1024;
+
+        private final ThreadLocal<CharsetEncoder> _encoder=new ThreadLocal<CharsetEncoder>()
+        {
+            @Override
+            protected CharsetEncoder initialValue()
+            {
+                return Charset.defaultCharset().newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        };
+        private final byte[][] _slots;
+        private final int[] _lengths;
+        private final AtomicLongArray _sequences;
+        private final int _mask;
+        private final AtomicLong _claimed=new AtomicLong();
+        private final AtomicLong _consumed=new AtomicLong();
+        private final AtomicLong _maxDepth=new AtomicLong();
+        private final AtomicLong _blocked=new AtomicLong();
+        private final AtomicLong _dropped=new AtomicLong();
+        private final Thread _thread;
+        private volatile boolean _running=true;
+        private volatile boolean _sleeping;
+
+        /* ------------------------------------------------------------ */
+        RingBuffer(int size)
+        {
+            int slots=Integer.highestOneBit(Math.max(2,size)-1)<<1;
+            _slots=new byte[slots][];
+            for (int i=0;i<slots;i++)
+                _slots[i]=new byte[SLOT_SIZE];
+            _lengths=new int[slots];
+            _sequences=new AtomicLongArray(slots);
+            _mask=slots-1;
+
+            _thread=new Thread(this,"NCSARequestLog-"+(_filename==null?"stderr":_filename));
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        /* ------------------------------------------------------------ */
+        long getDepth()
+        {
+            return _claimed.get()-_consumed.get();
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Queue a log line.
+         * @param line the line to encode into the ring buffer
+         */
+        void offer(CharSequence line)
+        {
+            if (!_running)
+            {
+                _dropped.incrementAndGet();
+                return;
+            }
+
+            long position;
+            boolean blocked=false;
+            while (true)
+            {
+                position=_claimed.get();
+                long depth=position-_consumed.get();
+                if (depth<_slots.length)
+                {
+                    if (_claimed.compareAndSet(position,position+1))
+                    {
+                        long max=_maxDepth.get();
+                        while (depth>=max && !_maxDepth.compareAndSet(max,depth+1))
+                            max=_maxDepth.get();
+                        break;
+                    }
+                    continue;
+                }
+
+                if (!_blockOnOverflow || !_running)
+                {
+                    _dropped.incrementAndGet();
+                    return;
+                }
+                if (!blocked)
+                {
+                    blocked=true;
+                    _blocked.incrementAndGet();
+                }
+                wakeup();
+                LockSupport.parkNanos(this,TimeUnit.MICROSECONDS.toNanos(100));
+            }
+
+            int slot=(int)(position&_mask);
+            encode(slot,line);
+            _sequences.lazySet(slot,position+1);
+            if (_sleeping)
+                wakeup();
+        }
+
+        /* ------------------------------------------------------------ */
+        private void encode(int slot, CharSequence line)
+        {
+            CharsetEncoder encoder=_encoder.get();
+            encoder.reset();
+            CharBuffer chars=CharBuffer.wrap(line);
+            ByteBuffer bytes=ByteBuffer.wrap(_slots[slot]);
+            while (true)
+            {
+                CoderResult result=encoder.encode(chars,bytes,true);
+                if (result.isUnderflow())
+                    result=encoder.flush(bytes);
+                if (!result.isOverflow())
+                    break;
+
+                // grow the slot, which is owned by this thread until published
+                byte[] larger=new byte[bytes.capacity()*2];
+                System.arraycopy(bytes.array(),0,larger,0,bytes.position());
+                bytes=ByteBuffer.wrap(larger,bytes.position(),larger.length-bytes.position());
+                _slots[slot]=larger;
+            }
+            _lengths[slot]=bytes.position();
+        }
+
+        /* ------------------------------------------------------------ */
+        private void wakeup()
+        {
+            LockSupport.unpark(_thread);
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Stop accepting lines and wait for queued lines to be written.
+         */
+        void stop() throws InterruptedException
+        {
+            _running=false;
+            wakeup();
+            _thread.join();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void run()
+        {
+            ByteBuffer batch=ByteBuffer.allocate(BATCH_SIZE);
+            long consumed=_consumed.get();
+            while (true)
+            {
+                int slot=(int)(consumed&_mask);
+                if (_sequences.get(slot)==consumed+1)
+                {
+                    byte[] line=_slots[slot];
+                    int length=_lengths[slot];
+                    if (length>batch.remaining())
+                    {
+                        write(batch.array(),batch.position());
+                        batch.clear();
+                    }
+                    if (length>batch.remaining())
+                        write(line,length);
+                    else
+                        batch.put(line,0,length);
+                    _consumed.lazySet(++consumed);
+                    continue;
+                }
+
+                // no more lines published, so write the batch
+                if (batch.position()>0)
+                {
+                    write(batch.array(),batch.position());
+                    batch.clear();
+                    continue;
+                }
+
+                if (!_running && _claimed.get()==consumed)
+                    break;
+
+                _sleeping=true;
+                if (_sequences.get(slot)!=consumed+1)
+                    LockSupport.parkNanos(this,TimeUnit.MILLISECONDS.toNanos(_running?100:1));
+                _sleeping=false;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void write(byte[] bytes, int length)
+        {
+            try
+            {
+                _out.write(bytes,0,length);
+                _out.flush();
+            }
+            catch (IOException e)
+            {
+                LOG.warn(e);
+            }
+        }
+    }
 }
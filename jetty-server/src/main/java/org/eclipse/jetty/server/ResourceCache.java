@@ -18,24 +18,38 @@
 
 package org.eclipse.jetty.server;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
-import java.util.Comparator;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.HttpContent.ResourceAsHttpContent;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.ByteArrayOutputStream2;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.resource.Resource;
@@ -43,12 +57,23 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
 
 
 /* ------------------------------------------------------------ */
-/** 
- * 
+/** A cache of static {@link Resource} content.
+ * <p>
+ * Cached content is held in a segmented LRU: new content enters a probation segment and is
+ * promoted to a protected segment when it is hit again, so that content requested only once
+ * (eg by a crawler) is evicted before content that is frequently requested. When the cache is full,
+ * new content is only admitted if it has been requested at least as often as the content it would evict,
+ * as estimated by a small frequency sketch of recent lookups. All updates are O(1) and accesses that
+ * find the cache lock contended are not recorded rather than waited for.
  */
+@ManagedObject("Static resource cache")
 public class ResourceCache
 {
     private static final Logger LOG = Log.getLogger(ResourceCache.class);
+    private static final Object __COMPRESSING = new Object();
+    private static final Object __UNCOMPRESSIBLE = new Object();
+    private static final Object __INVALID = new Object();
+    private static final int __PROTECTED_PERCENT = 80;
 
     private final ConcurrentMap<String,Content> _cache;
     private final AtomicInteger _cachedSize;
@@ -57,11 +82,20 @@ public class ResourceCache
     private final ResourceCache _parent;
     private final MimeTypes _mimeTypes;
     private final boolean _etagSupported;
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Segment _probation = new Segment();
+    private final Segment _protected = new Segment();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _evictions = new AtomicLong();
+    private FrequencySketch _sketch;
 
     private boolean  _useFileMappedBuffer=true;
     private int _maxCachedFileSize =4*1024*1024;
     private int _maxCachedFiles=2048;
     private int _maxCacheSize =32*1024*1024;
+    private volatile Compressor _compressor;
+    private volatile Executor _executor;
     
     /* ------------------------------------------------------------ */
     /** Constructor.
@@ -76,21 +110,76 @@ public class ResourceCache
         _mimeTypes=mimeTypes;
         _parent=parent;
         _etagSupported=etags;
+        _sketch=new FrequencySketch(_maxCachedFiles);
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("size of the cached content in bytes")
     public int getCachedSize()
     {
         return _cachedSize.get();
     }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of cached files")
     public int getCachedFiles()
     {
         return _cachedFiles.get();
     }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of lookups that found valid content in this cache.
+     */
+    @ManagedAttribute("number of lookups found in the cache")
+    public long getHits()
+    {
+        return _hits.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of lookups that did not find valid content in this cache.
+     */
+    @ManagedAttribute("number of lookups not found in the cache")
+    public long getMisses()
+    {
+        return _misses.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of contents evicted to keep the cache within its limits.
+     */
+    @ManagedAttribute("number of contents evicted from the cache")
+    public long getEvictions()
+    {
+        return _evictions.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The ratio of hits to lookups, or 0 if there have been no lookups.
+     */
+    @ManagedAttribute("ratio of lookups found in the cache")
+    public double getHitRatio()
+    {
+        long hits=_hits.get();
+        long lookups=hits+_misses.get();
+        return lookups==0?0.0:((double)hits)/lookups;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="resets the hit, miss and eviction statistics", impact="ACTION")
+    public void resetStatistics()
+    {
+        _hits.set(0);
+        _misses.set(0);
+        _evictions.set(0);
+    }
     
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum size of a cached file")
     public int getMaxCachedFileSize()
     {
         return _maxCachedFileSize;
@@ -104,6 +193,7 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("maximum size of the cache in bytes")
     public int getMaxCacheSize()
     {
         return _maxCacheSize;
@@ -120,6 +210,7 @@ public class ResourceCache
     /**
      * @return Returns the maxCachedFiles.
      */
+    @ManagedAttribute("maximum number of cached files")
     public int getMaxCachedFiles()
     {
         return _maxCachedFiles;
@@ -132,10 +223,20 @@ public class ResourceCache
     public void setMaxCachedFiles(int maxCachedFiles)
     {
         _maxCachedFiles = maxCachedFiles;
+        _lock.lock();
+        try
+        {
+            _sketch=new FrequencySketch(maxCachedFiles);
+        }
+        finally
+        {
+            _lock.unlock();
+        }
         shrinkCache();
     }
 
     /* ------------------------------------------------------------ */
+    @ManagedAttribute("use file mapped buffers")
     public boolean isUseFileMappedBuffer()
     {
         return _useFileMappedBuffer;
@@ -148,6 +249,50 @@ public class ResourceCache
     }
 
     /* ------------------------------------------------------------ */
+    /**
+     * @return The compressor used to create compressed variants of cached content, or null if disabled.
+     */
+    public Compressor getCompressor()
+    {
+        return _compressor;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the compressor used to create compressed variants of cached content.
+     * A compressed variant is created once per cached {@link Content}, on first request
+     * by a client that accepts the compressor's encoding, and is counted against
+     * the maximum cache size. By default no compressor is set and no variants are created.
+     * @param compressor The compressor or null to disable compressed variants
+     */
+    public void setCompressor(Compressor compressor)
+    {
+        _compressor = compressor;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The executor used to compress content, or null if content is compressed by the requesting thread.
+     */
+    public Executor getExecutor()
+    {
+        return _executor;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the executor used to compress content. If set, the request that triggers
+     * compression is served uncompressed and subsequent requests are served the
+     * compressed variant once it is available.
+     * @param executor The executor or null to compress with the requesting thread.
+     */
+    public void setExecutor(Executor executor)
+    {
+        _executor = executor;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="flushes the cache", impact="ACTION")
     public void flushCache()
     {
         if (_cache!=null)
@@ -181,7 +326,12 @@ public class ResourceCache
         // Is the content in this cache?
         Content content =_cache.get(pathInContext);
         if (content!=null && (content).isValid())
+        {
+            _hits.incrementAndGet();
+            access(content);
             return content;
+        }
+        _misses.incrementAndGet();
        
         // try loading the content from our factory.
         Resource resource=_factory.getResource(pathInContext);
@@ -200,6 +350,69 @@ public class ResourceCache
         return null;
     }
     
+    /* ------------------------------------------------------------ */
+    /** Load content into the cache ahead of requests.
+     * Each path is looked up and its buffer loaded, as if it had been requested,
+     * but without counting in the hit and miss statistics.
+     * @param pathsInContext The paths to load
+     * @return The number of paths that were loaded into the cache
+     * @throws IOException Problem loading a resource
+     */
+    public int warmup(Collection<String> pathsInContext) throws IOException
+    {
+        int loaded=0;
+        for (String pathInContext : pathsInContext)
+        {
+            Content content=_cache.get(pathInContext);
+            if (content==null || !content.isValid())
+            {
+                HttpContent httpContent=load(pathInContext,_factory.getResource(pathInContext));
+                if (!(httpContent instanceof Content))
+                {
+                    if (httpContent!=null)
+                        httpContent.release();
+                    continue;
+                }
+                content=(Content)httpContent;
+            }
+            
+            if (_useFileMappedBuffer)
+                content.getDirectBuffer();
+            else
+                content.getIndirectBuffer();
+            loaded++;
+        }
+        return loaded;
+    }
+
+    /* ------------------------------------------------------------ */
+    /** Load content into the cache ahead of requests.
+     * @param list A resource listing one path in context per line. Blank lines and lines starting with '#' are ignored.
+     * @return The number of paths that were loaded into the cache
+     * @throws IOException Problem reading the list or loading a resource
+     * @see #warmup(Collection)
+     */
+    public int warmup(Resource list) throws IOException
+    {
+        List<String> paths=new ArrayList<String>();
+        BufferedReader reader=new BufferedReader(new InputStreamReader(list.getInputStream(),StringUtil.__UTF8_CHARSET));
+        try
+        {
+            String line;
+            while ((line=reader.readLine())!=null)
+            {
+                line=line.trim();
+                if (line.length()>0 && !line.startsWith("#"))
+                    paths.add(line);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return warmup(paths);
+    }
+    
     /* ------------------------------------------------------------ */
     /**
      * @param resource
@@ -213,6 +426,24 @@ public class ResourceCache
         return  (len>0 && len<_maxCachedFileSize && len<_maxCacheSize);
     }
     
+    /* ------------------------------------------------------------ */
+    /**
+     * @param content
+     * @return True if a compressed variant of the content should be created. The default implementation
+     * accepts text, script, json and xml content types.
+     */
+    protected boolean isCompressible(Content content)
+    {
+        String type=content.getContentType();
+        if (type==null)
+            return false;
+        type=type.toLowerCase(Locale.ENGLISH);
+        return type.startsWith("text/") ||
+            type.contains("javascript") ||
+            type.contains("json") ||
+            type.contains("xml");
+    }
+    
     /* ------------------------------------------------------------ */
     private HttpContent load(String pathInContext, Resource resource)
         throws IOException
@@ -222,21 +453,31 @@ public class ResourceCache
         if (resource==null || !resource.exists())
             return null;
         
-        // Will it fit in the cache?
-        if (!resource.isDirectory() && isCacheable(resource))
+        // Will it fit in the cache and is it requested often enough to displace other content?
+        if (!resource.isDirectory() && isCacheable(resource) && admit(pathInContext,(int)resource.length()))
         {   
             // Create the Content (to increment the cache sizes before adding the content 
             content = new Content(pathInContext,resource);
 
-            // reduce the cache to an acceptable size.
-            shrinkCache();
-
             // Add it to the cache.
-            Content added = _cache.putIfAbsent(pathInContext,content);
-            if (added!=null)
+            _lock.lock();
+            try
+            {
+                Content added = _cache.putIfAbsent(pathInContext,content);
+                if (added!=null)
+                {
+                    content.invalidate();
+                    content=added;
+                }
+                else
+                    _probation.addFirst(content);
+
+                // reduce the cache to an acceptable size.
+                shrinkCache();
+            }
+            finally
             {
-                content.invalidate();
-                content=added;
+                _lock.unlock();
             }
 
             return content;
@@ -247,41 +488,97 @@ public class ResourceCache
     }
     
     /* ------------------------------------------------------------ */
-    private void shrinkCache()
+    /** Record a lookup of content not in the cache and decide if it may be added.
+     * @return True if there is room for the content, or if it has been looked up at least
+     * as often as the content that would be evicted to make room for it.
+     */
+    private boolean admit(String pathInContext, int length)
     {
-        // While we need to shrink
-        while (_cache.size()>0 && (_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize))
+        _lock.lock();
+        try
         {
-            // Scan the entire cache and generate an ordered list by last accessed time.
-            SortedSet<Content> sorted= new TreeSet<Content>(
-                    new Comparator<Content>()
-                    {
-                        public int compare(Content c1, Content c2)
-                        {
-                            if (c1._lastAccessed<c2._lastAccessed)
-                                return -1;
-                            
-                            if (c1._lastAccessed>c2._lastAccessed)
-                                return 1;
-
-                            if (c1._length<c2._length)
-                                return -1;
-                            
-                            return c1._key.compareTo(c2._key);
-                        }
-                    });
-            for (Content content : _cache.values())
-                sorted.add(content);
+            int hash=pathInContext.hashCode();
+            _sketch.increment(hash);
             
-            // Invalidate least recently used first
-            for (Content content : sorted)
+            if (_cachedFiles.get()<_maxCachedFiles && _cachedSize.get()+length<=_maxCacheSize)
+                return true;
+            
+            Content victim=_probation._tail!=null?_probation._tail:_protected._tail;
+            return victim==null || _sketch.frequency(hash)>=_sketch.frequency(victim._key.hashCode());
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+    
+    /* ------------------------------------------------------------ */
+    /** Record a hit of cached content.
+     * Content in the probation segment is promoted to the protected segment and
+     * content in the protected segment is moved to its head. If the lock is contended,
+     * the hit is not recorded.
+     */
+    private void access(Content content)
+    {
+        if (!_lock.tryLock())
+            return;
+        try
+        {
+            _sketch.increment(content._key.hashCode());
+            
+            if (content._segment==_protected)
+            {
+                _protected.remove(content);
+                _protected.addFirst(content);
+            }
+            else if (content._segment==_probation)
+            {
+                _probation.remove(content);
+                _protected.addFirst(content);
+
+                // Demote the least recently used protected content if the segment is too large
+                long maxSize=(long)_maxCacheSize*__PROTECTED_PERCENT/100;
+                long maxFiles=(long)_maxCachedFiles*__PROTECTED_PERCENT/100;
+                while (_protected._tail!=content && (_protected._size>maxSize || _protected._files>maxFiles))
+                {
+                    Content demoted=_protected._tail;
+                    _protected.remove(demoted);
+                    _probation.addFirst(demoted);
+                }
+            }
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+    
+    /* ------------------------------------------------------------ */
+    private void shrinkCache()
+    {
+        _lock.lock();
+        try
+        {
+            // While we need to shrink, evict from the tail of the probation segment and then the protected segment
+            while (_cachedFiles.get()>_maxCachedFiles || _cachedSize.get()>_maxCacheSize)
             {
-                if (_cachedFiles.get()<=_maxCachedFiles && _cachedSize.get()<=_maxCacheSize)
+                Content victim=_probation._tail!=null?_probation._tail:_protected._tail;
+                if (victim==null)
                     break;
-                if (content==_cache.remove(content.getKey()))
-                    content.invalidate();
+                
+                if (_cache.remove(victim._key,victim))
+                {
+                    victim.invalidate();
+                    _evictions.incrementAndGet();
+                }
+                else
+                    victim._segment.remove(victim);
             }
         }
+        finally
+        {
+            _lock.unlock();
+        }
     }
     
     /* ------------------------------------------------------------ */
@@ -372,9 +669,14 @@ public class ResourceCache
         final ByteBuffer _contentType;
         final String _etag;
         
-        volatile long _lastAccessed;
+        // The segment links, guarded by the cache lock
+        Segment _segment;
+        Content _prev;
+        Content _next;
+        
         AtomicReference<ByteBuffer> _indirectBuffer=new AtomicReference<ByteBuffer>();
         AtomicReference<ByteBuffer> _directBuffer=new AtomicReference<ByteBuffer>();
+        AtomicReference<Object> _compressed=new AtomicReference<Object>();
 
         /* ------------------------------------------------------------ */
         Content(String pathInContext,Resource resource)
@@ -390,7 +692,6 @@ public class ResourceCache
             _length=exists?(int)resource.length():0;
             _cachedSize.addAndGet(_length);
             _cachedFiles.incrementAndGet();
-            _lastAccessed=System.currentTimeMillis();
             
             _etag=ResourceCache.this._etagSupported?resource.getWeakETag():null;
         }
@@ -432,10 +733,7 @@ public class ResourceCache
         boolean isValid()
         {
             if (_lastModified==_resource.lastModified() && _length==_resource.length())
-            {
-                _lastAccessed=System.currentTimeMillis();
                 return true;
-            }
 
             if (this==_cache.remove(_key))
                 invalidate();
@@ -445,12 +743,106 @@ public class ResourceCache
         /* ------------------------------------------------------------ */
         protected void invalidate()
         {
+            _lock.lock();
+            try
+            {
+                if (_segment!=null)
+                    _segment.remove(this);
+            }
+            finally
+            {
+                _lock.unlock();
+            }
+            
             // Invalidate it
             _cachedSize.addAndGet(-_length);
             _cachedFiles.decrementAndGet();
+            Object compressed=_compressed.getAndSet(__INVALID);
+            if (compressed instanceof CompressedContent)
+                _cachedSize.addAndGet(-((CompressedContent)compressed)._length);
             _resource.release(); 
         }
 
+        /* ------------------------------------------------------------ */
+        /**
+         * Get the compressed variant of this content.
+         * If the variant has not yet been created and the content is compressible,
+         * then it is created either by the cache executor or by the calling thread.
+         * @param acceptEncoding The value of the Accept-Encoding request header
+         * @return The compressed variant or null if not acceptable or not (yet) available.
+         */
+        public CompressedContent getCompressedContent(String acceptEncoding)
+        {
+            Compressor compressor=_compressor;
+            if (compressor==null || acceptEncoding==null || acceptEncoding.indexOf(compressor.getEncoding())<0)
+                return null;
+
+            Object compressed=_compressed.get();
+            if (compressed==null && isCompressible(this) && _compressed.compareAndSet(null,__COMPRESSING))
+            {
+                final Compressor c=compressor;
+                Runnable task=new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        compress(c);
+                    }
+                };
+                
+                Executor executor=_executor;
+                if (executor==null)
+                    task.run();
+                else
+                {
+                    try
+                    {
+                        executor.execute(task);
+                    }
+                    catch(RejectedExecutionException e)
+                    {
+                        LOG.ignore(e);
+                        _compressed.compareAndSet(__COMPRESSING,null);
+                    }
+                }
+                compressed=_compressed.get();
+            }
+
+            if (compressed instanceof CompressedContent)
+            {
+                CompressedContent content=(CompressedContent)compressed;
+                if (content.getContentEncoding().equals(compressor.getEncoding()))
+                    return content;
+            }
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        private void compress(Compressor compressor)
+        {
+            Object result=__UNCOMPRESSIBLE;
+            try
+            {
+                // Use the writable buffer rather than the read only copy, so that its array is available
+                if (getIndirectBuffer()!=null)
+                {
+                    ByteBuffer compressed=compressor.compress(_indirectBuffer.get().duplicate());
+                    if (compressed!=null && compressed.remaining()<_length)
+                        result=new CompressedContent(this,compressor.getEncoding(),compressed);
+                }
+            }
+            catch(Exception e)
+            {
+                LOG.warn("Could not compress "+this,e);
+            }
+
+            if (_compressed.compareAndSet(__COMPRESSING,result) && result instanceof CompressedContent)
+            {
+                _cachedSize.addAndGet(((CompressedContent)result)._length);
+                shrinkCache();
+            }
+        }
+
         /* ------------------------------------------------------------ */
         @Override
         public String getLastModified()
@@ -548,4 +940,308 @@ public class ResourceCache
             return String.format("%s %s %d %s %s",_resource,_resource.exists(),_resource.lastModified(),_contentType,_lastModifiedBytes);
         }   
     }
+    
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A segment of the cache: a doubly linked list of {@link Content} in recency order,
+     * with the totals of its contents. Guarded by the cache lock.
+     */
+    private static class Segment
+    {
+        Content _head;
+        Content _tail;
+        int _files;
+        long _size;
+
+        /* ------------------------------------------------------------ */
+        void addFirst(Content content)
+        {
+            content._segment=this;
+            content._prev=null;
+            content._next=_head;
+            if (_head==null)
+                _tail=content;
+            else
+                _head._prev=content;
+            _head=content;
+            _files++;
+            _size+=content._length;
+        }
+
+        /* ------------------------------------------------------------ */
+        void remove(Content content)
+        {
+            if (content._prev==null)
+                _head=content._next;
+            else
+                content._prev._next=content._next;
+            if (content._next==null)
+                _tail=content._prev;
+            else
+                content._next._prev=content._prev;
+            content._segment=null;
+            content._prev=null;
+            content._next=null;
+            _files--;
+            _size-=content._length;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A count-min sketch of the recent lookup frequency of paths.
+     * Each path is counted in 4 of the 16 four bit counters packed in each long of
+     * the table. The counters are halved once the number of increments reaches
+     * 10 times the table size, so that the frequencies favour recent lookups.
+     * Guarded by the cache lock.
+     */
+    static class FrequencySketch
+    {
+        private static final long[] SEEDS = {0x97cb3127L,0xb492b66fL,0x9ae16a3bL,0xcbf29ce4L};
+        private static final long HALF_MASK = 0x7777777777777777L;
+
+        private final long[] _table;
+        private final int _mask;
+        private final int _sampleSize;
+        private int _samples;
+
+        /* ------------------------------------------------------------ */
+        FrequencySketch(int maxEntries)
+        {
+            int size=Integer.highestOneBit(Math.max(16,Math.min(maxEntries,1<<24))-1)<<1;
+            _table=new long[size];
+            _mask=size-1;
+            _sampleSize=10*size;
+        }
+
+        /* ------------------------------------------------------------ */
+        int frequency(int hash)
+        {
+            int frequency=15;
+            for (int i=0;i<4;i++)
+            {
+                int h=rehash(hash,i);
+                frequency=Math.min(frequency,(int)((_table[h&_mask]>>>((h>>>28)<<2))&0xfL));
+            }
+            return frequency;
+        }
+
+        /* ------------------------------------------------------------ */
+        void increment(int hash)
+        {
+            boolean added=false;
+            for (int i=0;i<4;i++)
+            {
+                int h=rehash(hash,i);
+                int index=h&_mask;
+                int shift=(h>>>28)<<2;
+                if (((_table[index]>>>shift)&0xfL)<15)
+                {
+                    _table[index]+=1L<<shift;
+                    added=true;
+                }
+            }
+
+            if (added && ++_samples>=_sampleSize)
+            {
+                for (int i=0;i<_table.length;i++)
+                    _table[i]=(_table[i]>>>1)&HALF_MASK;
+                _samples/=2;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private static int rehash(int hash, int i)
+        {
+            long h=(hash+SEEDS[i])*SEEDS[i];
+            h+=h>>>32;
+            return (int)h;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A compressed variant of a cached {@link Content}.
+     * The meta data is that of the content, except for the length and the
+     * ETag, which has the content encoding appended.
+     */
+    public static class CompressedContent implements HttpContent
+    {
+        final Content _content;
+        final String _encoding;
+        final ByteBuffer _buffer;
+        final int _length;
+        final String _etag;
+
+        /* ------------------------------------------------------------ */
+        CompressedContent(Content content, String encoding, ByteBuffer buffer)
+        {
+            _content=content;
+            _encoding=encoding;
+            _buffer=buffer;
+            _length=buffer.remaining();
+            
+            String etag=content.getETag();
+            if (etag==null)
+                _etag=null;
+            else if (etag.endsWith("\""))
+                _etag=etag.substring(0,etag.length()-1)+"--"+encoding+"\"";
+            else
+                _etag=etag+"--"+encoding;
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The content coding of this variant, as used in the Content-Encoding header.
+         */
+        public String getContentEncoding()
+        {
+            return _encoding;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getContentType()
+        {
+            return _content.getContentType();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getLastModified()
+        {
+            return _content.getLastModified();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getETag()
+        {
+            return _etag;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public Resource getResource()
+        {
+            return _content.getResource();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ByteBuffer getIndirectBuffer()
+        {
+            return _buffer.asReadOnlyBuffer();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ByteBuffer getDirectBuffer()
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public long getContentLength()
+        {
+            return _length;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new ByteArrayInputStream(_buffer.array(),_buffer.arrayOffset()+_buffer.position(),_length);
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ReadableByteChannel getReadableByteChannel() throws IOException
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void release()
+        {
+            // released with the content
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return String.format("%s %s %d",_content,_encoding,_length);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A codec used to create the compressed variants of cached content.
+     */
+    public interface Compressor
+    {
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The content coding produced, eg "gzip"
+         */
+        String getEncoding();
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param content The content to compress. The buffer must not be modified.
+         * @return A buffer containing the compressed content, backed by an array.
+         * @throws IOException
+         */
+        ByteBuffer compress(ByteBuffer content) throws IOException;
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** A {@link Compressor} for the gzip content coding.
+     */
+    public static class GzipCompressor implements Compressor
+    {
+        private final int _level;
+
+        /* ------------------------------------------------------------ */
+        public GzipCompressor()
+        {
+            this(Deflater.BEST_COMPRESSION);
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @param level The deflater compression level
+         */
+        public GzipCompressor(int level)
+        {
+            _level=level;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getEncoding()
+        {
+            return "gzip";
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ByteBuffer compress(ByteBuffer content) throws IOException
+        {
+            ByteArrayOutputStream2 out=new ByteArrayOutputStream2(content.remaining()/4+64);
+            GZIPOutputStream gzip=new GZIPOutputStream(out)
+            {
+                {
+                    def.setLevel(_level);
+                }
+            };
+            BufferUtil.writeTo(content,gzip);
+            gzip.close();
+            return ByteBuffer.wrap(out.getBuf(),0,out.getCount());
+        }
+    }
 }
@@ -0,0 +1,816 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.eclipse.jetty.util.RolloverFileOutputStream;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * A {@link RequestLog} that writes a configurable projection of request and
+ * response fields as records for machine consumption, rather than as NCSA text.
+ * <p>
+ * The {@link #setFields(String) fields} are a comma separated list of names from:
+ * <dl>
+ * <dt>timestamp</dt><dd>the time the request was received, in ms since the epoch</dd>
+ * <dt>latency</dt><dd>ms from the request timestamp until it was logged</dd>
+ * <dt>dispatch</dt><dd>ms from the last dispatch (or the timestamp) until it was logged</dd>
+ * <dt>server</dt><dd>the server name of the request</dd>
+ * <dt>remoteAddr</dt><dd>the remote address of the connection</dd>
+ * <dt>user</dt><dd>the name of the authenticated user</dd>
+ * <dt>method</dt><dd>the request method</dd>
+ * <dt>uri</dt><dd>the request URI, including the query</dd>
+ * <dt>protocol</dt><dd>the request protocol</dd>
+ * <dt>status</dt><dd>the response status</dd>
+ * <dt>contentLength</dt><dd>the response content length, or -1 if unknown</dd>
+ * <dt>bytes</dt><dd>the number of content bytes written by the response</dd>
+ * <dt>requests</dt><dd>the number of requests handled by the connection</dd>
+ * <dt>header:<i>name</i></dt><dd>the value of the named request header</dd>
+ * <dt>responseHeader:<i>name</i></dt><dd>the value of the named response header</dd>
+ * </dl>
+ * The fields are compiled, when the log is started, into an array of writers that
+ * encode values directly into a per thread byte buffer, so that no intermediate
+ * line is built.  Each record is written to the log with a single write.
+ * <p>
+ * The {@link #setFormat(String) format} of a record is either:
+ * <dl>
+ * <dt>json</dt><dd>a JSON object per line, with a member per field, in field order.
+ * Missing string values are written as null.</dd>
+ * <dt>binary</dt><dd>a 4 byte big endian length of the rest of the record, followed by
+ * each field in field order: numeric fields as 8 byte big endian longs and string
+ * fields as a 4 byte big endian length (-1 if missing) followed by the UTF-8 bytes.</dd>
+ * </dl>
+ * Log files are written with a {@link RolloverFileOutputStream}, or to
+ * <code>System.err</code> if there is no file name.
+ */
+@ManagedObject("Structured request log")
+public class StructuredRequestLog extends AbstractLifeCycle implements RequestLog
+{
+    private static final Logger LOG = Log.getLogger(StructuredRequestLog.class);
+
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+    public static final String DEFAULT_FIELDS = "timestamp,remoteAddr,method,uri,protocol,status,bytes,latency";
+
+    private static final int MAX_RETAINED_RECORD = 64 * 1024;
+    private static final byte[] NULL = {'n','u','l','l'};
+    private static final byte[] HEX = {'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
+
+    private String _filename;
+    private boolean _append = true;
+    private int _retainDays = 31;
+    private String _filenameDateFormat = null;
+    private String _logTimeZone = "GMT";
+    private String _format = JSON;
+    private String _fields = DEFAULT_FIELDS;
+
+    private transient OutputStream _out;
+    private transient boolean _closeOut;
+    private transient volatile Field[] _writers;
+    private transient boolean _binary;
+    private final ThreadLocal<Record> _record = new ThreadLocal<Record>()
+    {
+        @Override
+        protected Record initialValue()
+        {
+            return new Record();
+        }
+    };
+
+    /* ------------------------------------------------------------ */
+    public StructuredRequestLog()
+    {
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param filename the file name for the request log.
+     *                 This may be in the format expected
+     *                 by {@link RolloverFileOutputStream}
+     */
+    public StructuredRequestLog(String filename)
+    {
+        setFilename(filename);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param filename file name of the request log, in the format
+     * expected by {@link RolloverFileOutputStream}, or null for <code>System.err</code>
+     */
+    public void setFilename(String filename)
+    {
+        if (filename != null)
+        {
+            filename = filename.trim();
+            if (filename.length() == 0)
+                filename = null;
+        }
+        _filename = filename;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("file of log")
+    public String getFilename()
+    {
+        return _filename;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return file name of the request log with the expanded date wildcard, or null if not applicable
+     */
+    public String getDatedFilename()
+    {
+        if (_out instanceof RolloverFileOutputStream)
+            return ((RolloverFileOutputStream)_out).getDatedFilename();
+        return null;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param append true if the log file is appended to after restart
+     */
+    public void setAppend(boolean append)
+    {
+        _append = append;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("existing log files are appends to the new one")
+    public boolean isAppend()
+    {
+        return _append;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param retainDays number of days to keep a rotated log file
+     */
+    public void setRetainDays(int retainDays)
+    {
+        _retainDays = retainDays;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("number of days that log files are kept")
+    public int getRetainDays()
+    {
+        return _retainDays;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param format the date format of rotated log file names
+     * @see RolloverFileOutputStream#RolloverFileOutputStream(String, boolean, int, TimeZone, String, String)
+     */
+    public void setFilenameDateFormat(String format)
+    {
+        _filenameDateFormat = format;
+    }
+
+    /* ------------------------------------------------------------ */
+    public String getFilenameDateFormat()
+    {
+        return _filenameDateFormat;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param tz the timezone used to rotate log files
+     */
+    public void setLogTimeZone(String tz)
+    {
+        _logTimeZone = tz;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("the timezone")
+    public String getLogTimeZone()
+    {
+        return _logTimeZone;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param format the record format, either {@link #JSON} or {@link #BINARY}
+     */
+    public void setFormat(String format)
+    {
+        _format = format;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("the record format, json or binary")
+    public String getFormat()
+    {
+        return _format;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param fields comma separated list of the fields of each record
+     */
+    public void setFields(String fields)
+    {
+        _fields = fields;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedAttribute("the fields of each record")
+    public String getFields()
+    {
+        return _fields;
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void log(Request request, Response response)
+    {
+        Field[] writers = _writers;
+        if (writers == null)
+            return;
+
+        long now = System.currentTimeMillis();
+        Record record = _record.get();
+        record.reset(_binary);
+        for (int i = 0; i < writers.length; i++)
+        {
+            if (_binary)
+                writers[i].writeBinary(request,response,now,record);
+            else
+                writers[i].writeJson(i == 0,request,response,now,record);
+        }
+        record.end(_binary);
+
+        try
+        {
+            synchronized (this)
+            {
+                if (_out == null)
+                    return;
+                _out.write(record._bytes,0,record._length);
+                _out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.warn(e);
+        }
+        finally
+        {
+            if (record._bytes.length > MAX_RETAINED_RECORD)
+                _record.remove();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        if (JSON.equalsIgnoreCase(_format))
+            _binary = false;
+        else if (BINARY.equalsIgnoreCase(_format))
+            _binary = true;
+        else
+            throw new IllegalArgumentException("Unknown format: " + _format);
+        Field[] writers = compile(_fields);
+
+        if (_filename != null)
+        {
+            _out = new RolloverFileOutputStream(_filename,_append,_retainDays,TimeZone.getTimeZone(_logTimeZone),_filenameDateFormat,null);
+            _closeOut = true;
+            LOG.info("Opened " + getDatedFilename());
+        }
+        else
+            _out = System.err;
+
+        _writers = writers;
+        super.doStart();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this)
+        {
+            super.doStop();
+            _writers = null;
+            if (_out != null && _closeOut)
+            {
+                try
+                {
+                    _out.close();
+                }
+                catch (IOException e)
+                {
+                    LOG.ignore(e);
+                }
+            }
+            _out = null;
+            _closeOut = false;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Compile a field specification into an array of field writers.
+     * @param fields comma separated list of field names
+     * @return the writers of the fields, in order
+     */
+    private Field[] compile(String fields)
+    {
+        List<Field> writers = new ArrayList<>();
+        for (String name : fields.split(","))
+        {
+            name = name.trim();
+            if (name.length() > 0)
+                writers.add(newField(name));
+        }
+        return writers.toArray(new Field[writers.size()]);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Create the writer of a field.
+     * @param name the name of the field
+     * @return the writer of the field
+     * @throws IllegalArgumentException if the field is unknown
+     */
+    private Field newField(String name)
+    {
+        switch (name)
+        {
+            case "timestamp":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        return request.getTimeStamp();
+                    }
+                };
+            case "latency":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        return now - request.getTimeStamp();
+                    }
+                };
+            case "dispatch":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        long d = request.getDispatchTime();
+                        return now - (d == 0 ? request.getTimeStamp() : d);
+                    }
+                };
+            case "server":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        return request.getServerName();
+                    }
+                };
+            case "remoteAddr":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        return request.getRemoteAddr();
+                    }
+                };
+            case "user":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        Authentication authentication = request.getAuthentication();
+                        if (authentication instanceof Authentication.User)
+                            return ((Authentication.User)authentication).getUserIdentity().getUserPrincipal().getName();
+                        return null;
+                    }
+                };
+            case "method":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        return request.getMethod();
+                    }
+                };
+            case "uri":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        return request.getUri() == null ? null : request.getUri().toString();
+                    }
+                };
+            case "protocol":
+                return new StringField(name)
+                {
+                    @Override
+                    String value(Request request, Response response)
+                    {
+                        return request.getProtocol();
+                    }
+                };
+            case "status":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        int status = response.getStatus();
+                        return status <= 0 ? 404 : status;
+                    }
+                };
+            case "contentLength":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        return response.getLongContentLength();
+                    }
+                };
+            case "bytes":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        return response.getHttpOutput().getWritten();
+                    }
+                };
+            case "requests":
+                return new NumberField(name)
+                {
+                    @Override
+                    long value(Request request, Response response, long now)
+                    {
+                        return request.getHttpChannel().getRequests();
+                    }
+                };
+            default:
+                if (name.startsWith("header:"))
+                {
+                    final String header = name.substring(7);
+                    return new StringField(name)
+                    {
+                        @Override
+                        String value(Request request, Response response)
+                        {
+                            return request.getHeader(header);
+                        }
+                    };
+                }
+                if (name.startsWith("responseHeader:"))
+                {
+                    final String header = name.substring(15);
+                    return new StringField(name)
+                    {
+                        @Override
+                        String value(Request request, Response response)
+                        {
+                            return response.getHeader(header);
+                        }
+                    };
+                }
+                throw new IllegalArgumentException("Unknown field: " + name);
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * A writer of one field of a record.
+     */
+    private static abstract class Field
+    {
+        private final byte[] _jsonName;
+
+        /* ------------------------------------------------------------ */
+        Field(String name)
+        {
+            Record record = new Record();
+            record.putJsonString(name);
+            record.put((byte)':');
+            _jsonName = new byte[record._length];
+            System.arraycopy(record._bytes,0,_jsonName,0,record._length);
+        }
+
+        /* ------------------------------------------------------------ */
+        void writeJson(boolean first, Request request, Response response, long now, Record record)
+        {
+            if (!first)
+                record.put((byte)',');
+            record.put(_jsonName);
+            writeJsonValue(request,response,now,record);
+        }
+
+        /* ------------------------------------------------------------ */
+        abstract void writeJsonValue(Request request, Response response, long now, Record record);
+
+        /* ------------------------------------------------------------ */
+        abstract void writeBinary(Request request, Response response, long now, Record record);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static abstract class NumberField extends Field
+    {
+        /* ------------------------------------------------------------ */
+        NumberField(String name)
+        {
+            super(name);
+        }
+
+        /* ------------------------------------------------------------ */
+        abstract long value(Request request, Response response, long now);
+
+        /* ------------------------------------------------------------ */
+        @Override
+        void writeJsonValue(Request request, Response response, long now, Record record)
+        {
+            record.putDecimal(value(request,response,now));
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        void writeBinary(Request request, Response response, long now, Record record)
+        {
+            record.putLong(value(request,response,now));
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    private static abstract class StringField extends Field
+    {
+        /* ------------------------------------------------------------ */
+        StringField(String name)
+        {
+            super(name);
+        }
+
+        /* ------------------------------------------------------------ */
+        abstract String value(Request request, Response response);
+
+        /* ------------------------------------------------------------ */
+        @Override
+        void writeJsonValue(Request request, Response response, long now, Record record)
+        {
+            String value = value(request,response);
+            if (value == null)
+                record.put(NULL);
+            else
+                record.putJsonString(value);
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        void writeBinary(Request request, Response response, long now, Record record)
+        {
+            String value = value(request,response);
+            if (value == null)
+                record.putInt(-1);
+            else
+            {
+                int start = record.reserveInt();
+                record.putUtf8(value,false);
+                record.putInt(start,record._length - start - 4);
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /**
+     * A growable buffer of the bytes of a record.
+     */
+    private static class Record
+    {
+        private byte[] _bytes = new byte[512];
+        private int _length;
+
+        /* ------------------------------------------------------------ */
+        void reset(boolean binary)
+        {
+            _length = 0;
+            if (binary)
+                reserveInt();
+            else
+                put((byte)'{');
+        }
+
+        /* ------------------------------------------------------------ */
+        void end(boolean binary)
+        {
+            if (binary)
+                putInt(0,_length - 4);
+            else
+            {
+                put((byte)'}');
+                put((byte)'\n');
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void ensure(int space)
+        {
+            if (_length + space > _bytes.length)
+            {
+                byte[] bytes = new byte[Math.max(_bytes.length * 2,_length + space)];
+                System.arraycopy(_bytes,0,bytes,0,_length);
+                _bytes = bytes;
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        void put(byte b)
+        {
+            ensure(1);
+            _bytes[_length++] = b;
+        }
+
+        /* ------------------------------------------------------------ */
+        void put(byte[] b)
+        {
+            ensure(b.length);
+            System.arraycopy(b,0,_bytes,_length,b.length);
+            _length += b.length;
+        }
+
+        /* ------------------------------------------------------------ */
+        int reserveInt()
+        {
+            ensure(4);
+            int index = _length;
+            _length += 4;
+            return index;
+        }
+
+        /* ------------------------------------------------------------ */
+        void putInt(int value)
+        {
+            putInt(reserveInt(),value);
+        }
+
+        /* ------------------------------------------------------------ */
+        void putInt(int index, int value)
+        {
+            _bytes[index] = (byte)(value >>> 24);
+            _bytes[index + 1] = (byte)(value >>> 16);
+            _bytes[index + 2] = (byte)(value >>> 8);
+            _bytes[index + 3] = (byte)value;
+        }
+
+        /* ------------------------------------------------------------ */
+        void putLong(long value)
+        {
+            putInt((int)(value >>> 32));
+            putInt((int)value);
+        }
+
+        /* ------------------------------------------------------------ */
+        void putDecimal(long value)
+        {
+            if (value == Long.MIN_VALUE)
+            {
+                put(StringUtil.getBytes(Long.toString(value)));
+                return;
+            }
+            ensure(20);
+            if (value < 0)
+            {
+                _bytes[_length++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (long v = value / 10; v > 0; v /= 10)
+                digits++;
+            for (int i = _length + digits - 1; i >= _length; i--)
+            {
+                _bytes[i] = (byte)('0' + value % 10);
+                value /= 10;
+            }
+            _length += digits;
+        }
+
+        /* ------------------------------------------------------------ */
+        void putJsonString(String value)
+        {
+            put((byte)'"');
+            putUtf8(value,true);
+            put((byte)'"');
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * Encode a string as UTF-8, optionally escaping it for a JSON string.
+         */
+        void putUtf8(String value, boolean escape)
+        {
+            int length = value.length();
+            ensure(length);
+            for (int i = 0; i < length; i++)
+            {
+                char c = value.charAt(i);
+                if (c < 0x80)
+                {
+                    if (escape && (c == '"' || c == '\\'))
+                    {
+                        put((byte)'\\');
+                        put((byte)c);
+                    }
+                    else if (escape && c < 0x20)
+                    {
+                        ensure(6);
+                        _bytes[_length++] = '\\';
+                        _bytes[_length++] = 'u';
+                        _bytes[_length++] = '0';
+                        _bytes[_length++] = '0';
+                        _bytes[_length++] = HEX[c >> 4];
+                        _bytes[_length++] = HEX[c & 0xF];
+                    }
+                    else
+                        put((byte)c);
+                }
+                else
+                {
+                    int code = c;
+                    if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1)))
+                        code = Character.toCodePoint(c,value.charAt(++i));
+                    else if (Character.isSurrogate(c))
+                        code = '?';
+                    putCodePoint(code);
+                }
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        private void putCodePoint(int code)
+        {
+            ensure(4);
+            if (code < 0x80)
+                _bytes[_length++] = (byte)code;
+            else if (code < 0x800)
+            {
+                _bytes[_length++] = (byte)(0xC0 | (code >> 6));
+                _bytes[_length++] = (byte)(0x80 | (code & 0x3F));
+            }
+            else if (code < 0x10000)
+            {
+                _bytes[_length++] = (byte)(0xE0 | (code >> 12));
+                _bytes[_length++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+                _bytes[_length++] = (byte)(0x80 | (code & 0x3F));
+            }
+            else
+            {
+                _bytes[_length++] = (byte)(0xF0 | (code >> 18));
+                _bytes[_length++] = (byte)(0x80 | ((code >> 12) & 0x3F));
+                _bytes[_length++] = (byte)(0x80 | ((code >> 6) & 0x3F));
+                _bytes[_length++] = (byte)(0x80 | (code & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NCSARequestLogTest
+{
+    private Server _server;
+    private LocalConnector _connector;
+    private NCSARequestLog _log;
+    private File _file;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("ncsa-request-log");
+        IO.delete(dir);
+        dir.mkdirs();
+        _file = new File(dir, "request.log");
+
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+        _log = new NCSARequestLog(_file.getAbsolutePath());
+        _log.setAppend(false);
+        _log.setExtended(false);
+        RequestLogHandler handler = new RequestLogHandler();
+        handler.setRequestLog(_log);
+        handler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(200);
+                response.getOutputStream().print("hello");
+            }
+        });
+        _server.setHandler(handler);
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        _server.stop();
+    }
+
+    @Test
+    public void testSync() throws Exception
+    {
+        _server.start();
+        String[] lines = logRequests(1, 10);
+        Assert.assertEquals(10, lines.length);
+        Assert.assertTrue(lines[0], lines[0].contains("\"GET /foo/0 HTTP/1.1\" 200 "));
+    }
+
+    @Test
+    public void testAsync() throws Exception
+    {
+        _log.setAsync(true);
+        _server.start();
+        String[] lines = logRequests(4, 250);
+        Assert.assertEquals(1000, lines.length);
+        for (String line : lines)
+            Assert.assertTrue(line, line.matches(".*\"GET /foo/\\d+ HTTP/1.1\" 200 .*"));
+        Assert.assertEquals(0, _log.getDroppedLines());
+        Assert.assertTrue(_log.getMaxQueueDepth() > 0);
+    }
+
+    @Test
+    public void testAsyncLongLines() throws Exception
+    {
+        _log.setAsync(true);
+        _server.start();
+        StringBuilder path = new StringBuilder("/long");
+        while (path.length() < 2000)
+            path.append("/segment");
+        _connector.getResponses("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        _server.stop();
+        String[] lines = IO.toString(new FileInputStream(_file)).split("\n");
+        Assert.assertEquals(1, lines.length);
+        Assert.assertTrue(lines[0].contains("\"GET " + path + " HTTP/1.1\" 200 "));
+    }
+
+    @Test
+    public void testAsyncDropOnOverflow() throws Exception
+    {
+        _log.setAsync(true);
+        _log.setRingBufferSize(2);
+        _log.setBlockOnOverflow(false);
+        _server.start();
+        String[] lines = logRequests(4, 250);
+        Assert.assertEquals(1000, lines.length + _log.getDroppedLines());
+        Assert.assertTrue(_log.getMaxQueueDepth() <= 2);
+    }
+
+    private String[] logRequests(int threads, final int requests) throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; ++t)
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < requests; ++i)
+                            _connector.getResponses("GET /foo/" + i + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+                    }
+                    catch (Exception x)
+                    {
+                        x.printStackTrace();
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        // stopping the server stops the log, which writes any queued lines
+        _server.stop();
+        String log = IO.toString(new FileInputStream(_file));
+        return log.length() == 0 ? new String[0] : log.split("\n");
+    }
+}
@@ -0,0 +1,171 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.resource.Resource;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class ResourceCacheBenchmarkTest
+{
+    /**
+     * Replays a Zipfian trace of lookups, interrupted by a crawl of every file,
+     * against the cache and against a simulation of the previous least recently
+     * used policy, that sorted all cached content on each eviction.
+     */
+    @Ignore
+    @Test
+    public void testZipfianTrace() throws Exception
+    {
+        int files = 5000;
+        int maxCachedFiles = 250;
+        int lookups = 2_000_000;
+
+        File dir = MavenTestingUtils.getTargetTestingDir("resource-cache-benchmark");
+        IO.delete(dir);
+        dir.mkdirs();
+        byte[] data = new byte[1024];
+        Arrays.fill(data, (byte)'x');
+        for (int i = 0; i < files; ++i)
+        {
+            FileOutputStream out = new FileOutputStream(new File(dir, "f" + i + ".txt"));
+            out.write(data);
+            out.close();
+        }
+
+        String[] trace = trace(files, lookups, 0.9, new Random(42));
+
+        LruSimulation lru = new LruSimulation(maxCachedFiles);
+        for (String path : trace)
+            lru.lookup(path);
+
+        ResourceCache cache = new ResourceCache(null, Resource.newResource(dir.getAbsolutePath()), new MimeTypes(), false, false);
+        cache.setMaxCachedFiles(maxCachedFiles);
+        for (int i = 0; i < lookups / 10; ++i)
+            cache.lookup(trace[i]);
+        cache.flushCache();
+        cache.resetStatistics();
+
+        long begin = System.nanoTime();
+        for (String path : trace)
+            cache.lookup(path);
+        long end = System.nanoTime();
+
+        System.err.printf("lru: hit ratio %.3f, %d ns/eviction%n", lru.getHitRatio(), lru.getEvictionNanos() / Math.max(1, lru.getEvictions()));
+        System.err.printf("cache: hit ratio %.3f, %d ns/lookup, %d evictions%n", cache.getHitRatio(), (end - begin) / lookups, cache.getEvictions());
+        cache.flushCache();
+    }
+
+    private String[] trace(int files, int lookups, double skew, Random random)
+    {
+        double[] cdf = new double[files];
+        double sum = 0;
+        for (int i = 0; i < files; ++i)
+        {
+            sum += 1 / Math.pow(i + 1, skew);
+            cdf[i] = sum;
+        }
+
+        String[] trace = new String[lookups];
+        int crawl = lookups / 2;
+        for (int i = 0; i < lookups; ++i)
+        {
+            int file;
+            if (i >= crawl && i < crawl + files)
+                file = i - crawl;
+            else
+            {
+                int index = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+                file = index < 0 ? -index - 1 : index;
+            }
+            trace[i] = "f" + file + ".txt";
+        }
+        return trace;
+    }
+
+    private static class LruSimulation
+    {
+        private final Map<String, Long> _accessed = new HashMap<>();
+        private final int _maxCachedFiles;
+        private long _tick;
+        private long _hits;
+        private long _evictions;
+        private long _evictionNanos;
+
+        private LruSimulation(int maxCachedFiles)
+        {
+            _maxCachedFiles = maxCachedFiles;
+        }
+
+        private void lookup(String path)
+        {
+            Long previous = _accessed.put(path, ++_tick);
+            if (previous != null)
+            {
+                ++_hits;
+                return;
+            }
+
+            if (_accessed.size() > _maxCachedFiles)
+            {
+                long begin = System.nanoTime();
+                SortedSet<Map.Entry<String, Long>> sorted = new TreeSet<>(new Comparator<Map.Entry<String, Long>>()
+                {
+                    @Override
+                    public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2)
+                    {
+                        return e1.getValue().compareTo(e2.getValue());
+                    }
+                });
+                sorted.addAll(_accessed.entrySet());
+                _accessed.remove(sorted.first().getKey());
+                _evictionNanos += System.nanoTime() - begin;
+                ++_evictions;
+            }
+        }
+
+        private double getHitRatio()
+        {
+            return (double)_hits / _tick;
+        }
+
+        private long getEvictions()
+        {
+            return _evictions;
+        }
+
+        private long getEvictionNanos()
+        {
+            return _evictionNanos;
+        }
+    }
+}
@@ -19,16 +19,20 @@
 package org.eclipse.jetty.server;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import org.eclipse.jetty.http.HttpContent;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.resource.Resource;
 import org.eclipse.jetty.util.resource.ResourceCollection;
 import org.junit.Test;
@@ -229,6 +233,119 @@ public class ResourceCacheTest
         cache.flushCache();
     }
 
+    @Test
+    public void testCompressedContent() throws Exception
+    {
+        File file=File.createTempFile("C-0-",".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        for (int i=0;i<100;i++)
+            out.write("The quick brown fox jumps over the lazy dog.\n".getBytes("ISO-8859-1"));
+        out.close();
+
+        Resource directory=Resource.newResource(file.getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,true);
+
+        ResourceCache.Content content=(ResourceCache.Content)cache.lookup(file.getName());
+        assertEquals(4500,cache.getCachedSize());
+        assertNull(content.getCompressedContent("gzip"));
+
+        cache.setCompressor(new ResourceCache.GzipCompressor());
+        assertNull(content.getCompressedContent("identity"));
+        assertNull(content.getCompressedContent(null));
+
+        ResourceCache.CompressedContent compressed=content.getCompressedContent("deflate, gzip");
+        assertTrue(compressed!=null);
+        assertTrue(compressed==content.getCompressedContent("gzip"));
+        assertEquals("gzip",compressed.getContentEncoding());
+        assertTrue(compressed.getContentLength()<content.getContentLength());
+        assertEquals(4500+compressed.getContentLength(),cache.getCachedSize());
+        assertEquals(content.getETag().substring(0,content.getETag().length()-1)+"--gzip\"",compressed.getETag());
+        assertEquals(content.getContentType(),compressed.getContentType());
+        assertEquals(BufferUtil.toString(content.getIndirectBuffer()),IO.toString(new GZIPInputStream(compressed.getInputStream()),"ISO-8859-1"));
+
+        cache.flushCache();
+        assertEquals(0,cache.getCachedSize());
+        assertNull(content.getCompressedContent("gzip"));
+    }
+
+    @Test
+    public void testFrequentContentSurvivesScan() throws Exception
+    {
+        File[] files=new File[12];
+        String[] names=new String[files.length];
+        for (int i=0;i<files.length;i++)
+        {
+            files[i]=File.createTempFile("S-"+i+"-",".txt");
+            files[i].deleteOnExit();
+            names[i]=files[i].getName();
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(("content "+i).getBytes("ISO-8859-1"));
+            out.close();
+        }
+
+        Resource directory=Resource.newResource(files[0].getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+        cache.setMaxCachedFiles(4);
+
+        // Two frequently requested files
+        for (int i=0;i<3;i++)
+        {
+            assertEquals("content 0",getContent(cache,names[0]));
+            assertEquals("content 1",getContent(cache,names[1]));
+        }
+        assertEquals(4,cache.getHits());
+        assertEquals(2,cache.getMisses());
+
+        // A scan of files requested once
+        for (int i=2;i<files.length;i++)
+            assertEquals("content "+i,getContent(cache,names[i]));
+        assertEquals(4,cache.getCachedFiles());
+        assertEquals(8,cache.getEvictions());
+
+        // The frequently requested files are still cached
+        cache.resetStatistics();
+        assertEquals("content 0",getContent(cache,names[0]));
+        assertEquals("content 1",getContent(cache,names[1]));
+        assertEquals(2,cache.getHits());
+        assertEquals(0,cache.getMisses());
+        assertEquals(1.0,cache.getHitRatio(),0.0);
+
+        cache.flushCache();
+        assertEquals(0,cache.getCachedSize());
+        assertEquals(0,cache.getCachedFiles());
+    }
+
+    @Test
+    public void testWarmup() throws Exception
+    {
+        File[] files=new File[3];
+        String[] names=new String[files.length];
+        for (int i=0;i<files.length;i++)
+        {
+            files[i]=File.createTempFile("W-"+i+"-",".txt");
+            files[i].deleteOnExit();
+            names[i]=files[i].getName();
+            FileOutputStream out = new FileOutputStream(files[i]);
+            out.write(("warm "+i).getBytes("ISO-8859-1"));
+            out.close();
+        }
+
+        Resource directory=Resource.newResource(files[0].getParentFile().getAbsolutePath());
+        ResourceCache cache=new ResourceCache(null,directory,new MimeTypes(),false,false);
+
+        assertEquals(3,cache.warmup(Arrays.asList(names[0],names[1],"does not exist",names[2])));
+        assertEquals(3,cache.getCachedFiles());
+        assertEquals(0,cache.getHits());
+        assertEquals(0,cache.getMisses());
+
+        assertEquals("warm 1",getContent(cache,names[1]));
+        assertEquals(1,cache.getHits());
+        assertEquals(0,cache.getMisses());
+
+        cache.flushCache();
+    }
+
     static String getContent(Resource r, String path) throws Exception
     {
         StringBuilder buffer = new StringBuilder();
@@ -0,0 +1,146 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.StringUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StructuredRequestLogTest
+{
+    private Server _server;
+    private LocalConnector _connector;
+    private StructuredRequestLog _log;
+    private File _file;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        File dir = MavenTestingUtils.getTargetTestingDir("structured-request-log");
+        IO.delete(dir);
+        dir.mkdirs();
+        _file = new File(dir, "request.log");
+
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+        _log = new StructuredRequestLog(_file.getAbsolutePath());
+        _log.setAppend(false);
+        RequestLogHandler handler = new RequestLogHandler();
+        handler.setRequestLog(_log);
+        handler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(201);
+                response.setHeader("X-Result", "d\u00f6ne \u20ac\ud83d\ude00");
+                response.getOutputStream().print("hello");
+            }
+        });
+        _server.setHandler(handler);
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        _server.stop();
+    }
+
+    @Test
+    public void testJson() throws Exception
+    {
+        _log.setFields("method,uri,status,bytes,requests,header:X-Test,header:X-Missing,responseHeader:X-Result,latency");
+        _server.start();
+        _connector.getResponses("GET /foo?a=b HTTP/1.1\r\nHost: localhost\r\nX-Test: say \"hello\"\\\tnow\r\nConnection: close\r\n\r\n");
+        _server.stop();
+
+        String log = new String(IO.readBytes(new FileInputStream(_file)), StringUtil.__UTF8);
+        Assert.assertTrue(log, log.startsWith("{\"method\":\"GET\",\"uri\":\"/foo?a=b\",\"status\":201,\"bytes\":5,\"requests\":1," +
+                "\"header:X-Test\":\"say \\\"hello\\\"\\\\\\u0009now\",\"header:X-Missing\":null," +
+                "\"responseHeader:X-Result\":\"d\u00f6ne \u20ac\ud83d\ude00\",\"latency\":"));
+        Assert.assertTrue(log, log.endsWith("}\n"));
+        Assert.assertEquals(1, log.split("\n").length);
+    }
+
+    @Test
+    public void testBinary() throws Exception
+    {
+        _log.setFormat(StructuredRequestLog.BINARY);
+        _log.setFields("timestamp,method,uri,header:X-Missing,status");
+        _server.start();
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < 2; ++i)
+            _connector.getResponses("GET /foo/" + i + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        _server.stop();
+
+        DataInputStream in = new DataInputStream(new FileInputStream(_file));
+        try
+        {
+            for (int i = 0; i < 2; ++i)
+            {
+                int length = in.readInt();
+                Assert.assertEquals(8 + 4 + 3 + 4 + 6 + 4 + 8, length);
+                Assert.assertTrue(in.readLong() >= before - 1000);
+                Assert.assertEquals("GET", readString(in));
+                Assert.assertEquals("/foo/" + i, readString(in));
+                Assert.assertNull(readString(in));
+                Assert.assertEquals(201, in.readLong());
+            }
+            Assert.assertEquals(-1, in.read());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownField() throws Exception
+    {
+        _log.setFields("method,unknown");
+        _log.start();
+    }
+
+    private String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StringUtil.__UTF8);
+    }
+}
@@ -18,16 +18,24 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -41,6 +49,7 @@ import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.WriterOutputStream;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.HttpChannel;
@@ -50,6 +59,7 @@ import org.eclipse.jetty.server.ResourceCache;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.MultiPartOutputStream;
 import org.eclipse.jetty.util.QuotedStringTokenizer;
@@ -94,6 +104,12 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *                    gzip content encoded if a matching resource is
  *                    found ending with ".gz"
  *
+ *  cacheGzip         If set to true (and gzip is true), then a gzip compressed
+ *                    variant of compressible cached content is created once, in
+ *                    the background, and served to clients that accept gzip when
+ *                    no matching resource ending with ".gz" is found. The variant
+ *                    counts against maxCacheSize. Default is false.
+ *
  *  resourceBase      Set to replace the context resource base
  *
  *  resourceCache     If set, this is a context attribute name, which the servlet
@@ -118,12 +134,20 @@ import org.eclipse.jetty.util.resource.ResourceFactory;
  *  maxCachedFileSize The maximum size of a file to cache
  *  maxCachedFiles    The maximum number of files to cache
  *
+ *  cacheWarmup       If set, the location of a resource listing paths in context, one
+ *                    per line, that are loaded into the cache when the servlet is
+ *                    initialized.
+ *
  *  useFileMappedBuffer
  *                    If set to true, it will use mapped file buffer to serve static content
  *                    when using NIO connector. Setting this value to false means that
  *                    a direct buffer will be used instead of a mapped file buffer.
  *                    By default, this is set to true.
  *
+ *                    Range requests for cached content are served as slices of the
+ *                    cached buffer, and for other files by positional reads of the file,
+ *                    both written asynchronously without copying to an output stream.
+ *
  *  cacheControl      If set, all static content will have this value set as the cache-control
  *                    header.
  *
@@ -153,6 +177,7 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
 
     private Resource _resourceBase;
     private ResourceCache _cache;
+    private boolean _cacheBean;
 
     private MimeTypes _mimeTypes;
     private String[] _welcomes;
@@ -272,6 +297,29 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                     _cache.setMaxCachedFileSize(max_cached_file_size);
                 if (max_cached_files>=-1)
                     _cache.setMaxCachedFiles(max_cached_files);
+
+                _cacheBean=_contextHandler.addBean(_cache);
+            }
+
+            if (_cache!=null && _gzip && getInitBoolean("cacheGzip",false) && _cache.getCompressor()==null)
+            {
+                if (_contextHandler.getServer()!=null)
+                    _cache.setExecutor(_contextHandler.getServer().getThreadPool());
+                _cache.setCompressor(new ResourceCache.GzipCompressor());
+            }
+
+            String warmup=getInitParameter("cacheWarmup");
+            if (_cache!=null && warmup!=null)
+            {
+                try
+                {
+                    int loaded=_cache.warmup(Resource.newResource(warmup));
+                    LOG.debug("Cache warmup loaded {} from {}",loaded,warmup);
+                }
+                catch(IOException e)
+                {
+                    LOG.warn("Cache warmup failed for "+warmup,e);
+                }
             }
         }
         catch (Exception e)
@@ -423,13 +471,14 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
 
         // Can we gzip this request?
         String pathInContextGz=null;
+        String accept=null;
         boolean gzip=false;
         if (!included.booleanValue() && _gzip && reqRanges==null && !endsWithSlash )
         {
             // Tell caches that response may vary by accept-encoding
             response.setHeader(HttpHeader.VARY.asString(),HttpHeader.ACCEPT_ENCODING.asString());
 
-            String accept=request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
+            accept=request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
             if (accept!=null && accept.indexOf("gzip")>=0)
                 gzip=true;
         }
@@ -471,6 +520,14 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                 {
                     content=_cache.lookup(pathInContext);
                     resource=content==null?null:content.getResource();
+
+                    // Try a cached compressed variant
+                    if (accept!=null && content instanceof ResourceCache.Content)
+                    {
+                        HttpContent compressed=((ResourceCache.Content)content).getCompressedContent(accept);
+                        if (compressed!=null)
+                            content=compressed;
+                    }
                 }
             }
 
@@ -509,6 +566,8 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                             if (mt!=null)
                                 response.setContentType(mt);
                         }
+                        else if (content instanceof ResourceCache.CompressedContent)
+                            response.setHeader(HttpHeader.CONTENT_ENCODING.asString(),((ResourceCache.CompressedContent)content).getContentEncoding());
                         sendData(request,response,included.booleanValue(),resource,content,reqRanges);
                     }
                 }
@@ -946,6 +1005,57 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
                 return;
             }
 
+            // if the content can be sliced or read positionally, write the ranges asynchronously
+            if (!include && !written && response instanceof Response && request.isAsyncSupported())
+            {
+                RangeWriter writer=newRangeWriter((Response)response,resource,content);
+                if (writer!=null)
+                {
+                    if (ranges.size()==1)
+                    {
+                        InclusiveByteRange range = (InclusiveByteRange)ranges.get(0);
+                        long length = range.getSize(content_length);
+                        writeHeaders(response,content,length);
+                        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                        response.setHeader(HttpHeader.CONTENT_RANGE.asString(),range.toHeaderRangeString(content_length));
+                        writer.addRange(range.getFirst(content_length),length);
+                    }
+                    else
+                    {
+                        writeHeaders(response,content,-1);
+                        String boundary="jetty"+System.identityHashCode(writer)+Long.toString(System.currentTimeMillis(),36);
+                        String ctp=request.getHeader(HttpHeader.REQUEST_RANGE.asString())!=null
+                            ?"multipart/x-byteranges; boundary="
+                            :"multipart/byteranges; boundary=";
+                        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                        response.setContentType(ctp+boundary);
+
+                        // Generate the part headers up front, to know the content length
+                        String mimetype=content.getContentType();
+                        long length=0;
+                        for (int i=0;i<ranges.size();i++)
+                        {
+                            InclusiveByteRange ibr = (InclusiveByteRange) ranges.get(i);
+                            ByteBuffer header=BufferUtil.toBuffer(
+                                (i>0?"\r\n":"")+"--"+boundary+"\r\n"+
+                                HttpHeader.CONTENT_TYPE+": "+mimetype+"\r\n"+
+                                HttpHeader.CONTENT_RANGE+": "+ibr.toHeaderRangeString(content_length)+"\r\n\r\n");
+                            long size=ibr.getSize(content_length);
+                            length+=header.remaining()+size;
+                            writer.addHeader(header);
+                            writer.addRange(ibr.getFirst(content_length),size);
+                        }
+                        ByteBuffer trailer=BufferUtil.toBuffer("\r\n--"+boundary+"--\r\n");
+                        length+=trailer.remaining();
+                        writer.addHeader(trailer);
+                        response.setHeader(HttpHeader.CONTENT_LENGTH.asString(),Long.toString(length));
+                    }
+
+                    writer.start(request.startAsync());
+                    return;
+                }
+            }
+
             //  if there is only a single valid range (must be satisfiable
             //  since were here now), send that range with a 216 response
             if ( ranges.size()== 1)
@@ -1038,6 +1148,29 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
         return;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Create a writer of ranges of the content.
+     * @return a writer that slices the buffer of cached content, or that reads the resource
+     * file positionally, or null if the resource has neither.
+     */
+    private RangeWriter newRangeWriter(Response response, Resource resource, HttpContent content) throws IOException
+    {
+        HttpChannel<?> channel=HttpChannel.getCurrentHttpChannel();
+        Executor executor=channel.getConnector().getExecutor();
+        if (content instanceof ResourceCache.Content)
+        {
+            ByteBuffer buffer=_useFileMappedBuffer?content.getDirectBuffer():content.getIndirectBuffer();
+            if (buffer!=null)
+                return new RangeWriter(response.getHttpOutput(),executor,buffer,null,null,0);
+        }
+
+        File file=resource.getFile();
+        if (file==null)
+            return null;
+        return new RangeWriter(response.getHttpOutput(),executor,null,new RandomAccessFile(file,"r").getChannel(),channel.getByteBufferPool(),response.getBufferSize());
+    }
+
     /* ------------------------------------------------------------ */
     protected void writeHeaders(HttpServletResponse response,HttpContent content,long count)
     throws IOException
@@ -1117,7 +1250,205 @@ public class DefaultServlet extends HttpServlet implements ResourceFactory
     {
         if (_cache!=null)
             _cache.flushCache();
+        if (_cacheBean)
+            _contextHandler.removeBean(_cache);
         super.destroy();
     }
 
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** Writes part headers and ranges of content to the {@link HttpOutput} without blocking.
+     * Ranges are written as slices of a content buffer, or read from a file channel at
+     * their position into a pooled buffer.  Each write is started by the completion of
+     * the previous one, and the request is completed after the last.  Writes that complete
+     * asynchronously, in a selector thread, continue in a thread of the executor, as the
+     * next range may need to be read from the file.
+     */
+    private class RangeWriter implements Callback, Runnable
+    {
+        private static final int IDLE=0, WRITING=1, PENDING=2, CALLED=3;
+
+        private final HttpOutput _out;
+        private final Executor _executor;
+        private final ByteBuffer _content;
+        private final FileChannel _channel;
+        private final ByteBufferPool _pool;
+        private final int _chunkSize;
+        private final List<Object> _parts=new ArrayList<>();
+        private final AtomicInteger _state=new AtomicInteger(IDLE);
+        private AsyncContext _async;
+        private ByteBuffer _chunk;
+        private int _next;
+        private long _position;
+        private long _remaining;
+
+        /* ------------------------------------------------------------ */
+        RangeWriter(HttpOutput out, Executor executor, ByteBuffer content, FileChannel channel, ByteBufferPool pool, int chunkSize)
+        {
+            _out=out;
+            _executor=executor;
+            _content=content;
+            _channel=channel;
+            _pool=pool;
+            _chunkSize=chunkSize;
+        }
+
+        /* ------------------------------------------------------------ */
+        void addHeader(ByteBuffer header)
+        {
+            _parts.add(header);
+        }
+
+        /* ------------------------------------------------------------ */
+        void addRange(long first, long size)
+        {
+            _parts.add(new long[]{first,size});
+        }
+
+        /* ------------------------------------------------------------ */
+        void start(AsyncContext async)
+        {
+            _async=async;
+            // Writes are bounded by the idle timeout of the connection instead
+            _async.setTimeout(0);
+            iterate();
+        }
+
+        /* ------------------------------------------------------------ */
+        /** Issue writes until one is pending or all are done.
+         * Writes that complete while being issued are followed in this loop,
+         * rather than by recursion from the callback.
+         */
+        private void iterate()
+        {
+            while (true)
+            {
+                _state.set(WRITING);
+                boolean writing;
+                try
+                {
+                    writing=writeNext();
+                }
+                catch(Throwable x)
+                {
+                    failed(x);
+                    return;
+                }
+
+                if (!writing)
+                {
+                    complete();
+                    return;
+                }
+
+                if (_state.compareAndSet(WRITING,PENDING))
+                    return;
+                // else the write completed already, so write the next
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return true if a write was issued, false if all parts have been written
+         */
+        private boolean writeNext() throws IOException
+        {
+            if (_remaining==0)
+            {
+                if (_next==_parts.size())
+                    return false;
+
+                Object part=_parts.get(_next++);
+                if (part instanceof ByteBuffer)
+                {
+                    _out.sendContent((ByteBuffer)part,_next==_parts.size(),this);
+                    return true;
+                }
+
+                long[] range=(long[])part;
+                if (_content!=null)
+                {
+                    ByteBuffer slice=_content.duplicate();
+                    slice.position((int)range[0]);
+                    slice.limit((int)(range[0]+range[1]));
+                    _out.sendContent(slice,_next==_parts.size(),this);
+                    return true;
+                }
+                _position=range[0];
+                _remaining=range[1];
+            }
+
+            // read the next chunk of the range from the file
+            if (_chunk==null)
+                _chunk=_pool.acquire(_chunkSize,true);
+            BufferUtil.clear(_chunk);
+            int pos=BufferUtil.flipToFill(_chunk);
+            if (_chunk.remaining()>_remaining)
+                _chunk.limit((int)(_chunk.position()+_remaining));
+            while (_chunk.hasRemaining())
+            {
+                int read=_channel.read(_chunk,_position);
+                if (read<0)
+                    throw new IOException("EOF");
+                _position+=read;
+                _remaining-=read;
+            }
+            BufferUtil.flipToFlush(_chunk,pos);
+            _out.sendContent(_chunk,_remaining==0 && _next==_parts.size(),this);
+            return true;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void succeeded()
+        {
+            if (_state.compareAndSet(WRITING,CALLED))
+                return;
+
+            // completed asynchronously, so continue in another thread
+            try
+            {
+                _executor.execute(this);
+            }
+            catch(RejectedExecutionException x)
+            {
+                failed(x);
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void run()
+        {
+            iterate();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void failed(Throwable x)
+        {
+            LOG.debug(x);
+            complete();
+        }
+
+        /* ------------------------------------------------------------ */
+        private void complete()
+        {
+            if (_chunk!=null)
+                _pool.release(_chunk);
+            _chunk=null;
+            if (_channel!=null)
+            {
+                try
+                {
+                    _channel.close();
+                }
+                catch(IOException e)
+                {
+                    LOG.ignore(e);
+                }
+            }
+            _async.complete();
+        }
+    }
 }
@@ -21,9 +21,11 @@ package org.eclipse.jetty.servlet;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.Socket;
 
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.toolchain.test.FS;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.OS;
@@ -48,6 +50,7 @@ public class DefaultServletRangesTest
     private Server server;
     private LocalConnector connector;
     private ServletContextHandler context;
+    private String large;
 
     @Before
     public void init() throws Exception
@@ -70,12 +73,23 @@ public class DefaultServletRangesTest
         FS.ensureDirExists(resBase);
         File data = new File(resBase, "data.txt");
         createFile(data, DATA);
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 100000)
+            builder.append(DATA);
+        large = builder.toString();
+        createFile(new File(resBase, "large.txt"), large);
         String resBasePath = resBase.getAbsolutePath();
 
         ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
         defholder.setInitParameter("acceptRanges", "true");
         defholder.setInitParameter("resourceBase", resBasePath);
 
+        ServletHolder cachedholder = context.addServlet(DefaultServlet.class, "/cached/*");
+        cachedholder.setInitParameter("acceptRanges", "true");
+        cachedholder.setInitParameter("resourceBase", resBasePath);
+        cachedholder.setInitParameter("pathInfoOnly", "true");
+        cachedholder.setInitParameter("maxCachedFiles", "10");
+
         server.start();
     }
 
@@ -163,6 +177,113 @@ public class DefaultServletRangesTest
 
     }
 
+    @Test
+    public void testMultipleRangeRequestsCached() throws Exception
+    {
+        for (int i=0;i<2;i++)
+        {
+            String response = connector.getResponses(
+                    "GET /context/cached/data.txt HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close\r\n"+
+                    "Range: bytes=0-9,20-29,40-49\r\n" +
+                    "\r\n");
+            int start = response.indexOf("--jetty");
+            String body = response.substring(start);
+            String boundary = body.substring(0, body.indexOf("\r\n"));
+            assertResponseContains("206 Partial", response);
+            assertResponseContains("Content-Type: multipart/byteranges; boundary=", response);
+            assertResponseContains("Content-Range: bytes 0-9/80", response);
+            assertResponseContains("Content-Range: bytes 20-29/80", response);
+            assertResponseContains("Content-Range: bytes 40-49/80", response);
+            assertResponseContains("Content-Length: " + body.length(), response);
+            assertResponseContains(DATA.substring(0,10), response);
+            assertResponseContains(DATA.substring(20,30), response);
+            assertResponseContains(DATA.substring(40,50), response);
+            assertTrue(body.endsWith(boundary + "--\r\n"));
+        }
+    }
+
+    @Test
+    public void testLargeRangeRequests() throws Exception
+    {
+        for (String path : new String[]{"/context/large.txt","/context/cached/large.txt"})
+        {
+            String response = connector.getResponses(
+                    "GET " + path + " HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close\r\n"+
+                    "Range: bytes=10-89999\r\n" +
+                    "\r\n");
+            assertResponseContains("206 Partial", response);
+            assertResponseContains("Content-Range: bytes 10-89999/" + large.length(), response);
+            assertResponseContains("Content-Length: 89990", response);
+            Assert.assertEquals(large.substring(10,90000), response.substring(response.indexOf("\r\n\r\n") + 4));
+
+            response = connector.getResponses(
+                    "GET " + path + " HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Connection: close\r\n"+
+                    "Range: bytes=0-49999,60000-\r\n" +
+                    "\r\n");
+            int start = response.indexOf("--jetty");
+            String body = response.substring(start);
+            String boundary = body.substring(0, body.indexOf("\r\n"));
+            assertResponseContains("206 Partial", response);
+            assertResponseContains("Content-Length: " + body.length(), response);
+            assertResponseContains(large.substring(0,50000), response);
+            assertResponseContains(large.substring(60000), response);
+            assertTrue(body.endsWith(boundary + "--\r\n"));
+        }
+    }
+
+    @Test
+    public void testLargeRangeOverNetwork() throws Exception
+    {
+        // Large enough that the writes complete asynchronously while the client is slow to read
+        byte[] data = new byte[8 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte)('a' + i % 26);
+        FileOutputStream out = new FileOutputStream(testdir.getFile("docroot/huge.bin"));
+        out.write(data);
+        out.close();
+
+        ServerConnector network = new ServerConnector(server);
+        server.addConnector(network);
+        network.start();
+        try
+        {
+            Socket socket = new Socket("localhost", network.getLocalPort());
+            try
+            {
+                socket.getOutputStream().write((
+                        "GET /context/huge.bin HTTP/1.1\r\n" +
+                        "Host: localhost\r\n" +
+                        "Connection: close\r\n" +
+                        "Range: bytes=1-8000000\r\n" +
+                        "\r\n").getBytes(StringUtil.__ISO_8859_1));
+                Thread.sleep(500);
+                byte[] response = IO.readBytes(socket.getInputStream());
+                String head = new String(response, 0, 512, StringUtil.__ISO_8859_1);
+                assertResponseContains("206 Partial", head);
+                assertResponseContains("Content-Length: 8000000", head);
+                int body = head.indexOf("\r\n\r\n") + 4;
+                Assert.assertEquals(8000000, response.length - body);
+                for (int i = 0; i < 8000000; i += 4099)
+                    Assert.assertEquals(data[1 + i], response[body + i]);
+                Assert.assertEquals(data[8000000], response[response.length - 1]);
+            }
+            finally
+            {
+                socket.close();
+            }
+        }
+        finally
+        {
+            network.stop();
+        }
+    }
+
     @Test
     public void testOpenEndRange() throws Exception
     {
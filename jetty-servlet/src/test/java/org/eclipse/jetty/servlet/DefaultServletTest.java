@@ -18,13 +18,16 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.EnumSet;
 import javax.servlet.DispatcherType;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -39,6 +42,7 @@ import org.eclipse.jetty.toolchain.test.FS;
 import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.OS;
 import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.DateCache;
 import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.StringUtil;
@@ -616,6 +620,59 @@ public class DefaultServletTest
         
     }
     
+    @Test
+    public void testCachedGzip() throws Exception
+    {
+        testdir.ensureEmpty();
+        File resBase = testdir.getFile("docroot");
+        FS.ensureDirExists(resBase);
+        File file = new File(resBase, "file.txt");
+
+        String resBasePath = resBase.getAbsolutePath();
+
+        ServletHolder defholder = context.addServlet(DefaultServlet.class, "/");
+        defholder.setInitParameter("resourceBase", resBasePath);
+        defholder.setInitParameter("maxCacheSize", "65536");
+        defholder.setInitParameter("maxCachedFileSize", "16384");
+        defholder.setInitParameter("maxCachedFiles", "100");
+        defholder.setInitParameter("etags", "true");
+        defholder.setInitParameter("cacheGzip", "true");
+
+        StringBuilder content = new StringBuilder();
+        for (int i=0;i<100;i++)
+            content.append("Now is the time for all good men to come to the aid of the party\n");
+        createFile(file, content.toString());
+
+        String response = connector.getResponses("GET /context/file.txt HTTP/1.1\r\nHost:test\r\nConnection:close\r\n\r\n");
+        assertResponseContains("200", response);
+        assertResponseNotContains("Content-Encoding", response);
+        String etag = getHeaderValue("ETag",response);
+
+        // The compressed variant is created in the background
+        for (int i=0;i<100 && !response.contains("Content-Encoding: gzip");i++)
+        {
+            Thread.sleep(10);
+            response = connector.getResponses("GET /context/file.txt HTTP/1.1\r\nHost:test\r\nConnection:close\r\nAccept-Encoding: gzip\r\n\r\n");
+            assertResponseContains("200", response);
+            assertResponseContains("Vary: Accept-Encoding", response);
+        }
+        assertResponseContains("Content-Encoding: gzip", response);
+        String gzipEtag = getHeaderValue("ETag",response);
+        Assert.assertEquals(etag.substring(0,etag.length()-1)+"--gzip\"",gzipEtag);
+
+        // Check the raw bytes of the compressed body
+        ByteBuffer raw = connector.getResponses(BufferUtil.toBuffer("GET /context/file.txt HTTP/1.1\r\nHost:test\r\nConnection:close\r\nAccept-Encoding: gzip\r\n\r\n"));
+        String head = BufferUtil.toString(raw);
+        raw.position(raw.position()+head.indexOf("\r\n\r\n")+4);
+        Assert.assertEquals(content.toString(),IO.toString(new GZIPInputStream(new ByteArrayInputStream(BufferUtil.toArray(raw))),StringUtil.__ISO_8859_1));
+
+        response = connector.getResponses("GET /context/file.txt HTTP/1.1\r\nHost:test\r\nConnection:close\r\nAccept-Encoding: gzip\r\nIf-None-Match: "+gzipEtag+"\r\n\r\n");
+        assertResponseContains("304", response);
+
+        response = connector.getResponses("GET /context/file.txt HTTP/1.1\r\nHost:test\r\nConnection:close\r\nRange: bytes=0-9\r\nAccept-Encoding: gzip\r\n\r\n");
+        assertResponseNotContains("Content-Encoding", response);
+    }
+
     public static class OutputFilter implements Filter
     {
         @Override
@@ -18,7 +18,17 @@
 
 package org.eclipse.jetty.servlets;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -26,6 +36,24 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.HttpContent;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.PathMap;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.ResourceCache;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.B64Code;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.QuotedStringTokenizer;
+import org.eclipse.jetty.util.URIUtil;
+import org.eclipse.jetty.util.resource.Resource;
+import org.eclipse.jetty.util.resource.ResourceFactory;
+
 /* ------------------------------------------------------------ */
 /** Concatenation Servlet
  * This servlet may be used to concatenate multiple resources into
@@ -57,15 +85,28 @@ import javax.servlet.http.HttpServletResponse;
  * and If-Modified-Since requests are handled with 206 NOT Modified responses if
  * appropriate. This means that when not in development mode, the servlet must be
  * restarted before changed content will be served.
+ * <p>
+ * If the init parameter "maxCachedBundles" is set to a positive number and the servlet is
+ * not in development mode, then the concatenation of parts that are all static resources
+ * served by the {@link DefaultServlet} is cached in a {@link ResourceCache}, keyed by the
+ * query string.  A cached bundle is served from a single buffer, with a strong ETag derived
+ * from its parts and the latest last modified time of its parts, and it is invalidated
+ * when any part changes, so the servlet need not be restarted.  The "maxCacheSize" init
+ * parameter limits the total size of the cached bundles, and if the "cacheGzip" init parameter
+ * is true, a gzip compressed variant of each bundle is cached for clients that accept it.
+ * Bundles with any other part are concatenated on every request, as above.
  *
  *
  *
  */
 public class ConcatServlet extends HttpServlet
 {
+    private final static String __CONTENT = "org.eclipse.jetty.servlets.ConcatServlet.content";
+
     boolean _development;
     long _lastModified;
     ServletContext _context;
+    ResourceCache _cache;
 
     /* ------------------------------------------------------------ */
     public void init() throws ServletException
@@ -73,15 +114,128 @@ public class ConcatServlet extends HttpServlet
         _lastModified=System.currentTimeMillis();
         _context=getServletContext();
         _development="true".equals(getInitParameter("development"));
+
+        String maxCachedBundles=getInitParameter("maxCachedBundles");
+        if (!_development && maxCachedBundles!=null && Integer.parseInt(maxCachedBundles)>0)
+        {
+            _cache=new ResourceCache(null,new ResourceFactory()
+            {
+                public Resource getResource(String query)
+                {
+                    return newBundle(query);
+                }
+            },new MimeTypes(),false,false);
+            _cache.setMaxCachedFiles(Integer.parseInt(maxCachedBundles));
+            if (getInitParameter("maxCacheSize")!=null)
+                _cache.setMaxCacheSize(Integer.parseInt(getInitParameter("maxCacheSize")));
+            if ("true".equals(getInitParameter("cacheGzip")))
+                _cache.setCompressor(new ResourceCache.GzipCompressor());
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    public void destroy()
+    {
+        if (_cache!=null)
+            _cache.flushCache();
+        _cache=null;
     }
 
     /* ------------------------------------------------------------ */
     /*
-     * @return The start time of the servlet unless in development mode, in which case -1 is returned.
+     * @return The latest last modified time of the parts of a cached bundle, otherwise
+     * the start time of the servlet unless in development mode, in which case -1 is returned.
      */
     protected long getLastModified(HttpServletRequest req)
     {
-        return _development?-1:_lastModified;
+        if (_development)
+            return -1;
+        HttpContent content=lookup(req);
+        return content==null?_lastModified:content.getResource().lastModified();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Look up the cached bundle for a request.
+     * @param req the request
+     * @return the bundle content, or null if the bundle is not cacheable
+     */
+    private HttpContent lookup(HttpServletRequest req)
+    {
+        String q=req.getQueryString();
+        if (_cache==null || q==null)
+            return null;
+
+        HttpContent content=(HttpContent)req.getAttribute(__CONTENT);
+        if (content==null)
+        {
+            try
+            {
+                content=_cache.lookup(q);
+            }
+            catch(IOException e)
+            {
+                _context.log("concat "+q,e);
+                return null;
+            }
+            if (content!=null)
+                req.setAttribute(__CONTENT,content);
+        }
+        return content;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Create a bundle of the parts of a query.
+     * @param query the query string, listing the parts
+     * @return the bundle, or null if any part is not a static resource
+     */
+    protected Resource newBundle(String query)
+    {
+        ContextHandler handler=ContextHandler.getContextHandler(_context);
+        if (!(handler instanceof ServletContextHandler))
+            return null;
+
+        String[] paths=query.split("\\&");
+        Resource[] parts=new Resource[paths.length];
+        for (int i=0;i<paths.length;i++)
+        {
+            String path=URIUtil.canonicalPath(paths[i]);
+            if (path==null || !path.startsWith("/") || handler.isProtectedTarget(path) || !isStatic((ServletContextHandler)handler,path))
+                return null;
+
+            try
+            {
+                URL url=_context.getResource(path);
+                if (url==null)
+                    return null;
+                parts[i]=Resource.newResource(url);
+                if (!parts[i].exists() || parts[i].isDirectory())
+                    return null;
+            }
+            catch(IOException e)
+            {
+                _context.log("concat "+path,e);
+                return null;
+            }
+        }
+        return new Bundle(query,parts);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return true if the path is served by the {@link DefaultServlet}, so the resource is its content
+     */
+    private boolean isStatic(ServletContextHandler handler, String path)
+    {
+        PathMap.MappedEntry entry=handler.getServletHandler().getHolderEntry(path);
+        if (entry==null)
+            return false;
+        ServletHolder holder=(ServletHolder)entry.getValue();
+        Class<?> held=holder.getHeldClass();
+        if (held==null && holder.getServletInstance()!=null)
+            held=holder.getServletInstance().getClass();
+        return held!=null && DefaultServlet.class.isAssignableFrom(held);
     }
 
     /* ------------------------------------------------------------ */
@@ -114,6 +268,13 @@ public class ConcatServlet extends HttpServlet
         if (type!=null)
             resp.setContentType(type);
 
+        HttpContent content=lookup(req);
+        if (content!=null)
+        {
+            sendBundle(req,resp,content);
+            return;
+        }
+
         for (int i=0;i<parts.length;i++)
         {
             RequestDispatcher dispatcher=_context.getRequestDispatcher(parts[i]);
@@ -121,4 +282,267 @@ public class ConcatServlet extends HttpServlet
                 dispatcher.include(req,resp);
         }
     }
+
+    /* ------------------------------------------------------------ */
+    private void sendBundle(HttpServletRequest req, HttpServletResponse resp, HttpContent content) throws IOException
+    {
+        String etag=((Bundle)content.getResource()).getETag();
+
+        if (_cache.getCompressor()!=null)
+            resp.setHeader(HttpHeader.VARY.asString(),HttpHeader.ACCEPT_ENCODING.asString());
+        if (content instanceof ResourceCache.Content)
+        {
+            ResourceCache.CompressedContent compressed=((ResourceCache.Content)content).getCompressedContent(req.getHeader(HttpHeader.ACCEPT_ENCODING.asString()));
+            if (compressed!=null)
+            {
+                String encoding=compressed.getContentEncoding();
+                etag=etag.substring(0,etag.length()-1)+"--"+encoding+"\"";
+                resp.setHeader(HttpHeader.CONTENT_ENCODING.asString(),encoding);
+                content=compressed;
+            }
+        }
+        resp.setHeader(HttpHeader.ETAG.asString(),etag);
+
+        String ifnm=req.getHeader(HttpHeader.IF_NONE_MATCH.asString());
+        if (ifnm!=null)
+        {
+            QuotedStringTokenizer quoted = new QuotedStringTokenizer(ifnm,", ",false,true);
+            while (quoted.hasMoreTokens())
+            {
+                String tag = quoted.nextToken();
+                if ("*".equals(tag) || etag.equals(tag))
+                {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            }
+        }
+
+        resp.setContentLength((int)content.getContentLength());
+        OutputStream out=resp.getOutputStream();
+        ByteBuffer buffer=content.getIndirectBuffer();
+        if (buffer==null)
+        {
+            InputStream in=content.getInputStream();
+            try
+            {
+                IO.copy(in,out);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        else if (out instanceof HttpOutput)
+            ((HttpOutput)out).sendContent(buffer);
+        else
+            BufferUtil.writeTo(buffer,out);
+    }
+
+    /* ------------------------------------------------------------ */
+    /* ------------------------------------------------------------ */
+    /** The concatenation of static resources, as a single resource.
+     * The last modified time and length are those of the parts now,
+     * so that a cached bundle is invalidated when any part changes,
+     * while the strong ETag is that of the parts when the bundle was created.
+     */
+    static class Bundle extends Resource
+    {
+        private final String _name;
+        private final Resource[] _parts;
+        private final String _etag;
+
+        /* ------------------------------------------------------------ */
+        Bundle(String name, Resource[] parts)
+        {
+            _name=name;
+            _parts=parts;
+
+            long hash=name.hashCode();
+            long length=0;
+            for (Resource part : parts)
+            {
+                hash=31*hash+part.lastModified();
+                hash=31*hash+part.length();
+                length+=part.length();
+            }
+            try
+            {
+                StringBuilder b = new StringBuilder(32);
+                b.append('"');
+                B64Code.encode(hash,b);
+                B64Code.encode(length,b);
+                b.append('"');
+                _etag=b.toString();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /* ------------------------------------------------------------ */
+        /**
+         * @return The strong ETag of the bundle
+         */
+        public String getETag()
+        {
+            return _etag;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public boolean isContainedIn(Resource r) throws MalformedURLException
+        {
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public void release()
+        {
+            for (Resource part : _parts)
+                part.release();
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public boolean exists()
+        {
+            for (Resource part : _parts)
+                if (!part.exists())
+                    return false;
+            return true;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public boolean isDirectory()
+        {
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public long lastModified()
+        {
+            long last=-1;
+            for (Resource part : _parts)
+            {
+                long modified=part.lastModified();
+                if (modified>last)
+                    last=modified;
+            }
+            return last;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public long length()
+        {
+            long length=0;
+            for (Resource part : _parts)
+                length+=part.length();
+            return length;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public URL getURL()
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public File getFile() throws IOException
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String getName()
+        {
+            return _name;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public InputStream getInputStream() throws IOException
+        {
+            return new SequenceInputStream(new Enumeration<InputStream>()
+            {
+                int _next;
+
+                public boolean hasMoreElements()
+                {
+                    return _next<_parts.length;
+                }
+
+                public InputStream nextElement()
+                {
+                    if (_next>=_parts.length)
+                        throw new NoSuchElementException();
+                    try
+                    {
+                        return _parts[_next++].getInputStream();
+                    }
+                    catch(IOException e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public ReadableByteChannel getReadableByteChannel() throws IOException
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public OutputStream getOutputStream() throws IOException, SecurityException
+        {
+            throw new SecurityException("Bundle");
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public boolean delete() throws SecurityException
+        {
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public boolean renameTo(Resource dest) throws SecurityException
+        {
+            return false;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String[] list()
+        {
+            return null;
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public Resource addPath(String path) throws IOException, MalformedURLException
+        {
+            throw new MalformedURLException(path);
+        }
+
+        /* ------------------------------------------------------------ */
+        @Override
+        public String toString()
+        {
+            return _name;
+        }
+    }
 }
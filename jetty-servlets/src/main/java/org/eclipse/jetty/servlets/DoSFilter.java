@@ -19,13 +19,22 @@
 package org.eclipse.jetty.servlets;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Queue;
+import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -41,15 +50,13 @@ import javax.servlet.http.HttpSessionBindingEvent;
 import javax.servlet.http.HttpSessionBindingListener;
 import javax.servlet.http.HttpSessionEvent;
 
-import org.eclipse.jetty.continuation.Continuation;
-import org.eclipse.jetty.continuation.ContinuationListener;
-import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
-import org.eclipse.jetty.util.thread.Timeout;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.TimerScheduler;
 
 /**
  * Denial of Service filter
@@ -63,6 +70,15 @@ import org.eclipse.jetty.util.thread.Timeout;
  * second. If a limit is exceeded, the request is either rejected, delayed, or
  * throttled.
  * <p>
+ * Requests identified only by their IP address (or IP+port) are counted in a
+ * fixed size, lock free sliding window sketch rather than by a tracker object
+ * per address, so that a flood from many distinct addresses neither grows the
+ * memory used by the filter nor contends on a lock. The sketch may over estimate
+ * the rate of an address that shares its slots with busier addresses, but never
+ * under estimates it.
+ * <p>
+ * When a request is delayed or throttled, it is suspended with
+ * {@link ServletRequest#startAsync()} and does not hold a thread while waiting.
  * When a request is throttled, it is placed in a priority queue. Priority is
  * given first to authenticated users and users with an HttpSession, then
  * connections which can be identified by their IP addresses. Connections with
@@ -100,6 +116,10 @@ import org.eclipse.jetty.util.thread.Timeout;
  *                      <dd>how long to keep track of request rates for a connection,
  *                      before deciding that the user has gone away, and discarding it</dd>
  *
+ * <dt>trackerSlots</dt>
+ *                      <dd>the number of slots in each row of the sketch used to track the request
+ *                      rates of IP addresses. Rounded up to a power of 2. Defaults to 16384.</dd>
+ *
  * <dt>insertHeaders</dt>
  *                      <dd>if true , insert the DoSFilter headers into the response. Defaults to true.</dd>
  *
@@ -126,6 +146,8 @@ public class DoSFilter implements Filter
 
     final static String __TRACKER = "DoSFilter.Tracker";
     final static String __THROTTLED = "DoSFilter.Throttled";
+    final static String __RESUMED = "DoSFilter.Resumed";
+    final static String __CLAIMED = "DoSFilter.Claimed";
 
     final static int __DEFAULT_MAX_REQUESTS_PER_SEC = 25;
     final static int __DEFAULT_DELAY_MS = 100;
@@ -134,6 +156,7 @@ public class DoSFilter implements Filter
     final static long __DEFAULT_THROTTLE_MS = 30000L;
     final static long __DEFAULT_MAX_REQUEST_MS_INIT_PARAM=30000L;
     final static long __DEFAULT_MAX_IDLE_TRACKER_MS_INIT_PARAM=30000L;
+    final static int __DEFAULT_TRACKER_SLOTS=16384;
 
     final static String MANAGED_ATTR_INIT_PARAM="managedAttr";
     final static String MAX_REQUESTS_PER_S_INIT_PARAM = "maxRequestsPerSec";
@@ -147,6 +170,7 @@ public class DoSFilter implements Filter
     final static String TRACK_SESSIONS_INIT_PARAM="trackSessions";
     final static String REMOTE_PORT_INIT_PARAM="remotePort";
     final static String IP_WHITELIST_INIT_PARAM="ipWhitelist";
+    final static String TRACKER_SLOTS_INIT_PARAM="trackerSlots";
 
     final static int USER_AUTH = 2;
     final static int USER_SESSION = 2;
@@ -166,40 +190,89 @@ public class DoSFilter implements Filter
     protected boolean _remotePort;
     protected int _throttledRequests;
     protected Semaphore _passes;
-    protected Queue<Continuation>[] _queue;
-    protected ContinuationListener[] _listener;
+    protected Queue<AsyncContext>[] _queue;
+    protected AsyncListener[] _listener;
 
     protected int _maxRequestsPerSec;
     protected final ConcurrentHashMap<String, RateTracker> _rateTrackers=new ConcurrentHashMap<String, RateTracker>();
+    protected SlidingWindowSketch _ipRates;
     protected String _whitelistStr;
     private final HashSet<String> _whitelist = new HashSet<String>();
 
-    private final Timeout _requestTimeoutQ = new Timeout();
-    private final Timeout _trackerTimeoutQ = new Timeout();
+    private Scheduler _scheduler;
+    private final Set<RequestTimeout> _requestTimeouts = Collections.newSetFromMap(new ConcurrentHashMap<RequestTimeout, Boolean>());
+    private final Runnable _requestTimeoutSweeper = new Runnable()
+    {
+        public void run()
+        {
+            long now = System.nanoTime();
+            for (RequestTimeout timeout : _requestTimeouts)
+            {
+                if (now - timeout._deadline >= 0 && _requestTimeouts.remove(timeout))
+                    closeConnection(timeout._request,timeout._response,timeout._thread);
+            }
+            scheduleRequestTimeoutSweep();
+        }
+    };
 
-    private Thread _timerThread;
-    private volatile boolean _running;
+    private final AsyncListener _delayListener = new AsyncListener()
+    {
+        public void onComplete(AsyncEvent event)
+        {
+        }
 
-    public void init(FilterConfig filterConfig)
+        public void onTimeout(AsyncEvent event)
+        {
+            // the delay is over, so try the request again
+            event.getAsyncContext().dispatch();
+        }
+
+        public void onError(AsyncEvent event)
+        {
+        }
+
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    };
+
+    public void init(FilterConfig filterConfig) throws ServletException
     {
         _context = filterConfig.getServletContext();
 
         _queue = new Queue[getMaxPriority() + 1];
-        _listener = new ContinuationListener[getMaxPriority() + 1];
+        _listener = new AsyncListener[getMaxPriority() + 1];
         for (int p = 0; p < _queue.length; p++)
         {
-            _queue[p] = new ConcurrentLinkedQueue<Continuation>();
+            _queue[p] = new ConcurrentLinkedQueue<AsyncContext>();
 
             final int priority=p;
-            _listener[p] = new ContinuationListener()
+            _listener[p] = new AsyncListener()
             {
-                public void onComplete(Continuation continuation)
+                public void onComplete(AsyncEvent event)
+                {
+                }
+
+                public void onTimeout(AsyncEvent event)
+                {
+                    // give up waiting for a pass; the redispatched request will be rejected
+                    // unless a pass has become available in the meantime
+                    AsyncContext async = event.getAsyncContext();
+                    _queue[priority].remove(async);
+                    // resumeNext() may have already polled this request, only one of them dispatches it
+                    if (claim(async.getRequest()))
+                        async.dispatch();
+                }
+
+                public void onError(AsyncEvent event)
                 {
+                    AsyncContext async = event.getAsyncContext();
+                    _queue[priority].remove(async);
+                    claim(async.getRequest());
                 }
 
-                public void onTimeout(Continuation continuation)
+                public void onStartAsync(AsyncEvent event)
                 {
-                    _queue[priority].remove(continuation);
                 }
             };
         }
@@ -219,7 +292,7 @@ public class DoSFilter implements Filter
         int throttledRequests = __DEFAULT_THROTTLE;
         if (filterConfig.getInitParameter(THROTTLED_REQUESTS_INIT_PARAM) != null)
             throttledRequests = Integer.parseInt(filterConfig.getInitParameter(THROTTLED_REQUESTS_INIT_PARAM));
-        _passes = new Semaphore(throttledRequests,true);
+        _passes = new Semaphore(throttledRequests);
         _throttledRequests = throttledRequests;
 
         long wait = __DEFAULT_WAIT_MS;
@@ -256,49 +329,21 @@ public class DoSFilter implements Filter
         tmp = filterConfig.getInitParameter(REMOTE_PORT_INIT_PARAM);
         _remotePort = tmp!=null&& Boolean.parseBoolean(tmp);
 
-        _requestTimeoutQ.setNow();
-        _requestTimeoutQ.setDuration(_maxRequestMs);
-
-        _trackerTimeoutQ.setNow();
-        _trackerTimeoutQ.setDuration(_maxIdleTrackerMs);
+        int trackerSlots = __DEFAULT_TRACKER_SLOTS;
+        if (filterConfig.getInitParameter(TRACKER_SLOTS_INIT_PARAM) != null)
+            trackerSlots = Integer.parseInt(filterConfig.getInitParameter(TRACKER_SLOTS_INIT_PARAM));
+        _ipRates = new SlidingWindowSketch(trackerSlots);
 
-        _running=true;
-        _timerThread = (new Thread()
+        _scheduler = new TimerScheduler("DoSFilter-"+filterConfig.getFilterName());
+        try
         {
-            public void run()
-            {
-                try
-                {
-                    while (_running)
-                    {
-                        long now;
-                        synchronized (_requestTimeoutQ)
-                        {
-                            now = _requestTimeoutQ.setNow();
-                            _requestTimeoutQ.tick();
-                        }
-                        synchronized (_trackerTimeoutQ)
-                        {
-                            _trackerTimeoutQ.setNow(now);
-                            _trackerTimeoutQ.tick();
-                        }
-                        try
-                        {
-                            Thread.sleep(100);
-                        }
-                        catch (InterruptedException e)
-                        {
-                            LOG.ignore(e);
-                        }
-                    }
-                }
-                finally
-                {
-                    LOG.info("DoSFilter timer exited");
-                }
-            }
-        });
-        _timerThread.start();
+            _scheduler.start();
+        }
+        catch (Exception e)
+        {
+            throw new ServletException(e);
+        }
+        scheduleRequestTimeoutSweep();
 
         if (_context!=null && Boolean.parseBoolean(filterConfig.getInitParameter(MANAGED_ATTR_INIT_PARAM)))
             _context.setAttribute(filterConfig.getFilterName(),this);
@@ -310,7 +355,7 @@ public class DoSFilter implements Filter
         final HttpServletRequest srequest = (HttpServletRequest)request;
         final HttpServletResponse sresponse = (HttpServletResponse)response;
 
-        final long now=_requestTimeoutQ.getNow();
+        final long now=System.currentTimeMillis();
 
         // Look for the rate tracker for this request
         RateTracker tracker = (RateTracker)request.getAttribute(__TRACKER);
@@ -358,22 +403,11 @@ public class DoSFilter implements Filter
                     // insert a delay before throttling the request
                     if (_insertHeaders)
                         ((HttpServletResponse)response).addHeader("DoSFilter","delayed");
-                    Continuation continuation = ContinuationSupport.getContinuation(request);
                     request.setAttribute(__TRACKER,tracker);
+                    AsyncContext async = request.startAsync();
                     if (_delayMs > 0)
-                        continuation.setTimeout(_delayMs);
-                    continuation.addContinuationListener(new ContinuationListener()
-                    {
-
-                        public void onComplete(Continuation continuation)
-                        {
-                        }
-
-                        public void onTimeout(Continuation continuation)
-                        {
-                        }
-                    });
-                    continuation.suspend();
+                        async.setTimeout(_delayMs);
+                    async.addListener(_delayListener);
                     return;
                 }
             }
@@ -388,8 +422,6 @@ public class DoSFilter implements Filter
             if (!accepted)
             {
                 // we were not accepted, so either we suspend to wait,or if we were woken up we insist or we fail
-                final Continuation continuation = ContinuationSupport.getContinuation(request);
-
                 Boolean throttled = (Boolean)request.getAttribute(__THROTTLED);
                 if (throttled!=Boolean.TRUE && _throttleMs>0)
                 {
@@ -397,16 +429,15 @@ public class DoSFilter implements Filter
                     request.setAttribute(__THROTTLED,Boolean.TRUE);
                     if (_insertHeaders)
                         ((HttpServletResponse)response).addHeader("DoSFilter","throttled");
-                    if (_throttleMs > 0)
-                        continuation.setTimeout(_throttleMs);
-                    continuation.suspend();
-
-                    continuation.addContinuationListener(_listener[priority]);
-                    _queue[priority].add(continuation);
+                    request.setAttribute(__CLAIMED,new AtomicBoolean());
+                    AsyncContext async = request.startAsync();
+                    async.setTimeout(_throttleMs);
+                    async.addListener(_listener[priority]);
+                    _queue[priority].add(async);
                     return;
                 }
                 // else were we resumed?
-                else if (request.getAttribute("javax.servlet.resumed")==Boolean.TRUE)
+                else if (request.getAttribute(__RESUMED)==Boolean.TRUE)
                 {
                     // we were resumed and somebody stole our pass, so we wait for the next one.
                     _passes.acquire();
@@ -440,20 +471,54 @@ public class DoSFilter implements Filter
             if (accepted)
             {
                 // wake up the next highest priority request.
-                for (int p = _queue.length; p-- > 0;)
+                _passes.release();
+                resumeNext();
+            }
+        }
+    }
+
+    /**
+     * Resume the highest priority throttled request, if any.
+     * A request that timed out while being resumed is skipped, and the next one is resumed instead.
+     */
+    private void resumeNext()
+    {
+        for (int p = _queue.length; p-- > 0;)
+        {
+            AsyncContext async;
+            while ((async = _queue[p].poll()) != null)
+            {
+                ServletRequest candidate = async.getRequest();
+                // the timeout listener has already dispatched this request
+                if (!claim(candidate))
+                    continue;
+                candidate.setAttribute(__RESUMED,Boolean.TRUE);
+                try
                 {
-                    Continuation continuation = _queue[p].poll();
-                    if (continuation != null && continuation.isSuspended())
-                    {
-                        continuation.resume();
-                        break;
-                    }
+                    async.dispatch();
+                    return;
+                }
+                catch (IllegalStateException e)
+                {
+                    // already expired or completed
+                    LOG.ignore(e);
+                    candidate.removeAttribute(__RESUMED);
                 }
-                _passes.release();
             }
         }
     }
 
+    /**
+     * Claims a throttled request, so that it is dispatched either by the timeout or by a resume, but not both.
+     * @param request the throttled request
+     * @return true if the caller claimed the request and must dispatch it
+     */
+    private static boolean claim(ServletRequest request)
+    {
+        AtomicBoolean claimed = (AtomicBoolean)request.getAttribute(__CLAIMED);
+        return claimed != null && claimed.compareAndSet(false,true);
+    }
+
     /**
      * @param chain
      * @param request
@@ -461,33 +526,35 @@ public class DoSFilter implements Filter
      * @throws IOException
      * @throws ServletException
      */
-    protected void doFilterChain(FilterChain chain, final HttpServletRequest request, final HttpServletResponse response)
+    protected void doFilterChain(FilterChain chain, HttpServletRequest request, HttpServletResponse response)
         throws IOException, ServletException
     {
-        final Thread thread=Thread.currentThread();
-
-        final Timeout.Task requestTimeout = new Timeout.Task()
-        {
-            public void expired()
-            {
-                closeConnection(request, response, thread);
-            }
-        };
-
+        // The deadline is checked by a periodic sweep rather than scheduled, so that there
+        // is no lock taken on this path and nothing is left behind once the request is done
+        RequestTimeout requestTimeout = new RequestTimeout(request,response,Thread.currentThread(),System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(_maxRequestMs));
+        _requestTimeouts.add(requestTimeout);
         try
         {
-            synchronized (_requestTimeoutQ)
-            {
-                _requestTimeoutQ.schedule(requestTimeout);
-            }
             chain.doFilter(request,response);
         }
         finally
         {
-            synchronized (_requestTimeoutQ)
-            {
-                requestTimeout.cancel();
-            }
+            _requestTimeouts.remove(requestTimeout);
+        }
+    }
+
+    private void scheduleRequestTimeoutSweep()
+    {
+        // Requests are closed at most a tenth of maxRequestMs late, within bounds
+        long period = Math.max(10,Math.min(1000,_maxRequestMs/10));
+        try
+        {
+            _scheduler.schedule(_requestTimeoutSweeper,period,TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e)
+        {
+            // the filter has been destroyed
+            LOG.ignore(e);
         }
     }
 
@@ -561,6 +628,8 @@ public class DoSFilter implements Filter
      * into one.
      *
      * When a session expires, its rate tracker is automatically deleted.
+     * Client IP addresses are counted in a shared sketch, so the tracker
+     * returned for them is a lightweight view that is not retained.
      *
      * @param request
      * @return the request rate tracker for the current connection
@@ -590,6 +659,14 @@ public class DoSFilter implements Filter
             }
         }
 
+        if (type == USER_IP)
+        {
+            // USER_IP rates are kept in the sketch, which needs no expiration
+            if (_whitelist.contains(request.getRemoteAddr()))
+                return new FixedRateTracker(loadId,type,0);
+            return new SketchRateTracker(loadId,type);
+        }
+
         RateTracker tracker=_rateTrackers.get(loadId);
 
         if (tracker==null)
@@ -606,19 +683,16 @@ public class DoSFilter implements Filter
 
             tracker=_rateTrackers.putIfAbsent(loadId,t);
             if (tracker==null)
+            {
                 tracker=t;
 
-            if (type == USER_IP)
-            {
-                // USER_IP expiration from _rateTrackers is handled by the _trackerTimeoutQ
-                synchronized (_trackerTimeoutQ)
-                {
-                    _trackerTimeoutQ.schedule(tracker);
-                }
+                if (session!=null)
+                    // USER_SESSION expiration from _rateTrackers are handled by the HttpSessionBindingListener
+                    session.setAttribute(__TRACKER,tracker);
+                else
+                    // other trackers are expired by the _scheduler once idle
+                    tracker.schedule();
             }
-            else if (session!=null)
-                // USER_SESSION expiration from _rateTrackers are handled by the HttpSessionBindingListener
-                session.setAttribute(__TRACKER,tracker);
         }
 
         return tracker;
@@ -626,16 +700,15 @@ public class DoSFilter implements Filter
 
     public void destroy()
     {
-        _running=false;
-        _timerThread.interrupt();
-        synchronized (_requestTimeoutQ)
+        try
         {
-            _requestTimeoutQ.cancelAll();
+            _scheduler.stop();
         }
-        synchronized (_trackerTimeoutQ)
+        catch (Exception e)
         {
-            _trackerTimeoutQ.cancelAll();
+            LOG.warn(e);
         }
+        _requestTimeouts.clear();
         _rateTrackers.clear();
         _whitelist.clear();
     }
@@ -763,7 +836,7 @@ public class DoSFilter implements Filter
      */
     public void setThrottledRequests(int value)
     {
-        _passes = new Semaphore((value-_throttledRequests+_passes.availablePermits()), true);
+        _passes = new Semaphore((value-_throttledRequests+_passes.availablePermits()));
         _throttledRequests = value;
     }
 
@@ -942,20 +1015,19 @@ public class DoSFilter implements Filter
      * A RateTracker is associated with a connection, and stores request rate
      * data.
      */
-    class RateTracker extends Timeout.Task implements HttpSessionBindingListener, HttpSessionActivationListener
+    class RateTracker implements Runnable, HttpSessionBindingListener, HttpSessionActivationListener
     {
         transient protected final String _id;
         transient protected final int _type;
-        transient protected final long[] _timestamps;
-        transient protected int _next;
+        transient protected final AtomicLongArray _timestamps;
+        transient protected final AtomicInteger _next=new AtomicInteger();
 
 
         public RateTracker(String id, int type,int maxRequestsPerSecond)
         {
             _id = id;
             _type = type;
-            _timestamps=new long[maxRequestsPerSecond];
-            _next=0;
+            _timestamps=new AtomicLongArray(maxRequestsPerSecond);
         }
 
         /**
@@ -963,18 +1035,30 @@ public class DoSFilter implements Filter
          */
         public boolean isRateExceeded(long now)
         {
-            final long last;
-            synchronized (this)
-            {
-                last=_timestamps[_next];
-                _timestamps[_next]=now;
-                _next= (_next+1)%_timestamps.length;
-            }
+            final long last=_timestamps.getAndSet(nextIndex(),now);
 
             boolean exceeded=last!=0 && (now-last)<1000L;
             return exceeded;
         }
 
+        protected int nextIndex()
+        {
+            return (_next.getAndIncrement()&0x7fffffff)%_timestamps.length();
+        }
+
+        protected long getLastTimestamp()
+        {
+            if (_timestamps.length()==0)
+                return 0;
+            int latestIndex = ((_next.get()-1)&0x7fffffff)%_timestamps.length();
+            return _timestamps.get(latestIndex);
+        }
+
+        protected void schedule()
+        {
+            _scheduler.schedule(this,_maxIdleTrackerMs,TimeUnit.MILLISECONDS);
+        }
+
 
         public String getId()
         {
@@ -1017,20 +1101,20 @@ public class DoSFilter implements Filter
         }
 
 
-        public void expired()
+        /**
+         * Expire this tracker from the {@link #_scheduler}, unless it has been
+         * used within the last idle period.
+         */
+        public void run()
         {
-            if (_rateTrackers != null && _trackerTimeoutQ != null)
-            {
-                long now = _trackerTimeoutQ.getNow();
-                int latestIndex = _next == 0 ? (_timestamps.length-1) : (_next - 1 );
-                long last=_timestamps[latestIndex];
-                boolean hasRecentRequest = last != 0 && (now-last)<1000L;
+            long now = System.currentTimeMillis();
+            long last=getLastTimestamp();
+            boolean hasRecentRequest = last != 0 && (now-last)<_maxIdleTrackerMs;
 
-                if (hasRecentRequest)
-                    reschedule();
-                else
-                    _rateTrackers.remove(_id);
-            }
+            if (hasRecentRequest)
+                schedule();
+            else
+                _rateTrackers.remove(_id);
         }
 
         @Override
@@ -1042,6 +1126,25 @@ public class DoSFilter implements Filter
 
     }
 
+    /**
+     * The deadline of a request being processed, and what is needed to close it when it expires.
+     */
+    private static class RequestTimeout
+    {
+        private final HttpServletRequest _request;
+        private final HttpServletResponse _response;
+        private final Thread _thread;
+        private final long _deadline;
+
+        private RequestTimeout(HttpServletRequest request, HttpServletResponse response, Thread thread, long deadline)
+        {
+            _request = request;
+            _response = response;
+            _thread = thread;
+            _deadline = deadline;
+        }
+    }
+
     class FixedRateTracker extends RateTracker
     {
         public FixedRateTracker(String id, int type, int numRecentRequestsTracked)
@@ -1055,11 +1158,8 @@ public class DoSFilter implements Filter
             // rate limit is never exceeded, but we keep track of the request timestamps
             // so that we know whether there was recent activity on this tracker
             // and whether it should be expired
-            synchronized (this)
-            {
-                _timestamps[_next]=now;
-                _next= (_next+1)%_timestamps.length;
-            }
+            if (_timestamps.length()>0)
+                _timestamps.set(nextIndex(),now);
 
             return false;
         }
@@ -1070,4 +1170,118 @@ public class DoSFilter implements Filter
             return "Fixed"+super.toString();
         }
     }
+
+    /**
+     * A RateTracker for a client IP address, that counts requests in the
+     * {@link SlidingWindowSketch} shared by all addresses.
+     */
+    class SketchRateTracker extends RateTracker
+    {
+        public SketchRateTracker(String id, int type)
+        {
+            super(id,type,0);
+        }
+
+        @Override
+        public boolean isRateExceeded(long now)
+        {
+            return _ipRates.increment(_id,now)>_maxRequestsPerSec;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Sketch"+super.toString();
+        }
+    }
+
+    /**
+     * A fixed size, lock free count-min sketch of request rates over a sliding
+     * window of one second.
+     * <p>
+     * Each of the {@link #DEPTH} rows of the sketch maps a key hash to a slot of
+     * {@link #BUCKETS} counters, each counting the hits of one fraction of a second.
+     * A counter is stamped with the bucket epoch it counts, so stale counters are
+     * ignored and reset on the next hit without any expiry pass. Counters are
+     * updated with a CAS on a single long, which packs the epoch and count.
+     * The rate of a key is the minimum over the rows of its slot's counts
+     * within the window.
+     */
+    static class SlidingWindowSketch
+    {
+        static final int DEPTH=2;
+        static final int BUCKETS=4;
+        static final long BUCKET_MS=1000L/BUCKETS;
+        private static final int COUNT_BITS=16;
+        private static final long COUNT_MASK=(1L<<COUNT_BITS)-1;
+        private static final int[] SEEDS={0x9E3779B9,0x85EBCA6B};
+
+        private final AtomicLongArray _counters;
+        private final int _slots;
+
+        SlidingWindowSketch(int slots)
+        {
+            int size=1;
+            while (size<slots)
+                size<<=1;
+            _slots=size;
+            _counters=new AtomicLongArray(DEPTH*_slots*BUCKETS);
+        }
+
+        /**
+         * Record a hit of a key.
+         * @param key the key hit
+         * @param now the time of the hit in milliseconds
+         * @return the estimated number of hits of the key within the last second, including this one
+         */
+        int increment(String key, long now)
+        {
+            final long epoch=now/BUCKET_MS;
+            final int hash=key.hashCode();
+            int estimate=Integer.MAX_VALUE;
+
+            for (int row=0;row<DEPTH;row++)
+            {
+                int base=(row*_slots+slot(hash,row))*BUCKETS;
+
+                int count=hit(base+(int)(epoch%BUCKETS),epoch);
+                for (int b=1;b<BUCKETS;b++)
+                {
+                    long bucket=epoch-b;
+                    long value=_counters.get(base+(int)(bucket%BUCKETS));
+                    if ((value>>>COUNT_BITS)==bucket)
+                        count+=value&COUNT_MASK;
+                }
+
+                if (count<estimate)
+                    estimate=count;
+            }
+            return estimate;
+        }
+
+        private int hit(int index, long epoch)
+        {
+            while (true)
+            {
+                long value=_counters.get(index);
+                long count=(value>>>COUNT_BITS)==epoch?(value&COUNT_MASK):0;
+                if (count<COUNT_MASK)
+                    count++;
+                if (_counters.compareAndSet(index,value,(epoch<<COUNT_BITS)|count))
+                    return (int)count;
+            }
+        }
+
+        private int slot(int hash, int row)
+        {
+            int h=hash*SEEDS[row];
+            h^=h>>>16;
+            return h&(_slots-1);
+        }
+
+        int getSlots()
+        {
+            return _slots;
+        }
+    }
 }
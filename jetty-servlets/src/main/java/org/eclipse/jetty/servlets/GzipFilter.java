@@ -21,12 +21,12 @@ package org.eclipse.jetty.servlets;
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
 import javax.servlet.ServletException;
@@ -39,8 +39,12 @@ import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationListener;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.servlets.gzip.AbstractCompressedStream;
 import org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper;
+import org.eclipse.jetty.servlets.gzip.DeflaterPool;
+import org.eclipse.jetty.servlets.gzip.PooledDeflaterOutputStream;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -73,8 +77,7 @@ import org.eclipse.jetty.util.log.Logger;
  * <PRE>
  * bufferSize                 The output buffer size. Defaults to 8192. Be careful as values <= 0 will lead to an
  *                            {@link IllegalArgumentException}.
- *                            See: {@link java.util.zip.GZIPOutputStream#GZIPOutputStream(java.io.OutputStream, int)}
- *                            and: {@link java.util.zip.DeflaterOutputStream#DeflaterOutputStream(java.io.OutputStream, Deflater, int)}
+ *                            See: {@link PooledDeflaterOutputStream}
  *
  * minGzipSize                Content will only be compressed if content length is either unknown or greater
  *                            than <code>minGzipSize</code>.
@@ -87,6 +90,13 @@ import org.eclipse.jetty.util.log.Logger;
  *
  * mimeTypes                  Comma separated list of mime types to compress. See description above.
  *
+ * compressionLevels          Comma separated list of mimeType=level pairs, giving the compression level (-1 for the default, or 0-9)
+ *                            to use for content of that type, eg "text/html=9,application/json=1".
+ *                            Other types use the default level for gzip and deflateCompressionLevel for deflate.
+ *
+ * deflaterPoolCapacity       The maximum number of idle {@link Deflater}s kept for reuse. Defaults to twice the
+ *                            number of available processors.
+ *
  * excludedAgents             Comma separated list of user agents to exclude from compression. Does a
  *                            {@link String#contains(CharSequence)} to check if the excluded agent occurs
  *                            in the user-agent header. If it does -> no compression
@@ -100,6 +110,11 @@ import org.eclipse.jetty.util.log.Logger;
  *
  * excludePathPatterns        Same as excludePath, but accepts regex patterns for more complex matching.
  * </PRE>
+ * <p>
+ * Content is deflated directly from the application's writes into a pooled buffer, using a pooled
+ * {@link Deflater}. Content that starts with the magic bytes of a compressed format (eg. gzip, zip, png,
+ * jpeg) is not compressed again.
+ * </p>
  */
 public class GzipFilter extends UserAgentFilter
 {
@@ -111,6 +126,8 @@ public class GzipFilter extends UserAgentFilter
     public final static String ETAG="o.e.j.s.GzipFilter.ETag";
 
     protected Set<String> _mimeTypes;
+    protected Map<String,Integer> _compressionLevels;
+    protected DeflaterPool _deflaterPool;
     protected int _bufferSize=8192;
     protected int _minGzipSize=256;
     protected int _deflateCompressionLevel=Deflater.DEFAULT_COMPRESSION;
@@ -159,6 +176,23 @@ public class GzipFilter extends UserAgentFilter
             while (tok.hasMoreTokens())
                 _mimeTypes.add(tok.nextToken());
         }
+
+        tmp=filterConfig.getInitParameter("compressionLevels");
+        if (tmp!=null)
+        {
+            try
+            {
+                _compressionLevels=CompressedResponseWrapper.parseCompressionLevels(tmp);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new ServletException(e.getMessage(),e);
+            }
+        }
+
+        tmp=filterConfig.getInitParameter("deflaterPoolCapacity");
+        _deflaterPool=new DeflaterPool(tmp!=null?Integer.parseInt(tmp):2*Runtime.getRuntime().availableProcessors());
+
         tmp=filterConfig.getInitParameter("excludedAgents");
         if (tmp!=null)
         {
@@ -380,7 +414,7 @@ public class GzipFilter extends UserAgentFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                            return newDeflaterStream(compressionType,_wrapper,_response);
                         }
                     };
                 }
@@ -398,7 +432,7 @@ public class GzipFilter extends UserAgentFilter
                         @Override
                         protected DeflaterOutputStream createStream() throws IOException
                         {
-                            return new DeflaterOutputStream(_response.getOutputStream(),new Deflater(_deflateCompressionLevel,_deflateNoWrap));
+                            return newDeflaterStream(compressionType,_wrapper,_response);
                         }
                     };
                 }
@@ -412,9 +446,29 @@ public class GzipFilter extends UserAgentFilter
         return wrappedResponse;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Create the stream that compresses the content of a response.
+     *
+     * @param compressionType {@link #GZIP} or {@link #DEFLATE}
+     * @param wrapper the wrapped response, used to select the compression level for its content type
+     * @param response the response to write the compressed content to
+     * @return the compressing stream
+     * @throws IOException if the stream cannot be created
+     */
+    protected DeflaterOutputStream newDeflaterStream(String compressionType, CompressedResponseWrapper wrapper, HttpServletResponse response) throws IOException
+    {
+        boolean gzip=GZIP.equals(compressionType);
+        int level=wrapper.getCompressionLevel(gzip?Deflater.DEFAULT_COMPRESSION:_deflateCompressionLevel);
+        HttpChannel<?> channel=HttpChannel.getCurrentHttpChannel();
+        ByteBufferPool bufferPool=channel==null?null:channel.getByteBufferPool();
+        return new PooledDeflaterOutputStream(response.getOutputStream(),_deflaterPool,bufferPool,_bufferSize,level,gzip,_deflateNoWrap);
+    }
+
     protected void configureWrappedResponse(CompressedResponseWrapper wrappedResponse)
     {
         wrappedResponse.setMimeTypes(_mimeTypes);
+        wrappedResponse.setCompressionLevels(_compressionLevels);
         wrappedResponse.setBufferSize(_bufferSize);
         wrappedResponse.setMinCompressSize(_minGzipSize);
     }
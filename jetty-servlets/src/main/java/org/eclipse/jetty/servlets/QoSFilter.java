@@ -23,6 +23,8 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -40,6 +42,7 @@ import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.handler.ContextHandler;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 
 /**
  * Quality of Service Filter.
@@ -69,6 +72,15 @@ import org.eclipse.jetty.util.annotation.ManagedObject;
  * avoided if the semaphore is shortly available.  If the semaphore cannot be obtained, the request will be suspended
  * for the default suspend period of the container or the valued set as the "suspendMs" init parameter.
  * </p><p>
+ * If the "adaptive" init parameter is set to true, then "maxRequests" is only the initial limit, which is
+ * adjusted from the measured latency of the requests, in the manner of TCP Vegas. The latency of the requests
+ * in each "adaptiveWindowMs" window (default 100) is compared to the lowest latency seen, which estimates the
+ * latency without load.  Their ratio estimates how many of the active requests are queued in the application
+ * rather than being processed, so the limit is raised while this queue is short and the limit is being used,
+ * and lowered when the queue grows.  The limit stays between the "minRequests" (default 1) and
+ * "maxAdaptiveRequests" (default 1000) init parameters.  Requests that are suspended by the application are
+ * measured from their dispatch only.
+ * </p><p>
  * If the "managedAttr" init parameter is set to true, then this servlet is set as a {@link ServletContext} attribute with the
  * filter name as the attribute name.  This allows context external mechanism (eg JMX via {@link ContextHandler#MANAGED_ATTRIBUTES}) to
  * manage the configuration of the filter.
@@ -89,14 +101,41 @@ public class QoSFilter implements Filter
     final static String MAX_PRIORITY_INIT_PARAM="maxPriority";
     final static String MAX_WAIT_INIT_PARAM="waitMs";
     final static String SUSPEND_INIT_PARAM="suspendMs";
+    final static String ADAPTIVE_INIT_PARAM="adaptive";
+    final static String MIN_REQUESTS_INIT_PARAM="minRequests";
+    final static String MAX_ADAPTIVE_REQUESTS_INIT_PARAM="maxAdaptiveRequests";
+    final static String ADAPTIVE_WINDOW_INIT_PARAM="adaptiveWindowMs";
+
+    final static int __DEFAULT_MIN_REQUESTS=1;
+    final static int __DEFAULT_MAX_ADAPTIVE_REQUESTS=1000;
+    final static long __DEFAULT_ADAPTIVE_WINDOW_MS=100;
+    // number of windows after which the latency without load is measured again
+    final static int __PROBE_WINDOWS=100;
 
     ServletContext _context;
 
     protected long _waitMs;
     protected long _suspendMs;
-    protected int _maxRequests;
+    protected volatile int _maxRequests;
+    protected boolean _adaptive;
+    protected int _minRequests=__DEFAULT_MIN_REQUESTS;
+    protected int _maxAdaptiveRequests=__DEFAULT_MAX_ADAPTIVE_REQUESTS;
+    protected long _adaptiveWindowMs=__DEFAULT_ADAPTIVE_WINDOW_MS;
+
+    private Passes _passes;
+    private final Object _limitLock=new Object();
+    private final AtomicInteger _active=new AtomicInteger();
+    private final AtomicLong _accepted=new AtomicLong();
+    private final AtomicLong _rejected=new AtomicLong();
+
+    private final AtomicLong _windowStart=new AtomicLong(System.nanoTime());
+    private final AtomicLong _windowLatency=new AtomicLong();
+    private final AtomicLong _windowMinLatency=new AtomicLong(Long.MAX_VALUE);
+    private final AtomicInteger _windowSamples=new AtomicInteger();
+    private final AtomicInteger _windowMaxActive=new AtomicInteger();
+    private volatile long _noLoadLatency;
+    private int _windows;
 
-    private Semaphore _passes;
     private Queue<Continuation>[] _queue;
     private ContinuationListener[] _listener;
     private String _suspended="QoSFilter@"+this.hashCode();
@@ -134,7 +173,7 @@ public class QoSFilter implements Filter
         int maxRequests=__DEFAULT_PASSES;
         if (filterConfig.getInitParameter(MAX_REQUESTS_INIT_PARAM)!=null)
             maxRequests=Integer.parseInt(filterConfig.getInitParameter(MAX_REQUESTS_INIT_PARAM));
-        _passes=new Semaphore(maxRequests,true);
+        _passes=new Passes(maxRequests);
         _maxRequests = maxRequests;
 
         long wait = __DEFAULT_WAIT_MS;
@@ -147,6 +186,14 @@ public class QoSFilter implements Filter
             suspend=Integer.parseInt(filterConfig.getInitParameter(SUSPEND_INIT_PARAM));
         _suspendMs=suspend;
 
+        _adaptive=Boolean.parseBoolean(filterConfig.getInitParameter(ADAPTIVE_INIT_PARAM));
+        if (filterConfig.getInitParameter(MIN_REQUESTS_INIT_PARAM)!=null)
+            _minRequests=Integer.parseInt(filterConfig.getInitParameter(MIN_REQUESTS_INIT_PARAM));
+        if (filterConfig.getInitParameter(MAX_ADAPTIVE_REQUESTS_INIT_PARAM)!=null)
+            _maxAdaptiveRequests=Integer.parseInt(filterConfig.getInitParameter(MAX_ADAPTIVE_REQUESTS_INIT_PARAM));
+        if (filterConfig.getInitParameter(ADAPTIVE_WINDOW_INIT_PARAM)!=null)
+            _adaptiveWindowMs=Long.parseLong(filterConfig.getInitParameter(ADAPTIVE_WINDOW_INIT_PARAM));
+
         if (_context!=null && Boolean.parseBoolean(filterConfig.getInitParameter(MANAGED_ATTR_INIT_PARAM)))
             _context.setAttribute(filterConfig.getFilterName(),this);
     }
@@ -209,36 +256,139 @@ public class QoSFilter implements Filter
 
             if (accepted)
             {
-                chain.doFilter(request,response);
+                _accepted.incrementAndGet();
+                int active=_active.incrementAndGet();
+                long start=System.nanoTime();
+                try
+                {
+                    chain.doFilter(request,response);
+                }
+                finally
+                {
+                    _active.decrementAndGet();
+                    if (_adaptive)
+                        sample(System.nanoTime()-start,active);
+                }
             }
             else
             {
+                _rejected.incrementAndGet();
                 ((HttpServletResponse)response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             }
         }
         catch(InterruptedException e)
         {
             _context.log("QoS",e);
+            _rejected.incrementAndGet();
             ((HttpServletResponse)response).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
         finally
         {
             if (accepted)
             {
-                for (int p=_queue.length;p-->0;)
-                {
-                    Continuation continutaion=_queue[p].poll();
-                    if (continutaion!=null && continutaion.isSuspended())
-                    {
-                        continutaion.resume();
-                        break;
-                    }
-                }
+                resumeQueued(1);
                 _passes.release();
             }
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Resume up to the given number of suspended requests, highest priority first.
+     * @param count the number of requests to resume
+     */
+    private void resumeQueued(int count)
+    {
+        int p=_queue.length-1;
+        while (count>0 && p>=0)
+        {
+            Continuation continuation=_queue[p].poll();
+            if (continuation==null)
+            {
+                --p;
+            }
+            else if (continuation.isSuspended())
+            {
+                // a pass is available for it, so it waits for the pass rather than timing out
+                continuation.setAttribute("javax.servlet.resumed",Boolean.TRUE);
+                continuation.resume();
+                --count;
+            }
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Record the latency of a request and, once per window, adapt the limit.
+     * @param latency the latency of the request (in ns)
+     * @param active the number of active requests when the request was accepted
+     */
+    private void sample(long latency, int active)
+    {
+        _windowLatency.addAndGet(latency);
+        _windowSamples.incrementAndGet();
+        long min=_windowMinLatency.get();
+        while (latency<min && !_windowMinLatency.compareAndSet(min,latency))
+            min=_windowMinLatency.get();
+        int max=_windowMaxActive.get();
+        while (active>max && !_windowMaxActive.compareAndSet(max,active))
+            max=_windowMaxActive.get();
+
+        long now=System.nanoTime();
+        long start=_windowStart.get();
+        if (now-start<TimeUnit.MILLISECONDS.toNanos(_adaptiveWindowMs) || !_windowStart.compareAndSet(start,now))
+            return;
+
+        // only the thread that closed the window gets here
+        int samples=_windowSamples.getAndSet(0);
+        long total=_windowLatency.getAndSet(0);
+        long windowMin=_windowMinLatency.getAndSet(Long.MAX_VALUE);
+        int maxActive=_windowMaxActive.getAndSet(0);
+        if (samples==0)
+            return;
+
+        if (_noLoadLatency==0 || windowMin<_noLoadLatency || ++_windows%__PROBE_WINDOWS==0)
+            _noLoadLatency=windowMin;
+
+        int delta;
+        synchronized (_limitLock)
+        {
+            int limit=_maxRequests;
+            int adapted=adaptLimit(limit,total/samples,_noLoadLatency,maxActive);
+            delta=adapted-limit;
+            _passes.adjust(delta);
+            _maxRequests=adapted;
+        }
+        resumeQueued(delta);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Calculate a new limit from the latencies measured in a window.
+     * @param limit the current limit
+     * @param latency the average latency in the window
+     * @param noLoadLatency the estimated latency without load
+     * @param maxActive the maximum number of active requests in the window
+     * @return the new limit, between {@link #getMinRequests()} and {@link #getMaxAdaptiveRequests()}
+     */
+    int adaptLimit(int limit, long latency, long noLoadLatency, int maxActive)
+    {
+        int log=Math.max(1,(int)Math.log10(limit));
+        int alpha=3*log;
+        int beta=6*log;
+
+        // the number of requests queued rather than being processed
+        int queued=latency<=0?0:(int)Math.ceil(limit*(1.0-(double)noLoadLatency/latency));
+
+        int adapted=limit;
+        if (queued>=beta)
+            adapted=limit-log;
+        else if (queued<=alpha && maxActive*2>=limit)
+            adapted=limit+log;
+
+        return Math.max(_minRequests,Math.min(_maxAdaptiveRequests,adapted));
+    }
+
     /**
      * Get the request Priority.
      * <p> The default implementation assigns the following priorities:<ul>
@@ -345,8 +495,173 @@ public class QoSFilter implements Filter
      */
     public void setMaxRequests(int value)
     {
-        _passes = new Semaphore((value-_maxRequests+_passes.availablePermits()), true);
-        _maxRequests = value;
+        int delta;
+        synchronized (_limitLock)
+        {
+            delta=value-_maxRequests;
+            _passes.adjust(delta);
+            _maxRequests=value;
+        }
+        resumeQueued(delta);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return whether the maximum number of requests is adapted from the measured latency
+     */
+    @ManagedAttribute("whether the maximum number of requests is adapted from the measured latency")
+    public boolean isAdaptive()
+    {
+        return _adaptive;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param adaptive whether the maximum number of requests is adapted from the measured latency
+     */
+    public void setAdaptive(boolean adaptive)
+    {
+        _adaptive = adaptive;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the lowest limit of requests that may be adapted to
+     */
+    @ManagedAttribute("lowest limit of requests that may be adapted to")
+    public int getMinRequests()
+    {
+        return _minRequests;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the lowest limit of requests that may be adapted to
+     */
+    public void setMinRequests(int value)
+    {
+        _minRequests = value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the highest limit of requests that may be adapted to
+     */
+    @ManagedAttribute("highest limit of requests that may be adapted to")
+    public int getMaxAdaptiveRequests()
+    {
+        return _maxAdaptiveRequests;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the highest limit of requests that may be adapted to
+     */
+    public void setMaxAdaptiveRequests(int value)
+    {
+        _maxAdaptiveRequests = value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the period over which latencies are averaged before adapting the limit (in ms)
+     */
+    @ManagedAttribute("period over which latencies are averaged before adapting the limit (in ms)")
+    public long getAdaptiveWindowMs()
+    {
+        return _adaptiveWindowMs;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param value the period over which latencies are averaged before adapting the limit (in ms)
+     */
+    public void setAdaptiveWindowMs(long value)
+    {
+        _adaptiveWindowMs = value;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the estimated latency of a request without load (in ns), or 0 if not yet measured
+     */
+    @ManagedAttribute("estimated latency of a request without load (in ns)")
+    public long getNoLoadLatency()
+    {
+        return _noLoadLatency;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of requests being processed
+     */
+    @ManagedAttribute("number of requests being processed")
+    public int getActiveRequests()
+    {
+        return _active.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of requests suspended waiting to be processed
+     */
+    @ManagedAttribute("number of requests suspended waiting to be processed")
+    public int getQueueSize()
+    {
+        int size=0;
+        for (Queue<Continuation> queue : _queue)
+            size+=queue.size();
+        return size;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the number of requests rejected since the statistics were reset
+     */
+    @ManagedAttribute("number of requests rejected")
+    public long getRejectedRequests()
+    {
+        return _rejected.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return the ratio of rejected requests to all requests since the statistics were reset
+     */
+    @ManagedAttribute("ratio of rejected requests to all requests")
+    public double getRejectionRate()
+    {
+        long rejected=_rejected.get();
+        long total=rejected+_accepted.get();
+        return total==0?0.0:(double)rejected/total;
+    }
+
+    /* ------------------------------------------------------------ */
+    @ManagedOperation(value="reset the request statistics", impact="ACTION")
+    public void resetStatistics()
+    {
+        _accepted.set(0);
+        _rejected.set(0);
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * A fair semaphore whose number of permits can be reduced as well as increased.
+     */
+    private static class Passes extends Semaphore
+    {
+        Passes(int permits)
+        {
+            super(permits,true);
+        }
+
+        void adjust(int delta)
+        {
+            if (delta>0)
+                release(delta);
+            else if (delta<0)
+                reducePermits(-delta);
+        }
     }
 
 }
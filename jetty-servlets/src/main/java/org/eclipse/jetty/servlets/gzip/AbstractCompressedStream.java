@@ -38,6 +38,21 @@ import org.eclipse.jetty.util.ByteArrayOutputStream2;
  */
 public abstract class AbstractCompressedStream extends ServletOutputStream
 {
+    /**
+     * Magic bytes at the start of content that is already compressed: gzip, zip, png, jpeg, gif, bzip2, 7z, xz, woff and woff2
+     */
+    private static final byte[][] __COMPRESSED_MAGIC = new byte[][] {
+        { 0x1f, (byte)0x8b },
+        { 'P', 'K', 0x03, 0x04 },
+        { (byte)0x89, 'P', 'N', 'G' },
+        { (byte)0xff, (byte)0xd8, (byte)0xff },
+        { 'G', 'I', 'F', '8' },
+        { 'B', 'Z', 'h' },
+        { '7', 'z', (byte)0xbc, (byte)0xaf },
+        { (byte)0xfd, '7', 'z', 'X' },
+        { 'w', 'O', 'F', 'F' },
+        { 'w', 'O', 'F', '2' } };
+
     private final String _encoding;
     protected final CompressedResponseWrapper _wrapper;
     protected final HttpServletResponse _response;
@@ -73,7 +88,11 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
         _out = null;
         _bOut = null;
         if (_compressedOutputStream != null)
+        {
             _response.setHeader("Content-Encoding",null);
+            if (_compressedOutputStream instanceof PooledDeflaterOutputStream)
+                ((PooledDeflaterOutputStream)_compressedOutputStream).release();
+        }
         _compressedOutputStream = null;
         _doNotCompress = false;
     }
@@ -187,7 +206,7 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
     @Override
     public void write(int b) throws IOException
     {
-        checkOut(1);
+        checkOut(null,0,1);
         _out.write(b);
     }
 
@@ -198,7 +217,7 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
     @Override
     public void write(byte b[]) throws IOException
     {
-        checkOut(b.length);
+        checkOut(b,0,b.length);
         _out.write(b);
     }
 
@@ -209,7 +228,7 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
     @Override
     public void write(byte b[], int off, int len) throws IOException
     {
-        checkOut(len);
+        checkOut(b,off,len);
         _out.write(b,off,len);
     }
 
@@ -225,6 +244,12 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
             if (_response.isCommitted())
                 throw new IllegalStateException();
 
+            if (_bOut!=null && isCompressed(_bOut.getBuf(),0,_bOut.getCount()))
+            {
+                doNotCompress();
+                return;
+            }
+
             setHeader("Content-Encoding", _encoding);
             if (_response.containsHeader("Content-Encoding"))
             {
@@ -274,12 +299,14 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
     /**
      * Check out.
      *
+     * @param b the bytes to write or null if not known
+     * @param off the offset of the bytes
      * @param lengthToWrite
      *            the length
      * @throws IOException
      *             Signals that an I/O exception has occurred.
      */
-    private void checkOut(int lengthToWrite) throws IOException
+    private void checkOut(byte[] b, int off, int lengthToWrite) throws IOException
     {
         if (_closed)
             throw new IOException("CLOSED");
@@ -290,7 +317,12 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
             if (_response.isCommitted() || (length >= 0 && length < _wrapper.getMinCompressSize()))
                 doNotCompress();
             else if (lengthToWrite > _wrapper.getMinCompressSize())
-                doCompress();
+            {
+                if (b!=null && isCompressed(b,off,lengthToWrite))
+                    doNotCompress();
+                else
+                    doCompress();
+            }
             else
                 _out = _bOut = new ByteArrayOutputStream2(_wrapper.getBufferSize());
         }
@@ -304,6 +336,29 @@ public abstract class AbstractCompressedStream extends ServletOutputStream
         }
     }
 
+    /**
+     * Check if content starts with the magic bytes of a compressed format, in which
+     * case compressing it again would only cost CPU.
+     *
+     * @param b the content
+     * @param off the offset of the start of the content
+     * @param len the length of the content available
+     * @return true if the content is known to be compressed
+     */
+    protected boolean isCompressed(byte[] b, int off, int len)
+    {
+        magic: for (byte[] magic : __COMPRESSED_MAGIC)
+        {
+            if (len<magic.length)
+                continue;
+            for (int i=0;i<magic.length;i++)
+                if (b[off+i]!=magic[i])
+                    continue magic;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * @see org.eclipse.jetty.http.gzip.CompressedStream#getOutputStream()
      */
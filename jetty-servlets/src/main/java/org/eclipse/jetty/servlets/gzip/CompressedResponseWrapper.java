@@ -23,7 +23,11 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.Deflater;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +45,7 @@ public abstract class CompressedResponseWrapper extends HttpServletResponseWrapp
     public static final int DEFAULT_MIN_COMPRESS_SIZE = 256;
 
     private Set<String> _mimeTypes;
+    private Map<String,Integer> _compressionLevels;
     private int _bufferSize=DEFAULT_BUFFER_SIZE;
     private int _minCompressSize=DEFAULT_MIN_COMPRESS_SIZE;
     protected HttpServletRequest _request;
@@ -98,6 +103,67 @@ public abstract class CompressedResponseWrapper extends HttpServletResponseWrapp
         _mimeTypes = mimeTypes;
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compressionLevels Map of mime type to the deflater compression level to use for it, or null
+     */
+    public void setCompressionLevels(Map<String,Integer> compressionLevels)
+    {
+        _compressionLevels = compressionLevels;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param compressionLevels comma separated list of mimeType=level pairs, eg "text/html=9,application/json=1",
+     * where level is -1 for the default or 0-9
+     * @return Map of lower case mime type to compression level, as used by {@link #setCompressionLevels(Map)}
+     * @throws IllegalArgumentException if an entry is malformed or its level is out of range
+     */
+    public static Map<String,Integer> parseCompressionLevels(String compressionLevels)
+    {
+        Map<String,Integer> levels=new HashMap<String,Integer>();
+        StringTokenizer tok = new StringTokenizer(compressionLevels,",",false);
+        while (tok.hasMoreTokens())
+        {
+            String entry=tok.nextToken();
+            int eq=entry.indexOf('=');
+            if (eq<0)
+                throw new IllegalArgumentException("Bad compressionLevels entry: "+entry);
+            int level;
+            try
+            {
+                level=Integer.parseInt(entry.substring(eq+1).trim());
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Bad compressionLevels entry: "+entry,e);
+            }
+            if (level<Deflater.DEFAULT_COMPRESSION || level>Deflater.BEST_COMPRESSION)
+                throw new IllegalArgumentException("Bad compressionLevels entry: "+entry);
+            levels.put(StringUtil.asciiToLowerCase(entry.substring(0,eq).trim()),level);
+        }
+        return levels;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param defaultLevel The level to use if none is configured for the content type
+     * @return The compression level for the current content type of the response
+     */
+    public int getCompressionLevel(int defaultLevel)
+    {
+        if (_compressionLevels==null)
+            return defaultLevel;
+        String ct=getContentType();
+        if (ct==null)
+            return defaultLevel;
+        int colon=ct.indexOf(';');
+        if (colon>0)
+            ct=ct.substring(0,colon);
+        Integer level=_compressionLevels.get(StringUtil.asciiToLowerCase(ct.trim()));
+        return level==null?defaultLevel:level;
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * @see org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper#setBufferSize(int)
@@ -0,0 +1,96 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/* ------------------------------------------------------------ */
+/** A pool of {@link Deflater}s.
+ * <p>
+ * A Deflater holds native memory that is only freed when it is ended or finalized,
+ * so creating one per response is expensive. Released deflaters are reset and kept
+ * for reuse, up to the capacity of the pool, and ended beyond it.
+ */
+public class DeflaterPool
+{
+    private final Queue<Deflater> _wrapped = new ConcurrentLinkedQueue<Deflater>();
+    private final Queue<Deflater> _nowrap = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final int _capacity;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param capacity The maximum number of deflaters kept in the pool
+     */
+    public DeflaterPool(int capacity)
+    {
+        _capacity=capacity;
+    }
+
+    /* ------------------------------------------------------------ */
+    public int getCapacity()
+    {
+        return _capacity;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @return The number of deflaters currently in the pool
+     */
+    public int getSize()
+    {
+        return _size.get();
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param level The compression level
+     * @param nowrap True if the deflater must not write the zlib header and checksum, as for gzip
+     * @return A deflater from the pool or a new deflater
+     */
+    public Deflater acquire(int level, boolean nowrap)
+    {
+        Deflater deflater=(nowrap?_nowrap:_wrapped).poll();
+        if (deflater==null)
+            return new Deflater(level,nowrap);
+        _size.decrementAndGet();
+        deflater.setLevel(level);
+        return deflater;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param deflater A deflater obtained from {@link #acquire(int, boolean)}
+     * @param nowrap The nowrap value it was acquired with
+     */
+    public void release(Deflater deflater, boolean nowrap)
+    {
+        if (_size.incrementAndGet()>_capacity)
+        {
+            _size.decrementAndGet();
+            deflater.end();
+            return;
+        }
+        deflater.reset();
+        (nowrap?_nowrap:_wrapped).offer(deflater);
+    }
+}
@@ -24,10 +24,11 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPOutputStream;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,6 +37,7 @@ import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationListener;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.HandlerWrapper;
 import org.eclipse.jetty.util.log.Log;
@@ -63,9 +65,11 @@ public class GzipHandler extends HandlerWrapper
     private static final Logger LOG = Log.getLogger(GzipHandler.class);
 
     protected Set<String> _mimeTypes;
+    protected Map<String,Integer> _compressionLevels;
     protected Set<String> _excluded;
     protected int _bufferSize = 8192;
     protected int _minGzipSize = 256;
+    protected final DeflaterPool _deflaterPool = new DeflaterPool(2*Runtime.getRuntime().availableProcessors());
 
     /* ------------------------------------------------------------ */
     /**
@@ -118,6 +122,44 @@ public class GzipHandler extends HandlerWrapper
         }
     }
 
+    /* ------------------------------------------------------------ */
+    /**
+     * Get the compression levels.
+     *
+     * @return map of mime type to compression level
+     */
+    public Map<String,Integer> getCompressionLevels()
+    {
+        return _compressionLevels;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the compression levels.
+     *
+     * @param compressionLevels
+     *            map of lower case mime type to compression level, -1 for the default or 0-9
+     */
+    public void setCompressionLevels(Map<String,Integer> compressionLevels)
+    {
+        _compressionLevels = compressionLevels;
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Set the compression levels.
+     *
+     * @param compressionLevels
+     *            comma separated list of mimeType=level pairs, eg "text/html=9,application/json=1",
+     *            where level is -1 for the default or 0-9
+     * @throws IllegalArgumentException if an entry is malformed or its level is out of range
+     */
+    public void setCompressionLevels(String compressionLevels)
+    {
+        if (compressionLevels != null)
+            _compressionLevels = CompressedResponseWrapper.parseCompressionLevels(compressionLevels);
+    }
+
     /* ------------------------------------------------------------ */
     /**
      * Get the excluded user agents.
@@ -288,6 +330,7 @@ public class GzipHandler extends HandlerWrapper
         {
             {
                 super.setMimeTypes(GzipHandler.this._mimeTypes);
+                super.setCompressionLevels(GzipHandler.this._compressionLevels);
                 super.setBufferSize(GzipHandler.this._bufferSize);
                 super.setMinCompressSize(GzipHandler.this._minGzipSize);
             }
@@ -300,7 +343,9 @@ public class GzipHandler extends HandlerWrapper
                     @Override
                     protected DeflaterOutputStream createStream() throws IOException
                     {
-                        return new GZIPOutputStream(_response.getOutputStream(),_bufferSize);
+                        HttpChannel<?> channel = HttpChannel.getCurrentHttpChannel();
+                        return new PooledDeflaterOutputStream(_response.getOutputStream(),_deflaterPool,channel == null?null:channel.getByteBufferPool(),
+                                _bufferSize,_wrapper.getCompressionLevel(Deflater.DEFAULT_COMPRESSION),true,true);
                     }
                 };
             }
@@ -0,0 +1,183 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+/* ------------------------------------------------------------ */
+/** A deflate or gzip output stream using pooled resources.
+ * <p>
+ * The {@link Deflater} is taken from a {@link DeflaterPool} and content is deflated directly
+ * from the arrays passed to the write methods into a buffer taken from a {@link ByteBufferPool},
+ * which is written to the underlying stream. Both are returned to their pools when the stream
+ * is finished or {@link #release() released}.
+ * <p>
+ * It extends {@link DeflaterOutputStream} so that it may be returned from
+ * {@link AbstractCompressedStream#createStream()}, but does not use its buffer.
+ */
+public class PooledDeflaterOutputStream extends DeflaterOutputStream
+{
+    private static final byte[] GZIP_HEADER = new byte[] { 0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final DeflaterPool _deflaterPool;
+    private final ByteBufferPool _bufferPool;
+    private final boolean _nowrap;
+    private final CRC32 _crc;
+    private final byte[] _single = new byte[1];
+    private ByteBuffer _buffer;
+    private boolean _finished;
+
+    /* ------------------------------------------------------------ */
+    /**
+     * @param out The stream to write the compressed content to
+     * @param deflaterPool The pool of deflaters
+     * @param bufferPool The pool of output buffers or null to allocate the buffer
+     * @param bufferSize The size of the output buffer
+     * @param level The compression level
+     * @param gzip True to write the gzip format, false for the deflate format
+     * @param nowrap For the deflate format, true to omit the zlib header and checksum
+     * @throws IOException If the gzip header cannot be written
+     */
+    public PooledDeflaterOutputStream(OutputStream out, DeflaterPool deflaterPool, ByteBufferPool bufferPool, int bufferSize, int level, boolean gzip, boolean nowrap) throws IOException
+    {
+        // The superclass buffer is not used, so keep it minimal
+        super(out,deflaterPool.acquire(level,gzip||nowrap),1);
+        _deflaterPool=deflaterPool;
+        _bufferPool=bufferPool;
+        _nowrap=gzip||nowrap;
+        _buffer=bufferPool==null?ByteBuffer.allocate(bufferSize):bufferPool.acquire(bufferSize,false);
+        _crc=gzip?new CRC32():null;
+        if (gzip)
+            out.write(GZIP_HEADER);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(int b) throws IOException
+    {
+        _single[0]=(byte)b;
+        write(_single,0,1);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (_finished)
+            throw new IOException("write beyond end of stream");
+        if (len==0)
+            return;
+        if (_crc!=null)
+            _crc.update(b,off,len);
+        def.setInput(b,off,len);
+        while (!def.needsInput())
+            deflate();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    protected void deflate() throws IOException
+    {
+        byte[] array=_buffer.array();
+        int offset=_buffer.arrayOffset();
+        int len=def.deflate(array,offset,_buffer.capacity());
+        if (len>0)
+            out.write(array,offset,len);
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void finish() throws IOException
+    {
+        if (_finished)
+            return;
+        try
+        {
+            def.finish();
+            while (!def.finished())
+                deflate();
+
+            if (_crc!=null)
+            {
+                byte[] trailer=new byte[8];
+                writeInt((int)_crc.getValue(),trailer,0);
+                writeInt((int)def.getBytesRead(),trailer,4);
+                out.write(trailer);
+            }
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    /**
+     * Return the deflater and buffer to their pools without finishing the compressed content.
+     * The stream cannot be written after it is released.
+     */
+    public void release()
+    {
+        if (!_finished)
+        {
+            _finished=true;
+            _deflaterPool.release(def,_nowrap);
+            if (_bufferPool!=null)
+                _bufferPool.release(_buffer);
+            _buffer=null;
+        }
+    }
+
+    /* ------------------------------------------------------------ */
+    private static void writeInt(int i, byte[] b, int offset)
+    {
+        b[offset]=(byte)i;
+        b[offset+1]=(byte)(i>>8);
+        b[offset+2]=(byte)(i>>16);
+        b[offset+3]=(byte)(i>>24);
+    }
+}
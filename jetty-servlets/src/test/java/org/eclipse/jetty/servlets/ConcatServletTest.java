@@ -0,0 +1,178 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.servlet.ServletTester;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConcatServletTest
+{
+    private ServletTester _tester;
+    private File _docroot;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        _docroot = MavenTestingUtils.getTargetTestingDir("concat");
+        IO.delete(_docroot);
+        _docroot.mkdirs();
+        write("a.js","var a=1;\n",System.currentTimeMillis()-10000);
+        write("b.js","var b=2;\n",System.currentTimeMillis()-10000);
+
+        _tester = new ServletTester("/ctx");
+        _tester.setResourceBase(_docroot.getAbsolutePath());
+        _tester.addServlet(DefaultServlet.class,"/");
+        _tester.addServlet(DynamicServlet.class,"/dynamic.js");
+        ServletHolder concat = _tester.addServlet(ConcatServlet.class,"/concat");
+        concat.setInitParameter("maxCachedBundles","16");
+        concat.setInitParameter("cacheGzip","true");
+        _tester.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        _tester.stop();
+    }
+
+    private void write(String name, String content, long lastModified) throws IOException
+    {
+        File file = new File(_docroot,name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes("UTF-8"));
+        out.close();
+        file.setLastModified(lastModified);
+    }
+
+    private HttpTester.Response get(String query, String headers) throws Exception
+    {
+        String request = "GET /ctx/concat?" + query + " HTTP/1.1\r\nHost: tester\r\n" + headers + "Connection: close\r\n\r\n";
+        return HttpTester.parseResponse(_tester.getResponses(BufferUtil.toBuffer(request)));
+    }
+
+    @Test
+    public void testCachedBundle() throws Exception
+    {
+        HttpTester.Response response = get("/a.js&/b.js","");
+        assertEquals(200,response.getStatus());
+        assertEquals("var a=1;\nvar b=2;\n",response.getContent());
+        String etag = response.get("ETag");
+        assertNotNull(etag);
+        assertFalse(etag.startsWith("W/"));
+        assertNotNull(response.get("Last-Modified"));
+        assertEquals("Accept-Encoding",response.get("Vary"));
+
+        response = get("/a.js&/b.js","If-None-Match: " + etag + "\r\n");
+        assertEquals(304,response.getStatus());
+
+        response = get("/a.js&/b.js","If-Modified-Since: " + response.get("Last-Modified") + "\r\n");
+        assertEquals(304,response.getStatus());
+
+        // a different order is a different bundle
+        response = get("/b.js&/a.js","");
+        assertEquals("var b=2;\nvar a=1;\n",response.getContent());
+        assertFalse(etag.equals(response.get("ETag")));
+    }
+
+    @Test
+    public void testChangedPartInvalidatesBundle() throws Exception
+    {
+        HttpTester.Response response = get("/a.js&/b.js","");
+        String etag = response.get("ETag");
+
+        write("b.js","var b=22;\n",System.currentTimeMillis());
+
+        response = get("/a.js&/b.js","If-None-Match: " + etag + "\r\n");
+        assertEquals(200,response.getStatus());
+        assertEquals("var a=1;\nvar b=22;\n",response.getContent());
+        assertFalse(etag.equals(response.get("ETag")));
+    }
+
+    @Test
+    public void testCompressedBundle() throws Exception
+    {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; ++i)
+            content.append("var c").append(i).append("=").append(i).append(";\n");
+        write("c.js",content.toString(),System.currentTimeMillis()-10000);
+
+        HttpTester.Response plain = get("/a.js&/c.js","");
+        assertNull(plain.get("Content-Encoding"));
+
+        HttpTester.Response response = get("/a.js&/c.js","Accept-Encoding: gzip\r\n");
+        assertEquals(200,response.getStatus());
+        assertEquals("gzip",response.get("Content-Encoding"));
+        assertTrue(response.getContentBytes().length < content.length());
+        String etag = response.get("ETag");
+        assertTrue(etag.endsWith("--gzip\""));
+        assertFalse(etag.equals(plain.get("ETag")));
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.getContentBytes()));
+        assertEquals("var a=1;\n" + content,IO.toString(in,"UTF-8"));
+
+        response = get("/a.js&/c.js","Accept-Encoding: gzip\r\nIf-None-Match: " + etag + "\r\n");
+        assertEquals(304,response.getStatus());
+    }
+
+    @Test
+    public void testDynamicPartIsIncluded() throws Exception
+    {
+        HttpTester.Response response = get("/a.js&/dynamic.js","");
+        assertEquals(200,response.getStatus());
+        assertEquals("var a=1;\nvar d=" + DynamicServlet.__count + ";\n",response.getContent());
+        assertNull(response.get("ETag"));
+
+        response = get("/a.js&/dynamic.js","");
+        assertEquals("var a=1;\nvar d=" + DynamicServlet.__count + ";\n",response.getContent());
+    }
+
+    public static class DynamicServlet extends HttpServlet
+    {
+        static int __count;
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            response.getOutputStream().print("var d=" + (++__count) + ";\n");
+        }
+    }
+}
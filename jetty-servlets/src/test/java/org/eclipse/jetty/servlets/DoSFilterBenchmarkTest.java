@@ -0,0 +1,124 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.eclipse.jetty.servlets.DoSFilter.RateTracker;
+import org.eclipse.jetty.servlets.DoSFilter.SlidingWindowSketch;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class DoSFilterBenchmarkTest
+{
+    /**
+     * Hits 1M distinct addresses from several threads, against the sketch and
+     * against the previous map of synchronized trackers, one per address.
+     */
+    @Ignore
+    @Test
+    public void testDistinctAddresses() throws Exception
+    {
+        int keys = 1_000_000;
+        int threads = Runtime.getRuntime().availableProcessors();
+        final String[] addresses = new String[keys];
+        for (int i = 0; i < keys; ++i)
+            addresses[i] = "10." + ((i >> 16) & 0xFF) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF);
+
+        final DoSFilter filter = new DoSFilter();
+        final SlidingWindowSketch sketch = new SlidingWindowSketch(DoSFilter.__DEFAULT_TRACKER_SLOTS);
+        final ConcurrentHashMap<String, RateTracker> trackers = new ConcurrentHashMap<>();
+
+        for (int round = 0; round < 3; ++round)
+        {
+            trackers.clear();
+            System.gc();
+            long heap = usedHeap();
+            long nanos = run(threads, addresses, new Hit()
+            {
+                @Override
+                public boolean hit(String address, long now)
+                {
+                    RateTracker tracker = trackers.get(address);
+                    if (tracker == null)
+                    {
+                        RateTracker t = filter.new RateTracker(address, DoSFilter.USER_IP, DoSFilter.__DEFAULT_MAX_REQUESTS_PER_SEC);
+                        tracker = trackers.putIfAbsent(address, t);
+                        if (tracker == null)
+                            tracker = t;
+                    }
+                    return tracker.isRateExceeded(now);
+                }
+            });
+            System.err.printf("trackers: %d ns/hit, %d MiB retained%n", nanos / keys, (usedHeap() - heap) >> 20);
+
+            nanos = run(threads, addresses, new Hit()
+            {
+                @Override
+                public boolean hit(String address, long now)
+                {
+                    return sketch.increment(address, now) > DoSFilter.__DEFAULT_MAX_REQUESTS_PER_SEC;
+                }
+            });
+            System.err.printf("sketch: %d ns/hit, %d KiB fixed%n", nanos / keys, ((long)SlidingWindowSketch.DEPTH * sketch.getSlots() * SlidingWindowSketch.BUCKETS * 8) >> 10);
+        }
+    }
+
+    private long run(int threads, final String[] addresses, final Hit hit) throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(threads);
+        final int share = addresses.length / threads;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t)
+        {
+            final int from = t * share;
+            workers.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = from; i < from + share; ++i)
+                        hit.hit(addresses[i], System.currentTimeMillis());
+                    latch.countDown();
+                }
+            });
+        }
+
+        long begin = System.nanoTime();
+        for (Thread worker : workers)
+            worker.start();
+        latch.await();
+        return System.nanoTime() - begin;
+    }
+
+    private long usedHeap()
+    {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private interface Hit
+    {
+        boolean hit(String address, long now);
+    }
+}
@@ -22,11 +22,13 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.servlets.DoSFilter.RateTracker;
+import org.eclipse.jetty.servlets.DoSFilter.SlidingWindowSketch;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -70,6 +72,22 @@ public class DoSFilterTest extends AbstractDoSFilterTest
         assertFalse("Should not exceed as we sleep 300s for each hit and thus do less than 4 hits/s",exceeded);
     }
 
+    @Test
+    public void testSlidingWindowSketch() throws Exception
+    {
+        SlidingWindowSketch sketch = new SlidingWindowSketch(1000);
+        assertEquals(1024,sketch.getSlots());
+
+        long now = 10000;
+        for (int i = 1; i <= 5; i++)
+            assertEquals(i,sketch.increment("10.0.0.1",now + i * 100));
+        assertEquals(1,sketch.increment("10.0.0.2",now + 500));
+
+        // hits older than the window are forgotten
+        assertEquals(2,sketch.increment("10.0.0.1",now + 1300));
+        assertEquals(1,sketch.increment("10.0.0.1",now + 5000));
+    }
+
     private boolean hitRateTracker(DoSFilter doSFilter, int sleep) throws InterruptedException
     {
         boolean exceeded = false;
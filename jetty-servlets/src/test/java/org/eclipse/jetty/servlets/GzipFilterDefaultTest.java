@@ -31,7 +31,11 @@ import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlets.gzip.CompressedResponseWrapper;
 import org.eclipse.jetty.servlets.gzip.GzipTester;
+import org.eclipse.jetty.servlets.gzip.TestStaticMimeTypeServlet;
+import org.eclipse.jetty.toolchain.test.IO;
+import org.eclipse.jetty.toolchain.test.MavenTestingUtils;
 import org.eclipse.jetty.toolchain.test.TestingDir;
+import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -368,4 +372,56 @@ public class GzipFilterDefaultTest
             tester.stop();
         }
     }
+
+    @Test
+    public void testNotGzipFilteredCompressedMagic() throws Exception
+    {
+        GzipTester tester = new GzipTester(testingdir,compressionType);
+
+        // No mimeTypes are configured, so only the content shows that it is already compressed
+        String[][] files = new String[][] {
+                { "jetty_logo.png", "image/png" },
+                { "jetty_logo.gif", "image/gif" },
+                { "jetty_logo.jpg", "image/jpeg" },
+                { "test_quotes.zip", "application/zip" },
+                { "test_quotes.bz2", "application/bzip2" } };
+        for (String[] file : files)
+            IO.copy(MavenTestingUtils.getTestResourceFile(file[0]),testingdir.getFile(file[0]));
+
+        tester.setContentServlet(TestStaticMimeTypeServlet.class);
+
+        try
+        {
+            tester.start();
+            for (String[] file : files)
+                tester.assertIsResponseNotGzipFiltered(file[0],file[0] + ".sha1",file[1]);
+        }
+        finally
+        {
+            tester.stop();
+        }
+    }
+
+    @Test
+    public void testBadCompressionLevelFailsInit() throws Exception
+    {
+        GzipTester tester = new GzipTester(testingdir,compressionType);
+
+        FilterHolder holder = tester.setContentServlet(DefaultServlet.class);
+        holder.setInitParameter("compressionLevels","text/plain=10");
+
+        try
+        {
+            tester.start();
+            Assert.fail();
+        }
+        catch (Exception e)
+        {
+            // The filter must not be usable with an out of range level
+        }
+        finally
+        {
+            tester.stop();
+        }
+    }
 }
@@ -42,6 +42,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -129,6 +130,97 @@ public class QoSFilterTest
         assertTrue(TestServlet.__maxSleepers<=MAX_QOS);
     }
 
+    @Test
+    public void testAdaptiveQosFilter() throws Exception
+    {
+        FilterHolder holder = new FilterHolder(QoSFilter2.class);
+        holder.setAsyncSupported(true);
+        holder.setInitParameter(QoSFilter.MAX_REQUESTS_INIT_PARAM, "1");
+        holder.setInitParameter(QoSFilter.ADAPTIVE_INIT_PARAM, "true");
+        holder.setInitParameter(QoSFilter.MAX_ADAPTIVE_REQUESTS_INIT_PARAM, ""+MAX_QOS);
+        holder.setInitParameter(QoSFilter.ADAPTIVE_WINDOW_INIT_PARAM, "1");
+        _tester.getContext().getServletHandler().addFilterWithMapping(holder,"/*",EnumSet.of(DispatcherType.REQUEST,DispatcherType.ASYNC));
+        for(int i = 0; i < NUM_CONNECTIONS; ++i )
+        {
+            new Thread(new Worker2(i)).start();
+        }
+
+        assertTrue(_doneRequests.await(20,TimeUnit.SECONDS));
+        QoSFilter filter = (QoSFilter)holder.getFilter();
+        // the latency of the sleeping servlet does not grow with load, so the limit is raised to the maximum
+        assertEquals(MAX_QOS,filter.getMaxRequests());
+        assertTrue(TestServlet.__maxSleepers<=MAX_QOS);
+        assertEquals(0,filter.getQueueSize());
+        assertEquals(0,filter.getActiveRequests());
+    }
+
+    @Test
+    public void testRaisingMaxRequestsResumesQueued() throws Exception
+    {
+        FilterHolder holder = new FilterHolder(QoSFilter2.class);
+        holder.setAsyncSupported(true);
+        holder.setInitParameter(QoSFilter.MAX_REQUESTS_INIT_PARAM, "1");
+        holder.setInitParameter(QoSFilter.MAX_WAIT_INIT_PARAM, "1");
+        holder.setInitParameter(QoSFilter.SUSPEND_INIT_PARAM, "30000");
+        _tester.getContext().getServletHandler().addFilterWithMapping(holder,"/*",EnumSet.of(DispatcherType.REQUEST,DispatcherType.ASYNC));
+        _tester.getContext().getServletHandler().addServletWithMapping(BlockingServlet.class,"/block");
+        BlockingServlet.__entered = new CountDownLatch(1);
+        BlockingServlet.__release = new CountDownLatch(1);
+
+        // the only pass is held by a blocked request
+        new Thread(new Fetcher(0,"/context/block")).start();
+        assertTrue(BlockingServlet.__entered.await(5,TimeUnit.SECONDS));
+
+        final CountDownLatch queuedDone = new CountDownLatch(2);
+        for (int i = 1; i <= 2; ++i)
+        {
+            new Thread(new Fetcher(i,"/context/test")
+            {
+                @Override
+                public void run()
+                {
+                    super.run();
+                    if (_response != null && _response.startsWith("HTTP/1.1 200"))
+                        queuedDone.countDown();
+                }
+            }).start();
+        }
+        QoSFilter filter = (QoSFilter)holder.getFilter();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (filter.getQueueSize() < 2 && System.nanoTime() < end)
+            Thread.sleep(10);
+        assertEquals(2,filter.getQueueSize());
+
+        // the new passes go to the queued requests, while the first one is still blocked
+        filter.setMaxRequests(3);
+        assertTrue(queuedDone.await(5,TimeUnit.SECONDS));
+        assertEquals(0,filter.getQueueSize());
+
+        BlockingServlet.__release.countDown();
+    }
+
+    @Test
+    public void testAdaptLimit() throws Exception
+    {
+        QoSFilter filter = new QoSFilter();
+
+        // no queueing and the limit is used
+        assertEquals(11,filter.adaptLimit(10,1000,1000,10));
+        // no queueing, but the limit is not used
+        assertEquals(10,filter.adaptLimit(10,1000,1000,4));
+        // a few requests queued
+        assertEquals(10,filter.adaptLimit(10,1500,1000,10));
+        // most requests queued
+        assertEquals(9,filter.adaptLimit(10,4000,1000,10));
+        // large limits move in larger steps
+        assertEquals(997,filter.adaptLimit(1000,4000,1000,1000));
+
+        filter.setMinRequests(5);
+        filter.setMaxAdaptiveRequests(20);
+        assertEquals(5,filter.adaptLimit(5,4000,1000,5));
+        assertEquals(20,filter.adaptLimit(20,1000,1000,20));
+    }
+
     class Worker implements Runnable {
         private int _num;
         public Worker(int num)
@@ -162,6 +254,33 @@ public class QoSFilterTest
         }
     }
 
+    class Fetcher implements Runnable {
+        private int _num;
+        private String _uri;
+        protected volatile String _response;
+        public Fetcher(int num, String uri)
+        {
+            _num = num;
+            _uri = uri;
+        }
+
+        public void run()
+        {
+            HttpTester.Request request = HttpTester.newRequest();
+            request.setMethod("GET");
+            request.setHeader("host", "tester");
+            request.setURI(_uri);
+            try
+            {
+                _response = _connectors[_num].getResponses(BufferUtil.toString(request.generate()));
+            }
+            catch (Exception x)
+            {
+                LOG.warn(x);
+            }
+        }
+    }
+
     class Worker2 implements Runnable {
         private int _num;
         public Worker2(int num)
@@ -229,6 +348,27 @@ public class QoSFilterTest
         }
     }
 
+    public static class BlockingServlet extends HttpServlet implements Servlet
+    {
+        private static volatile CountDownLatch __entered;
+        private static volatile CountDownLatch __release;
+
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            __entered.countDown();
+            try
+            {
+                __release.await(30,TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                throw new ServletException(e);
+            }
+            response.setContentType("text/plain");
+            response.getWriter().println("DONE!");
+        }
+    }
+
     public static class QoSFilter2 extends QoSFilter
     {
         public int getPriority(ServletRequest request)
@@ -0,0 +1,113 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.servlets.gzip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.toolchain.test.IO;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PooledDeflaterOutputStreamTest
+{
+    private final DeflaterPool deflaterPool = new DeflaterPool(2);
+    private final ByteBufferPool bufferPool = new ArrayByteBufferPool();
+
+    private byte[] content()
+    {
+        // Compressible text followed by random bytes, larger than the buffer
+        byte[] content = new byte[64 * 1024];
+        byte[] text = "Now is the time for all good men to come to the aid of the party. ".getBytes();
+        for (int i = 0; i < content.length / 2; ++i)
+            content[i] = text[i % text.length];
+        byte[] random = new byte[content.length / 2];
+        new Random(0).nextBytes(random);
+        System.arraycopy(random,0,content,content.length / 2,random.length);
+        return content;
+    }
+
+    private byte[] compress(byte[] content, int level, boolean gzip, boolean nowrap) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PooledDeflaterOutputStream deflater = new PooledDeflaterOutputStream(out,deflaterPool,bufferPool,1024,level,gzip,nowrap);
+        deflater.write(content[0]);
+        deflater.write(content,1,99);
+        deflater.write(Arrays.copyOfRange(content,100,content.length));
+        deflater.close();
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(InputStream in) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IO.copy(in,out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testGzip() throws Exception
+    {
+        byte[] content = content();
+        byte[] compressed = compress(content,Deflater.DEFAULT_COMPRESSION,true,false);
+        Assert.assertTrue(compressed.length < content.length);
+        Assert.assertArrayEquals(content,inflate(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void testDeflate() throws Exception
+    {
+        byte[] content = content();
+        Assert.assertArrayEquals(content,inflate(new InflaterInputStream(new ByteArrayInputStream(compress(content,1,false,false)),new Inflater(false))));
+        Assert.assertArrayEquals(content,inflate(new InflaterInputStream(new ByteArrayInputStream(compress(content,9,false,true)),new Inflater(true))));
+    }
+
+    @Test
+    public void testDeflatersAreReused() throws Exception
+    {
+        byte[] content = content();
+
+        // A reused deflater is reset and uses the level it is acquired with
+        byte[] stored = compress(content,Deflater.NO_COMPRESSION,true,false);
+        Assert.assertEquals(1,deflaterPool.getSize());
+        byte[] best = compress(content,Deflater.BEST_COMPRESSION,true,false);
+        Assert.assertEquals(1,deflaterPool.getSize());
+        Assert.assertTrue(stored.length > content.length);
+        Assert.assertTrue(best.length < content.length);
+        Assert.assertArrayEquals(content,inflate(new GZIPInputStream(new ByteArrayInputStream(best))));
+
+        // Released streams return their deflater up to the capacity of the pool
+        PooledDeflaterOutputStream[] streams = new PooledDeflaterOutputStream[3];
+        for (int i = 0; i < streams.length; ++i)
+            streams[i] = new PooledDeflaterOutputStream(new ByteArrayOutputStream(),deflaterPool,bufferPool,1024,Deflater.DEFAULT_COMPRESSION,true,false);
+        Assert.assertEquals(0,deflaterPool.getSize());
+        for (PooledDeflaterOutputStream stream : streams)
+            stream.release();
+        Assert.assertEquals(2,deflaterPool.getSize());
+    }
+}
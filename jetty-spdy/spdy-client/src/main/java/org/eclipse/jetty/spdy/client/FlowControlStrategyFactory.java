@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.spdy.client;
 
+import org.eclipse.jetty.spdy.AdaptiveFlowControlStrategy;
 import org.eclipse.jetty.spdy.FlowControlStrategy;
 import org.eclipse.jetty.spdy.SPDYv3FlowControlStrategy;
 import org.eclipse.jetty.spdy.api.SPDY;
@@ -29,13 +30,25 @@ public class FlowControlStrategyFactory
     }
 
     public static FlowControlStrategy newFlowControlStrategy(short version)
+    {
+        return newFlowControlStrategy(version, false, 65536);
+    }
+
+    /**
+     * @param version the SPDY version
+     * @param adaptive whether the receive windows should be tuned from the consumption rate and the round trip time
+     * @param initialWindowSize the receive window of new streams, as configured on the connection factory or client
+     * @return a new flow control strategy for the given version
+     * @see AdaptiveFlowControlStrategy
+     */
+    public static FlowControlStrategy newFlowControlStrategy(short version, boolean adaptive, int initialWindowSize)
     {
         switch (version)
         {
             case SPDY.V2:
                 return new FlowControlStrategy.None();
             case SPDY.V3:
-                return new SPDYv3FlowControlStrategy();
+                return adaptive ? new AdaptiveFlowControlStrategy(initialWindowSize) : new SPDYv3FlowControlStrategy();
             default:
                 throw new IllegalStateException();
         }
@@ -30,6 +30,7 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.net.ssl.SSLEngine;
 
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -44,6 +45,7 @@ import org.eclipse.jetty.spdy.FlowControlStrategy;
 import org.eclipse.jetty.spdy.api.Session;
 import org.eclipse.jetty.spdy.api.SessionFrameListener;
 import org.eclipse.jetty.util.FuturePromise;
+import org.eclipse.jetty.util.Promise;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -58,6 +60,7 @@ public class SPDYClient
     private volatile SocketAddress bindAddress;
     private volatile long idleTimeout = -1;
     private volatile int initialWindowSize;
+    private volatile boolean adaptiveFlowControl;
 
     protected SPDYClient(short version, Factory factory)
     {
@@ -85,19 +88,51 @@ public class SPDYClient
     }
 
     public Future<Session> connect(InetSocketAddress address, SessionFrameListener listener) throws IOException
+    {
+        return connect(address, listener, new SessionPromise(this, listener, null));
+    }
+
+    /**
+     * <p>Connects asynchronously to the given address, notifying the given promise
+     * when the session is established or when the connect fails.</p>
+     *
+     * @param address the address to connect to
+     * @param listener the session listener that will be notified of session events
+     * @param promise the promise notified of the connect outcome
+     */
+    public void connect(InetSocketAddress address, SessionFrameListener listener, Promise<Session> promise)
+    {
+        try
+        {
+            connect(address, listener, new SessionPromise(this, listener, promise));
+        }
+        catch (IOException x)
+        {
+            promise.failed(x);
+        }
+    }
+
+    private SessionPromise connect(InetSocketAddress address, SessionFrameListener listener, SessionPromise result) throws IOException
     {
         if (!factory.isStarted())
             throw new IllegalStateException(Factory.class.getSimpleName() + " is not started");
 
         SocketChannel channel = SocketChannel.open();
-        if (bindAddress != null)
-            channel.bind(bindAddress);
-        channel.socket().setTcpNoDelay(true);
-        channel.configureBlocking(false);
-
-        SessionPromise result = new SessionPromise(channel, this, listener);
+        result.channel = channel;
+        try
+        {
+            if (bindAddress != null)
+                channel.bind(bindAddress);
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+            channel.connect(address);
+        }
+        catch (IOException x)
+        {
+            channel.close();
+            throw x;
+        }
 
-        channel.connect(address);
         factory.selector.connect(channel, result);
 
         return result;
@@ -123,6 +158,24 @@ public class SPDYClient
         this.initialWindowSize = initialWindowSize;
     }
 
+    /**
+     * @return whether the receive windows are tuned from the consumption rate and the round trip time
+     * @see #setAdaptiveFlowControl(boolean)
+     */
+    public boolean isAdaptiveFlowControl()
+    {
+        return adaptiveFlowControl;
+    }
+
+    /**
+     * @param adaptiveFlowControl whether the receive windows are tuned from the consumption rate and the round trip time
+     * @see #isAdaptiveFlowControl()
+     */
+    public void setAdaptiveFlowControl(boolean adaptiveFlowControl)
+    {
+        this.adaptiveFlowControl = adaptiveFlowControl;
+    }
+
     protected String selectProtocol(List<String> serverProtocols)
     {
         String protocol = "spdy/" + version;
@@ -150,7 +203,7 @@ public class SPDYClient
 
     protected FlowControlStrategy newFlowControlStrategy()
     {
-        return FlowControlStrategyFactory.newFlowControlStrategy(version);
+        return FlowControlStrategyFactory.newFlowControlStrategy(version, isAdaptiveFlowControl(), getInitialWindowSize());
     }
 
     public static class Factory extends ContainerLifeCycle
@@ -293,6 +346,13 @@ public class SPDYClient
                 return new SelectChannelEndPoint(channel, selectSet, key, getScheduler(), clientIdleTimeout);
             }
 
+            @Override
+            protected void connectionFailed(SocketChannel channel, Throwable ex, Object attachment)
+            {
+                SessionPromise sessionPromise = (SessionPromise)attachment;
+                sessionPromise.failed(ex);
+            }
+
             @Override
             public Connection newConnection(final SocketChannel channel, EndPoint endPoint, final Object attachment)
             {
@@ -325,15 +385,33 @@ public class SPDYClient
 
     static class SessionPromise extends FuturePromise<Session>
     {
-        private final SocketChannel channel;
+        private final AtomicBoolean notified = new AtomicBoolean();
+        private volatile SocketChannel channel;
         final SPDYClient client;
         final SessionFrameListener listener;
+        private final Promise<Session> promise;
 
-        private SessionPromise(SocketChannel channel, SPDYClient client, SessionFrameListener listener)
+        private SessionPromise(SPDYClient client, SessionFrameListener listener, Promise<Session> promise)
         {
-            this.channel = channel;
             this.client = client;
             this.listener = listener;
+            this.promise = promise;
+        }
+
+        @Override
+        public void succeeded(Session session)
+        {
+            super.succeeded(session);
+            if (promise != null && notified.compareAndSet(false, true))
+                promise.succeeded(session);
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            super.failed(x);
+            if (promise != null && notified.compareAndSet(false, true))
+                promise.failed(x);
         }
 
         @Override
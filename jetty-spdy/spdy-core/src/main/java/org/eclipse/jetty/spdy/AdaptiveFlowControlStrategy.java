@@ -0,0 +1,306 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.PingInfo;
+import org.eclipse.jetty.spdy.api.Stream;
+import org.eclipse.jetty.spdy.frames.WindowUpdateFrame;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
+/**
+ * <p>A SPDY/3 {@link FlowControlStrategy} that batches window updates and
+ * grows the receive window of streams that are consumed quickly.</p>
+ * <p>Consumed bytes are accumulated per stream and a {@code WINDOW_UPDATE} is sent only
+ * when they reach a fraction of the stream receive window, rather than once per data frame.</p>
+ * <p>The round trip time of the connection is measured with PINGs; when a window update is
+ * sent, the consumption rate of the stream is compared with the bandwidth-delay product
+ * allowed by the current window, and the window is grown (at most doubling each time) so
+ * that the sender is not throttled by flow control on high latency links.
+ * Slow consumers keep their initial window.</p>
+ * <p>The sum of the stream receive windows, that is the max number of bytes that the other
+ * peer may send and that this peer may need to buffer, is capped per session.</p>
+ */
+public class AdaptiveFlowControlStrategy extends SPDYv3FlowControlStrategy
+{
+    private static final Logger LOG = Log.getLogger(AdaptiveFlowControlStrategy.class);
+    private static final String WINDOW_ATTRIBUTE = AdaptiveFlowControlStrategy.class.getName() + ".window";
+
+    private final AtomicLong pingNanos = new AtomicLong();
+    private final Object pingLock = new Object();
+    private final int initialWindowSize;
+    private final int maxStreamWindowSize;
+    private final int maxSessionWindowSize;
+    private volatile float updateRatio = 0.5F;
+    private volatile long rttRefreshPeriod = TimeUnit.SECONDS.toNanos(30);
+    private int pingId = -1;
+    private int replyId = -1;
+    private long replyNanos;
+    private volatile long rtt;
+    private volatile long rttNanos;
+
+    public AdaptiveFlowControlStrategy()
+    {
+        this(65536);
+    }
+
+    /**
+     * @param initialWindowSize the receive window of new streams, as known by the other peer
+     */
+    public AdaptiveFlowControlStrategy(int initialWindowSize)
+    {
+        this(initialWindowSize, 16 * 1024 * 1024, 64 * 1024 * 1024);
+    }
+
+    /**
+     * @param initialWindowSize the receive window of new streams, as known by the other peer
+     * @param maxStreamWindowSize the max receive window of a stream
+     * @param maxSessionWindowSize the max sum of the receive windows of the streams of a session
+     */
+    public AdaptiveFlowControlStrategy(int initialWindowSize, int maxStreamWindowSize, int maxSessionWindowSize)
+    {
+        this.initialWindowSize = initialWindowSize;
+        this.maxStreamWindowSize = maxStreamWindowSize;
+        this.maxSessionWindowSize = maxSessionWindowSize;
+    }
+
+    /**
+     * @return the fraction of the stream receive window that must be consumed before sending a window update
+     */
+    public float getUpdateRatio()
+    {
+        return updateRatio;
+    }
+
+    public void setUpdateRatio(float updateRatio)
+    {
+        this.updateRatio = updateRatio;
+    }
+
+    /**
+     * @return the period, in milliseconds, after which the round trip time is measured again
+     */
+    public long getRoundTripTimeRefreshPeriod()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(rttRefreshPeriod);
+    }
+
+    public void setRoundTripTimeRefreshPeriod(long period)
+    {
+        this.rttRefreshPeriod = TimeUnit.MILLISECONDS.toNanos(period);
+    }
+
+    /**
+     * @return the last measured round trip time, in milliseconds, or -1 if it has not been measured yet
+     */
+    public long getRoundTripTime()
+    {
+        long rtt = this.rtt;
+        return rtt > 0 ? TimeUnit.NANOSECONDS.toMillis(rtt) : -1;
+    }
+
+    /**
+     * @param stream the stream
+     * @return the current receive window of the given stream
+     */
+    public int getReceiveWindowSize(Stream stream)
+    {
+        ReceiveWindow window = (ReceiveWindow)stream.getAttribute(WINDOW_ATTRIBUTE);
+        return window == null ? initialWindowSize : window.size;
+    }
+
+    @Override
+    public void onNewStream(ISession session, IStream stream)
+    {
+        super.onNewStream(session, stream);
+        stream.setAttribute(WINDOW_ATTRIBUTE, new ReceiveWindow(initialWindowSize));
+    }
+
+    @Override
+    public void onDataReceived(ISession session, IStream stream, DataInfo dataInfo)
+    {
+        ReceiveWindow window = (ReceiveWindow)stream.getAttribute(WINDOW_ATTRIBUTE);
+        if (window != null)
+        {
+            synchronized (window)
+            {
+                // Start measuring the consumption rate from the first data frame
+                if (window.updateNanos == 0)
+                    window.updateNanos = System.nanoTime();
+            }
+        }
+    }
+
+    @Override
+    public void onDataConsumed(ISession session, IStream stream, DataInfo dataInfo, int delta)
+    {
+        ReceiveWindow window = (ReceiveWindow)stream.getAttribute(WINDOW_ATTRIBUTE);
+        if (window == null)
+        {
+            super.onDataConsumed(session, stream, dataInfo, delta);
+            return;
+        }
+
+        // The other peer will not send more data, no need to update the window
+        if (stream.isClosed() || dataInfo.isClose() || delta <= 0)
+            return;
+
+        int update;
+        long now;
+        boolean needPing;
+        synchronized (window)
+        {
+            window.consumed += delta;
+            if (window.consumed < window.size * updateRatio)
+                return;
+
+            now = System.nanoTime();
+            needPing = rtt == 0 || now - rttNanos > rttRefreshPeriod;
+            int newSize = grow(session, window, now);
+            update = window.consumed + newSize - window.size;
+            LOG.debug("Stream {} window update {}, window size {} -> {}", stream.getId(), update, window.size, newSize);
+            window.size = newSize;
+            window.consumed = 0;
+            window.updateNanos = now;
+        }
+
+        WindowUpdateFrame windowUpdateFrame = new WindowUpdateFrame(session.getVersion(), stream.getId(), update);
+        session.control(stream, windowUpdateFrame, 0, TimeUnit.MILLISECONDS, new Callback.Adapter());
+
+        // Measure the round trip time outside the window lock, as the PING may be written by this thread
+        if (needPing)
+            ping(session, now);
+    }
+
+    private int grow(ISession session, ReceiveWindow window, long now)
+    {
+        long rtt = this.rtt;
+        if (rtt == 0)
+            return window.size;
+
+        long elapsed = now - window.updateNanos;
+        if (elapsed <= 0)
+            return window.size;
+
+        // The window must allow the bytes consumed during a round trip to be in flight,
+        // plus the same amount again to absorb variations of the consumption rate
+        double target = 2D * window.consumed * rtt / elapsed;
+        if (target <= window.size)
+            return window.size;
+
+        long newSize = Math.min((long)target, Math.min(2L * window.size, maxStreamWindowSize));
+        long available = maxSessionWindowSize - getSessionWindowSize(session);
+        newSize = Math.min(newSize, window.size + Math.max(0, available));
+        return (int)Math.max(window.size, newSize);
+    }
+
+    private long getSessionWindowSize(ISession session)
+    {
+        long result = 0;
+        for (Stream stream : session.getStreams())
+        {
+            ReceiveWindow window = (ReceiveWindow)stream.getAttribute(WINDOW_ATTRIBUTE);
+            if (window != null)
+                result += window.size;
+        }
+        return result;
+    }
+
+    private void ping(ISession session, final long now)
+    {
+        // Only one PING at a time, unless the reply to the previous one is overdue
+        long sent = pingNanos.get();
+        if (sent != 0 && now - sent < rttRefreshPeriod)
+            return;
+        if (!pingNanos.compareAndSet(sent, now))
+            return;
+
+        session.ping(0, TimeUnit.MILLISECONDS, new Promise<PingInfo>()
+        {
+            @Override
+            public void succeeded(PingInfo pingInfo)
+            {
+                // The reply may have been received before the write of the PING completed
+                synchronized (pingLock)
+                {
+                    if (replyId == pingInfo.getPingId())
+                    {
+                        replyId = -1;
+                        measured(replyNanos);
+                    }
+                    else
+                    {
+                        pingId = pingInfo.getPingId();
+                    }
+                }
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                pingNanos.compareAndSet(now, 0);
+            }
+        });
+    }
+
+    @Override
+    public void onPing(ISession session, PingInfo pingInfo)
+    {
+        long now = System.nanoTime();
+        synchronized (pingLock)
+        {
+            if (pingInfo.getPingId() == pingId)
+            {
+                pingId = -1;
+                measured(now);
+            }
+            else if (pingId == -1 && pingNanos.get() != 0)
+            {
+                // Our PING is outstanding but its id is not known yet, remember the reply
+                replyId = pingInfo.getPingId();
+                replyNanos = now;
+            }
+        }
+    }
+
+    private void measured(long now)
+    {
+        rtt = Math.max(1, now - pingNanos.getAndSet(0));
+        rttNanos = now;
+        LOG.debug("Measured round trip time {} ms", TimeUnit.NANOSECONDS.toMillis(rtt));
+    }
+
+    private static class ReceiveWindow
+    {
+        private volatile int size;
+        private int consumed;
+        private long updateNanos;
+
+        private ReceiveWindow(int size)
+        {
+            this.size = size;
+        }
+    }
+}
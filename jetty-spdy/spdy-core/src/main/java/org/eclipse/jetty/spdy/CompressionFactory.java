@@ -30,9 +30,13 @@ public interface CompressionFactory
     {
         public void setInput(byte[] input);
 
+        public void setInput(byte[] input, int offset, int length);
+
         public void setDictionary(byte[] dictionary);
 
         public int compress(byte[] output);
+
+        public int compress(byte[] output, int offset, int length);
     }
 
     public interface Decompressor
@@ -41,6 +45,10 @@ public interface CompressionFactory
 
         public void setInput(byte[] input);
 
+        public void setInput(byte[] input, int offset, int length);
+
         public int decompress(byte[] output) throws ZipException;
+
+        public int decompress(byte[] output, int offset, int length) throws ZipException;
     }
 }
@@ -26,5 +26,49 @@ public interface Controller
 {
     public void write(ByteBuffer buffer, Callback callback);
 
+    /**
+     * <p>Writes the given buffers with a single gathering write, if possible.</p>
+     *
+     * @param callback the callback notified when all the buffers have been written
+     * @param buffers the buffers to write
+     */
+    public void write(Callback callback, ByteBuffer... buffers);
+
     public void close(boolean onlyOutput);
+
+    /**
+     * <p>Base class for {@link Controller}s that only implement {@link #write(ByteBuffer, Callback)}:
+     * the buffers of a gathered write are written one after the other.</p>
+     */
+    public abstract static class Adapter implements Controller
+    {
+        @Override
+        public void write(Callback callback, ByteBuffer... buffers)
+        {
+            write(callback, buffers, 0);
+        }
+
+        private void write(final Callback callback, final ByteBuffer[] buffers, final int index)
+        {
+            if (index == buffers.length)
+            {
+                callback.succeeded();
+                return;
+            }
+            write(buffers[index], new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    write(callback, buffers, index + 1);
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    callback.failed(x);
+                }
+            });
+        }
+    }
 }
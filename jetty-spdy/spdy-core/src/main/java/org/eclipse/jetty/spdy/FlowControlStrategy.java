@@ -19,6 +19,7 @@
 package org.eclipse.jetty.spdy;
 
 import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.PingInfo;
 
 // TODO: add methods that tell how much written and whether we're TCP congested ?
 public interface FlowControlStrategy
@@ -37,6 +38,14 @@ public interface FlowControlStrategy
 
     public void onDataConsumed(ISession session, IStream stream, DataInfo dataInfo, int delta);
 
+    /**
+     * <p>Invoked when the reply to a PING sent by this peer is received.</p>
+     *
+     * @param session the session the PING has been sent on
+     * @param pingInfo the PING reply
+     */
+    public void onPing(ISession session, PingInfo pingInfo);
+
     public static class None implements FlowControlStrategy
     {
         private volatile int windowSize;
@@ -88,5 +97,10 @@ public interface FlowControlStrategy
         public void onDataConsumed(ISession session, IStream stream, DataInfo dataInfo, int delta)
         {
         }
+
+        @Override
+        public void onPing(ISession session, PingInfo pingInfo)
+        {
+        }
     }
 }
@@ -0,0 +1,292 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jetty.spdy.StandardSession.FrameBytes;
+
+/**
+ * <p>The queue of {@link FrameBytes} waiting to be written by a {@link StandardSession}.</p>
+ * <p>Frames are kept in one lane per stream priority, and within a lane in one FIFO queue per stream.
+ * A lane holds only the streams that can be written, so that streams stalled by flow control or
+ * that have a frame being written are skipped in constant time. Frames without a stream are written
+ * after the stream frames, apart from {@link #prepend(FrameBytes) prepended} ones (for example PINGs)
+ * that are written first.</p>
+ * <p>The typical usage is:</p>
+ * <pre>
+ * FrameBytes frameBytes;
+ * while ((frameBytes = queue.peek()) != null)
+ * {
+ *     if (frameBytes.getByteBuffer() == null)
+ *         queue.stall(frameBytes);
+ *     else
+ *         queue.take(frameBytes); // then queue.done(frameBytes) when written
+ * }
+ * </pre>
+ * <p>This class is not thread safe, callers must synchronize.</p>
+ */
+public class PriorityFrameQueue
+{
+    /**
+     * The number of stream priorities, from 0 (highest) to 7 (lowest)
+     */
+    public static final int PRIORITIES = 8;
+
+    private final ArrayDeque<FrameBytes> urgent = new ArrayDeque<>();
+    private final List<ArrayDeque<StreamQueue>> lanes = new ArrayList<>(PRIORITIES);
+    private final ArrayDeque<FrameBytes> session = new ArrayDeque<>();
+    private final Map<IStream, StreamQueue> streams = new HashMap<>();
+    private int size;
+
+    public PriorityFrameQueue()
+    {
+        for (int i = 0; i < PRIORITIES; ++i)
+            lanes.add(new ArrayDeque<StreamQueue>());
+    }
+
+    /**
+     * <p>Adds the given frame at the end of the frames of its stream.</p>
+     *
+     * @param frameBytes the frame to add
+     */
+    public void append(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+            session.offer(frameBytes);
+        else
+            streamQueue(stream).frames.offerLast(frameBytes);
+        ++size;
+    }
+
+    /**
+     * <p>Adds the given frame before the other frames of its stream, or before all other
+     * frames if it has no stream.</p>
+     *
+     * @param frameBytes the frame to add
+     */
+    public void prepend(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+            urgent.offer(frameBytes);
+        else
+            streamQueue(stream).frames.offerFirst(frameBytes);
+        ++size;
+    }
+
+    private StreamQueue streamQueue(IStream stream)
+    {
+        StreamQueue streamQueue = streams.get(stream);
+        if (streamQueue == null)
+        {
+            streamQueue = new StreamQueue(stream);
+            streams.put(stream, streamQueue);
+            lane(streamQueue).offerLast(streamQueue);
+        }
+        return streamQueue;
+    }
+
+    private ArrayDeque<StreamQueue> lane(StreamQueue streamQueue)
+    {
+        return lanes.get(streamQueue.priority);
+    }
+
+    /**
+     * @return the next frame to write, or null if no frame can be written
+     */
+    public FrameBytes peek()
+    {
+        FrameBytes frameBytes = urgent.peek();
+        if (frameBytes != null)
+            return frameBytes;
+        for (int i = 0; i < PRIORITIES; ++i)
+        {
+            StreamQueue streamQueue = lanes.get(i).peekFirst();
+            if (streamQueue != null)
+                return streamQueue.frames.peekFirst();
+        }
+        return session.peek();
+    }
+
+    /**
+     * <p>Removes the given frame, previously returned by {@link #peek()}, from this queue.</p>
+     * <p>The other frames of its stream will not be returned by {@link #peek()} until
+     * {@link #done(FrameBytes)} is called for the given frame.</p>
+     *
+     * @param frameBytes the frame to remove
+     */
+    public void take(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+        {
+            if (!remove(urgent, frameBytes))
+                remove(session, frameBytes);
+        }
+        else
+        {
+            StreamQueue streamQueue = streams.get(stream);
+            remove(streamQueue.frames, frameBytes);
+            streamQueue.busy = true;
+            remove(lane(streamQueue), streamQueue);
+        }
+        --size;
+    }
+
+    private <T> boolean remove(ArrayDeque<T> deque, T item)
+    {
+        // The item is normally at the head, since it has been peeked
+        if (deque.peekFirst() == item)
+        {
+            deque.pollFirst();
+            return true;
+        }
+        return deque.remove(item);
+    }
+
+    /**
+     * @param stream the stream to test
+     * @return whether frames of the given stream are queued
+     */
+    public boolean hasFrames(IStream stream)
+    {
+        StreamQueue streamQueue = streams.get(stream);
+        return streamQueue != null && !streamQueue.frames.isEmpty();
+    }
+
+    /**
+     * <p>Marks the stream of the given frame, previously returned by {@link #peek()}, as stalled:
+     * its frames will not be returned by {@link #peek()} until the stream is {@link #unstall(IStream) unstalled}.</p>
+     *
+     * @param frameBytes the frame that cannot be written
+     */
+    public void stall(FrameBytes frameBytes)
+    {
+        StreamQueue streamQueue = streams.get(frameBytes.getStream());
+        if (streamQueue != null && !streamQueue.stalled)
+        {
+            streamQueue.stalled = true;
+            remove(lane(streamQueue), streamQueue);
+        }
+    }
+
+    /**
+     * <p>Makes the frames of the given stream available again, typically after its window has been enlarged.</p>
+     *
+     * @param stream the stream to unstall
+     */
+    public void unstall(IStream stream)
+    {
+        StreamQueue streamQueue = streams.get(stream);
+        if (streamQueue != null && streamQueue.stalled)
+        {
+            streamQueue.stalled = false;
+            if (!streamQueue.busy)
+                lane(streamQueue).offerFirst(streamQueue);
+        }
+    }
+
+    /**
+     * <p>Makes the frames of all the stalled streams available again.</p>
+     */
+    public void unstallAll()
+    {
+        for (StreamQueue streamQueue : streams.values())
+            unstall(streamQueue.stream);
+    }
+
+    /**
+     * <p>Signals that the given frame, previously {@link #take(FrameBytes) taken}, has been written,
+     * so that the other frames of its stream can be written.</p>
+     *
+     * @param frameBytes the frame that has been written
+     */
+    public void done(FrameBytes frameBytes)
+    {
+        IStream stream = frameBytes.getStream();
+        if (stream == null)
+            return;
+        StreamQueue streamQueue = streams.get(stream);
+        if (streamQueue == null || !streamQueue.busy)
+            return;
+        streamQueue.busy = false;
+        if (streamQueue.frames.isEmpty())
+            streams.remove(stream);
+        else if (!streamQueue.stalled)
+            lane(streamQueue).offerLast(streamQueue);
+    }
+
+    /**
+     * <p>Removes all the frames from this queue.</p>
+     *
+     * @return the frames that were in this queue
+     */
+    public List<FrameBytes> clear()
+    {
+        List<FrameBytes> result = new ArrayList<>(size);
+        result.addAll(urgent);
+        urgent.clear();
+        for (ArrayDeque<StreamQueue> lane : lanes)
+            lane.clear();
+        for (StreamQueue streamQueue : streams.values())
+            result.addAll(streamQueue.frames);
+        streams.clear();
+        result.addAll(session);
+        session.clear();
+        size = 0;
+        return result;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d,streams=%d}", getClass().getSimpleName(), hashCode(), size, streams.size());
+    }
+
+    private static class StreamQueue
+    {
+        private final ArrayDeque<FrameBytes> frames = new ArrayDeque<>();
+        private final IStream stream;
+        private final int priority;
+        private boolean stalled;
+        private boolean busy;
+
+        private StreamQueue(IStream stream)
+        {
+            this.stream = stream;
+            this.priority = Math.min(Math.max(stream.getPriority(), 0), PRIORITIES - 1);
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.eclipse.jetty.spdy;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.PingInfo;
 import org.eclipse.jetty.spdy.api.Stream;
 import org.eclipse.jetty.spdy.frames.WindowUpdateFrame;
 import org.eclipse.jetty.util.Callback;
@@ -87,4 +88,10 @@ public class SPDYv3FlowControlStrategy implements FlowControlStrategy
             session.control(stream, windowUpdateFrame, 0, TimeUnit.MILLISECONDS, new Callback.Adapter());
         }
     }
+
+    @Override
+    public void onPing(ISession session, PingInfo pingInfo)
+    {
+        // Do nothing
+    }
 }
@@ -47,6 +47,12 @@ public class StandardCompressionFactory implements CompressionFactory
             deflater.setInput(input);
         }
 
+        @Override
+        public void setInput(byte[] input, int offset, int length)
+        {
+            deflater.setInput(input, offset, length);
+        }
+
         @Override
         public void setDictionary(byte[] dictionary)
         {
@@ -56,7 +62,13 @@ public class StandardCompressionFactory implements CompressionFactory
         @Override
         public int compress(byte[] output)
         {
-            return deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+            return compress(output, 0, output.length);
+        }
+
+        @Override
+        public int compress(byte[] output, int offset, int length)
+        {
+            return deflater.deflate(output, offset, length, Deflater.SYNC_FLUSH);
         }
     }
 
@@ -76,12 +88,24 @@ public class StandardCompressionFactory implements CompressionFactory
             inflater.setInput(input);
         }
 
+        @Override
+        public void setInput(byte[] input, int offset, int length)
+        {
+            inflater.setInput(input, offset, length);
+        }
+
         @Override
         public int decompress(byte[] output) throws ZipException
+        {
+            return decompress(output, 0, output.length);
+        }
+
+        @Override
+        public int decompress(byte[] output, int offset, int length) throws ZipException
         {
             try
             {
-                return inflater.inflate(output);
+                return inflater.inflate(output, offset, length);
             }
             catch (DataFormatException x)
             {
@@ -24,7 +24,7 @@ import java.nio.channels.InterruptedByTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -89,7 +89,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final Map<String, Object> attributes = new ConcurrentHashMap<>();
     private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     private final ConcurrentMap<Integer, IStream> streams = new ConcurrentHashMap<>();
-    private final LinkedList<FrameBytes> queue = new LinkedList<>();
+    private final PriorityFrameQueue queue = new PriorityFrameQueue();
     private final ByteBufferPool bufferPool;
     private final Executor threadPool;
     private final Scheduler scheduler;
@@ -106,6 +106,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     private final FlowControlStrategy flowControlStrategy;
     private boolean flushing;
     private Throwable failure;
+    private int maxGatheredFrames = 16;
 
     public StandardSession(short version, ByteBufferPool bufferPool, Executor threadPool, Scheduler scheduler,
             Controller controller, IdleListener idleListener, int initialStreamId, SessionFrameListener listener,
@@ -626,6 +627,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         if (pingId % 2 == pingIds.get() % 2)
         {
             PingInfo pingInfo = new PingInfo(frame.getPingId());
+            flowControlStrategy.onPing(this, pingInfo);
             notifyOnPing(listener, pingInfo);
             flush();
         }
@@ -676,6 +678,13 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         int streamId = frame.getStreamId();
         IStream stream = streams.get(streamId);
         flowControlStrategy.onWindowUpdate(this, stream, frame.getWindowDelta());
+        synchronized (queue)
+        {
+            if (stream == null)
+                queue.unstallAll();
+            else
+                queue.unstall(stream);
+        }
         flush();
     }
 
@@ -888,50 +897,91 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     @Override
     public void flush()
     {
-        FrameBytes frameBytes = null;
-        ByteBuffer buffer = null;
+        List<FrameBytes> frames = null;
+        List<ByteBuffer> buffers = null;
+        Map<FrameBytes, Throwable> failed = null;
         synchronized (queue)
         {
             if (flushing || queue.isEmpty())
                 return;
-            
-            Set<IStream> stalledStreams = null;
-            for (int i = 0; i < queue.size(); ++i)
-            {
-                frameBytes = queue.get(i);
 
+            // Gather the frames that can be written, at most one per stream since
+            // frames of the same stream depend on the completion of the previous one
+            FrameBytes frameBytes;
+            while ((frameBytes = queue.peek()) != null)
+            {
                 IStream stream = frameBytes.getStream();
-                if (stream != null && stalledStreams != null && stalledStreams.contains(stream))
+
+                ByteBuffer buffer;
+                try
+                {
+                    buffer = frameBytes.getByteBuffer();
+                }
+                catch (Throwable x)
+                {
+                    buffer = null;
+                    queue.take(frameBytes);
+                    queue.done(frameBytes);
+                    if (failed == null)
+                        failed = new LinkedHashMap<>();
+                    failed.put(frameBytes, x);
                     continue;
+                }
 
-                buffer = frameBytes.getByteBuffer();
-                if (buffer != null)
+                if (buffer == null)
                 {
-                    queue.remove(i);
-                    if (stream != null && stream.isReset())
-                    {
-                        frameBytes.fail(new StreamException(stream.getId(),StreamStatus.INVALID_STREAM,
-                                "Stream: " + stream + " is reset!"));
-                        return;
-                    }
-                    break;
+                    if (stream == null)
+                        break;
+                    queue.stall(frameBytes);
+                    LOG.debug("Flush stalled for {}, {} frame(s) in queue",frameBytes,queue.size());
+                    continue;
                 }
 
-                if (stalledStreams == null)
-                    stalledStreams = new HashSet<>();
-                if (stream != null)
-                    stalledStreams.add(stream);
+                queue.take(frameBytes);
+                if (stream != null && stream.isReset())
+                {
+                    queue.done(frameBytes);
+                    if (failed == null)
+                        failed = new LinkedHashMap<>();
+                    failed.put(frameBytes, new StreamException(stream.getId(),StreamStatus.INVALID_STREAM,
+                            "Stream: " + stream + " is reset!"));
+                    continue;
+                }
 
-                LOG.debug("Flush stalled for {}, {} frame(s) in queue",frameBytes,queue.size());
+                if (frames == null)
+                {
+                    frames = new ArrayList<>();
+                    buffers = new ArrayList<>();
+                }
+                frames.add(frameBytes);
+                buffers.add(buffer);
+
+                // Stop if the stream has more frames: they were queued before the frames
+                // of other streams that follow, and compressed headers must keep their order
+                if (frames.size() == maxGatheredFrames || (stream != null && queue.hasFrames(stream)))
+                    break;
             }
 
-            if (buffer == null)
-                return;
+            if (frames != null)
+            {
+                flushing = true;
+                LOG.debug("Flushing {}, {} frame(s) in queue",frames,queue.size());
+            }
+        }
 
-            flushing = true;
-            LOG.debug("Flushing {}, {} frame(s) in queue",frameBytes,queue.size());
+        if (failed != null)
+        {
+            for (Map.Entry<FrameBytes, Throwable> entry : failed.entrySet())
+                entry.getKey().fail(entry.getValue());
         }
-        write(buffer, frameBytes);
+
+        if (frames == null)
+            return;
+
+        if (frames.size() == 1)
+            write(buffers.get(0), frames.get(0));
+        else
+            write(new GatheredFrameBytes(frames), buffers.toArray(new ByteBuffer[buffers.size()]));
     }
 
     private void append(FrameBytes frameBytes)
@@ -941,17 +991,7 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         {
             failure = this.failure;
             if (failure == null)
-            {
-                int index = queue.size();
-                while (index > 0)
-                {
-                    FrameBytes element = queue.get(index - 1);
-                    if (element.compareTo(frameBytes) >= 0)
-                        break;
-                    --index;
-                }
-                queue.add(index, frameBytes);
-            }
+                queue.append(frameBytes);
         }
 
         if (failure != null)
@@ -965,23 +1005,54 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         {
             failure = this.failure;
             if (failure == null)
-            {
-                int index = 0;
-                while (index < queue.size())
-                {
-                    FrameBytes element = queue.get(index);
-                    if (element.compareTo(frameBytes) <= 0)
-                        break;
-                    ++index;
-                }
-                queue.add(index,frameBytes);
-            }
+                queue.prepend(frameBytes);
         }
 
         if (failure != null)
             frameBytes.fail(new SPDYException(failure));
     }
 
+    private void flushed(List<FrameBytes> frames)
+    {
+        synchronized (queue)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Completed write of {}, {} frame(s) in queue",frames,queue.size());
+            // Release the streams before clearing the flushing flag, so that a concurrent
+            // flush() cannot take frames of other streams ahead of the frames queued by
+            // these streams, that were compressed first.
+            // In reverse order, so that the streams get back their position in the queue
+            for (int i = frames.size(); i-- > 0;)
+                queue.done(frames.get(i));
+            flushing = false;
+        }
+
+        for (FrameBytes frameBytes : frames)
+            frameBytes.complete();
+
+        flush();
+    }
+
+    private void flushFailed(List<FrameBytes> frames, Throwable x)
+    {
+        List<FrameBytes> frameBytesToFail = new ArrayList<>(frames);
+
+        synchronized (queue)
+        {
+            failure = x;
+            if (LOG.isDebugEnabled())
+            {
+                String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue",frames,queue.size());
+                LOG.debug(logMessage,x);
+            }
+            frameBytesToFail.addAll(queue.clear());
+            flushing = false;
+        }
+
+        for (FrameBytes fb : frameBytesToFail)
+            fb.fail(x);
+    }
+
     protected void write(ByteBuffer buffer, Callback callback)
     {
         if (controller != null)
@@ -991,6 +1062,15 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         }
     }
 
+    protected void write(Callback callback, ByteBuffer... buffers)
+    {
+        if (controller != null)
+        {
+            LOG.debug("Writing {} frame buffers",buffers.length);
+            controller.write(callback,buffers);
+        }
+    }
+
     private void complete(final Callback callback)
     {
         // Applications may send and queue up a lot of frames and
@@ -1026,6 +1106,23 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
     public void setWindowSize(int initialWindowSize)
     {
         flowControlStrategy.setWindowSize(this, initialWindowSize);
+        synchronized (queue)
+        {
+            queue.unstallAll();
+        }
+    }
+
+    /**
+     * @return the maximum number of frames written together by a single flush
+     */
+    public int getMaxGatheredFrames()
+    {
+        return maxGatheredFrames;
+    }
+
+    public void setMaxGatheredFrames(int maxGatheredFrames)
+    {
+        this.maxGatheredFrames = maxGatheredFrames;
     }
 
     @Override
@@ -1152,36 +1249,41 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         @Override
         public void succeeded()
         {
-            synchronized (queue)
-            {
-                if (LOG.isDebugEnabled())
-                    LOG.debug("Completed write of {}, {} frame(s) in queue",this,queue.size());
-                flushing = false;
-            }
-            complete();
+            flushed(Collections.<FrameBytes>singletonList(this));
         }
 
         @Override
         public void failed(Throwable x)
         {
-            List<FrameBytes> frameBytesToFail = new ArrayList<>();
-            frameBytesToFail.add(this);
+            flushFailed(Collections.<FrameBytes>singletonList(this), x);
+        }
+    }
 
-            synchronized (queue)
-            {
-                failure = x;
-                if (LOG.isDebugEnabled())
-                {
-                    String logMessage = String.format("Failed write of %s, failing all %d frame(s) in queue",this,queue.size());
-                    LOG.debug(logMessage,x);
-                }
-                frameBytesToFail.addAll(queue);
-                queue.clear();
-                flushing = false;
-            }
+    private class GatheredFrameBytes implements Callback
+    {
+        private final List<FrameBytes> frames;
+
+        private GatheredFrameBytes(List<FrameBytes> frames)
+        {
+            this.frames = frames;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            flushed(frames);
+        }
 
-            for (FrameBytes fb : frameBytesToFail)
-                fb.fail(x);
+        @Override
+        public void failed(Throwable x)
+        {
+            flushFailed(frames, x);
+        }
+
+        @Override
+        public String toString()
+        {
+            return frames.toString();
         }
     }
 
@@ -1243,25 +1345,17 @@ public class StandardSession implements ISession, Parser.Listener, Dumpable
         @Override
         public ByteBuffer getByteBuffer()
         {
-            try
-            {
-                IStream stream = getStream();
-                int windowSize = stream.getWindowSize();
-                if (windowSize <= 0)
-                    return null;
+            IStream stream = getStream();
+            int windowSize = stream.getWindowSize();
+            if (windowSize <= 0)
+                return null;
 
-                size = dataInfo.available();
-                if (size > windowSize)
-                    size = windowSize;
+            size = dataInfo.available();
+            if (size > windowSize)
+                size = windowSize;
 
-                buffer = generator.data(stream.getId(),size,dataInfo);
-                return buffer;
-            }
-            catch (Throwable x)
-            {
-                fail(x);
-                return null;
-            }
+            buffer = generator.data(stream.getId(),size,dataInfo);
+            return buffer;
         }
 
         @Override
@@ -18,113 +18,181 @@
 
 package org.eclipse.jetty.spdy.generator;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.Locale;
+import java.util.Arrays;
 
+import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.spdy.CompressionDictionary;
 import org.eclipse.jetty.spdy.CompressionFactory;
 import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Fields;
 
+/**
+ * <p>Generates compressed SPDY header blocks.</p>
+ * <p>Headers are encoded in a reusable byte array, lowercasing the names on the fly,
+ * and then compressed directly into a {@link ByteBuffer} taken from the {@link ByteBufferPool},
+ * with room reserved for the frame fields that precede the header block.</p>
+ */
 public class HeadersBlockGenerator
 {
+    private final ByteBufferPool bufferPool;
     private final CompressionFactory.Compressor compressor;
     private boolean needsDictionary = true;
+    private byte[] block = new byte[1024];
+    private int length;
 
-    public HeadersBlockGenerator(CompressionFactory.Compressor compressor)
+    public HeadersBlockGenerator(ByteBufferPool bufferPool, CompressionFactory.Compressor compressor)
     {
+        this.bufferPool = bufferPool;
         this.compressor = compressor;
     }
 
+    /**
+     * @param version the SPDY version
+     * @param headers the headers to generate
+     * @return a buffer containing only the compressed header block
+     * @see #generate(short, Fields, int)
+     */
     public ByteBuffer generate(short version, Fields headers)
     {
-        // TODO: ByteArrayOutputStream is quite inefficient, but grows on demand; optimize using ByteBuffer ?
-        Charset iso1 = Charset.forName("ISO-8859-1");
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(headers.size() * 64);
-        writeCount(version, buffer, headers.size());
-        for (Fields.Field header : headers)
+        return generate(version, headers, 0);
+    }
+
+    /**
+     * <p>Generates the compressed header block for the given headers.</p>
+     * <p>The header block is compressed directly after the room reserved for the frame
+     * fields, so that control frame generators can write their fields in front of it
+     * without copying the compressed bytes into another buffer.</p>
+     *
+     * @param version the SPDY version
+     * @param headers the headers to generate
+     * @param offset the number of bytes to reserve before the header block
+     * @return a buffer, acquired from the {@link ByteBufferPool}, with position 0 and
+     * whose first {@code offset} bytes are left for the caller to fill
+     */
+    public ByteBuffer generate(short version, Fields headers, int offset)
+    {
+        // The headers compression context is per-session, so we need to synchronize
+        synchronized (compressor)
         {
-            String name = header.name().toLowerCase(Locale.ENGLISH);
-            byte[] nameBytes = name.getBytes(iso1);
-            writeNameLength(version, buffer, nameBytes.length);
-            buffer.write(nameBytes, 0, nameBytes.length);
-
-            // Most common path first
-            String value = header.value();
-            byte[] valueBytes = value.getBytes(iso1);
-            if (header.hasMultipleValues())
+            length = 0;
+            writeCount(version, headers.size());
+            for (Fields.Field header : headers)
             {
-                String[] values = header.values();
-                for (int i = 1; i < values.length; ++i)
+                String name = header.name();
+                writeCount(version, name.length());
+                writeString(name, true);
+
+                // Most common path first
+                if (header.hasMultipleValues())
+                {
+                    String[] values = header.values();
+                    int valuesLength = values.length - 1;
+                    for (String value : values)
+                        valuesLength += value.length();
+                    writeCount(version, valuesLength);
+                    for (int i = 0; i < values.length; ++i)
+                    {
+                        // Multi valued headers are separated by NUL
+                        if (i > 0)
+                            writeByte(0);
+                        writeString(values[i], false);
+                    }
+                }
+                else
                 {
-                    byte[] moreValueBytes = values[i].getBytes(iso1);
-                    byte[] newValueBytes = new byte[valueBytes.length + 1 + moreValueBytes.length];
-                    System.arraycopy(valueBytes, 0, newValueBytes, 0, valueBytes.length);
-                    newValueBytes[valueBytes.length] = 0;
-                    System.arraycopy(moreValueBytes, 0, newValueBytes, valueBytes.length + 1, moreValueBytes.length);
-                    valueBytes = newValueBytes;
+                    String value = header.value();
+                    writeCount(version, value.length());
+                    writeString(value, false);
                 }
             }
 
-            writeValueLength(version, buffer, valueBytes.length);
-            buffer.write(valueBytes, 0, valueBytes.length);
+            return compress(version, offset);
         }
-
-        return compress(version, buffer.toByteArray());
     }
 
-    private ByteBuffer compress(short version, byte[] bytes)
+    private ByteBuffer compress(short version, int offset)
     {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length);
-
-        // The headers compression context is per-session, so we need to synchronize
-        synchronized (compressor)
+        if (needsDictionary)
         {
-            if (needsDictionary)
-            {
-                compressor.setDictionary(CompressionDictionary.get(version));
-                needsDictionary = false;
-            }
+            compressor.setDictionary(CompressionDictionary.get(version));
+            needsDictionary = false;
+        }
 
-            compressor.setInput(bytes);
+        compressor.setInput(block, 0, length);
 
-            // Compressed bytes may be bigger than input bytes, so we need to loop and accumulate them
-            // Beware that the minimum amount of bytes generated by the compressor is few bytes, so we
-            // need to use an output buffer that is big enough to exit the compress loop
-            buffer.reset();
-            int compressed;
-            byte[] output = new byte[Math.max(256, bytes.length)];
-            while (true)
-            {
-                // SPDY uses the SYNC_FLUSH mode
-                compressed = compressor.compress(output);
-                buffer.write(output, 0, compressed);
-                if (compressed < output.length)
-                    break;
-            }
+        // Compressed bytes may be bigger than input bytes, so we need to loop and grow the buffer.
+        // Beware that the minimum amount of bytes generated by the compressor is few bytes, so we
+        // need to use an output buffer that is big enough to exit the compress loop
+        ByteBuffer buffer = bufferPool.acquire(offset + Math.max(256, length), false);
+        BufferUtil.clearToFill(buffer);
+        buffer.position(offset);
+        while (true)
+        {
+            // SPDY uses the SYNC_FLUSH mode
+            int space = buffer.remaining();
+            int compressed = compressor.compress(buffer.array(), buffer.arrayOffset() + buffer.position(), space);
+            buffer.position(buffer.position() + compressed);
+            if (compressed < space)
+                break;
+
+            ByteBuffer larger = bufferPool.acquire(buffer.capacity() * 2, false);
+            BufferUtil.clearToFill(larger);
+            buffer.flip();
+            larger.put(buffer);
+            bufferPool.release(buffer);
+            buffer = larger;
         }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (length + capacity > block.length)
+            block = Arrays.copyOf(block, Math.max(block.length * 2, length + capacity));
+    }
+
+    private void writeByte(int value)
+    {
+        ensureCapacity(1);
+        block[length++] = (byte)value;
+    }
 
-        return ByteBuffer.wrap(buffer.toByteArray());
+    private void writeString(String value, boolean lowerCase)
+    {
+        int stringLength = value.length();
+        ensureCapacity(stringLength);
+        for (int i = 0; i < stringLength; ++i)
+        {
+            char c = value.charAt(i);
+            if (c > 0xFF)
+                c = '?'; // Not representable in ISO-8859-1
+            else if (lowerCase && c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            block[length++] = (byte)c;
+        }
     }
 
-    private void writeCount(short version, ByteArrayOutputStream buffer, int value)
+    private void writeCount(short version, int value)
     {
         switch (version)
         {
             case SPDY.V2:
             {
-                buffer.write((value & 0xFF_00) >>> 8);
-                buffer.write(value & 0x00_FF);
+                ensureCapacity(2);
+                block[length++] = (byte)((value & 0xFF_00) >>> 8);
+                block[length++] = (byte)(value & 0x00_FF);
                 break;
             }
             case SPDY.V3:
             {
-                buffer.write((value & 0xFF_00_00_00) >>> 24);
-                buffer.write((value & 0x00_FF_00_00) >>> 16);
-                buffer.write((value & 0x00_00_FF_00) >>> 8);
-                buffer.write(value & 0x00_00_00_FF);
+                ensureCapacity(4);
+                block[length++] = (byte)((value & 0xFF_00_00_00) >>> 24);
+                block[length++] = (byte)((value & 0x00_FF_00_00) >>> 16);
+                block[length++] = (byte)((value & 0x00_00_FF_00) >>> 8);
+                block[length++] = (byte)(value & 0x00_00_00_FF);
                 break;
             }
             default:
@@ -135,14 +203,4 @@ public class HeadersBlockGenerator
             }
         }
     }
-
-    private void writeNameLength(short version, ByteArrayOutputStream buffer, int length)
-    {
-        writeCount(version, buffer, length);
-    }
-
-    private void writeValueLength(short version, ByteArrayOutputStream buffer, int length)
-    {
-        writeCount(version, buffer, length);
-    }
 }
@@ -26,7 +26,6 @@ import org.eclipse.jetty.spdy.api.SPDY;
 import org.eclipse.jetty.spdy.api.SessionStatus;
 import org.eclipse.jetty.spdy.frames.ControlFrame;
 import org.eclipse.jetty.spdy.frames.HeadersFrame;
-import org.eclipse.jetty.util.BufferUtil;
 
 public class HeadersGenerator extends ControlFrameGenerator
 {
@@ -44,33 +43,28 @@ public class HeadersGenerator extends ControlFrameGenerator
         HeadersFrame headers = (HeadersFrame)frame;
         short version = headers.getVersion();
 
-        ByteBuffer headersBuffer = headersBlockGenerator.generate(version, headers.getHeaders());
-
         int frameBodyLength = 4;
         if (frame.getVersion() == SPDY.V2)
             frameBodyLength += 2;
 
-        int frameLength = frameBodyLength + headersBuffer.remaining();
+        ByteBuffer buffer = headersBlockGenerator.generate(version, headers.getHeaders(), ControlFrame.HEADER_LENGTH + frameBodyLength);
+
+        int frameLength = buffer.remaining() - ControlFrame.HEADER_LENGTH;
         if (frameLength > 0xFF_FF_FF)
         {
+            getByteBufferPool().release(buffer);
             // Too many headers, but unfortunately we have already modified the compression
             // context, so we have no other choice than tear down the connection.
             throw new SessionException(SessionStatus.PROTOCOL_ERROR, "Too many headers");
         }
 
-        int totalLength = ControlFrame.HEADER_LENGTH + frameLength;
-
-        ByteBuffer buffer = getByteBufferPool().acquire(totalLength, true);
-        BufferUtil.clearToFill(buffer);
         generateControlFrameHeader(headers, frameLength, buffer);
 
         buffer.putInt(headers.getStreamId() & 0x7F_FF_FF_FF);
         if (frame.getVersion() == SPDY.V2)
             buffer.putShort((short)0);
 
-        buffer.put(headersBuffer);
-
-        buffer.flip();
+        buffer.position(0);
         return buffer;
     }
 }
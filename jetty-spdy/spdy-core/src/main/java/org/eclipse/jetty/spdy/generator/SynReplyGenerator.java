@@ -26,7 +26,6 @@ import org.eclipse.jetty.spdy.api.SPDY;
 import org.eclipse.jetty.spdy.api.SessionStatus;
 import org.eclipse.jetty.spdy.frames.ControlFrame;
 import org.eclipse.jetty.spdy.frames.SynReplyFrame;
-import org.eclipse.jetty.util.BufferUtil;
 
 public class SynReplyGenerator extends ControlFrameGenerator
 {
@@ -44,30 +43,25 @@ public class SynReplyGenerator extends ControlFrameGenerator
         SynReplyFrame synReply = (SynReplyFrame)frame;
         short version = synReply.getVersion();
 
-        ByteBuffer headersBuffer = headersBlockGenerator.generate(version, synReply.getHeaders());
-
         int frameBodyLength = getFrameDataLength(version);
 
-        int frameLength = frameBodyLength + headersBuffer.remaining();
+        ByteBuffer buffer = headersBlockGenerator.generate(version, synReply.getHeaders(), ControlFrame.HEADER_LENGTH + frameBodyLength);
+
+        int frameLength = buffer.remaining() - ControlFrame.HEADER_LENGTH;
         if (frameLength > 0xFF_FF_FF)
         {
+            getByteBufferPool().release(buffer);
             // Too many headers, but unfortunately we have already modified the compression
             // context, so we have no other choice than tear down the connection.
             throw new SessionException(SessionStatus.PROTOCOL_ERROR, "Too many headers");
         }
 
-        int totalLength = ControlFrame.HEADER_LENGTH + frameLength;
-
-        ByteBuffer buffer = getByteBufferPool().acquire(totalLength, true);
-        BufferUtil.clearToFill(buffer);
         generateControlFrameHeader(synReply, frameLength, buffer);
 
         buffer.putInt(synReply.getStreamId() & 0x7F_FF_FF_FF);
         writeAdditional(version, buffer);
 
-        buffer.put(headersBuffer);
-
-        buffer.flip();
+        buffer.position(0);
         return buffer;
     }
 
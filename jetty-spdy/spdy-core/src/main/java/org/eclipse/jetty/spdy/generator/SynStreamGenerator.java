@@ -28,7 +28,6 @@ import org.eclipse.jetty.spdy.api.SessionStatus;
 import org.eclipse.jetty.spdy.api.StreamStatus;
 import org.eclipse.jetty.spdy.frames.ControlFrame;
 import org.eclipse.jetty.spdy.frames.SynStreamFrame;
-import org.eclipse.jetty.util.BufferUtil;
 
 public class SynStreamGenerator extends ControlFrameGenerator
 {
@@ -46,22 +45,19 @@ public class SynStreamGenerator extends ControlFrameGenerator
         SynStreamFrame synStream = (SynStreamFrame)frame;
         short version = synStream.getVersion();
 
-        ByteBuffer headersBuffer = headersBlockGenerator.generate(version, synStream.getHeaders());
-
         int frameBodyLength = 10;
 
-        int frameLength = frameBodyLength + headersBuffer.remaining();
+        ByteBuffer buffer = headersBlockGenerator.generate(version, synStream.getHeaders(), ControlFrame.HEADER_LENGTH + frameBodyLength);
+
+        int frameLength = buffer.remaining() - ControlFrame.HEADER_LENGTH;
         if (frameLength > 0xFF_FF_FF)
         {
+            getByteBufferPool().release(buffer);
             // Too many headers, but unfortunately we have already modified the compression
             // context, so we have no other choice than tear down the connection.
             throw new SessionException(SessionStatus.PROTOCOL_ERROR, "Too many headers");
         }
 
-        int totalLength = ControlFrame.HEADER_LENGTH + frameLength;
-
-        ByteBuffer buffer = getByteBufferPool().acquire(totalLength, true);
-        BufferUtil.clearToFill(buffer);
         generateControlFrameHeader(synStream, frameLength, buffer);
 
         int streamId = synStream.getStreamId();
@@ -70,9 +66,7 @@ public class SynStreamGenerator extends ControlFrameGenerator
         writePriority(streamId, version, synStream.getPriority(), buffer);
         buffer.put((byte)synStream.getSlot());
 
-        buffer.put(headersBuffer);
-
-        buffer.flip();
+        buffer.position(0);
         return buffer;
     }
 
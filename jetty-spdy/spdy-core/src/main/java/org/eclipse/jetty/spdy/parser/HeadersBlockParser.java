@@ -15,11 +15,10 @@
 //  You may elect to redistribute this code under either of these licenses.
 //  ========================================================================
 //
-
 package org.eclipse.jetty.spdy.parser;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.zip.ZipException;
 
 import org.eclipse.jetty.spdy.CompressionDictionary;
@@ -32,8 +31,14 @@ import org.eclipse.jetty.spdy.api.StreamStatus;
 
 public abstract class HeadersBlockParser
 {
+    private static final String[] NO_VALUES = new String[0];
+
     private final CompressionFactory.Decompressor decompressor;
-    private byte[] data;
+    private final StringCache cache = new StringCache();
+    private byte[] data = new byte[256];
+    private int accumulated;
+    private byte[] decompressed = new byte[1024];
+    private int index;
     private boolean needsDictionary = true;
 
     protected HeadersBlockParser(CompressionFactory.Decompressor decompressor)
@@ -49,40 +54,42 @@ public abstract class HeadersBlockParser
         // (but only when using NO_FLUSH), then we need to
         // accumulate the compressed bytes until we have all of them
 
-        boolean accumulated = accumulate(length, buffer);
-        if (!accumulated)
-            return false;
-
-        byte[] compressedHeaders = data;
-        data = null;
-        ByteBuffer decompressedHeaders = decompress(version, compressedHeaders);
-
-        Charset iso1 = Charset.forName("ISO-8859-1");
+        int decompressedLength;
+        if (accumulated == 0 && buffer.hasArray() && buffer.remaining() >= length)
+        {
+            // Most common path first: the whole header block is available,
+            // so we can decompress it without copying the compressed bytes
+            int position = buffer.position();
+            decompressedLength = decompress(version, buffer.array(), buffer.arrayOffset() + position, length);
+            buffer.position(position + length);
+        }
+        else
+        {
+            if (!accumulate(length, buffer))
+                return false;
+            accumulated = 0;
+            decompressedLength = decompress(version, data, 0, length);
+        }
 
         // We know the decoded bytes contain the full headers,
         // so optimize instead of looping byte by byte
-        int count = readCount(version, decompressedHeaders);
+        index = 0;
+        int count = readCount(streamId, version, decompressedLength);
         for (int i = 0; i < count; ++i)
         {
-            int nameLength = readNameLength(version, decompressedHeaders);
+            int nameLength = readCount(streamId, version, decompressedLength);
             if (nameLength == 0)
                 throw new StreamException(streamId, StreamStatus.PROTOCOL_ERROR, "Invalid header name length");
-            byte[] nameBytes = new byte[nameLength];
-            decompressedHeaders.get(nameBytes);
-            String name = new String(nameBytes, iso1);
+            checkRemaining(streamId, nameLength, decompressedLength);
+            String name = cache.get(decompressed, index, nameLength);
+            index += nameLength;
 
-            int valueLength = readValueLength(version, decompressedHeaders);
+            int valueLength = readCount(streamId, version, decompressedLength);
             if (valueLength == 0)
                 throw new StreamException(streamId, StreamStatus.PROTOCOL_ERROR, "Invalid header value length");
-            byte[] valueBytes = new byte[valueLength];
-            decompressedHeaders.get(valueBytes);
-            String value = new String(valueBytes, iso1);
-            // Multi valued headers are separate by NUL
-            String[] values = value.split("\u0000");
-            // Check if there are multiple NULs (section 2.6.9)
-            for (String v : values)
-                if (v.length() == 0)
-                    throw new StreamException(streamId, StreamStatus.PROTOCOL_ERROR, "Invalid multi valued header");
+            checkRemaining(streamId, valueLength, decompressedLength);
+            String[] values = readValues(streamId, valueLength);
+            index += valueLength;
 
             onHeader(name, values);
         }
@@ -90,73 +97,90 @@ public abstract class HeadersBlockParser
         return true;
     }
 
-    private boolean accumulate(int length, ByteBuffer buffer)
+    private String[] readValues(int streamId, int length)
     {
-        int remaining = buffer.remaining();
-        if (data == null)
+        // Multi valued headers are separate by NUL
+        int segments = 1;
+        int end = index + length;
+        for (int i = index; i < end; ++i)
+            if (decompressed[i] == 0)
+                ++segments;
+
+        if (segments == 1)
+            return new String[]{cache.get(decompressed, index, length)};
+
+        // Trailing NULs are ignored, as String.split() does
+        while (end > index && decompressed[end - 1] == 0)
         {
-            if (remaining < length)
-            {
-                data = new byte[remaining];
-                buffer.get(data);
-                return false;
-            }
-            else
-            {
-                data = new byte[length];
-                buffer.get(data);
-                return true;
-            }
+            --end;
+            --segments;
         }
-        else
+        if (segments == 0)
+            return NO_VALUES;
+
+        String[] values = new String[segments];
+        int start = index;
+        int valueIndex = 0;
+        for (int i = index; i <= end; ++i)
         {
-            int accumulated = data.length;
-            int needed = length - accumulated;
-            if (remaining < needed)
+            if (i == end || decompressed[i] == 0)
             {
-                byte[] local = new byte[accumulated + remaining];
-                System.arraycopy(data, 0, local, 0, accumulated);
-                buffer.get(local, accumulated, remaining);
-                data = local;
-                return false;
-            }
-            else
-            {
-                byte[] local = new byte[length];
-                System.arraycopy(data, 0, local, 0, accumulated);
-                buffer.get(local, accumulated, needed);
-                data = local;
-                return true;
+                // Check if there are multiple NULs (section 2.6.9)
+                if (i == start)
+                    throw new StreamException(streamId, StreamStatus.PROTOCOL_ERROR, "Invalid multi valued header");
+                values[valueIndex++] = cache.get(decompressed, start, i - start);
+                start = i + 1;
             }
         }
+        return values;
     }
 
-    private int readCount(int version, ByteBuffer buffer)
+    private boolean accumulate(int length, ByteBuffer buffer)
+    {
+        if (data.length < length)
+            data = Arrays.copyOf(data, length);
+        int needed = length - accumulated;
+        int remaining = Math.min(needed, buffer.remaining());
+        buffer.get(data, accumulated, remaining);
+        accumulated += remaining;
+        return remaining == needed;
+    }
+
+    private void checkRemaining(int streamId, int needed, int limit)
+    {
+        if (needed < 0 || index + needed > limit)
+            throw new StreamException(streamId, StreamStatus.PROTOCOL_ERROR, "Invalid header block");
+    }
+
+    private int readCount(int streamId, int version, int limit)
     {
         switch (version)
         {
             case SPDY.V2:
-                return buffer.getShort();
+            {
+                checkRemaining(streamId, 2, limit);
+                int result = (decompressed[index] & 0xFF) << 8 | (decompressed[index + 1] & 0xFF);
+                index += 2;
+                return result;
+            }
             case SPDY.V3:
-                return buffer.getInt();
+            {
+                checkRemaining(streamId, 4, limit);
+                int result = (decompressed[index] & 0xFF) << 24 |
+                        (decompressed[index + 1] & 0xFF) << 16 |
+                        (decompressed[index + 2] & 0xFF) << 8 |
+                        (decompressed[index + 3] & 0xFF);
+                index += 4;
+                return result;
+            }
             default:
                 throw new IllegalStateException();
         }
     }
 
-    private int readNameLength(int version, ByteBuffer buffer)
-    {
-        return readCount(version, buffer);
-    }
-
-    private int readValueLength(int version, ByteBuffer buffer)
-    {
-        return readCount(version, buffer);
-    }
-
     protected abstract void onHeader(String name, String[] values);
 
-    private ByteBuffer decompress(short version, byte[] compressed)
+    private int decompress(short version, byte[] compressed, int offset, int length)
     {
         // Differently from compression, decompression always happens
         // non-concurrently because we read and parse with a single
@@ -164,18 +188,18 @@ public abstract class HeadersBlockParser
 
         try
         {
-            byte[] decompressed = null;
-            byte[] buffer = new byte[compressed.length * 2];
-            decompressor.setInput(compressed);
+            int decompressedLength = 0;
+            decompressor.setInput(compressed, offset, length);
 
             while (true)
             {
-                int count = decompressor.decompress(buffer);
+                int space = decompressed.length - decompressedLength;
+                int count = decompressor.decompress(decompressed, decompressedLength, space);
                 if (count == 0)
                 {
-                    if (decompressed != null)
+                    if (decompressedLength > 0)
                     {
-                        return ByteBuffer.wrap(decompressed);
+                        return decompressedLength;
                     }
                     else if (needsDictionary)
                     {
@@ -189,37 +213,11 @@ public abstract class HeadersBlockParser
                 }
                 else
                 {
-                    if (count < buffer.length)
-                    {
-                        if (decompressed == null)
-                        {
-                            // Only one pass was needed to decompress
-                            return ByteBuffer.wrap(buffer, 0, count);
-                        }
-                        else
-                        {
-                            // Last pass needed to decompress, merge decompressed bytes
-                            byte[] result = new byte[decompressed.length + count];
-                            System.arraycopy(decompressed, 0, result, 0, decompressed.length);
-                            System.arraycopy(buffer, 0, result, decompressed.length, count);
-                            return ByteBuffer.wrap(result);
-                        }
-                    }
-                    else
-                    {
-                        if (decompressed == null)
-                        {
-                            decompressed = buffer;
-                            buffer = new byte[buffer.length];
-                        }
-                        else
-                        {
-                            byte[] result = new byte[decompressed.length + buffer.length];
-                            System.arraycopy(decompressed, 0, result, 0, decompressed.length);
-                            System.arraycopy(buffer, 0, result, decompressed.length, buffer.length);
-                            decompressed = result;
-                        }
-                    }
+                    decompressedLength += count;
+                    if (count < space)
+                        return decompressedLength;
+                    // The output array is full, grow it and keep decompressing
+                    decompressed = Arrays.copyOf(decompressed, decompressed.length * 2);
                 }
             }
         }
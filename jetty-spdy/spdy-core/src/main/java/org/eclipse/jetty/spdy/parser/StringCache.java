@@ -0,0 +1,187 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.parser;
+
+import org.eclipse.jetty.util.StringUtil;
+
+/**
+ * <p>A cache of ISO-8859-1 strings keyed by their bytes.</p>
+ * <p>Header names and values repeat frame after frame, so rather than creating a new
+ * {@link String} for each of them, the parser looks up the decompressed bytes first in a
+ * small direct-mapped table of recently seen strings, then in a static table of well
+ * known names and values, and only creates a new {@link String} when both miss.</p>
+ * <p>This class is not thread safe; it is meant to be used by a single parser.</p>
+ */
+public class StringCache
+{
+    private static final String[] COMMON = new String[]
+    {
+            ":host", ":method", ":path", ":scheme", ":status", ":version",
+            "host", "method", "url", "scheme", "status", "version",
+            "accept", "accept-charset", "accept-encoding", "accept-language", "accept-ranges",
+            "age", "authorization", "cache-control", "connection", "content-encoding",
+            "content-language", "content-length", "content-location", "content-type",
+            "cookie", "date", "etag", "expires", "if-modified-since", "if-none-match",
+            "last-modified", "location", "pragma", "referer", "server", "set-cookie",
+            "user-agent", "vary", "via", "x-forwarded-for",
+            "GET", "POST", "HEAD", "PUT", "DELETE", "OPTIONS", "HTTP/1.1", "HTTP/1.0", "http", "https",
+            "200", "200 OK", "204", "206", "301", "302", "304", "400", "404", "500",
+            "gzip", "deflate", "gzip,deflate,sdch", "gzip, deflate", "no-cache", "max-age=0", "private",
+            "keep-alive", "close", "bytes", "identity", "*/*",
+            "text/html", "text/plain", "text/css", "application/javascript", "application/json",
+            "image/png", "image/jpeg", "image/gif"
+    };
+    private static final Entry[] STATIC_TABLE = new Entry[512];
+
+    static
+    {
+        for (String string : COMMON)
+        {
+            Entry entry = new Entry(string);
+            int index = index(entry.hash, STATIC_TABLE.length);
+            while (STATIC_TABLE[index] != null)
+                index = (index + 1) & (STATIC_TABLE.length - 1);
+            STATIC_TABLE[index] = entry;
+        }
+    }
+
+    private final Entry[] table;
+    private final int maxLength;
+
+    /**
+     * @param capacity the number of entries of the dynamic table, rounded up to a power of 2
+     * @param maxLength the max length of strings stored in the dynamic table
+     */
+    public StringCache(int capacity, int maxLength)
+    {
+        this.table = new Entry[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+        this.maxLength = maxLength;
+    }
+
+    public StringCache()
+    {
+        this(256, 64);
+    }
+
+    /**
+     * @param bytes the bytes to convert
+     * @param offset the offset of the first byte
+     * @param length the number of bytes to convert
+     * @return a {@link String} equal to the given ISO-8859-1 bytes, possibly shared
+     */
+    public String get(byte[] bytes, int offset, int length)
+    {
+        int hash = hash(bytes, offset, length);
+
+        // Most common path first: the string has been seen recently
+        int index = index(hash, table.length);
+        Entry entry = table[index];
+        if (entry != null && entry.matches(hash, bytes, offset, length))
+            return entry.string;
+
+        Entry common = findCommon(hash, bytes, offset, length);
+        if (common != null)
+        {
+            table[index] = common;
+            return common.string;
+        }
+
+        String result = newString(bytes, offset, length);
+        if (length <= maxLength)
+            table[index] = new Entry(hash, result);
+        return result;
+    }
+
+    private static Entry findCommon(int hash, byte[] bytes, int offset, int length)
+    {
+        int index = index(hash, STATIC_TABLE.length);
+        Entry entry;
+        while ((entry = STATIC_TABLE[index]) != null)
+        {
+            if (entry.matches(hash, bytes, offset, length))
+                return entry;
+            index = (index + 1) & (STATIC_TABLE.length - 1);
+        }
+        return null;
+    }
+
+    private static String newString(byte[] bytes, int offset, int length)
+    {
+        return new String(bytes, offset, length, StringUtil.__ISO_8859_1_CHARSET);
+    }
+
+    private static int index(int hash, int size)
+    {
+        return (hash ^ (hash >>> 16)) & (size - 1);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length)
+    {
+        // Hashing every byte is as expensive as creating the String,
+        // so only sample a few bytes: matches() compares all of them anyway
+        if (length == 0)
+            return 0;
+        int hash = length;
+        hash = 31 * hash + bytes[offset];
+        hash = 31 * hash + bytes[offset + (length >>> 2)];
+        hash = 31 * hash + bytes[offset + (length >>> 1)];
+        hash = 31 * hash + bytes[offset + length - (length >>> 2) - 1];
+        hash = 31 * hash + bytes[offset + length - 1];
+        return hash;
+    }
+
+    private static class Entry
+    {
+        private final int hash;
+        private final byte[] bytes;
+        private final String string;
+
+        private Entry(String string)
+        {
+            this(string.getBytes(StringUtil.__ISO_8859_1_CHARSET), string);
+        }
+
+        private Entry(byte[] bytes, String string)
+        {
+            this(hash(bytes, 0, bytes.length), bytes, string);
+        }
+
+        private Entry(int hash, String string)
+        {
+            this(hash, string.getBytes(StringUtil.__ISO_8859_1_CHARSET), string);
+        }
+
+        private Entry(int hash, byte[] bytes, String string)
+        {
+            this.hash = hash;
+            this.bytes = bytes;
+            this.string = string;
+        }
+
+        private boolean matches(int hash, byte[] bytes, int offset, int length)
+        {
+            if (this.hash != hash || this.bytes.length != length)
+                return false;
+            for (int i = 0; i < length; ++i)
+                if (this.bytes[i] != bytes[offset + i])
+                    return false;
+            return true;
+        }
+    }
+}
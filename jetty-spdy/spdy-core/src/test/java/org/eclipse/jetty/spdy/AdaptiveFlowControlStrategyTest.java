@@ -0,0 +1,247 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.spdy.api.BytesDataInfo;
+import org.eclipse.jetty.spdy.api.DataInfo;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.api.SessionFrameListener;
+import org.eclipse.jetty.spdy.api.Stream;
+import org.eclipse.jetty.spdy.api.StreamFrameListener;
+import org.eclipse.jetty.spdy.api.SynInfo;
+import org.eclipse.jetty.spdy.frames.ControlFrameType;
+import org.eclipse.jetty.spdy.generator.Generator;
+import org.eclipse.jetty.spdy.parser.Parser;
+import org.eclipse.jetty.toolchain.test.annotation.Slow;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class AdaptiveFlowControlStrategyTest
+{
+    private static final long LATENCY = 50;
+    private static final int INITIAL_WINDOW_SIZE = 65536;
+
+    private final ByteBufferPool bufferPool = new MappedByteBufferPool();
+    private ExecutorService threadPool;
+    private Scheduler scheduler;
+    private ScheduledExecutorService consumer;
+    private Link clientToServer;
+    private Link serverToClient;
+
+    @Before
+    public void prepare() throws Exception
+    {
+        threadPool = Executors.newCachedThreadPool();
+        scheduler = new TimerScheduler();
+        scheduler.start();
+        consumer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void dispose() throws Exception
+    {
+        if (clientToServer != null)
+            clientToServer.wire.shutdownNow();
+        if (serverToClient != null)
+            serverToClient.wire.shutdownNow();
+        consumer.shutdownNow();
+        scheduler.stop();
+        threadPool.shutdownNow();
+    }
+
+    @Slow
+    @Test
+    public void testFastConsumerGrowsWindow() throws Exception
+    {
+        AdaptiveFlowControlStrategy strategy = new AdaptiveFlowControlStrategy();
+        Stream serverStream = upload(strategy, 4 * 1024 * 1024, 0);
+
+        Assert.assertThat(strategy.getRoundTripTime(), greaterThanOrEqualTo(2 * LATENCY));
+        Assert.assertThat(strategy.getReceiveWindowSize(serverStream), greaterThan(INITIAL_WINDOW_SIZE));
+        // Window updates are batched, not sent once per data frame
+        Assert.assertThat(serverToClient.windowUpdates.get(), lessThan(clientToServer.dataFrames.get()));
+    }
+
+    @Slow
+    @Test
+    public void testSlowConsumerKeepsInitialWindow() throws Exception
+    {
+        AdaptiveFlowControlStrategy strategy = new AdaptiveFlowControlStrategy();
+        // 64 KiB/s with a 100 ms round trip only needs a window of few KiB
+        Stream serverStream = upload(strategy, 192 * 1024, 64 * 1024);
+
+        Assert.assertEquals(INITIAL_WINDOW_SIZE, strategy.getReceiveWindowSize(serverStream));
+    }
+
+    @Slow
+    @Test
+    public void testSessionWindowIsCapped() throws Exception
+    {
+        int maxSessionWindowSize = 3 * INITIAL_WINDOW_SIZE / 2;
+        AdaptiveFlowControlStrategy strategy = new AdaptiveFlowControlStrategy(INITIAL_WINDOW_SIZE, 16 * 1024 * 1024, maxSessionWindowSize);
+        Stream serverStream = upload(strategy, 2 * 1024 * 1024, 0);
+
+        int windowSize = strategy.getReceiveWindowSize(serverStream);
+        Assert.assertThat(windowSize, greaterThan(INITIAL_WINDOW_SIZE));
+        Assert.assertThat(windowSize, lessThanOrEqualTo(maxSessionWindowSize));
+    }
+
+    /**
+     * <p>Uploads {@code length} bytes from a client session to a server session that uses
+     * the given strategy, over a simulated link that delays every frame by {@link #LATENCY}.</p>
+     *
+     * @param strategy the server flow control strategy
+     * @param length the number of bytes to upload
+     * @param rate the server consumption rate in bytes/s, or 0 to consume immediately
+     * @return the server stream, once all the bytes have been consumed
+     */
+    private Stream upload(FlowControlStrategy strategy, int length, final int rate) throws Exception
+    {
+        clientToServer = new Link();
+        serverToClient = new Link();
+
+        final CountDownLatch consumedLatch = new CountDownLatch(1);
+        final AtomicReference<Stream> serverStreamRef = new AtomicReference<>();
+        SessionFrameListener serverListener = new SessionFrameListener.Adapter()
+        {
+            @Override
+            public StreamFrameListener onSyn(Stream stream, SynInfo synInfo)
+            {
+                serverStreamRef.set(stream);
+                return new StreamFrameListener.Adapter()
+                {
+                    @Override
+                    public void onData(Stream stream, final DataInfo dataInfo)
+                    {
+                        final int length = dataInfo.length();
+                        long delay = rate == 0 ? 0 : TimeUnit.SECONDS.toMillis(length) / rate;
+                        consumer.schedule(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                dataInfo.consume(length);
+                                if (dataInfo.isClose())
+                                    consumedLatch.countDown();
+                            }
+                        }, delay, TimeUnit.MILLISECONDS);
+                    }
+                };
+            }
+        };
+
+        StandardSession serverSession = newSession(serverToClient, 2, serverListener, strategy);
+        StandardSession clientSession = newSession(clientToServer, 1, null, new SPDYv3FlowControlStrategy());
+        clientToServer.connect(serverSession);
+        serverToClient.connect(clientSession);
+
+        Stream clientStream = clientSession.syn(new SynInfo(false), null).get(5, TimeUnit.SECONDS);
+        clientStream.data(new BytesDataInfo(new byte[length], true));
+
+        Assert.assertTrue(consumedLatch.await(30, TimeUnit.SECONDS));
+        return serverStreamRef.get();
+    }
+
+    private StandardSession newSession(Link link, int initialStreamId, SessionFrameListener listener, FlowControlStrategy strategy)
+    {
+        Generator generator = new Generator(bufferPool, new StandardCompressionFactory.StandardCompressor());
+        StandardSession session = new StandardSession(SPDY.V3, bufferPool, threadPool, scheduler, link, null, initialStreamId, listener, generator, strategy);
+        session.setWindowSize(INITIAL_WINDOW_SIZE);
+        return session;
+    }
+
+    /**
+     * <p>A {@link Controller} that delivers the frames to the other peer after {@link #LATENCY},
+     * simulating a high latency network with unlimited bandwidth.</p>
+     */
+    private static class Link implements Controller
+    {
+        private final ScheduledExecutorService wire = Executors.newSingleThreadScheduledExecutor();
+        private final AtomicInteger dataFrames = new AtomicInteger();
+        private final AtomicInteger windowUpdates = new AtomicInteger();
+        private final Parser parser = new Parser(new StandardCompressionFactory.StandardDecompressor());
+
+        private void connect(StandardSession session)
+        {
+            parser.addListener(session);
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, Callback callback)
+        {
+            send(buffer);
+            callback.succeeded();
+        }
+
+        @Override
+        public void write(Callback callback, ByteBuffer... buffers)
+        {
+            for (ByteBuffer buffer : buffers)
+                send(buffer);
+            callback.succeeded();
+        }
+
+        private void send(ByteBuffer buffer)
+        {
+            // Each buffer contains exactly one frame
+            int position = buffer.position();
+            if ((buffer.get(position) & 0x80) == 0)
+                dataFrames.incrementAndGet();
+            else if (buffer.getShort(position + 2) == ControlFrameType.WINDOW_UPDATE.getCode())
+                windowUpdates.incrementAndGet();
+
+            final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+            copy.put(buffer).flip();
+            wire.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    parser.parse(copy);
+                }
+            }, LATENCY, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void close(boolean onlyOutput)
+        {
+        }
+    }
+}
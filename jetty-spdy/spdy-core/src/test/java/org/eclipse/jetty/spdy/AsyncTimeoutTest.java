@@ -141,6 +141,12 @@ public class AsyncTimeoutTest
             callback.succeeded();
         }
 
+        @Override
+        public void write(Callback callback, ByteBuffer... buffers)
+        {
+            callback.succeeded();
+        }
+
         @Override
         public void close(boolean onlyOutput)
         {
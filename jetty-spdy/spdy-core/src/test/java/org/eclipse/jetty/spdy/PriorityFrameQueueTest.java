@@ -0,0 +1,204 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.spdy.StandardSession.FrameBytes;
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class PriorityFrameQueueTest
+{
+    private final PriorityFrameQueue queue = new PriorityFrameQueue();
+
+    private IStream newStream(int id, int priority)
+    {
+        return new StandardStream(id, (byte)priority, null, null, null);
+    }
+
+    private List<FrameBytes> drain()
+    {
+        List<FrameBytes> result = new ArrayList<>();
+        FrameBytes frameBytes;
+        while ((frameBytes = queue.peek()) != null)
+        {
+            if (frameBytes.getByteBuffer() == null)
+            {
+                queue.stall(frameBytes);
+            }
+            else
+            {
+                queue.take(frameBytes);
+                queue.done(frameBytes);
+                result.add(frameBytes);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testStreamFramesAreOrderedByPriority()
+    {
+        TestFrameBytes low = new TestFrameBytes(newStream(1, 7));
+        TestFrameBytes high = new TestFrameBytes(newStream(3, 0));
+        TestFrameBytes session = new TestFrameBytes(null);
+        TestFrameBytes ping = new TestFrameBytes(null);
+        queue.append(session);
+        queue.append(low);
+        queue.append(high);
+        queue.prepend(ping);
+
+        Assert.assertThat(queue.size(), is(4));
+        Assert.assertThat(drain(), contains((FrameBytes)ping, high, low, session));
+        Assert.assertThat(queue.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testFramesOfSameStreamKeepTheirOrder()
+    {
+        IStream stream = newStream(1, 3);
+        TestFrameBytes first = new TestFrameBytes(stream);
+        TestFrameBytes second = new TestFrameBytes(stream);
+        TestFrameBytes other = new TestFrameBytes(newStream(3, 3));
+        queue.append(first);
+        queue.append(second);
+        queue.append(other);
+
+        Assert.assertThat(queue.peek(), sameInstance((FrameBytes)first));
+        queue.take(first);
+        // While the first frame is written, the second one must wait
+        Assert.assertThat(queue.peek(), sameInstance((FrameBytes)other));
+        queue.take(other);
+        Assert.assertThat(queue.peek(), nullValue());
+
+        queue.done(other);
+        queue.done(first);
+        Assert.assertThat(queue.peek(), sameInstance((FrameBytes)second));
+    }
+
+    @Test
+    public void testPrependedFrameIsWrittenFirstForItsStream()
+    {
+        IStream stream = newStream(1, 3);
+        TestFrameBytes data = new TestFrameBytes(stream);
+        TestFrameBytes headers = new TestFrameBytes(stream);
+        queue.append(data);
+        queue.append(headers);
+
+        queue.take(data);
+        // More data to write, requeued before the other frames of the stream
+        queue.prepend(data);
+        queue.done(data);
+
+        Assert.assertThat(drain(), contains((FrameBytes)data, headers));
+    }
+
+    @Test
+    public void testStalledStreamIsSkippedUntilUnstalled()
+    {
+        IStream stalledStream = newStream(1, 0);
+        TestFrameBytes stalled = new TestFrameBytes(stalledStream);
+        stalled.stalled = true;
+        TestFrameBytes next = new TestFrameBytes(stalledStream);
+        TestFrameBytes other = new TestFrameBytes(newStream(3, 5));
+        queue.append(stalled);
+        queue.append(next);
+        queue.append(other);
+
+        Assert.assertThat(drain(), contains((FrameBytes)other));
+        Assert.assertThat(queue.size(), is(2));
+
+        stalled.stalled = false;
+        queue.unstall(stalledStream);
+        Assert.assertThat(drain(), contains((FrameBytes)stalled, next));
+        Assert.assertThat(queue.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testClear()
+    {
+        IStream stream = newStream(1, 2);
+        queue.append(new TestFrameBytes(stream));
+        queue.append(new TestFrameBytes(stream));
+        queue.append(new TestFrameBytes(null));
+        queue.prepend(new TestFrameBytes(null));
+
+        Assert.assertThat(queue.clear().size(), is(4));
+        Assert.assertThat(queue.isEmpty(), is(true));
+        Assert.assertThat(queue.peek(), nullValue());
+    }
+
+    private static class TestFrameBytes implements FrameBytes
+    {
+        private final IStream stream;
+        private boolean stalled;
+
+        private TestFrameBytes(IStream stream)
+        {
+            this.stream = stream;
+        }
+
+        @Override
+        public IStream getStream()
+        {
+            return stream;
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return stalled ? null : BufferUtil.EMPTY_BUFFER;
+        }
+
+        @Override
+        public void complete()
+        {
+        }
+
+        @Override
+        public void fail(Throwable throwable)
+        {
+        }
+
+        @Override
+        public int compareTo(FrameBytes that)
+        {
+            return 0;
+        }
+
+        @Override
+        public void succeeded()
+        {
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+        }
+    }
+}
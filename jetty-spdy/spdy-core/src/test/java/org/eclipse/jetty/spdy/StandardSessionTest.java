@@ -26,12 +26,14 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.spdy.api.ByteBufferDataInfo;
 import org.eclipse.jetty.spdy.api.DataInfo;
 import org.eclipse.jetty.spdy.api.HeadersInfo;
+import org.eclipse.jetty.spdy.api.PingInfo;
 import org.eclipse.jetty.spdy.api.RstInfo;
 import org.eclipse.jetty.spdy.api.SPDY;
 import org.eclipse.jetty.spdy.api.Session;
@@ -54,6 +56,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -111,6 +114,18 @@ public class StandardSessionTest
                   return null;
               }})
           .when(controller).write(any(ByteBuffer.class),any(Callback.class));
+        // Frames queued while a write is pending are gathered in a single write
+        doAnswer(new Answer() {
+              public Object answer(InvocationOnMock invocation) {
+                  Object[] args = invocation.getArguments();
+                  Callback callback = (Callback)args[0];
+                  if (fail)
+                      callback.failed(new ClosedChannelException());
+                  else
+                      callback.succeeded();
+                  return null;
+              }})
+          .when(controller).write(any(Callback.class),Matchers.<ByteBuffer>anyVararg());
     }
 
     @Test
@@ -431,6 +446,43 @@ public class StandardSessionTest
         assertThat("Callback.failed has been called twice", failedCalledLatch.await(5, TimeUnit.SECONDS), is(true));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFramesQueuedDuringWriteAreGathered() throws Exception
+    {
+        setControllerWriteExpectationToFail(false);
+        IStream stream1 = createStream();
+        IStream stream2 = createStream();
+
+        // Hold the next single write, so that the frames that follow are queued
+        final AtomicReference<Callback> pending = new AtomicReference<>();
+        doAnswer(new Answer() {
+              public Object answer(InvocationOnMock invocation) {
+                  pending.set((Callback)invocation.getArguments()[1]);
+                  return null;
+              }})
+          .when(controller).write(any(ByteBuffer.class),any(Callback.class));
+        session.ping(5,TimeUnit.SECONDS,new Promise.Adapter<PingInfo>());
+        assertThat("ping is being written",pending.get() != null,is(true));
+
+        final CountDownLatch dataLatch = new CountDownLatch(2);
+        Callback.Adapter callback = new Callback.Adapter()
+        {
+            @Override
+            public void succeeded()
+            {
+                dataLatch.countDown();
+            }
+        };
+        stream1.data(new StringDataInfo("data1",false),5,TimeUnit.SECONDS,callback);
+        stream2.data(new StringDataInfo("data2",false),5,TimeUnit.SECONDS,callback);
+
+        pending.get().succeeded();
+
+        assertThat("gathered frames are completed",dataLatch.await(5,TimeUnit.SECONDS),is(true));
+        verify(controller,times(1)).write(any(Callback.class),Matchers.<ByteBuffer>anyVararg());
+    }
+
     private IStream createStream() throws InterruptedException, ExecutionException, TimeoutException
     {
         SynInfo synInfo = new SynInfo(headers,false,(byte)0);
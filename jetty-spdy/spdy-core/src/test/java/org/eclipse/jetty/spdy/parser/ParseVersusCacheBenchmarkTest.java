@@ -15,14 +15,9 @@
 //  You may elect to redistribute this code under either of these licenses.
 //  ========================================================================
 //
-
 package org.eclipse.jetty.spdy.parser;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
@@ -31,61 +26,65 @@ import org.junit.Test;
 
 public class ParseVersusCacheBenchmarkTest
 {
+    private static final int WARMUP = 10_000_000;
+    private static final int ITERATIONS = 100_000_000;
+
     @Ignore
     @Test
     public void testParseVersusCache() throws Exception
     {
-        // The parser knows the header name and value lengths, so it creates strings
-        // out of the bytes; however, this involves creating a byte[] copy the bytes,
-        // and creating a new String.
-        // The alternative is to use a cache<ByteBuffer, String>. Is that faster ?
+        // The parser knows the header name and value lengths, so it can create strings
+        // out of the bytes; however, this involves creating a new String every time.
+        // The alternative is to look up the bytes in a StringCache. Is that faster ?
         // See also: http://jeremymanson.blogspot.com/2008/04/immutability-in-java.html
 
-        String name = "Content-Type";
-        String value = "application/octect-stream";
+        String name = "content-type";
+        String value = "application/octet-stream";
         Charset charset = Charset.forName("ISO-8859-1");
-        ByteBuffer buffer = ByteBuffer.wrap((name + value).getBytes(charset));
-        int iterations = 100_000_000;
-
-        long begin = System.nanoTime();
-        for (int i = 0; i < iterations; ++i)
-        {
-            byte[] nameBytes = new byte[name.length()];
-            buffer.get(nameBytes);
-            String name2 = new String(nameBytes, charset);
-            Assert.assertEquals(name2, name);
+        byte[] bytes = (name + value).getBytes(charset);
+        int nameLength = name.length();
+        int valueLength = value.length();
 
-            byte[] valueBytes = new byte[value.length()];
-            buffer.get(valueBytes);
-            String value2 = new String(valueBytes, charset);
-            Assert.assertEquals(value2, value);
+        // Warm up both paths so that the JIT has compiled them before measuring
+        parse(bytes, nameLength, valueLength, charset, WARMUP);
+        StringCache cache = new StringCache();
+        cache(cache, bytes, nameLength, valueLength, WARMUP);
 
-            buffer.flip();
-        }
+        long begin = System.nanoTime();
+        int result = parse(bytes, nameLength, valueLength, charset, ITERATIONS);
         long end = System.nanoTime();
-        System.err.printf("parse time: %d%n", TimeUnit.NANOSECONDS.toMillis(end - begin));
-
-        Map<ByteBuffer, String> map = new HashMap<>();
-        map.put(ByteBuffer.wrap(name.getBytes(charset)), name);
-        map.put(ByteBuffer.wrap(value.getBytes(charset)), value);
-        final Map<ByteBuffer, String> cache = Collections.unmodifiableMap(map);
+        Assert.assertEquals(ITERATIONS * (nameLength + valueLength), result);
+        System.err.printf("parse time: %d ms, %.2f ns/op%n", TimeUnit.NANOSECONDS.toMillis(end - begin), (double)(end - begin) / ITERATIONS);
 
         begin = System.nanoTime();
+        result = cache(cache, bytes, nameLength, valueLength, ITERATIONS);
+        end = System.nanoTime();
+        Assert.assertEquals(ITERATIONS * (nameLength + valueLength), result);
+        System.err.printf("cache time: %d ms, %.2f ns/op%n", TimeUnit.NANOSECONDS.toMillis(end - begin), (double)(end - begin) / ITERATIONS);
+    }
+
+    private int parse(byte[] bytes, int nameLength, int valueLength, Charset charset, int iterations)
+    {
+        // Accumulate the lengths so that the JIT cannot eliminate the loop
+        int result = 0;
         for (int i = 0; i < iterations; ++i)
         {
-            buffer.limit(buffer.position() + name.length());
-            String name2 = cache.get(buffer);
-            Assert.assertEquals(name2, name);
-
-            buffer.position(buffer.limit());
-            buffer.limit(buffer.position() + value.length());
-            String value2 = cache.get(buffer);
-            Assert.assertEquals(value2, value);
+            String name = new String(bytes, 0, nameLength, charset);
+            String value = new String(bytes, nameLength, valueLength, charset);
+            result += name.length() + value.length();
+        }
+        return result;
+    }
 
-            buffer.position(buffer.limit());
-            buffer.flip();
+    private int cache(StringCache cache, byte[] bytes, int nameLength, int valueLength, int iterations)
+    {
+        int result = 0;
+        for (int i = 0; i < iterations; ++i)
+        {
+            String name = cache.get(bytes, 0, nameLength);
+            String value = cache.get(bytes, nameLength, valueLength);
+            result += name.length() + value.length();
         }
-        end = System.nanoTime();
-        System.err.printf("cache time: %d%n", TimeUnit.NANOSECONDS.toMillis(end - begin));
+        return result;
     }
 }
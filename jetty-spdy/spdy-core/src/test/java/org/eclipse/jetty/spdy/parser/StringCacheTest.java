@@ -0,0 +1,72 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.parser;
+
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StringCacheTest
+{
+    private final Charset charset = Charset.forName("ISO-8859-1");
+
+    @Test
+    public void testCommonStringIsShared() throws Exception
+    {
+        StringCache cache = new StringCache();
+        byte[] bytes = "xx:methodxx".getBytes(charset);
+
+        String first = cache.get(bytes, 2, 7);
+        Assert.assertEquals(":method", first);
+        Assert.assertSame(first, new StringCache().get(bytes, 2, 7));
+    }
+
+    @Test
+    public void testRecentStringIsShared() throws Exception
+    {
+        StringCache cache = new StringCache();
+        byte[] bytes = "x-custom-header".getBytes(charset);
+
+        String first = cache.get(bytes, 0, bytes.length);
+        Assert.assertEquals("x-custom-header", first);
+        Assert.assertSame(first, cache.get(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void testLongStringIsNotCached() throws Exception
+    {
+        StringCache cache = new StringCache(16, 4);
+        byte[] bytes = "longer".getBytes(charset);
+
+        String first = cache.get(bytes, 0, bytes.length);
+        Assert.assertEquals("longer", first);
+        Assert.assertNotSame(first, cache.get(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void testNonASCIIBytes() throws Exception
+    {
+        StringCache cache = new StringCache();
+        byte[] bytes = new byte[]{'c', (byte)0xE9};
+
+        Assert.assertEquals("c\u00E9", cache.get(bytes, 0, bytes.length));
+        Assert.assertEquals("c\u00E9", cache.get(bytes, 0, bytes.length));
+    }
+}
@@ -59,6 +59,7 @@ public class HTTPSPDYServerConnectionFactory extends SPDYServerConnectionFactory
         this.pushStrategy = pushStrategy;
         httpConfiguration = config;
         addBean(httpConfiguration);
+        addBean(pushStrategy);
     }
 
     @Override
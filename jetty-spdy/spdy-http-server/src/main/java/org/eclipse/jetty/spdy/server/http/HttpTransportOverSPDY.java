@@ -20,6 +20,7 @@ package org.eclipse.jetty.spdy.server.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -192,19 +193,22 @@ public class HttpTransportOverSPDY implements HttpTransport
 
     private void reply(Stream stream, ReplyInfo replyInfo)
     {
+        Fields responseHeaders = replyInfo.getHeaders();
+        short version = stream.getSession().getVersion();
+        Set<String> pushResources = Collections.emptySet();
+        // We have a 200 OK with some content to send, check the push strategy before
+        // replying, since the push strategy may add headers to the reply
+        if (responseHeaders.get(HTTPSPDYHeader.STATUS.name(version)).value().startsWith("200") && !replyInfo.isClose() && !stream.isClosed())
+            pushResources = pushStrategy.apply(stream, requestHeaders, responseHeaders);
+
         if (!stream.isUnidirectional())
             stream.reply(replyInfo);
 
-        Fields responseHeaders = replyInfo.getHeaders();
-        short version = stream.getSession().getVersion();
-        if (responseHeaders.get(HTTPSPDYHeader.STATUS.name(version)).value().startsWith("200") && !stream.isClosed())
+        if (!pushResources.isEmpty() && !stream.isClosed())
         {
-            // We have a 200 OK with some content to send, check the push strategy
             Fields.Field scheme = requestHeaders.get(HTTPSPDYHeader.SCHEME.name(version));
             Fields.Field host = requestHeaders.get(HTTPSPDYHeader.HOST.name(version));
             Fields.Field uri = requestHeaders.get(HTTPSPDYHeader.URI.name(version));
-            Set<String> pushResources = pushStrategy.apply(stream, requestHeaders, responseHeaders);
-
             for (String pushResource : pushResources)
             {
                 Fields pushHeaders = createPushHeaders(scheme, host, pushResource);
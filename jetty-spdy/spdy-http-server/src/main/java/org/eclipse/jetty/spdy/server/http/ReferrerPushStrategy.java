@@ -19,11 +19,20 @@
 
 package org.eclipse.jetty.spdy.server.http;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -32,7 +41,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.eclipse.jetty.spdy.api.Stream;
+import org.eclipse.jetty.util.B64Code;
 import org.eclipse.jetty.util.Fields;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 
@@ -52,8 +63,16 @@ import org.eclipse.jetty.util.log.Logger;
  * number of pages of the application itself, and by the {@link #setMaxAssociatedResources(int)} max associated resources}
  * parameter. This parameter limits the number of associated resources per each main resource, so that if a main
  * resource has hundreds of associated resources, only up to the number specified by this parameter will be pushed.</p>
+ * <p>Main and associated resources are recorded together with their validator (the <tt>ETag</tt> response header,
+ * or the <tt>Last-Modified</tt> response header if there is no <tt>ETag</tt>). When a main resource is served with a
+ * different validator, for example after a redeploy, its associated resources are forgotten and learned again.</p>
+ * <p>The push metadata may be {@link #setPushMetadataFile(File) persisted}: it is loaded when this strategy is
+ * started and saved when it is stopped, so that it survives restarts.</p>
+ * <p>If a {@link #setPushDigestCookieName(String) digest cookie} is configured, the resources pushed to a client are
+ * recorded in a compact digest (a Bloom filter) sent back as a cookie; resources already present in the digest of a
+ * request are not pushed again, since the client most likely has them in its cache already.</p>
  */
-public class ReferrerPushStrategy implements PushStrategy
+public class ReferrerPushStrategy extends AbstractLifeCycle implements PushStrategy
 {
     private static final Logger logger = Log.getLogger(ReferrerPushStrategy.class);
     private final ConcurrentMap<String, MainResource> mainResources = new ConcurrentHashMap<>();
@@ -63,6 +82,9 @@ public class ReferrerPushStrategy implements PushStrategy
     private final Set<Pattern> userAgentBlacklist = new HashSet<>();
     private volatile int maxAssociatedResources = 32;
     private volatile int referrerPushPeriod = 5000;
+    private volatile File pushMetadataFile;
+    private volatile String pushDigestCookieName;
+    private volatile int pushDigestMaxAge = (int)TimeUnit.DAYS.toSeconds(1);
 
     public ReferrerPushStrategy()
     {
@@ -122,6 +144,53 @@ public class ReferrerPushStrategy implements PushStrategy
         this.referrerPushPeriod = referrerPushPeriod;
     }
 
+    /**
+     * @return the file where the push metadata is loaded from and saved to, or null if it is not persisted
+     */
+    public File getPushMetadataFile()
+    {
+        return pushMetadataFile;
+    }
+
+    /**
+     * @param pushMetadataFile the file where the push metadata is loaded from when this strategy is
+     * started and saved to when this strategy is stopped, or null to not persist the push metadata
+     */
+    public void setPushMetadataFile(File pushMetadataFile)
+    {
+        this.pushMetadataFile = pushMetadataFile;
+    }
+
+    /**
+     * @return the name of the cookie that holds the digest of the pushed resources, or null if pushes are not tracked
+     */
+    public String getPushDigestCookieName()
+    {
+        return pushDigestCookieName;
+    }
+
+    /**
+     * @param pushDigestCookieName the name of the cookie that holds the digest of the pushed resources,
+     * or null to push associated resources regardless of what has already been pushed
+     */
+    public void setPushDigestCookieName(String pushDigestCookieName)
+    {
+        this.pushDigestCookieName = pushDigestCookieName;
+    }
+
+    /**
+     * @return the max age, in seconds, of the push digest cookie
+     */
+    public int getPushDigestMaxAge()
+    {
+        return pushDigestMaxAge;
+    }
+
+    public void setPushDigestMaxAge(int pushDigestMaxAge)
+    {
+        this.pushDigestMaxAge = pushDigestMaxAge;
+    }
+
     public Set<Pattern> getPushRegexps()
     {
         return pushRegexps;
@@ -165,11 +234,12 @@ public class ReferrerPushStrategy implements PushStrategy
             String origin = scheme + "://" + host;
             String url = requestHeaders.get(HTTPSPDYHeader.URI.name(version)).value();
             String absoluteURL = origin + url;
+            String validator = getValidator(responseHeaders);
             logger.debug("Applying push strategy for {}", absoluteURL);
             if (isMainResource(url, responseHeaders))
             {
-                MainResource mainResource = getOrCreateMainResource(absoluteURL);
-                result = mainResource.getResources();
+                MainResource mainResource = getOrCreateMainResource(absoluteURL, validator);
+                result = getPushResources(mainResource, requestHeaders, responseHeaders);
             }
             else if (isPushResource(url, responseHeaders))
             {
@@ -177,15 +247,19 @@ public class ReferrerPushStrategy implements PushStrategy
                 if (referrerHeader != null)
                 {
                     String referrer = referrerHeader.value();
-                    MainResource mainResource = mainResources.get(referrer);
-                    if (mainResource == null)
-                        mainResource = getOrCreateMainResource(referrer);
+                    MainResource mainResource = getOrCreateMainResource(referrer, null);
 
-                    Set<String> pushResources = mainResource.getResources();
-                    if (!pushResources.contains(url))
-                        mainResource.addResource(url, origin, referrer);
+                    if (!mainResource.hasResource(url))
+                    {
+                        mainResource.addResource(url, validator, origin, referrer);
+                    }
                     else
-                        result = getPushResources(absoluteURL);
+                    {
+                        mainResource.updateResource(url, validator);
+                        MainResource pushResource = mainResources.get(absoluteURL);
+                        if (pushResource != null)
+                            result = getPushResources(pushResource, requestHeaders, responseHeaders);
+                    }
                 }
             }
             logger.debug("Pushing {} resources for {}: {}", result.size(), absoluteURL, result);
@@ -193,26 +267,199 @@ public class ReferrerPushStrategy implements PushStrategy
         return result;
     }
 
-    private Set<String> getPushResources(String absoluteURL)
+    private Set<String> getPushResources(MainResource mainResource, Fields requestHeaders, Fields responseHeaders)
     {
-        Set<String> result = Collections.emptySet();
-        if (mainResources.get(absoluteURL) != null)
-            result = mainResources.get(absoluteURL).getResources();
+        Set<String> resources = mainResource.getResources();
+        String cookieName = pushDigestCookieName;
+        if (cookieName == null || resources.isEmpty())
+            return resources;
+
+        PushDigest digest = PushDigest.decode(getCookie(requestHeaders, cookieName));
+        Set<String> result = new HashSet<>();
+        for (Map.Entry<String, String> entry : mainResource.getResourceValidators().entrySet())
+        {
+            String key = entry.getKey() + " " + entry.getValue();
+            if (digest.contains(key))
+                continue;
+            digest.add(key);
+            result.add(entry.getKey());
+        }
+
+        if (!result.isEmpty())
+            responseHeaders.add("set-cookie", cookieName + "=" + digest.encode() + "; Path=/; Max-Age=" + pushDigestMaxAge);
+        logger.debug("Skipped push of {} resources for {} already in the push digest", resources.size() - result.size(), mainResource);
         return result;
     }
 
-    private MainResource getOrCreateMainResource(String absoluteURL)
+    private String getCookie(Fields requestHeaders, String name)
+    {
+        Fields.Field cookieHeader = requestHeaders.get("cookie");
+        if (cookieHeader == null)
+            return null;
+        for (String cookies : cookieHeader.values())
+        {
+            for (String cookie : cookies.split(";"))
+            {
+                cookie = cookie.trim();
+                if (cookie.length() > name.length() && cookie.startsWith(name) && cookie.charAt(name.length()) == '=')
+                    return cookie.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private String getValidator(Fields responseHeaders)
+    {
+        Fields.Field header = responseHeaders.get("etag");
+        if (header == null)
+            header = responseHeaders.get("last-modified");
+        return header == null ? null : header.value();
+    }
+
+    private MainResource getOrCreateMainResource(String absoluteURL, String validator)
     {
-        MainResource mainResource = mainResources.get(absoluteURL);
-        if (mainResource == null)
+        while (true)
         {
-            logger.debug("Creating new main resource for {}", absoluteURL);
-            MainResource value = new MainResource(absoluteURL);
-            mainResource = mainResources.putIfAbsent(absoluteURL, value);
+            MainResource mainResource = mainResources.get(absoluteURL);
             if (mainResource == null)
-                mainResource = value;
+            {
+                logger.debug("Creating new main resource for {}", absoluteURL);
+                MainResource value = new MainResource(absoluteURL, validator);
+                mainResource = mainResources.putIfAbsent(absoluteURL, value);
+                if (mainResource == null)
+                    return value;
+            }
+
+            if (validator == null || mainResource.updateValidator(validator))
+                return mainResource;
+
+            // The main resource changed, its associated resources must be learned again
+            logger.debug("Main resource {} changed, forgetting its push metadata", absoluteURL);
+            MainResource value = new MainResource(absoluteURL, validator);
+            if (mainResources.replace(absoluteURL, mainResource, value))
+                return value;
+        }
+    }
+
+    /**
+     * <p>Loads the push metadata from the {@link #getPushMetadataFile() push metadata file}.</p>
+     *
+     * @throws IOException if the push metadata cannot be read
+     */
+    public void load() throws IOException
+    {
+        File file = pushMetadataFile;
+        if (file == null || !file.exists())
+            return;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            MainResource mainResource = null;
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                String[] parts = line.split("\t", -1);
+                if (parts.length == 2 && parts[0].length() > 0)
+                {
+                    // A main resource line: <url> TAB <validator>; its push period restarts
+                    // with the first associated resource requested after the load
+                    mainResource = new MainResource(parts[0], toValidator(parts[1]));
+                    mainResources.put(mainResource.name, mainResource);
+                }
+                else if (parts.length == 3 && parts[0].length() == 0 && mainResource != null)
+                {
+                    // An associated resource line: TAB <url> TAB <validator>
+                    mainResource.resources.put(parts[1], parts[2]);
+                }
+                else
+                {
+                    throw new IOException("Invalid push metadata in " + file + ": " + line);
+                }
+            }
+        }
+        logger.debug("Loaded push metadata for {} main resources from {}", mainResources.size(), file);
+    }
+
+    /**
+     * <p>Saves the push metadata to the {@link #getPushMetadataFile() push metadata file}.</p>
+     *
+     * @throws IOException if the push metadata cannot be written
+     */
+    public void save() throws IOException
+    {
+        File file = pushMetadataFile;
+        if (file == null)
+            return;
+
+        // Write to a temporary file first, so that a crash does not leave a truncated file behind
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+        {
+            writer.write("# Push metadata saved by " + getClass().getName());
+            writer.newLine();
+            for (MainResource mainResource : mainResources.values())
+            {
+                Map<String, String> resources = mainResource.getResourceValidators();
+                if (resources.isEmpty())
+                    continue;
+                writer.write(mainResource.name);
+                writer.write('\t');
+                writer.write(fromValidator(mainResource.validator));
+                writer.newLine();
+                for (Map.Entry<String, String> resource : resources.entrySet())
+                {
+                    writer.write('\t');
+                    writer.write(resource.getKey());
+                    writer.write('\t');
+                    writer.write(resource.getValue());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        logger.debug("Saved push metadata for {} main resources to {}", mainResources.size(), file);
+    }
+
+    private static String toValidator(String value)
+    {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static String fromValidator(String validator)
+    {
+        return validator == null ? "" : validator;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        try
+        {
+            load();
+        }
+        catch (IOException x)
+        {
+            // Push metadata will be learned again
+            logger.warn("Could not load push metadata from " + pushMetadataFile, x);
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        try
+        {
+            save();
+        }
+        catch (IOException x)
+        {
+            logger.warn("Could not save push metadata to " + pushMetadataFile, x);
         }
-        return mainResource;
     }
 
     private boolean isIfModifiedSinceHeaderPresent(Fields headers)
@@ -262,15 +509,43 @@ public class ReferrerPushStrategy implements PushStrategy
     private class MainResource
     {
         private final String name;
-        private final Set<String> resources = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final ConcurrentMap<String, String> resources = new ConcurrentHashMap<>();
         private final AtomicLong firstResourceAdded = new AtomicLong(-1);
+        private volatile String validator;
 
-        private MainResource(String name)
+        private MainResource(String name, String validator)
         {
             this.name = name;
+            this.validator = validator;
         }
 
-        public boolean addResource(String url, String origin, String referrer)
+        /**
+         * @param validator the current validator of this main resource
+         * @return false if this main resource had a different validator, true otherwise
+         */
+        private boolean updateValidator(String validator)
+        {
+            String current = this.validator;
+            if (current == null)
+            {
+                this.validator = validator;
+                return true;
+            }
+            return current.equals(validator);
+        }
+
+        public boolean hasResource(String url)
+        {
+            return resources.containsKey(url);
+        }
+
+        public void updateResource(String url, String validator)
+        {
+            if (validator != null)
+                resources.replace(url, validator);
+        }
+
+        public boolean addResource(String url, String validator, String origin, String referrer)
         {
             // We start the push period here and not when initializing the main resource, because a browser with a
             // prefilled cache won't request the subresources. If the browser with warmed up cache now hits the main
@@ -302,13 +577,18 @@ public class ReferrerPushStrategy implements PushStrategy
             }
 
             logger.debug("Adding resource: {} for: {} with delay: {}ms.", url, name, delay);
-            resources.add(url);
+            resources.putIfAbsent(url, fromValidator(validator));
             return true;
         }
 
         public Set<String> getResources()
         {
-            return Collections.unmodifiableSet(resources);
+            return Collections.unmodifiableSet(resources.keySet());
+        }
+
+        public Map<String, String> getResourceValidators()
+        {
+            return Collections.unmodifiableMap(resources);
         }
 
         public String toString()
@@ -324,4 +604,88 @@ public class ReferrerPushStrategy implements PushStrategy
             return false;
         }
     }
+
+    /**
+     * <p>A Bloom filter of the resources pushed to a client, small enough to travel in a cookie.</p>
+     * <p>False positives are possible, in which case a resource is not pushed and the client
+     * requests it normally; false negatives are not possible.</p>
+     */
+    static class PushDigest
+    {
+        private static final int BITS = 2048;
+        private static final int HASHES = 4;
+
+        private final byte[] bits;
+
+        PushDigest()
+        {
+            this(new byte[BITS / 8]);
+        }
+
+        private PushDigest(byte[] bits)
+        {
+            this.bits = bits;
+        }
+
+        static PushDigest decode(String value)
+        {
+            if (value != null)
+            {
+                try
+                {
+                    byte[] bytes = B64Code.decode(value);
+                    if (bytes.length == BITS / 8)
+                        return new PushDigest(bytes);
+                }
+                catch (IllegalArgumentException x)
+                {
+                    logger.ignore(x);
+                }
+            }
+            return new PushDigest();
+        }
+
+        String encode()
+        {
+            return new String(B64Code.encode(bits));
+        }
+
+        void add(String key)
+        {
+            long hash = hash(key);
+            int h1 = (int)hash;
+            int h2 = (int)(hash >>> 32);
+            for (int i = 0; i < HASHES; ++i)
+            {
+                int bit = ((h1 + i * h2) & 0x7F_FF_FF_FF) % BITS;
+                bits[bit >>> 3] |= 1 << (bit & 7);
+            }
+        }
+
+        boolean contains(String key)
+        {
+            long hash = hash(key);
+            int h1 = (int)hash;
+            int h2 = (int)(hash >>> 32);
+            for (int i = 0; i < HASHES; ++i)
+            {
+                int bit = ((h1 + i * h2) & 0x7F_FF_FF_FF) % BITS;
+                if ((bits[bit >>> 3] & (1 << (bit & 7))) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        private static long hash(String key)
+        {
+            // 64-bit FNV-1a, the two halves are used for double hashing
+            long hash = 0xCBF29CE484222325L;
+            for (int i = 0; i < key.length(); ++i)
+            {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+            return hash;
+        }
+    }
 }
@@ -20,12 +20,20 @@
 package org.eclipse.jetty.spdy.server.proxy;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.jetty.spdy.ISession;
 import org.eclipse.jetty.spdy.api.ByteBufferDataInfo;
 import org.eclipse.jetty.spdy.api.DataInfo;
 import org.eclipse.jetty.spdy.api.GoAwayInfo;
@@ -44,27 +52,48 @@ import org.eclipse.jetty.spdy.server.http.HTTPSPDYHeader;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.Fields;
 import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.Scheduler;
 
 /**
  * <p>{@link SPDYProxyEngine} implements a SPDY to SPDY proxy, that is, converts SPDY events received by
  * clients into SPDY events for the servers.</p>
+ * <p>Sessions to each server are pooled: streams are sent on the pooled session with the fewest active
+ * streams, and a new session is connected when all pooled sessions have at least
+ * {@link #getMaxStreamsPerSession() maxStreamsPerSession} active streams, up to
+ * {@link #getMaxSessionsPerServer() maxSessionsPerServer} sessions.
+ * Sessions are connected asynchronously, and streams are queued while the first session to a server
+ * is being connected. Sessions that receive a GO_AWAY are removed from the pool and replaced by new
+ * sessions on demand.</p>
  */
+@ManagedObject("SPDY Proxy Engine")
 public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
 {
     private static final String STREAM_HANDLER_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.streamHandler";
     private static final String CLIENT_STREAM_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.clientStream";
+    private static final String SESSION_POOL_ATTRIBUTE = "org.eclipse.jetty.spdy.server.http.proxy.sessionPool";
 
-    private final ConcurrentMap<String, Session> serverSessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SessionPool> serverSessions = new ConcurrentHashMap<>();
     private final SessionFrameListener sessionListener = new ProxySessionFrameListener();
+    private final CounterStatistic streamStats = new CounterStatistic();
+    private final SampleStatistic connectStats = new SampleStatistic();
+    private final AtomicLong connectFailures = new AtomicLong();
     private final SPDYClient.Factory factory;
     private volatile long connectTimeout = 15000;
     private volatile long timeout = 60000;
+    private volatile int maxSessionsPerServer = 4;
+    private volatile int maxStreamsPerSession = 100;
 
     public SPDYProxyEngine(SPDYClient.Factory factory)
     {
         this.factory = factory;
     }
 
+    @ManagedAttribute("The timeout to connect to a server, in ms")
     public long getConnectTimeout()
     {
         return connectTimeout;
@@ -75,6 +104,7 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         this.connectTimeout = connectTimeout;
     }
 
+    @ManagedAttribute("The timeout to send frames, in ms")
     public long getTimeout()
     {
         return timeout;
@@ -85,18 +115,105 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         this.timeout = timeout;
     }
 
+    @ManagedAttribute("The max number of sessions to each server")
+    public int getMaxSessionsPerServer()
+    {
+        return maxSessionsPerServer;
+    }
+
+    public void setMaxSessionsPerServer(int maxSessionsPerServer)
+    {
+        if (maxSessionsPerServer < 1)
+            throw new IllegalArgumentException("Invalid max sessions per server " + maxSessionsPerServer);
+        this.maxSessionsPerServer = maxSessionsPerServer;
+    }
+
+    @ManagedAttribute("The number of active streams on a session above which a new session is connected")
+    public int getMaxStreamsPerSession()
+    {
+        return maxStreamsPerSession;
+    }
+
+    public void setMaxStreamsPerSession(int maxStreamsPerSession)
+    {
+        this.maxStreamsPerSession = maxStreamsPerSession;
+    }
+
+    @ManagedAttribute("The number of pooled sessions to servers")
+    public int getSessions()
+    {
+        int result = 0;
+        for (SessionPool sessionPool : serverSessions.values())
+            result += sessionPool.getSessionCount();
+        return result;
+    }
+
+    @ManagedAttribute("The number of streams waiting for a session to be connected")
+    public int getQueuedStreams()
+    {
+        int result = 0;
+        for (SessionPool sessionPool : serverSessions.values())
+            result += sessionPool.getQueuedCount();
+        return result;
+    }
+
+    @ManagedAttribute("The number of active streams to servers")
+    public long getActiveStreams()
+    {
+        return streamStats.getCurrent();
+    }
+
+    @ManagedAttribute("The max number of active streams to servers")
+    public long getActiveStreamsMax()
+    {
+        return streamStats.getMax();
+    }
+
+    @ManagedAttribute("The total number of streams to servers")
+    public long getStreamsTotal()
+    {
+        return streamStats.getTotal();
+    }
+
+    @ManagedAttribute("The number of sessions connected to servers")
+    public long getConnects()
+    {
+        return connectStats.getCount();
+    }
+
+    @ManagedAttribute("The number of failed connects to servers")
+    public long getConnectFailures()
+    {
+        return connectFailures.get();
+    }
+
+    @ManagedAttribute("The mean time to connect a session to a server, in ms")
+    public double getConnectLatencyMean()
+    {
+        return connectStats.getMean();
+    }
+
+    @ManagedAttribute("The max time to connect a session to a server, in ms")
+    public long getConnectLatencyMax()
+    {
+        return connectStats.getMax();
+    }
+
+    @ManagedOperation("Resets the statistics")
+    public void resetStatistics()
+    {
+        streamStats.reset(streamStats.getCurrent());
+        connectStats.reset();
+        connectFailures.set(0);
+    }
+
     public StreamFrameListener proxy(final Stream clientStream, SynInfo clientSynInfo, ProxyEngineSelector.ProxyServerInfo proxyServerInfo)
     {
         Fields headers = new Fields(clientSynInfo.getHeaders(), false);
 
         short serverVersion = getVersion(proxyServerInfo.getProtocol());
         InetSocketAddress address = proxyServerInfo.getAddress();
-        Session serverSession = produceSession(proxyServerInfo.getHost(), serverVersion, address);
-        if (serverSession == null)
-        {
-            rst(clientStream);
-            return null;
-        }
+        final SessionPool sessionPool = produceSessionPool(proxyServerInfo.getHost(), serverVersion, address);
 
         final Session clientSession = clientStream.getSession();
 
@@ -104,11 +221,41 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         customizeRequestHeaders(clientStream, headers);
         convert(clientSession.getVersion(), serverVersion, headers);
 
-        SynInfo serverSynInfo = new SynInfo(headers, clientSynInfo.isClose());
-        StreamFrameListener listener = new ProxyStreamFrameListener(clientStream);
-        StreamHandler handler = new StreamHandler(clientStream, serverSynInfo);
+        final SynInfo serverSynInfo = new SynInfo(headers, clientSynInfo.isClose());
+        final StreamFrameListener listener = new ProxyStreamFrameListener(clientStream);
+        final StreamHandler handler = new StreamHandler(clientStream, serverSynInfo);
         clientStream.setAttribute(STREAM_HANDLER_ATTRIBUTE, handler);
-        serverSession.syn(serverSynInfo, listener, timeout, TimeUnit.MILLISECONDS, handler);
+        // DATA frames sent by the client while the session is acquired are queued by the handler
+        sessionPool.acquire(new Promise<Session>()
+        {
+            @Override
+            public void succeeded(final Session serverSession)
+            {
+                serverSession.syn(serverSynInfo, listener, timeout, TimeUnit.MILLISECONDS, new Promise<Stream>()
+                {
+                    @Override
+                    public void succeeded(Stream serverStream)
+                    {
+                        handler.succeeded(serverStream);
+                    }
+
+                    @Override
+                    public void failed(Throwable x)
+                    {
+                        // The session may be broken, do not use it again
+                        sessionPool.evict(serverSession);
+                        handler.failed(x);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Throwable x)
+            {
+                logger.debug(x);
+                rst(clientStream);
+            }
+        });
         return this;
     }
 
@@ -157,30 +304,17 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         streamHandler.data(serverDataInfo);
     }
 
-    private Session produceSession(String host, short version, InetSocketAddress address)
+    private SessionPool produceSessionPool(String host, short version, InetSocketAddress address)
     {
-        try
+        SessionPool sessionPool = serverSessions.get(host);
+        if (sessionPool == null)
         {
-            Session session = serverSessions.get(host);
-            if (session == null)
-            {
-                SPDYClient client = factory.newSPDYClient(version);
-                session = client.connect(address, sessionListener).get(getConnectTimeout(), TimeUnit.MILLISECONDS);
-                logger.debug("Proxy session connected to {}", address);
-                Session existing = serverSessions.putIfAbsent(host, session);
-                if (existing != null)
-                {
-                    session.goAway(getTimeout(), TimeUnit.MILLISECONDS, new Callback.Adapter());
-                    session = existing;
-                }
-            }
-            return session;
-        }
-        catch (Exception x)
-        {
-            logger.debug(x);
-            return null;
+            sessionPool = new SessionPool(host, version, address);
+            SessionPool existing = serverSessions.putIfAbsent(host, sessionPool);
+            if (existing != null)
+                sessionPool = existing;
         }
+        return sessionPool;
     }
 
     private void convert(short fromVersion, short toVersion, Fields headers)
@@ -483,7 +617,9 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
         @Override
         public void onGoAway(Session serverSession, GoAwayInfo goAwayInfo)
         {
-            serverSessions.values().remove(serverSession);
+            SessionPool sessionPool = (SessionPool)serverSession.getAttribute(SESSION_POOL_ATTRIBUTE);
+            if (sessionPool != null)
+                sessionPool.remove(serverSession);
         }
 
         @Override
@@ -517,4 +653,244 @@ public class SPDYProxyEngine extends ProxyEngine implements StreamFrameListener
             handler.data(clientDataInfo);
         }
     }
+
+    /**
+     * <p>{@link SessionPool} holds the sessions to one server.</p>
+     * <p>Streams are sent on the session with the fewest active streams; if there is no session,
+     * they are queued until a session is connected.</p>
+     */
+    private class SessionPool
+    {
+        private final List<PooledSession> sessions = new ArrayList<>();
+        private final Queue<Promise<Session>> queue = new ArrayDeque<>();
+        private final String host;
+        private final short version;
+        private final InetSocketAddress address;
+        private int connecting;
+
+        private SessionPool(String host, short version, InetSocketAddress address)
+        {
+            this.host = host;
+            this.version = version;
+            this.address = address;
+        }
+
+        private void acquire(Promise<Session> promise)
+        {
+            PooledSession pooledSession = null;
+            boolean connect = false;
+            synchronized (this)
+            {
+                for (PooledSession candidate : sessions)
+                {
+                    if (pooledSession == null || candidate.streams.get() < pooledSession.streams.get())
+                        pooledSession = candidate;
+                }
+                if (sessions.size() + connecting < maxSessionsPerServer)
+                {
+                    if (pooledSession == null ? connecting == 0 : pooledSession.streams.get() >= maxStreamsPerSession)
+                    {
+                        ++connecting;
+                        connect = true;
+                    }
+                }
+                if (pooledSession == null)
+                    queue.offer(promise);
+            }
+
+            if (connect)
+                connect();
+            if (pooledSession != null)
+                promise.succeeded(pooledSession.session);
+        }
+
+        private void connect()
+        {
+            logger.debug("Connecting proxy session to {}", address);
+            ConnectPromise promise = new ConnectPromise(this);
+            promise.timeout = factory.getScheduler().schedule(promise, getConnectTimeout(), TimeUnit.MILLISECONDS);
+            SPDYClient client = factory.newSPDYClient(version);
+            client.connect(address, sessionListener, promise);
+        }
+
+        private void connected(Session session)
+        {
+            logger.debug("Proxy session connected to {}", address);
+            PooledSession pooledSession = new PooledSession(session);
+            session.setAttribute(SESSION_POOL_ATTRIBUTE, this);
+            session.addListener(pooledSession);
+            List<Promise<Session>> promises;
+            synchronized (this)
+            {
+                --connecting;
+                sessions.add(pooledSession);
+                promises = new ArrayList<>(queue);
+                queue.clear();
+            }
+            for (Promise<Session> promise : promises)
+                promise.succeeded(session);
+        }
+
+        private void connectFailed(Throwable x)
+        {
+            logger.debug("Proxy session connect to {} failed", address, x);
+            connectFailures.incrementAndGet();
+            List<Promise<Session>> promises = null;
+            synchronized (this)
+            {
+                --connecting;
+                // Fail the queued streams only if no other connect is pending
+                if (connecting == 0)
+                {
+                    promises = new ArrayList<>(queue);
+                    queue.clear();
+                }
+            }
+            if (promises != null)
+            {
+                for (Promise<Session> promise : promises)
+                    promise.failed(x);
+            }
+        }
+
+        private void remove(Session session)
+        {
+            synchronized (this)
+            {
+                for (int i = 0; i < sessions.size(); ++i)
+                {
+                    if (sessions.get(i).session == session)
+                    {
+                        sessions.remove(i);
+                        logger.debug("Removed proxy session {} to {}", session, host);
+                        break;
+                    }
+                }
+            }
+        }
+
+        /**
+         * <p>Removes the given session from this pool and closes it.</p>
+         *
+         * @param session the session to evict
+         */
+        private void evict(final Session session)
+        {
+            remove(session);
+            session.goAway(getTimeout(), TimeUnit.MILLISECONDS, new Callback()
+            {
+                @Override
+                public void succeeded()
+                {
+                    close();
+                }
+
+                @Override
+                public void failed(Throwable x)
+                {
+                    close();
+                }
+
+                private void close()
+                {
+                    if (session instanceof ISession)
+                        ((ISession)session).shutdown();
+                }
+            });
+        }
+
+        private synchronized int getSessionCount()
+        {
+            return sessions.size();
+        }
+
+        private synchronized int getQueuedCount()
+        {
+            return queue.size();
+        }
+    }
+
+    /**
+     * <p>Notified of the outcome of the connect of a session, or of its timeout.</p>
+     * <p>A session connected after the timeout expired is closed.</p>
+     */
+    private class ConnectPromise implements Promise<Session>, Runnable
+    {
+        private final AtomicBoolean complete = new AtomicBoolean();
+        private final long begin = System.nanoTime();
+        private final SessionPool sessionPool;
+        private volatile Scheduler.Task timeout;
+
+        private ConnectPromise(SessionPool sessionPool)
+        {
+            this.sessionPool = sessionPool;
+        }
+
+        @Override
+        public void succeeded(Session session)
+        {
+            if (complete.compareAndSet(false, true))
+            {
+                cancelTimeout();
+                connectStats.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                sessionPool.connected(session);
+            }
+            else
+            {
+                session.goAway(getTimeout(), TimeUnit.MILLISECONDS, new Callback.Adapter());
+            }
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            if (complete.compareAndSet(false, true))
+            {
+                cancelTimeout();
+                sessionPool.connectFailed(x);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            if (complete.compareAndSet(false, true))
+                sessionPool.connectFailed(new TimeoutException("Connect timeout to " + sessionPool.address));
+        }
+
+        private void cancelTimeout()
+        {
+            Scheduler.Task task = timeout;
+            if (task != null)
+                task.cancel();
+        }
+    }
+
+    /**
+     * <p>A pooled session, with the count of its active streams.</p>
+     */
+    private class PooledSession extends Session.StreamListener.Adapter
+    {
+        private final AtomicInteger streams = new AtomicInteger();
+        private final Session session;
+
+        private PooledSession(Session session)
+        {
+            this.session = session;
+        }
+
+        @Override
+        public void onStreamCreated(Stream stream)
+        {
+            streams.incrementAndGet();
+            streamStats.increment();
+        }
+
+        @Override
+        public void onStreamClosed(Stream stream)
+        {
+            streams.decrementAndGet();
+            streamStats.decrement();
+        }
+    }
 }
@@ -19,6 +19,7 @@
 
 package org.eclipse.jetty.spdy.server.http;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Collections;
@@ -108,6 +109,52 @@ public class PushStrategyBenchmarkTest extends AbstractHTTPSPDYTest
         session.goAway().get(5, TimeUnit.SECONDS);
     }
 
+    @Test
+    public void benchmarkPersistentPushMetadata() throws Exception
+    {
+        InetSocketAddress address = startHTTPServer(version, new PushStrategyBenchmarkHandler());
+        File file = File.createTempFile("push", ".metadata");
+        file.deleteOnExit();
+
+        // Learn the push metadata, then stop the factory so that the push metadata is saved
+        ReferrerPushStrategy pushStrategy = new ReferrerPushStrategy();
+        pushStrategy.setPushMetadataFile(file);
+        HTTPSPDYServerConnectionFactory factory = new HTTPSPDYServerConnectionFactory(version, new HttpConfiguration(), pushStrategy);
+        connector.addConnectionFactory(factory);
+        connector.setDefaultProtocol(factory.getProtocol());
+        Session session = startClient(version, address, new ClientSessionFrameListener());
+        performRequests(session);
+        performRequests(session);
+        session.goAway().get(5, TimeUnit.SECONDS);
+        factory.stop();
+
+        // The first page load after a restart, without and with the saved push metadata
+        factory = new HTTPSPDYServerConnectionFactory(version, new HttpConfiguration(), new ReferrerPushStrategy());
+        connector.addConnectionFactory(factory);
+        connector.setDefaultProtocol(factory.getProtocol());
+        session = startClient(version, address, new ClientSessionFrameListener());
+        benchmarkFirstPageLoad("learning", session);
+        session.goAway().get(5, TimeUnit.SECONDS);
+
+        pushStrategy = new ReferrerPushStrategy();
+        pushStrategy.setPushMetadataFile(file);
+        factory = new HTTPSPDYServerConnectionFactory(version, new HttpConfiguration(), pushStrategy);
+        connector.addConnectionFactory(factory);
+        connector.setDefaultProtocol(factory.getProtocol());
+        session = startClient(version, address, new ClientSessionFrameListener());
+        benchmarkFirstPageLoad("loaded", session);
+        session.goAway().get(5, TimeUnit.SECONDS);
+    }
+
+    private void benchmarkFirstPageLoad(String name, Session session) throws Exception
+    {
+        long begin = System.nanoTime();
+        int requests = performRequests(session);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        System.err.printf("SPDY(ReferrerPushStrategy, %s): first page load, %d request(s), %d pushed, roundtrip delay %d ms, elapsed = %d%n%n",
+                name, requests, pushedResources.size(), roundtrip, elapsed);
+    }
+
     private void benchmarkHTTP(HttpClient httpClient) throws Exception
     {
         // Warm up
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.spdy.server.http;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Set;
 
@@ -107,6 +108,94 @@ public class ReferrerPushStrategyUnitTest
         assertThat("no resources are returned as we want to filter firefox", pushResources.size(), is(0));
     }
 
+    @Test
+    public void testPushMetadataIsPersisted() throws Exception
+    {
+        File file = File.createTempFile("push", ".metadata");
+        file.deleteOnExit();
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        referrerPushStrategy.setPushMetadataFile(file);
+        fillPushStrategyCache(requestHeaders);
+        referrerPushStrategy.save();
+
+        ReferrerPushStrategy restarted = new ReferrerPushStrategy();
+        restarted.setPushMetadataFile(file);
+        restarted.start();
+        Set<String> pushResources = restarted.apply(stream, getBaseHeaders(VERSION), new Fields());
+        assertThat("pushResources contains the two loaded elements image.jpg and style.css", pushResources.size(), is(2));
+        restarted.stop();
+    }
+
+    @Test
+    public void testLoadedPushMetadataLearnsNewResources() throws Exception
+    {
+        File file = File.createTempFile("push", ".metadata");
+        file.deleteOnExit();
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        referrerPushStrategy.setPushMetadataFile(file);
+        String referrerUrl = fillPushStrategyCache(requestHeaders);
+        referrerPushStrategy.save();
+
+        ReferrerPushStrategy restarted = new ReferrerPushStrategy();
+        restarted.setPushMetadataFile(file);
+        restarted.start();
+        Fields restartedHeaders = getBaseHeaders(VERSION);
+        restartedHeaders.put(HTTPSPDYHeader.URI.name(VERSION), "image2.jpg");
+        restartedHeaders.put("referer", referrerUrl);
+        Set<String> pushResources = restarted.apply(stream, restartedHeaders, new Fields());
+        assertThat("pushResources is empty", pushResources.size(), is(0));
+
+        pushResources = restarted.apply(stream, getBaseHeaders(VERSION), new Fields());
+        assertThat("pushResources contains the two loaded elements and image2.jpg", pushResources.size(), is(3));
+        restarted.stop();
+    }
+
+    @Test
+    public void testMainResourceChangeInvalidatesPushResources() throws Exception
+    {
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        Fields responseHeaders = new Fields();
+        responseHeaders.put("etag", "\"1\"");
+        referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+        fillPushStrategyCache(requestHeaders);
+
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+        assertThat("pushResources contains two elements image.jpg and style.css", pushResources.size(), is(2));
+
+        responseHeaders.put("etag", "\"2\"");
+        pushResources = referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+        assertThat("pushResources is empty as the main resource changed", pushResources.size(), is(0));
+    }
+
+    @Test
+    public void testPushDigestCookieSuppressesPushes() throws Exception
+    {
+        Fields requestHeaders = getBaseHeaders(VERSION);
+        setMockExpectations();
+
+        referrerPushStrategy.setPushDigestCookieName("push");
+        fillPushStrategyCache(requestHeaders);
+
+        requestHeaders.put(HTTPSPDYHeader.URI.name(VERSION), MAIN_URI);
+        Fields responseHeaders = new Fields();
+        Set<String> pushResources = referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+        assertThat("pushResources contains two elements image.jpg and style.css", pushResources.size(), is(2));
+        String setCookie = responseHeaders.get("set-cookie").value();
+
+        requestHeaders.put("cookie", setCookie.substring(0, setCookie.indexOf(';')));
+        responseHeaders = new Fields();
+        pushResources = referrerPushStrategy.apply(stream, requestHeaders, responseHeaders);
+        assertThat("pushResources is empty as the client already has them", pushResources.size(), is(0));
+        assertThat("no cookie is set", responseHeaders.get("set-cookie") == null, is(true));
+    }
+
     private Fields getBaseHeaders(short version)
     {
         Fields requestHeaders = new Fields();
@@ -0,0 +1,229 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.spdy.server.proxy;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.spdy.api.ReplyInfo;
+import org.eclipse.jetty.spdy.api.SPDY;
+import org.eclipse.jetty.spdy.api.Stream;
+import org.eclipse.jetty.spdy.api.StreamFrameListener;
+import org.eclipse.jetty.spdy.api.SynInfo;
+import org.eclipse.jetty.spdy.api.server.ServerSessionFrameListener;
+import org.eclipse.jetty.spdy.client.SPDYClient;
+import org.eclipse.jetty.spdy.server.SPDYServerConnectionFactory;
+import org.eclipse.jetty.spdy.server.SPDYServerConnector;
+import org.eclipse.jetty.spdy.server.http.HTTPSPDYHeader;
+import org.eclipse.jetty.util.Fields;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SPDYProxyEngineTest
+{
+    private final short version = SPDY.V3;
+    private final BlockingQueue<Stream> serverStreams = new LinkedBlockingQueue<>();
+    private SPDYClient.Factory factory;
+    private SPDYProxyEngine proxyEngine;
+    private Server server;
+    private Server proxy;
+
+    @Before
+    public void init() throws Exception
+    {
+        factory = new SPDYClient.Factory();
+        factory.start();
+        proxyEngine = new SPDYProxyEngine(factory);
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        if (server != null)
+            server.stop();
+        if (proxy != null)
+            proxy.stop();
+        factory.stop();
+    }
+
+    private InetSocketAddress startServer(final boolean reply) throws Exception
+    {
+        ServerSessionFrameListener listener = new ServerSessionFrameListener.Adapter()
+        {
+            @Override
+            public StreamFrameListener onSyn(Stream stream, SynInfo synInfo)
+            {
+                serverStreams.offer(stream);
+                if (reply)
+                    reply(stream);
+                return null;
+            }
+        };
+        server = new Server();
+        SPDYServerConnector serverConnector = new SPDYServerConnector(server, listener);
+        serverConnector.addConnectionFactory(new SPDYServerConnectionFactory(version, listener));
+        serverConnector.setPort(0);
+        server.addConnector(serverConnector);
+        server.start();
+        return new InetSocketAddress("localhost", serverConnector.getLocalPort());
+    }
+
+    private InetSocketAddress startProxy(InetSocketAddress address) throws Exception
+    {
+        proxy = new Server();
+        ProxyEngineSelector proxyEngineSelector = new ProxyEngineSelector();
+        proxyEngineSelector.putProxyEngine("spdy/" + version, proxyEngine);
+        proxyEngineSelector.putProxyServerInfo("localhost", new ProxyEngineSelector.ProxyServerInfo("spdy/" + version, address.getHostName(), address.getPort()));
+        ServerConnector proxyConnector = new HTTPSPDYProxyServerConnector(proxy, proxyEngineSelector);
+        proxyConnector.setPort(0);
+        proxy.addConnector(proxyConnector);
+        proxy.start();
+        return new InetSocketAddress("localhost", proxyConnector.getLocalPort());
+    }
+
+    private void reply(Stream stream)
+    {
+        Fields responseHeaders = new Fields();
+        responseHeaders.put(HTTPSPDYHeader.VERSION.name(version), "HTTP/1.1");
+        responseHeaders.put(HTTPSPDYHeader.STATUS.name(version), "200 OK");
+        stream.reply(new ReplyInfo(responseHeaders, true));
+    }
+
+    private Socket request(InetSocketAddress proxyAddress) throws Exception
+    {
+        Socket client = new Socket();
+        client.connect(proxyAddress);
+        OutputStream output = client.getOutputStream();
+        String request = "" +
+                "GET / HTTP/1.1\r\n" +
+                "Host: localhost:" + proxyAddress.getPort() + "\r\n" +
+                "\r\n";
+        output.write(request.getBytes("UTF-8"));
+        output.flush();
+        return client;
+    }
+
+    private void assertResponse(Socket client) throws Exception
+    {
+        client.setSoTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+        String line = reader.readLine();
+        Assert.assertTrue(line.contains(" 200"));
+        client.close();
+    }
+
+    private void awaitSessions(int sessions) throws Exception
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (proxyEngine.getSessions() != sessions && System.nanoTime() < deadline)
+            TimeUnit.MILLISECONDS.sleep(10);
+        Assert.assertEquals(sessions, proxyEngine.getSessions());
+    }
+
+    @Test
+    public void testSessionsArePooledByActiveStreams() throws Exception
+    {
+        proxyEngine.setMaxSessionsPerServer(2);
+        proxyEngine.setMaxStreamsPerSession(1);
+        InetSocketAddress proxyAddress = startProxy(startServer(false));
+
+        // The first stream waits for the first session to be connected
+        Socket client1 = request(proxyAddress);
+        Stream stream1 = serverStreams.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(stream1);
+        awaitSessions(1);
+
+        // The first session is busy: the second stream uses it while a second session is connected
+        Socket client2 = request(proxyAddress);
+        Stream stream2 = serverStreams.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(stream2);
+        Assert.assertSame(stream1.getSession(), stream2.getSession());
+        awaitSessions(2);
+
+        // The third stream uses the least busy session
+        Socket client3 = request(proxyAddress);
+        Stream stream3 = serverStreams.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(stream3);
+        Assert.assertNotSame(stream1.getSession(), stream3.getSession());
+
+        // The pool is full, no more sessions are connected
+        Socket client4 = request(proxyAddress);
+        Stream stream4 = serverStreams.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(stream4);
+        Assert.assertEquals(2, proxyEngine.getSessions());
+        Assert.assertEquals(2, proxyEngine.getConnects());
+        Assert.assertEquals(4, proxyEngine.getActiveStreams());
+
+        reply(stream1);
+        reply(stream2);
+        reply(stream3);
+        reply(stream4);
+        assertResponse(client1);
+        assertResponse(client2);
+        assertResponse(client3);
+        assertResponse(client4);
+    }
+
+    @Test
+    public void testSessionIsReplacedAfterGoAway() throws Exception
+    {
+        InetSocketAddress proxyAddress = startProxy(startServer(true));
+
+        assertResponse(request(proxyAddress));
+        Stream stream = serverStreams.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(stream);
+        awaitSessions(1);
+
+        stream.getSession().goAway().get(5, TimeUnit.SECONDS);
+        awaitSessions(0);
+
+        assertResponse(request(proxyAddress));
+        Assert.assertEquals(1, proxyEngine.getSessions());
+        Assert.assertEquals(2, proxyEngine.getConnects());
+    }
+
+    @Test
+    public void testConnectFailureResetsQueuedStreams() throws Exception
+    {
+        // Nothing listens on the server address
+        InetSocketAddress address = startServer(true);
+        server.stop();
+        server = null;
+        InetSocketAddress proxyAddress = startProxy(address);
+
+        Socket client = request(proxyAddress);
+        client.setSoTimeout(5000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+        String line = reader.readLine();
+        Assert.assertTrue(line == null || !line.contains(" 200"));
+        client.close();
+        Assert.assertEquals(1, proxyEngine.getConnectFailures());
+        Assert.assertEquals(0, proxyEngine.getQueuedStreams());
+    }
+}
@@ -63,6 +63,7 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
     private final short version;
     private final ServerSessionFrameListener listener;
     private int initialWindowSize;
+    private boolean adaptiveFlowControl;
     private final Queue<Session> sessions = new ConcurrentLinkedQueue<>();
 
     public SPDYServerConnectionFactory(int version)
@@ -114,7 +115,7 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
 
     protected FlowControlStrategy newFlowControlStrategy(short version)
     {
-        return FlowControlStrategyFactory.newFlowControlStrategy(version);
+        return FlowControlStrategyFactory.newFlowControlStrategy(version, isAdaptiveFlowControl(), getInitialWindowSize());
     }
 
     protected ServerSessionFrameListener provideServerSessionFrameListener(Connector connector, EndPoint endPoint)
@@ -133,6 +134,17 @@ public class SPDYServerConnectionFactory extends AbstractConnectionFactory
         this.initialWindowSize = initialWindowSize;
     }
 
+    @ManagedAttribute("Whether receive windows adapt to consumption rate and round trip time")
+    public boolean isAdaptiveFlowControl()
+    {
+        return adaptiveFlowControl;
+    }
+
+    public void setAdaptiveFlowControl(boolean adaptiveFlowControl)
+    {
+        this.adaptiveFlowControl = adaptiveFlowControl;
+    }
+
     protected boolean sessionOpened(Session session)
     {
         // Add sessions only if the connector is not stopping
@@ -20,17 +20,17 @@ package org.eclipse.jetty.util;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -40,16 +40,28 @@ import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletException;
 import javax.servlet.http.Part;
 
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+
 
 
 /**
  * MultiPartInputStream
  *
  * Handle a MultiPart Mime input stream, breaking it up on the boundary into files and strings.
+ * <p>
+ * The content is parsed in chunks, either read from the input stream or passed to
+ * {@link #parse(ByteBuffer, boolean)}, in which the boundaries are searched in bulk.
  */
 public class MultiPartInputStreamParser
 {
+    private static final Logger LOG = Log.getLogger(MultiPartInputStreamParser.class);
     public static final MultipartConfigElement  __DEFAULT_MULTIPART_CONFIG = new MultipartConfigElement(System.getProperty("java.io.tmpdir"));
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int MORE = -2;
+    private static final int BASE64 = 1;
+    private static final int QUOTED_PRINTABLE = 2;
+    private enum State { PREAMBLE, HEADERS, CONTENT, END }
     protected InputStream _in;
     protected MultipartConfigElement _config;
     protected String _contentType;
@@ -58,6 +70,27 @@ public class MultiPartInputStreamParser
     protected File _contextTmpDir;
     protected boolean _deleteOnExit;
 
+    private State _state;
+    private String _boundaryLine;
+    private byte[] _boundary;
+    private int[] _skip;
+    private byte[] _buffer;
+    private int _start;
+    private int _end;
+    private long _total;
+    private boolean _skipLF;
+    private boolean _seenCRLF;
+    private ByteArrayOutputStream2 _line;
+    private MultiMap _headers;
+    private String _contentDisposition;
+    private String _partContentType;
+    private String _contentTransferEncoding;
+    private MultiPart _part;
+    private boolean _partStarted;
+    private int _decoding;
+    private int _quotedPrintable;
+    private int _quotedPrintableHigh;
+
 
 
     public class MultiPart implements Part
@@ -141,18 +174,18 @@ public class MultiPartInputStreamParser
             _file = File.createTempFile("MultiPart", "", MultiPartInputStreamParser.this._tmpDir);
             if (_deleteOnExit)
                 _file.deleteOnExit();
-            FileOutputStream fos = new FileOutputStream(_file);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
+            //the content is written in large chunks, so write them straight to the file channel
+            OutputStream out = Channels.newOutputStream(new FileOutputStream(_file).getChannel());
 
             if (_size > 0 && _out != null)
             {
                 //already written some bytes, so need to copy them into the file
                 _out.flush();
-                _bout.writeTo(bos);
+                _bout.writeTo(out);
                 _out.close();
                 _bout = null;
             }
-            _out = bos;
+            _out = out;
         }
 
 
@@ -327,7 +360,7 @@ public class MultiPartInputStreamParser
      */
     public MultiPartInputStreamParser (InputStream in, String contentType, MultipartConfigElement config, File contextTmpDir)
     {
-        _in = new ReadLineInputStream(in);
+        _in = in;
        _contentType = contentType;
        _config = config;
        _contextTmpDir = contextTmpDir;
@@ -338,6 +371,18 @@ public class MultiPartInputStreamParser
            _config = new MultipartConfigElement(_contextTmpDir.getAbsolutePath());
     }
 
+    /**
+     * Create a parser for content passed to {@link #parse(ByteBuffer, boolean)}.
+     * 
+     * @param contentType Content-Type header
+     * @param config MultipartConfigElement
+     * @param contextTmpDir javax.servlet.context.tempdir
+     */
+    public MultiPartInputStreamParser (String contentType, MultipartConfigElement config, File contextTmpDir)
+    {
+        this(null, contentType, config, contextTmpDir);
+    }
+
     /**
      * Get the already parsed parts.
      * 
@@ -425,6 +470,8 @@ public class MultiPartInputStreamParser
 
     /**
      * Parse, if necessary, the multipart stream.
+     * <p>
+     * The stream is read in chunks that are passed to {@link #parse(ByteBuffer, boolean)}.
      * 
      * @throws IOException
      * @throws ServletException
@@ -436,13 +483,86 @@ public class MultiPartInputStreamParser
         if (_parts != null)
             return;
 
-        //initialize
-        long total = 0; //keep running total of size of bytes read from input and throw an exception if exceeds MultipartConfigElement._maxRequestSize
+        start();
+        if (_in == null)
+            return;
+
+        try
+        {
+            while (_state != State.END)
+            {
+                compact();
+                int len = _in.read(_buffer, _end, _buffer.length - _end);
+                if (len < 0)
+                {
+                    parseBuffer(true);
+                    break;
+                }
+                received(len);
+                parseBuffer(false);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abort();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Parse a chunk of the multipart content.
+     * <p>
+     * This allows the content to be parsed as it arrives, for example from an asynchronous read,
+     * rather than by reading a blocking {@link InputStream}. The parts parsed so far are
+     * available from {@link #getParsedParts()}.
+     * 
+     * @param buffer the next chunk of the content, consumed entirely by this call
+     * @param last true if this is the last chunk of the content
+     * @throws IOException if the content is not valid multipart content
+     */
+    public void parse (ByteBuffer buffer, boolean last)
+    throws IOException
+    {
+        if (_parts == null)
+            start();
+
+        try
+        {
+            while (buffer.hasRemaining() && _state != State.END)
+            {
+                compact();
+                int len = Math.min(buffer.remaining(), _buffer.length - _end);
+                buffer.get(_buffer, _end, len);
+                received(len);
+                parseBuffer(false);
+            }
+            buffer.position(buffer.limit());
+            if (last)
+                parseBuffer(true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            abort();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Initialize the parsing: check the content type and compute the boundary.
+     */
+    private void start ()
+    throws IOException
+    {
         _parts = new MultiMap();
 
         //if its not a multipart request, don't parse it
         if (_contentType == null || !_contentType.startsWith("multipart/form-data"))
+        {
+            _state = State.END;
             return;
+        }
 
         //sort out the location to which to write the files
 
@@ -465,229 +585,508 @@ public class MultiPartInputStreamParser
         String contentTypeBoundary = "";
         if (_contentType.indexOf("boundary=") >= 0)
             contentTypeBoundary = QuotedStringTokenizer.unquote(value(_contentType.substring(_contentType.indexOf("boundary=")), true).trim());
-        
-        String boundary="--"+contentTypeBoundary;
-        byte[] byteBoundary=(boundary+"--").getBytes(StringUtil.__ISO_8859_1);
 
-        // Get first boundary
-        String line=((ReadLineInputStream)_in).readLine();
-        if(line==null || !line.equals(boundary))
+        _boundaryLine = "--"+contentTypeBoundary;
+        _boundary = _boundaryLine.getBytes(StringUtil.__ISO_8859_1);
+
+        // Skip table of the Boyer-Moore-Horspool search for the boundary
+        _skip = new int[256];
+        int last = _boundary.length - 1;
+        Arrays.fill(_skip, _boundary.length);
+        for (int i = 0; i < last; i++)
+            _skip[_boundary[i] & 0xFF] = last - i;
+
+        _buffer = new byte[Math.max(BUFFER_SIZE, 4 * _boundary.length)];
+        _line = new ByteArrayOutputStream2(256);
+        _state = State.PREAMBLE;
+    }
+
+
+    /**
+     * Make room at the end of the buffer for more content.
+     */
+    private void compact ()
+    {
+        if (_start == _end)
+        {
+            _start = _end = 0;
+        }
+        else if (_end == _buffer.length)
         {
-            throw new IOException("Missing initial multi part boundary");
+            System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+            _end -= _start;
+            _start = 0;
         }
+    }
+
 
-        // Read each part
-        boolean lastPart=false;
-        String contentDisposition=null;
-        String contentType=null;
-        String contentTransferEncoding=null;
-        outer:while(!lastPart)
+    private void received (int len)
+    {
+        _end += len;
+        _total += len;
+        if (_config.getMaxRequestSize() > 0 && _total > _config.getMaxRequestSize())
+            throw new IllegalStateException("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
+    }
+
+
+    private void abort ()
+    {
+        _state = State.END;
+        if (_part != null)
         {
-            MultiMap headers = new MultiMap();
-            while(true)
+            try
             {
-                line=((ReadLineInputStream)_in).readLine();
-                
-                //No more input
-                if(line==null)
-                    break outer;
-                
-                //end of headers:
-                if("".equals(line))
+                _part.close();
+            }
+            catch (IOException e)
+            {
+                LOG.ignore(e);
+            }
+            _part = null;
+        }
+    }
+
+
+    /**
+     * Parse the buffered content.
+     * 
+     * @param eof true if there is no more content
+     */
+    private void parseBuffer (boolean eof)
+    throws IOException
+    {
+        while (true)
+        {
+            switch (_state)
+            {
+                case PREAMBLE:
+                case HEADERS:
+                {
+                    String line = parseLine();
+                    if (line == null)
+                    {
+                        if (eof)
+                            throw new IOException(_state == State.PREAMBLE ? "Missing initial multi part boundary" : "Incomplete parts");
+                        return;
+                    }
+
+                    if (_state == State.PREAMBLE)
+                    {
+                        if (!line.equals(_boundaryLine))
+                            throw new IOException("Missing initial multi part boundary");
+                        startHeaders();
+                    }
+                    else if (line.length() == 0)
+                    {
+                        //end of headers
+                        startContent();
+                    }
+                    else
+                    {
+                        parseHeader(line);
+                    }
+                    break;
+                }
+
+                case CONTENT:
+                {
+                    if (!parseContent(eof))
+                    {
+                        if (eof)
+                        {
+                            abort();
+                            throw new IOException("Incomplete parts");
+                        }
+                        return;
+                    }
                     break;
-           
-                total += line.length();
-                if (_config.getMaxRequestSize() > 0 && total > _config.getMaxRequestSize())
-                    throw new IllegalStateException ("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
-
-                //get content-disposition and content-type
-                int c=line.indexOf(':',0);
-                if(c>0)
+                }
+
+                default:
                 {
-                    String key=line.substring(0,c).trim().toLowerCase(Locale.ENGLISH);
-                    String value=line.substring(c+1,line.length()).trim();
-                    headers.put(key, value);
-                    if (key.equalsIgnoreCase("content-disposition"))
-                        contentDisposition=value;
-                    if (key.equalsIgnoreCase("content-type"))
-                        contentType = value;
-                    if(key.equals("content-transfer-encoding"))
-                        contentTransferEncoding=value;
+                    // Ignore the epilogue
+                    _start = _end;
+                    return;
                 }
             }
+        }
+    }
 
-            // Extract content-disposition
-            boolean form_data=false;
-            if(contentDisposition==null)
-            {
-                throw new IOException("Missing content-disposition");
-            }
 
-            QuotedStringTokenizer tok=new QuotedStringTokenizer(contentDisposition,";");
-            String name=null;
-            String filename=null;
-            while(tok.hasMoreTokens())
+    /**
+     * Parse a line, accepting CR/LF, LF or just CR as in {@link ReadLineInputStream}.
+     * 
+     * @return the line, or null if the line is not complete
+     */
+    private String parseLine ()
+    {
+        while (_start < _end)
+        {
+            byte b = _buffer[_start++];
+            if (_skipLF)
             {
-                String t=tok.nextToken().trim();
-                String tl=t.toLowerCase(Locale.ENGLISH);
-                if(t.startsWith("form-data"))
-                    form_data=true;
-                else if(tl.startsWith("name="))
-                    name=value(t, true);
-                else if(tl.startsWith("filename="))
-                    filename=value(t, false);
+                _skipLF = false;
+                if (b == '\n')
+                {
+                    _seenCRLF = true;
+                    continue;
+                }
             }
 
-            // Check disposition
-            if(!form_data)
+            if (b == '\r' || b == '\n')
             {
-                continue;
+                _skipLF = b == '\r';
+                String line = new String(_line.getBuf(), 0, _line.size(), StringUtil.__UTF8_CHARSET);
+                _line.reset();
+                return line;
             }
-            //It is valid for reset and submit buttons to have an empty name.
-            //If no name is supplied, the browser skips sending the info for that field.
-            //However, if you supply the empty string as the name, the browser sends the
-            //field, with name as the empty string. So, only continue this loop if we
-            //have not yet seen a name field.
-            if(name==null)
+            _line.write(b);
+        }
+        return null;
+    }
+
+
+    private void startHeaders ()
+    {
+        _headers = new MultiMap();
+        _state = State.HEADERS;
+    }
+
+
+    private void parseHeader (String line)
+    {
+        //get content-disposition and content-type
+        int c=line.indexOf(':',0);
+        if(c>0)
+        {
+            String key=line.substring(0,c).trim().toLowerCase(Locale.ENGLISH);
+            String value=line.substring(c+1,line.length()).trim();
+            _headers.put(key, value);
+            if (key.equalsIgnoreCase("content-disposition"))
+                _contentDisposition=value;
+            if (key.equalsIgnoreCase("content-type"))
+                _partContentType = value;
+            if(key.equals("content-transfer-encoding"))
+                _contentTransferEncoding=value;
+        }
+    }
+
+
+    private void startContent ()
+    throws IOException
+    {
+        // Extract content-disposition
+        boolean form_data=false;
+        if(_contentDisposition==null)
+        {
+            throw new IOException("Missing content-disposition");
+        }
+
+        QuotedStringTokenizer tok=new QuotedStringTokenizer(_contentDisposition,";");
+        String name=null;
+        String filename=null;
+        while(tok.hasMoreTokens())
+        {
+            String t=tok.nextToken().trim();
+            String tl=t.toLowerCase(Locale.ENGLISH);
+            if(t.startsWith("form-data"))
+                form_data=true;
+            else if(tl.startsWith("name="))
+                name=value(t, true);
+            else if(tl.startsWith("filename="))
+                filename=value(t, false);
+        }
+
+        _state = State.CONTENT;
+        _partStarted = false;
+        _decoding = 0;
+
+        // Check disposition
+        //It is valid for reset and submit buttons to have an empty name.
+        //If no name is supplied, the browser skips sending the info for that field.
+        //However, if you supply the empty string as the name, the browser sends the
+        //field, with name as the empty string. So, only skip the content if we
+        //have not seen a name field.
+        if(!form_data || name==null)
+            return;
+
+        //Have a new Part
+        MultiPart part = new MultiPart(name, filename);
+        part.setHeaders(_headers);
+        part.setContentType(_partContentType);
+        _parts.add(name, part);
+
+        part.open();
+        _part = part;
+
+        if ("base64".equalsIgnoreCase(_contentTransferEncoding))
+            _decoding = BASE64;
+        else if ("quoted-printable".equalsIgnoreCase(_contentTransferEncoding))
+            _decoding = QUOTED_PRINTABLE;
+    }
+
+
+    /**
+     * Parse the buffered content of a part, looking for the boundary that ends it.
+     * <p>
+     * The boundary is searched with a Boyer-Moore-Horspool skip table and the content
+     * before it is written in bulk. Only the last bytes of the buffer, that could be
+     * the start of a boundary, are kept until more content arrives.
+     * 
+     * @param eof true if there is no more content
+     * @return true if the boundary was found
+     */
+    private boolean parseContent (boolean eof)
+    throws IOException
+    {
+        if (_skipLF)
+        {
+            if (_start == _end)
+                return false;
+            _skipLF = false;
+            if (_seenCRLF && _buffer[_start] == '\n')
+                _start++;
+        }
+
+        int length = _boundary.length;
+        int p = _start;
+        while (true)
+        {
+            p = find(p);
+            if (p < 0)
             {
-                continue;
+                // Write the content that cannot precede a boundary
+                int safe = _end - length - 1;
+                if (safe > _start)
+                    content(safe);
+                return false;
             }
 
-            if ("base64".equalsIgnoreCase(contentTransferEncoding))
+            int eol = lineEnd(p);
+            if (eol >= 0)
             {
-                _in = new Base64InputStream(_in);
+                int next = boundaryEnd(p + length, eof);
+                if (next == MORE)
+                {
+                    content(p - eol);
+                    return false;
+                }
+                if (next >= 0)
+                {
+                    content(p - eol);
+                    endPart();
+                    _start = next;
+                    if (_state != State.END)
+                        startHeaders();
+                    return true;
+                }
             }
-            else if ("quoted-printable".equalsIgnoreCase(contentTransferEncoding))
+            p++;
+        }
+    }
+
+
+    /**
+     * @return the index of the boundary in the buffer from the given index, or -1
+     */
+    private int find (int from)
+    {
+        byte[] boundary = _boundary;
+        int last = boundary.length - 1;
+        int i = from;
+        while (i + last < _end)
+        {
+            int j = last;
+            while (_buffer[i + j] == boundary[j])
             {
-                _in = new FilterInputStream(_in)
-                {
-                    @Override
-                    public int read() throws IOException
-                    {
-                        int c = in.read();
-                        if (c >= 0 && c == '=')
-                        {
-                            int hi = in.read();
-                            int lo = in.read();
-                            if (hi < 0 || lo < 0)
-                            {
-                                throw new IOException("Unexpected end to quoted-printable byte");
-                            }
-                            char[] chars = new char[] { (char)hi, (char)lo };
-                            c = Integer.parseInt(new String(chars),16);
-                        }
-                        return c;
-                    }
-                };
+                if (j == 0)
+                    return i;
+                j--;
             }
+            i += _skip[_buffer[i + last] & 0xFF];
+        }
+        return -1;
+    }
 
 
+    /**
+     * @return the length of the line terminator before the boundary at the given index, 
+     * 0 if the boundary starts the content, -1 if the boundary is not at the start of a line
+     */
+    private int lineEnd (int boundary)
+    {
+        if (boundary == _start && !_partStarted)
+            return 0;
+        if (boundary > _start)
+        {
+            byte b = _buffer[boundary - 1];
+            if (b == '\n')
+                return (boundary - 2 >= _start && _buffer[boundary - 2] == '\r') ? 2 : 1;
+            if (b == '\r')
+                return 1;
+        }
+        return -1;
+    }
 
-            //Have a new Part
-            MultiPart part = new MultiPart(name, filename);
-            part.setHeaders(headers);
-            part.setContentType(contentType);
-            _parts.add(name, part);
 
-            part.open();
+    /**
+     * @return the index after the boundary line, -1 if it is not a boundary line,
+     * or {@link #MORE} if more content is needed to decide
+     */
+    private int boundaryEnd (int i, boolean eof)
+    throws IOException
+    {
+        if (i == _end)
+            return eof ? -1 : MORE;
 
-            try
+        byte b = _buffer[i];
+        if (b == '\n')
+            return i + 1;
+        if (b == '\r')
+        {
+            if (i + 1 == _end)
+                return eof ? i + 1 : MORE;
+            return _buffer[i + 1] == '\n' ? i + 2 : i + 1;
+        }
+        if (b == '-')
+        {
+            if (i + 1 == _end)
+                return eof ? -1 : MORE;
+            if (_buffer[i + 1] != '-')
+                return -1;
+            if (i + 2 == _end && !eof)
+                return MORE;
+            if (i + 2 == _end || _buffer[i + 2] == '\r' || _buffer[i + 2] == '\n')
             {
-                int state=-2;
-                int c;
-                boolean cr=false;
-                boolean lf=false;
+                _state = State.END;
+                return i + 2;
+            }
+        }
+        return -1;
+    }
 
-                // loop for all lines
-                while(true)
-                {
-                    int b=0;
-                    while((c=(state!=-2)?state:_in.read())!=-1)
-                    {
-                        total ++;
-                        if (_config.getMaxRequestSize() > 0 && total > _config.getMaxRequestSize())
-                            throw new IllegalStateException("Request exceeds maxRequestSize ("+_config.getMaxRequestSize()+")");
 
-                        state=-2;
-                        // look for CR and/or LF
-                        if(c==13||c==10)
-                        {
-                            if(c==13)
-                            {
-                                _in.mark(1);
-                                int tmp=_in.read();
-                                if (tmp!=10)
-                                    _in.reset();
-                                else
-                                    state=tmp;
-                            }
-                            break;
-                        }
-                        // look for boundary
-                        if(b>=0&&b<byteBoundary.length&&c==byteBoundary[b])
-                            b++;
-                        else
-                        {
-                            // this is not a boundary
-                            if(cr)
-                                part.write(13);
+    /**
+     * Write the content of the part up to the given index of the buffer.
+     */
+    private void content (int end)
+    throws IOException
+    {
+        int length = end - _start;
+        if (length <= 0)
+            return;
+        _partStarted = true;
+        if (_part != null)
+        {
+            switch (_decoding)
+            {
+                case BASE64:
+                    decodeBase64(_start, end);
+                    break;
+                case QUOTED_PRINTABLE:
+                    decodeQuotedPrintable(_start, end);
+                    break;
+                default:
+                    _part.write(_buffer, _start, length);
+            }
+        }
+        _start = end;
+    }
 
-                            if(lf)
-                                part.write(10);
 
-                            cr=lf=false;
-                            if(b>0)
-                                part.write(byteBoundary,0,b);
+    private void endPart ()
+    throws IOException
+    {
+        if (_part == null)
+            return;
+        try
+        {
+            if (_decoding == BASE64 && _line.size() > 0)
+                decodeBase64Line();
+            else if (_decoding == QUOTED_PRINTABLE && _quotedPrintable != 0)
+                throw new IOException("Unexpected end to quoted-printable byte");
+        }
+        finally
+        {
+            _part.close();
+            _part = null;
+        }
+    }
 
-                            b=-1;
-                            part.write(c);
-                        }
-                    }
-                    // check partial boundary
-                    if((b>0&&b<byteBoundary.length-2)||(b==byteBoundary.length-1))
-                    {
-                        if(cr)
-                            part.write(13);
 
-                        if(lf)
-                            part.write(10);
+    private void decodeBase64 (int start, int end)
+    throws IOException
+    {
+        for (int i = start; i < end; i++)
+        {
+            byte b = _buffer[i];
+            if (b == '\r' || b == '\n')
+            {
+                if (_line.size() > 0)
+                    decodeBase64Line();
+            }
+            else
+                _line.write(b);
+        }
+    }
 
-                        cr=lf=false;
-                        part.write(byteBoundary,0,b);
-                        b=-1;
-                    }
-                    // boundary match
-                    if(b>0||c==-1)
-                    {
-                        if(b==byteBoundary.length)
-                            lastPart=true;
-                        if(state==10)
-                            state=-2;
-                        break;
-                    }
-                    // handle CR LF
-                    if(cr)
-                        part.write(13);
 
-                    if(lf)
-                        part.write(10);
+    private void decodeBase64Line ()
+    throws IOException
+    {
+        byte[] decoded = B64Code.decode(new String(_line.getBuf(), 0, _line.size(), StringUtil.__ISO_8859_1_CHARSET));
+        _line.reset();
+        _part.write(decoded, 0, decoded.length);
+    }
 
-                    cr=(c==13);
-                    lf=(c==10||state==10);
-                    if(state==10)
-                        state=-2;
-                }
-            }
-            finally
-            {
 
-                part.close();
+    /**
+     * Decode in place, the decoded bytes being no more than the encoded ones.
+     */
+    private void decodeQuotedPrintable (int start, int end)
+    throws IOException
+    {
+        int d = start;
+        for (int i = start; i < end; i++)
+        {
+            byte b = _buffer[i];
+            switch (_quotedPrintable)
+            {
+                case 3:
+                    // after a soft line break ending with CR
+                    _quotedPrintable = 0;
+                    if (b == '\n')
+                        break;
+                    // fall through
+                case 0:
+                    if (b == '=')
+                        _quotedPrintable = 1;
+                    else
+                        _buffer[d++] = b;
+                    break;
+                case 1:
+                    if (b == '\r' || b == '\n')
+                    {
+                        // soft line break
+                        _quotedPrintable = b == '\r' ? 3 : 0;
+                    }
+                    else
+                    {
+                        _quotedPrintableHigh = TypeUtil.convertHexDigit(b);
+                        _quotedPrintable = 2;
+                    }
+                    break;
+                default:
+                    _buffer[d++] = (byte)((_quotedPrintableHigh << 4) + TypeUtil.convertHexDigit(b));
+                    _quotedPrintable = 0;
+                    break;
             }
         }
-        if (!lastPart)
-            throw new IOException("Incomplete parts");
+        if (d > start)
+            _part.write(_buffer, start, d - start);
     }
-    
+
+
     public void setDeleteOnExit(boolean deleteOnExit)
     {
         _deleteOnExit = deleteOnExit;
@@ -719,37 +1118,4 @@ public class MultiPartInputStreamParser
         }
         return value;
     }
-
-    private static class Base64InputStream extends InputStream
-    {
-        BufferedReader _in;
-        String _line;
-        byte[] _buffer;
-        int _pos;
-
-        public Base64InputStream (InputStream in)
-        {
-            _in = new BufferedReader(new InputStreamReader(in));
-        }
-
-        @Override
-        public int read() throws IOException
-        {
-            if (_buffer==null || _pos>= _buffer.length)
-            {
-                _line = _in.readLine();
-                if (_line==null)
-                    return -1;
-                if (_line.startsWith("--"))
-                    _buffer=(_line+"\r\n").getBytes();
-                else if (_line.length()==0)
-                    _buffer="\r\n".getBytes();
-                else
-                    _buffer=B64Code.decode(_line);
-
-                _pos=0;
-            }
-            return _buffer[_pos++];
-        }
-    }
 }
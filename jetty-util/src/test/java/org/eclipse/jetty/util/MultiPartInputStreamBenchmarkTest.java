@@ -0,0 +1,123 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.http.Part;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class MultiPartInputStreamBenchmarkTest
+{
+    @Ignore
+    @Test
+    public void testLargeUpload() throws Exception
+    {
+        // A 1 GiB file upload, spilled to a temporary file
+        long size = 1024L * 1024 * 1024;
+        File dir = new File(System.getProperty("java.io.tmpdir"), "multipart-benchmark-" + System.currentTimeMillis());
+        MultipartConfigElement config = new MultipartConfigElement(dir.getAbsolutePath(), -1, -1, 1024);
+
+        for (int i = 0; i < 3; ++i)
+        {
+            MultiPartInputStreamParser parser = new MultiPartInputStreamParser(new UploadInputStream(size), "multipart/form-data, boundary=AaB03x", config, dir);
+            parser.setDeleteOnExit(true);
+
+            long begin = System.nanoTime();
+            Part part = parser.getPart("upload");
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+            Assert.assertEquals(size, part.getSize());
+            System.err.printf("parsed %d MiB in %d ms: %d MiB/s%n", size >> 20, elapsed, (size >> 20) * 1000 / Math.max(1, elapsed));
+            parser.deleteParts();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Generates the upload without holding it in memory, the content being lines
+     * that contain dashes to exercise the boundary search.
+     */
+    private static class UploadInputStream extends InputStream
+    {
+        private final byte[] _head = ("--AaB03x\r\n" +
+                "Content-Disposition: form-data; name=\"upload\"; filename=\"upload.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n" +
+                "\r\n").getBytes(StringUtil.__ISO_8859_1_CHARSET);
+        private final byte[] _line = "------- the quick brown fox jumps over the lazy dog -- 0123456789 ------\r\n".getBytes(StringUtil.__ISO_8859_1_CHARSET);
+        private final byte[] _tail = "\r\n--AaB03x--\r\n".getBytes(StringUtil.__ISO_8859_1_CHARSET);
+        private final long _length;
+        private long _position;
+
+        private UploadInputStream(long contentLength)
+        {
+            _length = _head.length + contentLength + _tail.length;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (_position == _length)
+                return -1;
+            int n = (int)Math.min(len, _length - _position);
+            int end = off + n;
+            while (off < end)
+            {
+                // Copy up to the end of the head, of a line or of the tail
+                long tail = _length - _tail.length;
+                byte[] source;
+                int index;
+                if (_position < _head.length)
+                {
+                    source = _head;
+                    index = (int)_position;
+                }
+                else if (_position >= tail)
+                {
+                    source = _tail;
+                    index = (int)(_position - tail);
+                }
+                else
+                {
+                    source = _line;
+                    index = (int)((_position - _head.length) % _line.length);
+                }
+                int length = (int)Math.min(Math.min(end - off, source.length - index), _position < tail ? tail - _position : _length - _position);
+                System.arraycopy(source, index, b, off, length);
+                off += length;
+                _position += length;
+            }
+            return n;
+        }
+    }
+}
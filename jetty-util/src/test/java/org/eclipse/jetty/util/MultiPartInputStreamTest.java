@@ -37,6 +37,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
 import javax.servlet.MultipartConfigElement;
@@ -481,6 +482,49 @@ public class MultiPartInputStreamTest
         assertEquals(5, p.getSize());
     }
 
+    @Test
+    public void testParseChunks() throws Exception
+    {
+        // Boundary-like content split across chunks must not end the part
+        String str = "--AaB03x\r\n"+
+        "content-disposition: form-data; name=\"field1\"\r\n"+
+        "\r\n"+
+        "--AaB03 --AaB03x-- x\r\n--AaB03xx\r\n"+
+        "--AaB03x\r\n"+
+        "content-disposition: form-data; name=\"field2\"\r\n"+
+        "Content-Transfer-Encoding: base64\r\n"+
+        "\r\n"+
+        B64Code.encode("Joe Blow")+"\r\n"+
+        "--AaB03x\r\n"+
+        "content-disposition: form-data; name=\"field3\"\r\n"+
+        "Content-Transfer-Encoding: quoted-printable\r\n"+
+        "\r\n"+
+        "caf=C3=A9 =\r\nau lait\r\n"+
+        "--AaB03x--\r\n";
+        byte[] bytes = str.getBytes("ISO-8859-1");
+
+        for (int chunk = 1; chunk < 16; chunk++)
+        {
+            MultipartConfigElement config = new MultipartConfigElement(_dirname, 1024, 3072, 50);
+            MultiPartInputStreamParser mpis = new MultiPartInputStreamParser(_contentType, config, _tmpDir);
+            mpis.setDeleteOnExit(true);
+            for (int i = 0; i < bytes.length; i += chunk)
+                mpis.parse(ByteBuffer.wrap(bytes, i, Math.min(chunk, bytes.length - i)), false);
+            mpis.parse(ByteBuffer.allocate(0), true);
+
+            assertThat(mpis.getParts().size(), is(3));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            IO.copy(mpis.getPart("field1").getInputStream(), baos);
+            assertThat(baos.toString("ISO-8859-1"), is("--AaB03 --AaB03x-- x\r\n--AaB03xx"));
+            baos = new ByteArrayOutputStream();
+            IO.copy(mpis.getPart("field2").getInputStream(), baos);
+            assertThat(baos.toString("ISO-8859-1"), is("Joe Blow"));
+            baos = new ByteArrayOutputStream();
+            IO.copy(mpis.getPart("field3").getInputStream(), baos);
+            assertThat(baos.toString("UTF-8"), is("caf\u00e9 au lait"));
+        }
+    }
+
     private String createMultipartRequestString(String filename)
     {
         int length = filename.length();
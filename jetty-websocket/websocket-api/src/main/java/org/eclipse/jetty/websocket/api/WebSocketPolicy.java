@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.websocket.api;
 
+import java.util.zip.Deflater;
 
 /**
  * Settings for WebSocket operations.
@@ -81,6 +82,13 @@ public class WebSocketPolicy
      */
     private int idleTimeout = 300000;
 
+    /**
+     * The compression level of the messages compressed by the permessage-deflate extension, -1 for the {@link Deflater} default or 0-9.
+     * <p>
+     * Default: 1 (best speed)
+     */
+    private int compressionLevel = Deflater.BEST_SPEED;
+
     /**
      * Behavior of the websockets
      */
@@ -129,6 +137,7 @@ public class WebSocketPolicy
         WebSocketPolicy clone = new WebSocketPolicy(this.behavior);
         clone.autoFragment = this.autoFragment;
         clone.idleTimeout = this.idleTimeout;
+        clone.compressionLevel = this.compressionLevel;
         clone.bufferSize = this.bufferSize;
         clone.maxPayloadSize = this.maxPayloadSize;
         clone.maxBinaryMessageSize = this.maxBinaryMessageSize;
@@ -146,6 +155,11 @@ public class WebSocketPolicy
         return bufferSize;
     }
 
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
     public int getIdleTimeout()
     {
         return idleTimeout;
@@ -181,6 +195,15 @@ public class WebSocketPolicy
         this.bufferSize = bufferSize;
     }
 
+    public void setCompressionLevel(int compressionLevel)
+    {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
     public void setIdleTimeout(int idleTimeout)
     {
         this.idleTimeout = idleTimeout;
@@ -0,0 +1,355 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.WriteResult;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.api.extensions.OutgoingFrames;
+import org.eclipse.jetty.websocket.common.extensions.ExtensionStack;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
+import org.eclipse.jetty.websocket.common.io.AbstractWebSocketConnection;
+
+/**
+ * Sends the same message to many server side {@link WebSocketSession}s.
+ * <p>
+ * The message is generated (extensions, framing header) only once per distinct list of negotiated extensions, into a shared read-only buffer that is then
+ * queued, as is, on the connection of every session. Encoding once per extension configuration assumes the extensions keep no state from one message to the
+ * next (which is the case for the compression extensions without context takeover).
+ * <p>
+ * Sessions whose connection already has {@link #getMaxQueuedFrames()} frames waiting to be written are considered slow receivers, and are handled according
+ * to the {@link Overflow} policy.
+ * <p>
+ * Sessions that cannot share an encoding (client sessions, whose frames must be masked individually, or sessions not backed by an
+ * {@link AbstractWebSocketConnection}) are sent the message through their own outgoing frames handler.
+ */
+@ManagedObject("WebSocket Broadcaster")
+public class Broadcaster
+{
+    /**
+     * What to do with a session whose connection has too many frames queued.
+     */
+    public enum Overflow
+    {
+        /** Do not send the message to the session */
+        DROP,
+        /** Disconnect the session */
+        DISCONNECT
+    }
+
+    private static final Logger LOG = Log.getLogger(Broadcaster.class);
+    private final ByteBufferPool bufferPool;
+    private final Generator generator;
+    private final AtomicLong broadcasts = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong disconnected = new AtomicLong();
+    private int maxQueuedFrames = 64;
+    private Overflow overflow = Overflow.DROP;
+
+    public Broadcaster(ByteBufferPool bufferPool)
+    {
+        this.bufferPool = bufferPool;
+        // Frames are validated by the extensions that set the RSV bits
+        this.generator = new Generator(WebSocketPolicy.newServerPolicy(),bufferPool,false);
+    }
+
+    /**
+     * Send a frame to all the open sessions.
+     * 
+     * @param frame
+     *            the frame to send, its payload is not modified
+     * @param sessions
+     *            the sessions to send the frame to
+     * @return the number of sessions the frame was queued to
+     */
+    public int broadcast(Frame frame, Collection<? extends WebSocketSession> sessions)
+    {
+        broadcasts.incrementAndGet();
+        Map<List<String>, ByteBuffer> encodings = new HashMap<>();
+        int sent = 0;
+        for (WebSocketSession session : sessions)
+        {
+            if (!session.isOpen())
+            {
+                continue;
+            }
+
+            LogicalConnection logical = session.getConnection();
+            if (!(logical instanceof AbstractWebSocketConnection) || (logical.getPolicy().getBehavior() != WebSocketBehavior.SERVER))
+            {
+                if (send(session,frame))
+                {
+                    sent++;
+                }
+                continue;
+            }
+
+            AbstractWebSocketConnection connection = (AbstractWebSocketConnection)logical;
+            if (connection.getQueue().size() >= maxQueuedFrames)
+            {
+                overflow(session,connection);
+                continue;
+            }
+
+            List<String> extensions = session.getNegotiatedExtensions();
+            ByteBuffer encoded = encodings.get(extensions);
+            if (encoded == null)
+            {
+                encoded = encode(frame,extensions,session.getExtensionFactory());
+                if (encoded == null)
+                {
+                    // Unable to encode outside of the session
+                    if (send(session,frame))
+                    {
+                        sent++;
+                    }
+                    continue;
+                }
+                encodings.put(new ArrayList<>(extensions),encoded);
+            }
+
+            connection.outgoingEncodedFrame(frame,encoded);
+            sent++;
+        }
+        return sent;
+    }
+
+    /**
+     * Send a binary message to all the open sessions.
+     */
+    public int broadcastBytes(ByteBuffer data, Collection<? extends WebSocketSession> sessions)
+    {
+        return broadcast(WebSocketFrame.binary().setPayload(data),sessions);
+    }
+
+    /**
+     * Send a text message to all the open sessions.
+     */
+    public int broadcastString(String text, Collection<? extends WebSocketSession> sessions)
+    {
+        return broadcast(WebSocketFrame.text(text),sessions);
+    }
+
+    /**
+     * Generate the network bytes of the frame, as they would be for a session with the given negotiated extensions.
+     * 
+     * @return the read-only encoded frame(s), or null if the frame cannot be encoded for these extensions
+     */
+    private ByteBuffer encode(Frame frame, List<String> extensions, ExtensionFactory factory)
+    {
+        final List<ByteBuffer> generated = new ArrayList<>();
+        OutgoingFrames capture = new OutgoingFrames()
+        {
+            @Override
+            public Future<WriteResult> outgoingFrame(Frame frame) throws IOException
+            {
+                generated.add(generator.generate(frame));
+                return null;
+            }
+        };
+
+        try
+        {
+            if (extensions.isEmpty())
+            {
+                capture.outgoingFrame(new WebSocketFrame(frame));
+            }
+            else
+            {
+                if (factory == null)
+                {
+                    return null;
+                }
+
+                List<ExtensionConfig> configs = new ArrayList<>();
+                for (String extension : extensions)
+                {
+                    configs.add(ExtensionConfig.parse(extension));
+                }
+
+                ExtensionStack stack = new ExtensionStack(factory);
+                stack.negotiate(configs);
+                for (Extension extension : stack.getExtensions())
+                {
+                    if ((extension instanceof PerMessageDeflateExtension) && ((PerMessageDeflateExtension)extension).isOutgoingContextTakeover())
+                    {
+                        // The compressed bytes depend on the messages previously sent by each session
+                        return null;
+                    }
+                }
+                stack.setNextOutgoing(capture);
+                stack.start();
+                try
+                {
+                    // Extensions may consume or release the payload, so give them their own copy
+                    ByteBuffer payload = null;
+                    if (frame.getPayload() != null)
+                    {
+                        payload = ByteBuffer.allocate(frame.getPayload().remaining());
+                        BufferUtil.put(frame.getPayload().slice(),payload);
+                        BufferUtil.flipToFlush(payload,0);
+                    }
+                    stack.outgoingFrame(new WebSocketFrame(frame).setPayload(payload));
+                }
+                finally
+                {
+                    stack.stop();
+                }
+            }
+
+            int length = 0;
+            for (ByteBuffer buffer : generated)
+            {
+                length += buffer.remaining();
+            }
+            ByteBuffer encoded = BufferUtil.allocateDirect(length);
+            BufferUtil.clearToFill(encoded);
+            for (ByteBuffer buffer : generated)
+            {
+                encoded.put(buffer);
+            }
+            BufferUtil.flipToFlush(encoded,0);
+            return encoded.asReadOnlyBuffer();
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to encode " + frame + " for " + extensions,e);
+            return null;
+        }
+        finally
+        {
+            for (ByteBuffer buffer : generated)
+            {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages broadcast
+     */
+    @ManagedAttribute("number of messages broadcast")
+    public long getBroadcastCount()
+    {
+        return broadcasts.get();
+    }
+
+    /**
+     * @return the number of sessions disconnected because of the {@link Overflow#DISCONNECT} policy
+     */
+    @ManagedAttribute("number of slow sessions disconnected")
+    public long getDisconnectedCount()
+    {
+        return disconnected.get();
+    }
+
+    /**
+     * @return the number of messages not sent to a session because of the {@link Overflow#DROP} policy (or because the send failed)
+     */
+    @ManagedAttribute("number of messages dropped for slow sessions")
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of frames that may be queued on a connection before the session is considered a slow receiver
+     */
+    @ManagedAttribute("maximum number of frames queued per session")
+    public int getMaxQueuedFrames()
+    {
+        return maxQueuedFrames;
+    }
+
+    /**
+     * @return the policy applied to slow receivers
+     */
+    @ManagedAttribute("policy for slow sessions")
+    public Overflow getOverflow()
+    {
+        return overflow;
+    }
+
+    private void overflow(WebSocketSession session, AbstractWebSocketConnection connection)
+    {
+        switch (overflow)
+        {
+            case DISCONNECT:
+                LOG.debug("Disconnecting slow {}",session);
+                disconnected.incrementAndGet();
+                connection.disconnect();
+                break;
+            default:
+                LOG.debug("Dropping message for slow {}",session);
+                dropped.incrementAndGet();
+                break;
+        }
+    }
+
+    private boolean send(WebSocketSession session, Frame frame)
+    {
+        try
+        {
+            session.getOutgoingHandler().outgoingFrame(new WebSocketFrame(frame));
+            return true;
+        }
+        catch (IOException e)
+        {
+            LOG.debug(e);
+            dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    public void setMaxQueuedFrames(int maxQueuedFrames)
+    {
+        this.maxQueuedFrames = maxQueuedFrames;
+    }
+
+    public void setOverflow(Overflow overflow)
+    {
+        this.overflow = overflow;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[maxQueuedFrames=%d,overflow=%s]",getClass().getSimpleName(),hashCode(),maxQueuedFrames,overflow);
+    }
+}
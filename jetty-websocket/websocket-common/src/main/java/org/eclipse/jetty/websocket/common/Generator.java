@@ -234,93 +234,7 @@ public class Generator
         if (frame.remaining() == frame.getPayloadLength())
         {
             // we need a framing header
-            assertFrameValid(frame);
-
-            /*
-             * start the generation process
-             */
-            byte b;
-
-            // Setup fin thru opcode
-            b = 0x00;
-            if (frame.isFin())
-            {
-                b |= 0x80; // 1000_0000
-            }
-            if (frame.isRsv1())
-            {
-                b |= 0x40; // 0100_0000
-            }
-            if (frame.isRsv2())
-            {
-                b |= 0x20; // 0010_0000
-            }
-            if (frame.isRsv3())
-            {
-                b |= 0x10;
-            }
-
-            // NOTE: using .getOpCode() here, not .getType().getOpCode() for testing reasons
-            byte opcode = frame.getOpCode();
-
-            if (frame.isContinuation())
-            {
-                // Continuations are not the same OPCODE
-                opcode = OpCode.CONTINUATION;
-            }
-
-            b |= opcode & 0x0F;
-
-            buffer.put(b);
-
-            // is masked
-            b = 0x00;
-            b |= (frame.isMasked()?0x80:0x00);
-
-            // payload lengths
-            int payloadLength = frame.getPayloadLength();
-
-            /*
-             * if length is over 65535 then its a 7 + 64 bit length
-             */
-            if (payloadLength > 0xFF_FF)
-            {
-                // we have a 64 bit length
-                b |= 0x7F;
-                buffer.put(b); // indicate 8 byte length
-                buffer.put((byte)0); //
-                buffer.put((byte)0); // anything over an
-                buffer.put((byte)0); // int is just
-                buffer.put((byte)0); // intsane!
-                buffer.put((byte)((payloadLength >> 24) & 0xFF));
-                buffer.put((byte)((payloadLength >> 16) & 0xFF));
-                buffer.put((byte)((payloadLength >> 8) & 0xFF));
-                buffer.put((byte)(payloadLength & 0xFF));
-            }
-            /*
-             * if payload is ge 126 we have a 7 + 16 bit length
-             */
-            else if (payloadLength >= 0x7E)
-            {
-                b |= 0x7E;
-                buffer.put(b); // indicate 2 byte length
-                buffer.put((byte)(payloadLength >> 8));
-                buffer.put((byte)(payloadLength & 0xFF));
-            }
-            /*
-             * we have a 7 bit length
-             */
-            else
-            {
-                b |= (payloadLength & 0x7F);
-                buffer.put(b);
-            }
-
-            // masking key
-            if (frame.isMasked())
-            {
-                buffer.put(frame.getMask());
-            }
+            generateHeaderBytes(frame,buffer);
         }
 
         // copy payload
@@ -367,6 +281,105 @@ public class Generator
         return buffer;
     }
 
+    /**
+     * Generate the framing header of the frame (everything up to, but not including, the payload) into the buffer.
+     * 
+     * @param frame
+     *            the frame to generate the header for
+     * @param buffer
+     *            the buffer to put the header bytes into (in fill mode), must have at least {@link #OVERHEAD} bytes remaining
+     */
+    public void generateHeaderBytes(Frame frame, ByteBuffer buffer)
+    {
+        assertFrameValid(frame);
+
+        /*
+         * start the generation process
+         */
+        byte b;
+
+        // Setup fin thru opcode
+        b = 0x00;
+        if (frame.isFin())
+        {
+            b |= 0x80; // 1000_0000
+        }
+        if (frame.isRsv1())
+        {
+            b |= 0x40; // 0100_0000
+        }
+        if (frame.isRsv2())
+        {
+            b |= 0x20; // 0010_0000
+        }
+        if (frame.isRsv3())
+        {
+            b |= 0x10;
+        }
+
+        // NOTE: using .getOpCode() here, not .getType().getOpCode() for testing reasons
+        byte opcode = frame.getOpCode();
+
+        if (frame.isContinuation())
+        {
+            // Continuations are not the same OPCODE
+            opcode = OpCode.CONTINUATION;
+        }
+
+        b |= opcode & 0x0F;
+
+        buffer.put(b);
+
+        // is masked
+        b = 0x00;
+        b |= (frame.isMasked()?0x80:0x00);
+
+        // payload lengths
+        int payloadLength = frame.getPayloadLength();
+
+        /*
+         * if length is over 65535 then its a 7 + 64 bit length
+         */
+        if (payloadLength > 0xFF_FF)
+        {
+            // we have a 64 bit length
+            b |= 0x7F;
+            buffer.put(b); // indicate 8 byte length
+            buffer.put((byte)0); //
+            buffer.put((byte)0); // anything over an
+            buffer.put((byte)0); // int is just
+            buffer.put((byte)0); // intsane!
+            buffer.put((byte)((payloadLength >> 24) & 0xFF));
+            buffer.put((byte)((payloadLength >> 16) & 0xFF));
+            buffer.put((byte)((payloadLength >> 8) & 0xFF));
+            buffer.put((byte)(payloadLength & 0xFF));
+        }
+        /*
+         * if payload is ge 126 we have a 7 + 16 bit length
+         */
+        else if (payloadLength >= 0x7E)
+        {
+            b |= 0x7E;
+            buffer.put(b); // indicate 2 byte length
+            buffer.put((byte)(payloadLength >> 8));
+            buffer.put((byte)(payloadLength & 0xFF));
+        }
+        /*
+         * we have a 7 bit length
+         */
+        else
+        {
+            b |= (payloadLength & 0x7F);
+            buffer.put(b);
+        }
+
+        // masking key
+        if (frame.isMasked())
+        {
+            buffer.put(frame.getMask());
+        }
+    }
+
     public boolean isRsv1InUse()
     {
         return rsv1InUse;
@@ -20,6 +20,9 @@ package org.eclipse.jetty.websocket.common.events;
 
 import java.io.InputStream;
 import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
@@ -28,6 +31,12 @@ import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.websocket.api.WebSocketConnection;
 import org.eclipse.jetty.websocket.api.WebSocketException;
 
+/**
+ * A callback method on a websocket pojo.
+ * <p>
+ * The method is invoked through a {@link MethodHandle}, adapted once (when the {@link EventMethods} of the pojo class are discovered) to take and return
+ * {@link Object}s, so that the fixed arity <code>call()</code> methods dispatch events without allocating an argument array.
+ */
 public class EventMethod
 {
     private static final Logger LOG = Log.getLogger(EventMethod.class);
@@ -48,6 +57,8 @@ public class EventMethod
     private boolean hasConnection = false;
     private boolean isStreaming = false;
     private Class<?>[] paramTypes;
+    /** (Object pojo, Object... params)void, fixed arity */
+    private MethodHandle handle;
 
     public EventMethod(Class<?> pojo, Method method)
     {
@@ -55,6 +66,7 @@ public class EventMethod
         this.paramTypes = method.getParameterTypes();
         this.method = method;
         identifyPresentParamTypes();
+        this.handle = newHandle(method);
     }
 
     public EventMethod(Class<?> pojo, String methodName, Class<?>... paramTypes)
@@ -65,6 +77,7 @@ public class EventMethod
             this.paramTypes = paramTypes;
             this.method = pojo.getMethod(methodName,paramTypes);
             identifyPresentParamTypes();
+            this.handle = newHandle(method);
         }
         catch (NoSuchMethodException | SecurityException e)
         {
@@ -97,17 +110,177 @@ public class EventMethod
                     + paramTypes.length + "]");
         }
 
+        if (handle == null)
+        {
+            try
+            {
+                this.method.invoke(obj,args);
+            }
+            catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+            {
+                String err = String.format("Cannot call method %s on %s with args: %s",method,pojo,args);
+                throw new WebSocketException(err,e);
+            }
+            return;
+        }
+
+        switch (args.length)
+        {
+            case 0:
+                call(obj);
+                break;
+            case 1:
+                call(obj,args[0]);
+                break;
+            case 2:
+                call(obj,args[0],args[1]);
+                break;
+            case 3:
+                call(obj,args[0],args[1],args[2]);
+                break;
+            case 4:
+                call(obj,args[0],args[1],args[2],args[3]);
+                break;
+            default:
+                Object params[] = new Object[args.length + 1];
+                params[0] = obj;
+                System.arraycopy(args,0,params,1,args.length);
+                try
+                {
+                    handle.invokeWithArguments(params);
+                }
+                catch (Throwable t)
+                {
+                    throw failure(t,args);
+                }
+                break;
+        }
+    }
+
+    public void call(Object obj)
+    {
+        if (!isCallable(obj,0))
+        {
+            call(obj,new Object[0]);
+            return;
+        }
+
+        try
+        {
+            handle.invokeExact(obj);
+        }
+        catch (Throwable t)
+        {
+            throw failure(t);
+        }
+    }
+
+    public void call(Object obj, Object a1)
+    {
+        if (!isCallable(obj,1))
+        {
+            call(obj,new Object[] { a1 });
+            return;
+        }
+
+        try
+        {
+            if (paramTypes.length == 1)
+            {
+                handle.invokeExact(obj,a1);
+            }
+            else
+            {
+                handle.invokeExact(obj);
+            }
+        }
+        catch (Throwable t)
+        {
+            throw failure(t,a1);
+        }
+    }
+
+    public void call(Object obj, Object a1, Object a2)
+    {
+        if (!isCallable(obj,2))
+        {
+            call(obj,new Object[] { a1, a2 });
+            return;
+        }
+
+        try
+        {
+            if (paramTypes.length == 2)
+            {
+                handle.invokeExact(obj,a1,a2);
+            }
+            else
+            {
+                handle.invokeExact(obj,a2);
+            }
+        }
+        catch (Throwable t)
+        {
+            throw failure(t,a1,a2);
+        }
+    }
+
+    public void call(Object obj, Object a1, Object a2, Object a3)
+    {
+        if (!isCallable(obj,3))
+        {
+            call(obj,new Object[] { a1, a2, a3 });
+            return;
+        }
+
         try
         {
-            this.method.invoke(obj,args);
+            if (paramTypes.length == 3)
+            {
+                handle.invokeExact(obj,a1,a2,a3);
+            }
+            else
+            {
+                handle.invokeExact(obj,a2,a3);
+            }
         }
-        catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e)
+        catch (Throwable t)
         {
-            String err = String.format("Cannot call method %s on %s with args: %s",method,pojo,args);
-            throw new WebSocketException(err,e);
+            throw failure(t,a1,a2,a3);
         }
     }
 
+    public void call(Object obj, Object a1, Object a2, Object a3, Object a4)
+    {
+        if (!isCallable(obj,4))
+        {
+            call(obj,new Object[] { a1, a2, a3, a4 });
+            return;
+        }
+
+        try
+        {
+            if (paramTypes.length == 4)
+            {
+                handle.invokeExact(obj,a1,a2,a3,a4);
+            }
+            else
+            {
+                handle.invokeExact(obj,a2,a3,a4);
+            }
+        }
+        catch (Throwable t)
+        {
+            throw failure(t,a1,a2,a3,a4);
+        }
+    }
+
+    private WebSocketException failure(Throwable cause, Object... args)
+    {
+        String err = String.format("Cannot call method %s on %s with args: %s",method,pojo,args);
+        return new WebSocketException(err,cause);
+    }
+
     protected Method getMethod()
     {
         return method;
@@ -141,6 +314,20 @@ public class EventMethod
         }
     }
 
+    /**
+     * Whether the fast path (the {@link MethodHandle}, with either all the arguments, or all but the first (the connection)) can be used for a call with this
+     * number of arguments. Otherwise the call goes through {@link #call(Object, Object...)}, which reports the problem.
+     */
+    private boolean isCallable(Object obj, int argCount)
+    {
+        if ((handle == null) || (obj == null))
+        {
+            return false;
+        }
+        int paramCount = paramTypes.length;
+        return (argCount == paramCount) || (argCount == (paramCount + 1));
+    }
+
     public boolean isHasConnection()
     {
         return hasConnection;
@@ -150,4 +337,28 @@ public class EventMethod
     {
         return isStreaming;
     }
+
+    private MethodHandle newHandle(Method method)
+    {
+        if (method == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            if (!method.isAccessible())
+            {
+                method.setAccessible(true);
+            }
+            MethodHandle target = MethodHandles.lookup().unreflect(method);
+            MethodType type = MethodType.genericMethodType(paramTypes.length + 1).changeReturnType(void.class);
+            return target.asType(type);
+        }
+        catch (IllegalAccessException | SecurityException e)
+        {
+            LOG.debug("Using reflection for {}: {}",method,e.getMessage());
+            return null;
+        }
+    }
 }
\ No newline at end of file
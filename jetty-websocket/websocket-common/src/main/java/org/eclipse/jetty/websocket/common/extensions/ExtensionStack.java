@@ -214,11 +214,15 @@ public class ExtensionStack extends ContainerLifeCycle implements IncomingFrames
         for (ExtensionConfig config : configs)
         {
             Extension ext = factory.newInstance(config);
+            if (ext == null)
+            {
+                LOG.debug("Unsupported Extension: {}",config);
+                continue;
+            }
             extensions.add(ext);
+            addBean(ext);
             LOG.debug("Adding Extension: {}",ext);
         }
-
-        addBean(extensions);
     }
 
     @Override
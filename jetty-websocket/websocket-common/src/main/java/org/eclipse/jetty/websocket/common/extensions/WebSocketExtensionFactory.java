@@ -25,8 +25,10 @@ import org.eclipse.jetty.websocket.api.WebSocketPolicy;
 import org.eclipse.jetty.websocket.api.extensions.Extension;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
+import org.eclipse.jetty.websocket.common.extensions.compress.DeflaterPool;
 import org.eclipse.jetty.websocket.common.extensions.compress.FrameCompressionExtension;
 import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtension;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtension;
 import org.eclipse.jetty.websocket.common.extensions.fragment.FragmentExtension;
 import org.eclipse.jetty.websocket.common.extensions.identity.IdentityExtension;
 
@@ -34,6 +36,7 @@ public class WebSocketExtensionFactory extends ExtensionFactory
 {
     private WebSocketPolicy policy;
     private ByteBufferPool bufferPool;
+    private final DeflaterPool deflaterPool = new DeflaterPool();
 
     public WebSocketExtensionFactory(WebSocketPolicy policy, ByteBufferPool bufferPool)
     {
@@ -45,6 +48,16 @@ public class WebSocketExtensionFactory extends ExtensionFactory
         register("fragment",FragmentExtension.class);
         register("x-webkit-deflate-frame",FrameCompressionExtension.class);
         register("permessage-compress",MessageCompressionExtension.class);
+        register("permessage-deflate",PerMessageDeflateExtension.class);
+    }
+
+    /**
+     * @return the pool of Deflaters and Inflaters shared by the permessage-deflate extensions created by this factory, whose compression level follows
+     *         {@link WebSocketPolicy#getCompressionLevel()}
+     */
+    public DeflaterPool getDeflaterPool()
+    {
+        return deflaterPool;
     }
 
     @Override
@@ -73,9 +86,19 @@ public class WebSocketExtensionFactory extends ExtensionFactory
             if (ext instanceof AbstractExtension)
             {
                 AbstractExtension aext = (AbstractExtension)ext;
-                aext.setConfig(config);
                 aext.setPolicy(policy);
                 aext.setBufferPool(bufferPool);
+                if (aext instanceof PerMessageDeflateExtension)
+                {
+                    // The policy may have been configured after this factory was created
+                    if (deflaterPool.getCompressionLevel() != policy.getCompressionLevel())
+                    {
+                        deflaterPool.setCompressionLevel(policy.getCompressionLevel());
+                    }
+                    ((PerMessageDeflateExtension)aext).setDeflaterPool(deflaterPool);
+                }
+                // config last, extensions negotiate their parameters against the policy
+                aext.setConfig(config);
             }
             return ext;
         }
@@ -0,0 +1,186 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of raw (nowrap) {@link Deflater}s and {@link Inflater}s, shared by the sessions of a
+ * {@link org.eclipse.jetty.websocket.common.extensions.WebSocketExtensionFactory}.
+ * <p>
+ * When context takeover is disabled, a {@link PerMessageDeflateExtension} only borrows a Deflater (or Inflater) for the duration of a message, so an idle
+ * connection holds no compression state at all. Instances beyond the capacity of the pool are {@link Deflater#end() ended} on release.
+ */
+public class DeflaterPool
+{
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger deflatersSize = new AtomicInteger();
+    private final AtomicInteger inflatersSize = new AtomicInteger();
+    private int capacity = 256;
+    private int compressionLevel = Deflater.BEST_SPEED;
+    private boolean contextTakeover = false;
+
+    public Deflater acquireDeflater()
+    {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null)
+        {
+            return new Deflater(compressionLevel,true);
+        }
+        deflatersSize.decrementAndGet();
+        return deflater;
+    }
+
+    public Inflater acquireInflater()
+    {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null)
+        {
+            return new Inflater(true);
+        }
+        inflatersSize.decrementAndGet();
+        return inflater;
+    }
+
+    /**
+     * {@link Deflater#end() End} all the idle Deflaters and Inflaters, releasing their native memory.
+     */
+    public void clear()
+    {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null)
+        {
+            deflatersSize.decrementAndGet();
+            deflater.end();
+        }
+        Inflater inflater;
+        while ((inflater = inflaters.poll()) != null)
+        {
+            inflatersSize.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the maximum number of idle Deflaters (and of idle Inflaters) kept by the pool
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return the compression level of new Deflaters, defaults to {@link Deflater#BEST_SPEED}
+     */
+    public int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * @return the number of idle Deflaters in the pool
+     */
+    public int getIdleDeflaters()
+    {
+        return deflatersSize.get();
+    }
+
+    /**
+     * @return the number of idle Inflaters in the pool
+     */
+    public int getIdleInflaters()
+    {
+        return inflatersSize.get();
+    }
+
+    /**
+     * @return whether sessions may keep their compression context from one message to the next (better compression, but a Deflater and an Inflater held
+     *         per connection), defaults to false
+     */
+    public boolean isContextTakeover()
+    {
+        return contextTakeover;
+    }
+
+    public void release(Deflater deflater)
+    {
+        deflater.reset();
+        if (deflatersSize.incrementAndGet() <= capacity)
+        {
+            deflaters.offer(deflater);
+        }
+        else
+        {
+            deflatersSize.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    public void release(Inflater inflater)
+    {
+        inflater.reset();
+        if (inflatersSize.incrementAndGet() <= capacity)
+        {
+            inflaters.offer(inflater);
+        }
+        else
+        {
+            inflatersSize.decrementAndGet();
+            inflater.end();
+        }
+    }
+
+    public void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    public void setCompressionLevel(int compressionLevel)
+    {
+        if ((compressionLevel < Deflater.DEFAULT_COMPRESSION) || (compressionLevel > Deflater.BEST_COMPRESSION))
+        {
+            throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+        // Pooled instances were created for the previous level
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null)
+        {
+            deflatersSize.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    public void setContextTakeover(boolean contextTakeover)
+    {
+        this.contextTakeover = contextTakeover;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[level=%d,contextTakeover=%b,deflaters=%d,inflaters=%d]",getClass().getSimpleName(),hashCode(),compressionLevel,
+                contextTakeover,deflatersSize.get(),inflatersSize.get());
+    }
+}
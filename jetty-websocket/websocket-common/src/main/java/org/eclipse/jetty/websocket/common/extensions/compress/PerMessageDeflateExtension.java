@@ -0,0 +1,416 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.BadPayloadException;
+import org.eclipse.jetty.websocket.api.MessageTooLargeException;
+import org.eclipse.jetty.websocket.api.WebSocketBehavior;
+import org.eclipse.jetty.websocket.api.WriteResult;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.extensions.AbstractExtension;
+
+/**
+ * Per Message Deflate extension for WebSocket.
+ * <p>
+ * Follows <a href="https://tools.ietf.org/html/rfc7692">RFC 7692</a>. Deflaters and Inflaters are borrowed from a shared {@link DeflaterPool}; unless
+ * context takeover has been negotiated they are returned to the pool at the end of every message.
+ * <p>
+ * A <code>server_max_window_bits</code> lower than 15 cannot be honoured with {@link Deflater}, so such an offer is accepted with outgoing messages left
+ * uncompressed.
+ */
+public class PerMessageDeflateExtension extends AbstractExtension
+{
+    private static final Logger LOG = Log.getLogger(PerMessageDeflateExtension.class);
+
+    public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    public static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    public static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    public static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    private static final byte[] TAIL = new byte[]
+    { 0x00, 0x00, (byte)0xFF, (byte)0xFF };
+    private static final int MAX_WINDOW_BITS = 15;
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private DeflaterPool deflaterPool;
+    private boolean compressOutgoing = true;
+    private boolean outgoingContextTakeover;
+    private boolean incomingContextTakeover;
+    private Deflater deflater;
+    private Inflater inflater;
+    private boolean outgoingContinuation;
+    private boolean incomingCompressed;
+    private byte incomingOpCode;
+    private int incomingMessageSize;
+    private int incomingMaxWindowBits = MAX_WINDOW_BITS;
+
+    public DeflaterPool getDeflaterPool()
+    {
+        return deflaterPool;
+    }
+
+    @Override
+    public void incomingFrame(Frame frame)
+    {
+        if (frame.getType().isControl())
+        {
+            nextIncomingFrame(frame);
+            return;
+        }
+
+        if (!frame.isContinuation())
+        {
+            incomingCompressed = frame.isRsv1();
+            incomingOpCode = frame.getType().getOpCode();
+            incomingMessageSize = 0;
+        }
+
+        if (!incomingCompressed)
+        {
+            nextIncomingFrame(frame);
+            return;
+        }
+
+        ByteBuffer data = frame.getPayload();
+        ByteBuffer uncompressed;
+        try
+        {
+            if (inflater == null)
+            {
+                inflater = deflaterPool.acquireInflater();
+            }
+            uncompressed = inflate(data,frame.isFin(),getMaxIncomingSize());
+        }
+        catch (DataFormatException e)
+        {
+            throw new BadPayloadException(e);
+        }
+        finally
+        {
+            // release original buffer (no longer needed)
+            if (data != null)
+            {
+                getBufferPool().release(data);
+            }
+        }
+
+        incomingMessageSize += uncompressed.remaining();
+
+        if (frame.isFin())
+        {
+            incomingCompressed = false;
+            if (!incomingContextTakeover || inflater.finished())
+            {
+                deflaterPool.release(inflater);
+                inflater = null;
+            }
+        }
+
+        WebSocketFrame out = new WebSocketFrame(frame).setPayload(uncompressed);
+        out.setRsv1(false); // Unset RSV1 on decompressed frame
+        nextIncomingFrame(out);
+    }
+
+    /**
+     * @return the number of bytes the rest of the incoming message may inflate to, or -1 if unlimited
+     */
+    private int getMaxIncomingSize()
+    {
+        int max = incomingOpCode == OpCode.TEXT?getPolicy().getMaxTextMessageSize():getPolicy().getMaxBinaryMessageSize();
+        return max > 0?Math.max(0,max - incomingMessageSize):-1;
+    }
+
+    private ByteBuffer inflate(ByteBuffer data, boolean fin, int maxSize) throws DataFormatException
+    {
+        int length = data == null?0:data.remaining();
+        int size = Math.max(MIN_BUFFER_SIZE,length * 4);
+        ByteBuffer output = ByteBuffer.allocate(maxSize < 0?size:Math.min(size,maxSize + 1));
+        if (length > 0)
+        {
+            if (data.hasArray())
+            {
+                output = inflate(data.array(),data.arrayOffset() + data.position(),length,output,maxSize);
+            }
+            else
+            {
+                byte[] input = new byte[length];
+                data.slice().get(input);
+                output = inflate(input,0,length,output,maxSize);
+            }
+        }
+        if (fin)
+        {
+            output = inflate(TAIL,0,TAIL.length,output,maxSize);
+        }
+        output.flip();
+        return output;
+    }
+
+    private ByteBuffer inflate(byte[] input, int offset, int length, ByteBuffer output, int maxSize) throws DataFormatException
+    {
+        inflater.setInput(input,offset,length);
+        while (true)
+        {
+            if (!output.hasRemaining())
+            {
+                int capacity = output.capacity() * 2;
+                if (maxSize >= 0)
+                {
+                    // Never grow beyond one byte more than allowed, enough to detect an oversized message
+                    capacity = Math.min(capacity,maxSize + 1);
+                }
+                output = ByteBuffer.wrap(Arrays.copyOf(output.array(),capacity),output.position(),capacity - output.position());
+            }
+            int len = inflater.inflate(output.array(),output.position(),output.remaining());
+            output.position(output.position() + len);
+            if ((maxSize >= 0) && (output.position() > maxSize))
+            {
+                throw new MessageTooLargeException("Inflated " + (incomingOpCode == OpCode.TEXT?"text":"binary") + " message size exceeds maximum size ["
+                        + (incomingMessageSize + maxSize) + "]");
+            }
+            if (len == 0)
+            {
+                if (inflater.needsDictionary())
+                {
+                    throw new DataFormatException("Preset dictionary not supported");
+                }
+                return output;
+            }
+        }
+    }
+
+    /**
+     * Indicates use of RSV1 flag for indicating deflation is in use.
+     */
+    @Override
+    public boolean isRsv1User()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isTextDataDecoder()
+    {
+        // this extension is responsible for text data frames
+        return true;
+    }
+
+    @Override
+    public synchronized Future<WriteResult> outgoingFrame(Frame frame) throws IOException
+    {
+        if (frame.getType().isControl() || !compressOutgoing)
+        {
+            // skip, cannot compress control frames.
+            return nextOutgoingFrame(frame);
+        }
+
+        if (deflater == null)
+        {
+            deflater = deflaterPool.acquireDeflater();
+        }
+        ByteBuffer compressed = deflate(frame.getPayload(),frame.isFin());
+
+        WebSocketFrame out = new WebSocketFrame(frame).setPayload(compressed);
+        // RSV1 only marks the first frame of a message
+        out.setRsv1(!outgoingContinuation);
+        outgoingContinuation = !frame.isFin();
+
+        if (frame.isFin() && !outgoingContextTakeover)
+        {
+            deflaterPool.release(deflater);
+            deflater = null;
+        }
+
+        return nextOutgoingFrame(out);
+    }
+
+    private ByteBuffer deflate(ByteBuffer data, boolean fin)
+    {
+        int length = data == null?0:data.remaining();
+        if (length == 0)
+        {
+            deflater.setInput(TAIL,0,0);
+        }
+        else if (data.hasArray())
+        {
+            deflater.setInput(data.array(),data.arrayOffset() + data.position(),length);
+        }
+        else
+        {
+            byte[] input = new byte[length];
+            data.slice().get(input);
+            deflater.setInput(input,0,length);
+        }
+
+        byte[] output = new byte[Math.max(MIN_BUFFER_SIZE,length + (length >> 4) + TAIL.length + 1)];
+        int written = 0;
+        while (true)
+        {
+            written += deflater.deflate(output,written,output.length - written,Deflater.SYNC_FLUSH);
+            if (written < output.length)
+            {
+                break;
+            }
+            output = Arrays.copyOf(output,output.length * 2);
+        }
+
+        if (fin)
+        {
+            // The trailing empty block is implied at the end of a message
+            if (endsWithTail(output,written))
+            {
+                written -= TAIL.length;
+            }
+            if (written == 0)
+            {
+                output[written++] = 0x00;
+            }
+        }
+        return ByteBuffer.wrap(output,0,written);
+    }
+
+    private boolean endsWithTail(byte[] output, int written)
+    {
+        if (written < TAIL.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < TAIL.length; i++)
+        {
+            if (output[(written - TAIL.length) + i] != TAIL[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setConfig(ExtensionConfig config)
+    {
+        if (deflaterPool == null)
+        {
+            deflaterPool = new DeflaterPool();
+        }
+
+        if ((getPolicy() == null) || (getPolicy().getBehavior() == WebSocketBehavior.SERVER))
+        {
+            // Build the accepted response from the client offer
+            ExtensionConfig accepted = new ExtensionConfig(config.getName());
+            boolean serverNoContextTakeover = !deflaterPool.isContextTakeover() || config.getParameterKeys().contains(SERVER_NO_CONTEXT_TAKEOVER);
+            boolean clientNoContextTakeover = !deflaterPool.isContextTakeover() || config.getParameterKeys().contains(CLIENT_NO_CONTEXT_TAKEOVER);
+            if (serverNoContextTakeover)
+            {
+                accepted.setParameter(SERVER_NO_CONTEXT_TAKEOVER,null);
+            }
+            if (clientNoContextTakeover)
+            {
+                accepted.setParameter(CLIENT_NO_CONTEXT_TAKEOVER,null);
+            }
+            int serverMaxWindowBits = config.getParameter(SERVER_MAX_WINDOW_BITS,MAX_WINDOW_BITS);
+            if (serverMaxWindowBits < MAX_WINDOW_BITS)
+            {
+                accepted.setParameter(SERVER_MAX_WINDOW_BITS,serverMaxWindowBits);
+                compressOutgoing = false;
+            }
+            // The Inflater always has a full window, so it can inflate any client window size;
+            // a size hinted by the client is confirmed so that both ends agree on it
+            incomingMaxWindowBits = MAX_WINDOW_BITS;
+            if (config.getParameterKeys().contains(CLIENT_MAX_WINDOW_BITS))
+            {
+                incomingMaxWindowBits = config.getParameter(CLIENT_MAX_WINDOW_BITS,MAX_WINDOW_BITS);
+                accepted.setParameter(CLIENT_MAX_WINDOW_BITS,incomingMaxWindowBits);
+            }
+            config.init(accepted);
+
+            outgoingContextTakeover = !serverNoContextTakeover;
+            incomingContextTakeover = !clientNoContextTakeover;
+        }
+        else
+        {
+            // Follow the server response
+            outgoingContextTakeover = !config.getParameterKeys().contains(CLIENT_NO_CONTEXT_TAKEOVER);
+            incomingContextTakeover = !config.getParameterKeys().contains(SERVER_NO_CONTEXT_TAKEOVER);
+            compressOutgoing = config.getParameter(CLIENT_MAX_WINDOW_BITS,MAX_WINDOW_BITS) >= MAX_WINDOW_BITS;
+            incomingMaxWindowBits = config.getParameter(SERVER_MAX_WINDOW_BITS,MAX_WINDOW_BITS);
+        }
+
+        LOG.debug("Negotiated {} (compressOutgoing={})",config,compressOutgoing);
+        super.setConfig(config);
+    }
+
+    public void setDeflaterPool(DeflaterPool deflaterPool)
+    {
+        this.deflaterPool = deflaterPool;
+    }
+
+    /**
+     * @return the window size, in bits, that the other end compresses incoming messages with
+     */
+    public int getIncomingMaxWindowBits()
+    {
+        return incomingMaxWindowBits;
+    }
+
+    /**
+     * @return true if the outgoing compression context is kept from one message to the next
+     */
+    public boolean isOutgoingContextTakeover()
+    {
+        return compressOutgoing && outgoingContextTakeover;
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this)
+        {
+            if (deflater != null)
+            {
+                deflaterPool.release(deflater);
+                deflater = null;
+            }
+        }
+        if (inflater != null)
+        {
+            deflaterPool.release(inflater);
+            inflater = null;
+        }
+        super.doStop();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%s,deflater=%s,inflater=%s]",this.getClass().getSimpleName(),getConfig(),deflater,inflater);
+    }
+}
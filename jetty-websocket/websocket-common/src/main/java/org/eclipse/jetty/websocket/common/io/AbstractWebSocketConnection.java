@@ -21,6 +21,7 @@ package org.eclipse.jetty.websocket.common.io;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.InterruptedByTimeoutException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
@@ -32,7 +33,9 @@ import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
 import org.eclipse.jetty.util.thread.Scheduler;
@@ -66,11 +69,13 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     private final Parser parser;
     private final WebSocketPolicy policy;
     private final FrameQueue queue;
+    private final WriteDeadline writeDeadline;
+    private final AtomicBoolean flushing;
     private final AtomicBoolean suspendToken;
     private WebSocketSession session;
     private List<ExtensionConfig> extensions;
-    private boolean flushing;
     private boolean isFilling;
+    private int maxGatheredFrames = 16;
     private ConnectionState connectionState;
     private final AtomicBoolean inputClosed;
     private final AtomicBoolean outputClosed;
@@ -85,6 +90,8 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         this.scheduler = scheduler;
         this.extensions = new ArrayList<>();
         this.queue = new FrameQueue();
+        this.writeDeadline = new WriteDeadline();
+        this.flushing = new AtomicBoolean(false);
         this.suspendToken = new AtomicBoolean(false);
         this.connectionState = ConnectionState.CONNECTING;
 
@@ -122,16 +129,14 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         enqueClose(statusCode,reason);
     }
 
-    public <C> void complete(FrameBytes frameBytes)
+    public void complete(Callback frameBytes)
     {
-        synchronized (queue)
+        if (LOG.isDebugEnabled())
         {
-            if (LOG.isDebugEnabled())
-            {
-                LOG.debug("Completed Write of {} ({} frame(s) in queue)",frameBytes,queue.size());
-            }
-            flushing = false;
+            LOG.debug("Completed Write of {} ({} frame(s) in queue)",frameBytes,queue.size());
         }
+        writeDeadline.end();
+        flushing.set(false);
     }
 
     @Override
@@ -181,49 +186,129 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
 
     public void flush()
     {
-        FrameBytes frameBytes = null;
-        ByteBuffer buffer = null;
-        synchronized (queue)
+        while (true)
         {
-
-            LOG.debug(".flush() - flushing={} - queue.size = {}",flushing,queue.size());
-            if (flushing || queue.isEmpty())
+            // Only one thread writes at a time, the others just enqueue.
+            // The writing thread will pick up their frames when its write completes.
+            if (!flushing.compareAndSet(false,true))
             {
                 return;
             }
 
-            frameBytes = queue.pop();
+            LOG.debug(".flush() - queue.size = {}",queue.size());
+
+            FrameBytes frameBytes = queue.pop();
+
+            if (frameBytes == null)
+            {
+                flushing.set(false);
+                // A producer may have enqueued after the pop, but before the flag
+                // was released, and then failed to acquire it: check again.
+                if (queue.isEmpty())
+                {
+                    return;
+                }
+                continue;
+            }
 
             if (!isOpen())
             {
-                // No longer have an open connection, drop the frame.
-                queue.clear();
+                // No longer have an open connection, fail the frame and the ones still queued.
+                failQueued(frameBytes,new EofException("Connection closed"));
+                flushing.set(false);
                 return;
             }
 
             LOG.debug("Next FrameBytes: {}",frameBytes);
 
-            buffer = frameBytes.getByteBuffer();
+            if ((maxGatheredFrames > 1) && frameBytes.isGatherable())
+            {
+                List<FrameBytes> frames = gather(frameBytes);
+                if (frames.size() > 1)
+                {
+                    GatheredFrameBytes gathered = new GatheredFrameBytes(this,frames);
+                    ByteBuffer[] buffers = gathered.getByteBuffers();
+
+                    if (buffers == null)
+                    {
+                        // All the frames have failed header generation
+                        flushing.set(false);
+                        continue;
+                    }
+
+                    if (LOG.isDebugEnabled())
+                    {
+                        LOG.debug("Flushing {}, {} frame(s) in queue",gathered,queue.size());
+                    }
+
+                    if (connectionState == ConnectionState.CLOSED)
+                    {
+                        // Closed while gathering: fail the batch, the next round fails the rest of the queue
+                        gathered.failed(new EofException("Connection closed"));
+                        flushing.set(false);
+                        continue;
+                    }
+
+                    writeDeadline.begin(gathered);
+                    write(gathered,buffers);
+                    return;
+                }
+            }
+
+            ByteBuffer buffer = frameBytes.getByteBuffer();
 
             if (buffer == null)
             {
-                return;
+                // Frame generation failed, the frame has already been failed.
+                flushing.set(false);
+                continue;
             }
 
-            flushing = true;
-
             if (LOG.isDebugEnabled())
             {
                 LOG.debug("Flushing {}, {} frame(s) in queue",frameBytes,queue.size());
             }
 
-            if (connectionState != ConnectionState.CLOSED)
+            if (connectionState == ConnectionState.CLOSED)
             {
-                write(buffer,frameBytes);
+                frameBytes.failed(new EofException("Connection closed"));
+                flushing.set(false);
+                continue;
             }
+
+            writeDeadline.begin(frameBytes);
+            write(frameBytes,buffer);
+            return;
         }
     }
 
+    /**
+     * Take, from the queue, the frames that can be written together with the given one.
+     * <p>
+     * Stops at the first frame that is not {@link FrameBytes#isGatherable() gatherable}, which is put back at the head of the queue, or when
+     * {@link #getMaxGatheredFrames()} is reached.
+     */
+    private List<FrameBytes> gather(FrameBytes first)
+    {
+        List<FrameBytes> frames = new ArrayList<>();
+        frames.add(first);
+        while (frames.size() < maxGatheredFrames)
+        {
+            FrameBytes next = queue.pop();
+            if (next == null)
+            {
+                break;
+            }
+            if (!next.isGatherable())
+            {
+                queue.prepend(next);
+                break;
+            }
+            frames.add(next);
+        }
+        return frames;
+    }
+
     public ByteBufferPool getBufferPool()
     {
         return bufferPool;
@@ -246,6 +331,16 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return generator;
     }
 
+    /**
+     * Get the maximum number of queued frames written together with a single gathering write.
+     * 
+     * @return the maximum number of frames per write (1 disables gathering)
+     */
+    public int getMaxGatheredFrames()
+    {
+        return maxGatheredFrames;
+    }
+
     public Parser getParser()
     {
         return parser;
@@ -314,6 +409,19 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
     {
         super.onClose();
         this.connectionState = ConnectionState.CLOSED;
+        // Stop the session and its extensions, releasing any compression state they hold
+        WebSocketSession session = this.session;
+        if (session != null)
+        {
+            try
+            {
+                session.stop();
+            }
+            catch (Exception e)
+            {
+                LOG.ignore(e);
+            }
+        }
     }
 
     @Override
@@ -399,36 +507,55 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
             LOG.debug("outgoingFrame({})",frame);
         }
 
-        Future<WriteResult> future = null;
+        FrameBytes bytes = null;
 
-        synchronized (queue)
+        if (frame.getType().isControl())
+        {
+            bytes = new ControlFrameBytes(this,frame);
+        }
+        else
         {
-            FrameBytes bytes = null;
+            bytes = new DataFrameBytes(this,frame);
+        }
 
-            if (frame.getType().isControl())
+        Future<WriteResult> future = new WriteResultFuture(bytes);
+
+        if (isOpen())
+        {
+            if (frame.getType().getOpCode() == OpCode.PING)
             {
-                bytes = new ControlFrameBytes(this,frame);
+                queue.prioritize(bytes);
             }
             else
             {
-                bytes = new DataFrameBytes(this,frame);
+                queue.append(bytes);
             }
+        }
 
-            future = new WriteResultFuture(bytes);
+        flush();
 
-            scheduleTimeout(bytes);
+        return future;
+    }
 
-            if (isOpen())
-            {
-                if (frame.getType().getOpCode() == OpCode.PING)
-                {
-                    queue.prepend(bytes);
-                }
-                else
-                {
-                    queue.append(bytes);
-                }
-            }
+    /**
+     * Enqueue a frame whose network bytes have already been generated.
+     * <p>
+     * The encoded buffer is not modified, so the same buffer can be written by many connections at once.
+     * 
+     * @param frame
+     *            the frame the bytes were generated from
+     * @param encoded
+     *            the complete network bytes of the frame (header and payload, after extensions)
+     * @return the future for the write of the frame
+     */
+    public Future<WriteResult> outgoingEncodedFrame(Frame frame, ByteBuffer encoded)
+    {
+        FrameBytes bytes = new EncodedFrameBytes(this,frame,encoded);
+        Future<WriteResult> future = new WriteResultFuture(bytes);
+
+        if (isOpen())
+        {
+            queue.append(bytes);
         }
 
         flush();
@@ -486,14 +613,6 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         }
     }
 
-    private void scheduleTimeout(FrameBytes bytes)
-    {
-        if (policy.getIdleTimeout() > 0)
-        {
-            bytes.task = scheduler.schedule(bytes,policy.getIdleTimeout(),TimeUnit.MILLISECONDS);
-        }
-    }
-
     /**
      * Get the list of extensions in use.
      * <p>
@@ -507,6 +626,17 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         this.extensions = extensions;
     }
 
+    /**
+     * Set the maximum number of queued frames written together with a single gathering write.
+     * 
+     * @param maxGatheredFrames
+     *            the maximum number of frames per write (1 disables gathering)
+     */
+    public void setMaxGatheredFrames(int maxGatheredFrames)
+    {
+        this.maxGatheredFrames = maxGatheredFrames;
+    }
+
     @Override
     public void setSession(WebSocketSession session)
     {
@@ -526,28 +656,108 @@ public abstract class AbstractWebSocketConnection extends AbstractConnection imp
         return String.format("%s{g=%s,p=%s}",super.toString(),generator,parser);
     }
 
-    private <C> void write(ByteBuffer buffer, FrameBytes frameBytes)
+    private void write(Callback callback, ByteBuffer... buffers)
     {
         EndPoint endpoint = getEndPoint();
 
         if (LOG_FRAMES.isDebugEnabled())
         {
-            LOG_FRAMES.debug("{} Writing {} frame bytes of {}",policy.getBehavior(),buffer.remaining(),frameBytes);
+            LOG_FRAMES.debug("{} Writing {} of {}",policy.getBehavior(),BufferUtil.toDetailString(buffers),callback);
         }
 
         if (connectionState == ConnectionState.CLOSED)
         {
             // connection is closed, STOP WRITING, geez.
+            callback.failed(new EofException("Connection closed"));
             return;
         }
 
         try
         {
-            endpoint.write(frameBytes,buffer);
+            endpoint.write(callback,buffers);
         }
         catch (Throwable t)
         {
-            frameBytes.failed(t);
+            callback.failed(t);
+        }
+    }
+
+    private void writeTimedOut(Callback frameBytes)
+    {
+        LOG.debug("Write Timeout of {}, disconnecting",frameBytes);
+        failQueued(frameBytes,new InterruptedByTimeoutException());
+        disconnect();
+    }
+
+    /**
+     * Fail the given write and all the frames still in the queue, so that no caller waits forever on a frame that will never be written.
+     */
+    private void failQueued(Callback frameBytes, Throwable failure)
+    {
+        frameBytes.failed(failure);
+        FrameBytes queued;
+        while ((queued = queue.pop()) != null)
+        {
+            queued.failed(failure);
+        }
+    }
+
+    /**
+     * Per-connection write deadline.
+     * <p>
+     * Rather than scheduling a timeout task for every outgoing frame, a single task is kept per connection. Starting a new write only moves the deadline
+     * forward; when the task fires before the deadline it reschedules itself for the remaining time, and when no write is in progress it simply lapses until
+     * the next write begins.
+     */
+    private class WriteDeadline implements Runnable
+    {
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile Callback active;
+        private volatile long expiresAt;
+
+        public void begin(Callback frameBytes)
+        {
+            long timeout = policy.getIdleTimeout();
+            if (timeout <= 0)
+            {
+                return;
+            }
+            expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            active = frameBytes;
+            if (scheduled.compareAndSet(false,true))
+            {
+                scheduler.schedule(this,timeout,TimeUnit.MILLISECONDS);
+            }
+        }
+
+        public void end()
+        {
+            active = null;
+        }
+
+        @Override
+        public void run()
+        {
+            Callback frameBytes = active;
+            if (frameBytes == null)
+            {
+                scheduled.set(false);
+                // A write may have begun after the read of active, but before the flag was released
+                if ((active == null) || !scheduled.compareAndSet(false,true))
+                {
+                    return;
+                }
+            }
+
+            long remaining = expiresAt - System.nanoTime();
+            if ((frameBytes == null) || (remaining > 0))
+            {
+                scheduler.schedule(this,Math.max(remaining,1),TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            scheduled.set(false);
+            writeTimedOut(frameBytes);
         }
     }
 }
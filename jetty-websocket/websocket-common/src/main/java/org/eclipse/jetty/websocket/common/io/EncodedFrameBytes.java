@@ -0,0 +1,60 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+
+/**
+ * A frame whose network bytes have already been generated (and possibly shared with other connections, see
+ * {@link org.eclipse.jetty.websocket.common.Broadcaster}).
+ * <p>
+ * The encoded buffer is never modified, each instance writes from its own view of it.
+ */
+public class EncodedFrameBytes extends FrameBytes
+{
+    private final ByteBuffer buffer;
+
+    public EncodedFrameBytes(AbstractWebSocketConnection connection, Frame frame, ByteBuffer encoded)
+    {
+        super(connection,frame);
+        this.buffer = encoded.duplicate();
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer()
+    {
+        return buffer;
+    }
+
+    @Override
+    public boolean isGatherable()
+    {
+        // the header is part of the encoded bytes
+        return false;
+    }
+
+    @Override
+    public void succeeded()
+    {
+        super.succeeded();
+        connection.flush();
+    }
+}
@@ -19,22 +19,19 @@
 package org.eclipse.jetty.websocket.common.io;
 
 import java.nio.ByteBuffer;
-import java.nio.channels.InterruptedByTimeoutException;
 
 import org.eclipse.jetty.io.EofException;
 import org.eclipse.jetty.util.FutureCallback;
 import org.eclipse.jetty.util.log.Log;
 import org.eclipse.jetty.util.log.Logger;
-import org.eclipse.jetty.util.thread.Scheduler;
 import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.OpCode;
 
-public abstract class FrameBytes extends FutureCallback implements Runnable
+public abstract class FrameBytes extends FutureCallback
 {
     private final static Logger LOG = Log.getLogger(FrameBytes.class);
     protected final AbstractWebSocketConnection connection;
     protected final Frame frame;
-    // Task used to timeout the bytes
-    protected volatile Scheduler.Task task;
 
     protected FrameBytes(AbstractWebSocketConnection connection, Frame frame)
     {
@@ -42,15 +39,6 @@ public abstract class FrameBytes extends FutureCallback implements Runnable
         this.frame = frame;
     }
 
-    private void cancelTask()
-    {
-        Scheduler.Task task = this.task;
-        if (task != null)
-        {
-            task.cancel();
-        }
-    }
-
     @Override
     public void failed(Throwable x)
     {
@@ -64,17 +52,25 @@ public abstract class FrameBytes extends FutureCallback implements Runnable
         {
             LOG.warn("failed()",x);
         }
-        cancelTask();
+    }
+
+    /**
+     * Complete this frame after it was written as part of a {@link GatheredFrameBytes}, which completes the write on the connection for the whole batch.
+     */
+    public void gatheredSucceeded()
+    {
+        super.succeeded();
     }
 
     public abstract ByteBuffer getByteBuffer();
 
-    @Override
-    public void run()
+    /**
+     * @return true if this frame can be written as part of a {@link GatheredFrameBytes}: it is unmasked (so the payload can be written without copying), not
+     *         partially written yet and not a CLOSE frame (which needs the close handshake on completion)
+     */
+    public boolean isGatherable()
     {
-        // If this occurs we had a timeout!
-        connection.close();
-        failed(new InterruptedByTimeoutException());
+        return !frame.isMasked() && (frame.getType().getOpCode() != OpCode.CLOSE) && (frame.remaining() == frame.getPayloadLength());
     }
 
     @Override
@@ -85,7 +81,6 @@ public abstract class FrameBytes extends FutureCallback implements Runnable
         {
             LOG.debug("completed() - {}",this.getClass().getName());
         }
-        cancelTask();
         connection.complete(this);
     }
 
@@ -18,18 +18,92 @@
 
 package org.eclipse.jetty.websocket.common.io;
 
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
-@SuppressWarnings("serial")
-public class FrameQueue extends LinkedList<FrameBytes>
+/**
+ * Lock-free, multi-producer queue of outgoing {@link FrameBytes}.
+ * <p>
+ * Frames are taken in the following order:
+ * <ol>
+ * <li>frames that were {@link #prepend(FrameBytes) prepended} (the unfinished remainder of a partially written frame, which must not be interleaved)</li>
+ * <li>frames that were {@link #prioritize(FrameBytes) prioritized} (PING frames)</li>
+ * <li>frames that were {@link #append(FrameBytes) appended}, in FIFO order</li>
+ * </ol>
+ */
+public class FrameQueue
 {
+    private final ConcurrentLinkedDeque<FrameBytes> resumed = new ConcurrentLinkedDeque<>();
+    private final ConcurrentLinkedQueue<FrameBytes> priority = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<FrameBytes> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
     public void append(FrameBytes bytes)
     {
-        addLast(bytes);
+        frames.offer(bytes);
+        size.incrementAndGet();
+    }
+
+    public void clear()
+    {
+        while (pop() != null)
+        {
+            // drain
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return resumed.isEmpty() && priority.isEmpty() && frames.isEmpty();
+    }
+
+    /**
+     * Take the next frame to write.
+     * 
+     * @return the next frame, or null if the queue is empty
+     */
+    public FrameBytes pop()
+    {
+        FrameBytes bytes = resumed.pollFirst();
+        if (bytes == null)
+        {
+            bytes = priority.poll();
+            if (bytes == null)
+            {
+                bytes = frames.poll();
+            }
+        }
+        if (bytes != null)
+        {
+            size.decrementAndGet();
+        }
+        return bytes;
     }
 
     public void prepend(FrameBytes bytes)
     {
-        addFirst(bytes);
+        resumed.offerFirst(bytes);
+        size.incrementAndGet();
+    }
+
+    public void prioritize(FrameBytes bytes)
+    {
+        priority.offer(bytes);
+        size.incrementAndGet();
+    }
+
+    /**
+     * @return the approximate number of frames in the queue
+     */
+    public int size()
+    {
+        return size.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[size=%d]",getClass().getSimpleName(),hashCode(),size());
     }
 }
@@ -0,0 +1,165 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.log.Logger;
+import org.eclipse.jetty.websocket.api.extensions.Frame;
+import org.eclipse.jetty.websocket.common.Generator;
+
+/**
+ * A batch of queued {@link FrameBytes} written with a single gathering write.
+ * <p>
+ * The framing headers of all the frames are generated into one pooled buffer, and the payloads are written as-is (without copying), so the whole batch goes
+ * out with a single {@link org.eclipse.jetty.io.EndPoint#write(Callback, ByteBuffer...)}. The future of each frame is completed individually once the batch
+ * has been written.
+ * <p>
+ * Only frames for which {@link FrameBytes#isGatherable()} is true can be part of a batch.
+ */
+public class GatheredFrameBytes implements Callback
+{
+    private static final Logger LOG = Log.getLogger(GatheredFrameBytes.class);
+    private final AbstractWebSocketConnection connection;
+    private final List<FrameBytes> frames;
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+    private ByteBuffer headers;
+
+    public GatheredFrameBytes(AbstractWebSocketConnection connection, List<FrameBytes> frames)
+    {
+        this.connection = connection;
+        this.frames = frames;
+    }
+
+    @Override
+    public void failed(Throwable x)
+    {
+        // A write timeout may fail the batch before the endpoint fails the pending write
+        if (!completed.compareAndSet(false,true))
+        {
+            return;
+        }
+        releaseHeaders();
+        for (FrameBytes frameBytes : frames)
+        {
+            frameBytes.failed(x);
+        }
+    }
+
+    /**
+     * Generate the buffers to write for this batch.
+     * <p>
+     * Frames whose header cannot be generated are failed and removed from the batch.
+     * 
+     * @return the header and payload buffers of all the frames, in order, or null if no frame is left to write
+     */
+    public ByteBuffer[] getByteBuffers()
+    {
+        Generator generator = connection.getGenerator();
+        headers = connection.getBufferPool().acquire(frames.size() * Generator.OVERHEAD,true);
+        BufferUtil.clearToFill(headers);
+
+        List<ByteBuffer> buffers = new ArrayList<>(frames.size() * 2);
+        Iterator<FrameBytes> iter = frames.iterator();
+        while (iter.hasNext())
+        {
+            FrameBytes frameBytes = iter.next();
+            Frame frame = frameBytes.frame;
+            int start = headers.position();
+            try
+            {
+                generator.generateHeaderBytes(frame,headers);
+            }
+            catch (Throwable x)
+            {
+                headers.position(start);
+                iter.remove();
+                frameBytes.failed(x);
+                continue;
+            }
+
+            ByteBuffer header = headers.duplicate();
+            header.limit(headers.position());
+            header.position(start);
+            buffers.add(header);
+
+            if (frame.hasPayload())
+            {
+                // consumed by the write, so that frame.remaining() drops to 0
+                buffers.add(frame.getPayload());
+            }
+        }
+
+        if (frames.isEmpty())
+        {
+            releaseHeaders();
+            return null;
+        }
+
+        return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
+    private void releaseHeaders()
+    {
+        ByteBuffer buffer = headers;
+        headers = null;
+        if (buffer != null)
+        {
+            connection.getBufferPool().release(buffer);
+        }
+    }
+
+    public int size()
+    {
+        return frames.size();
+    }
+
+    @Override
+    public void succeeded()
+    {
+        if (!completed.compareAndSet(false,true))
+        {
+            return;
+        }
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("completed() - {} frame(s)",frames.size());
+        }
+        releaseHeaders();
+        connection.complete(this);
+        for (FrameBytes frameBytes : frames)
+        {
+            frameBytes.gatheredSucceeded();
+        }
+        connection.flush();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[%d frame(s)]",getClass().getSimpleName(),frames.size());
+    }
+}
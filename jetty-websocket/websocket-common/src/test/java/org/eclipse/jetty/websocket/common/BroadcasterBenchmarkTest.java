@@ -0,0 +1,88 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.io.ByteArrayWebSocketConnection;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class BroadcasterBenchmarkTest
+{
+    @Ignore
+    @Test
+    public void testBroadcastVersusSend() throws Exception
+    {
+        // Sending the same message to many sessions: encoding it once and
+        // sharing the bytes, versus going through the generator for each session.
+
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        ByteBufferPool bufferPool = new MappedByteBufferPool();
+        TimerScheduler scheduler = new TimerScheduler();
+        scheduler.start();
+
+        int count = 10_000;
+        int iterations = 200;
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; ++i)
+        {
+            ByteArrayWebSocketConnection connection = new ByteArrayWebSocketConnection(scheduler,policy,bufferPool);
+            WebSocketSession session = new WebSocketSession(new URI("ws://localhost/benchmark"),null,connection);
+            session.setPolicy(policy);
+            session.setActive(true);
+            sessions.add(session);
+        }
+        String message = "{\"channel\":\"/quotes\",\"data\":{\"symbol\":\"JETTY\",\"price\":1234.56}}";
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+        {
+            for (WebSocketSession session : sessions)
+            {
+                session.getOutgoingHandler().outgoingFrame(WebSocketFrame.text(message));
+                ((ByteArrayWebSocketConnection)session.getConnection()).getEndPoint().takeOutput();
+            }
+        }
+        long end = System.nanoTime();
+        System.err.printf("send time: %d%n",TimeUnit.NANOSECONDS.toMillis(end - begin));
+
+        Broadcaster broadcaster = new Broadcaster(bufferPool);
+        begin = System.nanoTime();
+        for (int i = 0; i < iterations; ++i)
+        {
+            broadcaster.broadcastString(message,sessions);
+            for (WebSocketSession session : sessions)
+            {
+                ((ByteArrayWebSocketConnection)session.getConnection()).getEndPoint().takeOutput();
+            }
+        }
+        end = System.nanoTime();
+        System.err.printf("broadcast time: %d%n",TimeUnit.NANOSECONDS.toMillis(end - begin));
+
+        scheduler.stop();
+    }
+}
@@ -0,0 +1,141 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common;
+
+import static org.hamcrest.Matchers.*;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.io.ByteArrayWebSocketConnection;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BroadcasterTest
+{
+    private WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+    private ByteBufferPool bufferPool = new MappedByteBufferPool();
+    private TimerScheduler scheduler;
+
+    @Before
+    public void init() throws Exception
+    {
+        scheduler = new TimerScheduler();
+        scheduler.start();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        scheduler.stop();
+    }
+
+    private List<WebSocketSession> newSessions(int count) throws Exception
+    {
+        List<WebSocketSession> sessions = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            ByteArrayWebSocketConnection connection = new ByteArrayWebSocketConnection(scheduler,policy,bufferPool);
+            WebSocketSession session = new WebSocketSession(new URI("ws://localhost/broadcast"),null,connection);
+            session.setPolicy(policy);
+            session.setActive(true);
+            sessions.add(session);
+        }
+        return sessions;
+    }
+
+    private ByteArrayWebSocketConnection connectionOf(WebSocketSession session)
+    {
+        return (ByteArrayWebSocketConnection)session.getConnection();
+    }
+
+    @Test
+    public void testBroadcastString() throws Exception
+    {
+        List<WebSocketSession> sessions = newSessions(10);
+        Broadcaster broadcaster = new Broadcaster(bufferPool);
+
+        int sent = broadcaster.broadcastString("Hello Everyone",sessions);
+
+        Assert.assertThat("sent",sent,is(10));
+        ByteBuffer expected = new Generator(policy,bufferPool).generate(WebSocketFrame.text("Hello Everyone"));
+        for (WebSocketSession session : sessions)
+        {
+            Assert.assertThat("output",connectionOf(session).getEndPoint().takeOutput(),is(expected));
+        }
+    }
+
+    @Test
+    public void testBroadcastBytesNotModified() throws Exception
+    {
+        List<WebSocketSession> sessions = newSessions(3);
+        Broadcaster broadcaster = new Broadcaster(bufferPool);
+        ByteBuffer data = ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5 });
+
+        broadcaster.broadcastBytes(data,sessions);
+
+        Assert.assertThat("data.remaining",data.remaining(),is(5));
+        for (WebSocketSession session : sessions)
+        {
+            Assert.assertThat("output.remaining",connectionOf(session).getEndPoint().takeOutput().remaining(),is(7));
+        }
+    }
+
+    @Test
+    public void testSlowReceiverDropped() throws Exception
+    {
+        List<WebSocketSession> sessions = newSessions(4);
+        Broadcaster broadcaster = new Broadcaster(bufferPool);
+        broadcaster.setMaxQueuedFrames(0);
+
+        int sent = broadcaster.broadcastString("Dropped",sessions);
+
+        Assert.assertThat("sent",sent,is(0));
+        Assert.assertThat("dropped",broadcaster.getDroppedCount(),is(4L));
+        for (WebSocketSession session : sessions)
+        {
+            Assert.assertThat("output.remaining",connectionOf(session).getEndPoint().takeOutput().remaining(),is(0));
+        }
+    }
+
+    @Test
+    public void testSlowReceiverDisconnected() throws Exception
+    {
+        List<WebSocketSession> sessions = newSessions(2);
+        Broadcaster broadcaster = new Broadcaster(bufferPool);
+        broadcaster.setMaxQueuedFrames(0);
+        broadcaster.setOverflow(Broadcaster.Overflow.DISCONNECT);
+
+        broadcaster.broadcastString("Disconnected",sessions);
+
+        Assert.assertThat("disconnected",broadcaster.getDisconnectedCount(),is(2L));
+        for (WebSocketSession session : sessions)
+        {
+            Assert.assertThat("open",connectionOf(session).isOpen(),is(false));
+        }
+    }
+}
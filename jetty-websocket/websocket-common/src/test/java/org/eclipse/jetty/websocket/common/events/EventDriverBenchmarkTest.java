@@ -0,0 +1,105 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.events;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.api.WebSocketAdapter;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class EventDriverBenchmarkTest
+{
+    @WebSocket
+    public static class CountingAnnotatedSocket
+    {
+        public long count;
+
+        @OnWebSocketMessage
+        public void onText(String message)
+        {
+            count++;
+        }
+    }
+
+    public static class CountingListenerSocket extends WebSocketAdapter
+    {
+        public long count;
+
+        @Override
+        public void onWebSocketText(String message)
+        {
+            count++;
+        }
+    }
+
+    @Ignore
+    @Test
+    public void testDispatchCost() throws Exception
+    {
+        // Per message dispatch cost of an annotated websocket (through EventMethod),
+        // compared to a WebSocketListener (a plain virtual call) and to Method.invoke().
+
+        int iterations = 50_000_000;
+        String message = "Hello World";
+        EventDriverFactory factory = new EventDriverFactory(WebSocketPolicy.newServerPolicy());
+
+        CountingListenerSocket listener = new CountingListenerSocket();
+        EventDriver listenerDriver = factory.wrap(listener);
+        CountingAnnotatedSocket annotated = new CountingAnnotatedSocket();
+        EventDriver annotatedDriver = factory.wrap(annotated);
+        CountingAnnotatedSocket reflected = new CountingAnnotatedSocket();
+        Method method = CountingAnnotatedSocket.class.getMethod("onText",String.class);
+
+        for (int run = 0; run < 3; ++run)
+        {
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+            {
+                listenerDriver.onTextMessage(message);
+            }
+            long end = System.nanoTime();
+            System.err.printf("listener time: %d%n",TimeUnit.NANOSECONDS.toMillis(end - begin));
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+            {
+                annotatedDriver.onTextMessage(message);
+            }
+            end = System.nanoTime();
+            System.err.printf("annotated time: %d%n",TimeUnit.NANOSECONDS.toMillis(end - begin));
+
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; ++i)
+            {
+                method.invoke(reflected,message);
+            }
+            end = System.nanoTime();
+            System.err.printf("reflection time: %d%n",TimeUnit.NANOSECONDS.toMillis(end - begin));
+        }
+
+        Assert.assertEquals(listener.count,annotated.count);
+        Assert.assertEquals(listener.count,reflected.count);
+    }
+}
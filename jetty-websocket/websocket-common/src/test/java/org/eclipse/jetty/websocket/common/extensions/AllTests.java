@@ -20,6 +20,7 @@ package org.eclipse.jetty.websocket.common.extensions;
 
 import org.eclipse.jetty.websocket.common.extensions.compress.DeflateCompressionMethodTest;
 import org.eclipse.jetty.websocket.common.extensions.compress.MessageCompressionExtensionTest;
+import org.eclipse.jetty.websocket.common.extensions.compress.PerMessageDeflateExtensionTest;
 import org.eclipse.jetty.websocket.common.extensions.compress.FrameCompressionExtensionTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -27,7 +28,7 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses(
         { ExtensionStackTest.class, DeflateCompressionMethodTest.class, MessageCompressionExtensionTest.class, FragmentExtensionTest.class,
-            IdentityExtensionTest.class, FrameCompressionExtensionTest.class })
+            IdentityExtensionTest.class, FrameCompressionExtensionTest.class, PerMessageDeflateExtensionTest.class })
 public class AllTests
 {
     /* nothing to do here, its all done in the annotations */
@@ -0,0 +1,412 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.extensions.compress;
+
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.websocket.api.MessageTooLargeException;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
+import org.eclipse.jetty.websocket.common.IncomingFramesCapture;
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.OutgoingFramesCapture;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.eclipse.jetty.websocket.common.extensions.WebSocketExtensionFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PerMessageDeflateExtensionTest
+{
+    private PerMessageDeflateExtension newExtension(WebSocketPolicy policy, DeflaterPool pool, String config)
+    {
+        PerMessageDeflateExtension ext = new PerMessageDeflateExtension();
+        ext.setBufferPool(new MappedByteBufferPool());
+        ext.setPolicy(policy);
+        ext.setDeflaterPool(pool);
+        ext.setConfig(ExtensionConfig.parse(config));
+        return ext;
+    }
+
+    private List<String> roundTrip(PerMessageDeflateExtension server, PerMessageDeflateExtension client, String... messages) throws IOException
+    {
+        OutgoingFramesCapture network = new OutgoingFramesCapture();
+        server.setNextOutgoingFrames(network);
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        client.setNextIncomingFrames(capture);
+
+        for (String message : messages)
+        {
+            server.outgoingFrame(WebSocketFrame.text(message));
+        }
+        for (WebSocketFrame frame : network.getFrames())
+        {
+            Assert.assertThat("frame.rsv1",frame.isRsv1(),is(true));
+            client.incomingFrame(frame);
+        }
+
+        List<String> actual = new ArrayList<>();
+        for (WebSocketFrame frame : capture.getFrames())
+        {
+            Assert.assertThat("frame.rsv1",frame.isRsv1(),is(false));
+            actual.add(BufferUtil.toUTF8String(frame.getPayload()));
+        }
+        return actual;
+    }
+
+    /**
+     * Decode payload example as seen in RFC 7692, section 7.2.3.1.
+     */
+    @Test
+    public void testIncomingHello()
+    {
+        PerMessageDeflateExtension ext = newExtension(WebSocketPolicy.newClientPolicy(),new DeflaterPool(),"permessage-deflate");
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        ext.setNextIncomingFrames(capture);
+
+        WebSocketFrame frame = WebSocketFrame.text();
+        frame.setRsv1(true);
+        frame.setPayload(TypeUtil.fromHexString("f248cdc9c90700"));
+        ext.incomingFrame(frame);
+
+        capture.assertFrameCount(1);
+        capture.assertHasFrame(OpCode.TEXT,1);
+        WebSocketFrame actual = capture.getFrames().pop();
+        Assert.assertThat("frame.rsv1",actual.isRsv1(),is(false));
+        Assert.assertThat("frame.payload",BufferUtil.toUTF8String(actual.getPayload()),is("Hello"));
+    }
+
+    /**
+     * Decode fragmented payload example as seen in RFC 7692, section 7.2.3.1.
+     */
+    @Test
+    public void testIncomingFragmentedHello()
+    {
+        PerMessageDeflateExtension ext = newExtension(WebSocketPolicy.newClientPolicy(),new DeflaterPool(),"permessage-deflate");
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        ext.setNextIncomingFrames(capture);
+
+        WebSocketFrame first = WebSocketFrame.text();
+        first.setRsv1(true);
+        first.setFin(false);
+        first.setPayload(TypeUtil.fromHexString("f248cd"));
+        ext.incomingFrame(first);
+
+        WebSocketFrame second = WebSocketFrame.text();
+        second.setContinuation(true);
+        second.setPayload(TypeUtil.fromHexString("c9c90700"));
+        ext.incomingFrame(second);
+
+        capture.assertFrameCount(2);
+        StringBuilder actual = new StringBuilder();
+        for (WebSocketFrame frame : capture.getFrames())
+        {
+            Assert.assertThat("frame.rsv1",frame.isRsv1(),is(false));
+            actual.append(BufferUtil.toUTF8String(frame.getPayload()));
+        }
+        Assert.assertThat("message",actual.toString(),is("Hello"));
+    }
+
+    @Test
+    public void testIncomingUncompressedMessage()
+    {
+        PerMessageDeflateExtension ext = newExtension(WebSocketPolicy.newClientPolicy(),new DeflaterPool(),"permessage-deflate");
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        ext.setNextIncomingFrames(capture);
+
+        ext.incomingFrame(WebSocketFrame.text("Hello"));
+
+        capture.assertFrameCount(1);
+        Assert.assertThat("frame.payload",BufferUtil.toUTF8String(capture.getFrames().pop().getPayload()),is("Hello"));
+    }
+
+    @Test
+    public void testNegotiateDefault()
+    {
+        ExtensionConfig config = ExtensionConfig.parse("permessage-deflate; client_max_window_bits");
+        PerMessageDeflateExtension ext = new PerMessageDeflateExtension();
+        ext.setPolicy(WebSocketPolicy.newServerPolicy());
+        ext.setDeflaterPool(new DeflaterPool());
+        ext.setConfig(config);
+
+        Assert.assertThat("parameters",config.getParameterKeys(),containsInAnyOrder("server_no_context_takeover","client_no_context_takeover","client_max_window_bits"));
+        Assert.assertThat("header",config.getParameterizedName(),not(containsString("takeover=")));
+        Assert.assertThat("header",config.getParameterizedName(),containsString("client_max_window_bits=15"));
+        Assert.assertThat("outgoing context takeover",ext.isOutgoingContextTakeover(),is(false));
+    }
+
+    @Test
+    public void testNegotiateClientMaxWindowBits()
+    {
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate; client_max_window_bits=10");
+        Assert.assertThat("client_max_window_bits",server.getConfig().getParameter("client_max_window_bits",15),is(10));
+        Assert.assertThat("incoming window bits",server.getIncomingMaxWindowBits(),is(10));
+
+        // The client follows the negotiated window
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+        Assert.assertThat("client incoming window bits",client.getIncomingMaxWindowBits(),is(15));
+    }
+
+    @Test
+    public void testNegotiateContextTakeover()
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.setContextTakeover(true);
+
+        ExtensionConfig config = ExtensionConfig.parse("permessage-deflate; client_no_context_takeover");
+        PerMessageDeflateExtension ext = new PerMessageDeflateExtension();
+        ext.setPolicy(WebSocketPolicy.newServerPolicy());
+        ext.setDeflaterPool(pool);
+        ext.setConfig(config);
+
+        Assert.assertThat("parameters",config.getParameterKeys(),contains("client_no_context_takeover"));
+        Assert.assertThat("outgoing context takeover",ext.isOutgoingContextTakeover(),is(true));
+    }
+
+    @Test
+    public void testNegotiateServerMaxWindowBits() throws IOException
+    {
+        ExtensionConfig config = ExtensionConfig.parse("permessage-deflate; server_max_window_bits=10");
+        PerMessageDeflateExtension ext = new PerMessageDeflateExtension();
+        ext.setPolicy(WebSocketPolicy.newServerPolicy());
+        ext.setDeflaterPool(new DeflaterPool());
+        ext.setConfig(config);
+
+        Assert.assertThat("server_max_window_bits",config.getParameter("server_max_window_bits",15),is(10));
+
+        // Outgoing messages are sent uncompressed
+        OutgoingFramesCapture capture = new OutgoingFramesCapture();
+        ext.setNextOutgoingFrames(capture);
+        ext.outgoingFrame(WebSocketFrame.text("Hello"));
+        WebSocketFrame actual = capture.getFrames().pop();
+        Assert.assertThat("frame.rsv1",actual.isRsv1(),is(false));
+        Assert.assertThat("frame.payload",BufferUtil.toUTF8String(actual.getPayload()),is("Hello"));
+    }
+
+    @Test
+    public void testRoundTripNoContextTakeover() throws IOException
+    {
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        List<String> actual = roundTrip(server,client,"Hello","Hello","","Hello World");
+        Assert.assertThat("messages",actual,contains("Hello","Hello","","Hello World"));
+
+        // Nothing is held between messages
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(1));
+        Assert.assertThat("idle inflaters",pool.getIdleInflaters(),is(1));
+    }
+
+    @Test
+    public void testRoundTripContextTakeover() throws IOException
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.setContextTakeover(true);
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        OutgoingFramesCapture network = new OutgoingFramesCapture();
+        server.setNextOutgoingFrames(network);
+        String message = "The quick brown fox jumps over the lazy dog";
+        server.outgoingFrame(WebSocketFrame.text(message));
+        server.outgoingFrame(WebSocketFrame.text(message));
+        // The second message refers back to the first one
+        Assert.assertThat("second frame",network.getFrames().get(1).getPayloadLength(),lessThan(network.getFrames().get(0).getPayloadLength()));
+
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        client.setNextIncomingFrames(capture);
+        for (WebSocketFrame frame : network.getFrames())
+        {
+            client.incomingFrame(frame);
+        }
+        capture.assertFrameCount(2);
+        for (WebSocketFrame frame : capture.getFrames())
+        {
+            Assert.assertThat("frame.payload",BufferUtil.toUTF8String(frame.getPayload()),is(message));
+        }
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(0));
+    }
+
+    @Test
+    public void testRoundTripFragmented() throws IOException
+    {
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        OutgoingFramesCapture network = new OutgoingFramesCapture();
+        server.setNextOutgoingFrames(network);
+        WebSocketFrame first = WebSocketFrame.text("Hello ");
+        first.setFin(false);
+        server.outgoingFrame(first);
+        WebSocketFrame second = WebSocketFrame.text("World");
+        second.setContinuation(true);
+        server.outgoingFrame(second);
+
+        Assert.assertThat("first.rsv1",network.getFrames().get(0).isRsv1(),is(true));
+        Assert.assertThat("second.rsv1",network.getFrames().get(1).isRsv1(),is(false));
+
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        client.setNextIncomingFrames(capture);
+        for (WebSocketFrame frame : network.getFrames())
+        {
+            client.incomingFrame(frame);
+        }
+        StringBuilder actual = new StringBuilder();
+        for (WebSocketFrame frame : capture.getFrames())
+        {
+            actual.append(BufferUtil.toUTF8String(frame.getPayload()));
+        }
+        Assert.assertThat("message",actual.toString(),is("Hello World"));
+    }
+
+    @Test
+    public void testLargeMessage() throws IOException
+    {
+        StringBuilder message = new StringBuilder();
+        for (int i = 0; i < 3000; i++)
+        {
+            message.append(Integer.toHexString(i * 31));
+        }
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        List<String> actual = roundTrip(server,client,message.toString());
+        Assert.assertThat("message",actual.get(0),is(message.toString()));
+    }
+
+    @Test
+    public void testIncomingMessageTooLarge() throws IOException
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        policy.setMaxBinaryMessageSize(1024);
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(policy,pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        // A small compressed frame that inflates beyond the policy limit
+        OutgoingFramesCapture network = new OutgoingFramesCapture();
+        client.setNextOutgoingFrames(network);
+        client.outgoingFrame(WebSocketFrame.binary(new byte[policy.getMaxBinaryMessageSize() + 1]));
+        server.setNextIncomingFrames(new IncomingFramesCapture());
+        try
+        {
+            server.incomingFrame(network.getFrames().pop());
+            Assert.fail("Expected MessageTooLargeException");
+        }
+        catch (MessageTooLargeException e)
+        {
+            Assert.assertThat(e.getMessage(),containsString("exceeds maximum size"));
+        }
+    }
+
+    @Test
+    public void testIncomingDecompressionBomb() throws IOException
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        policy.setMaxBinaryMessageSize(64 * 1024);
+        DeflaterPool pool = new DeflaterPool();
+        PerMessageDeflateExtension server = newExtension(policy,pool,"permessage-deflate");
+        PerMessageDeflateExtension client = newExtension(WebSocketPolicy.newClientPolicy(),pool,server.getConfig().getParameterizedName());
+
+        // 64MB of zeros compress to a frame of a few hundred KB
+        OutgoingFramesCapture network = new OutgoingFramesCapture();
+        client.setNextOutgoingFrames(network);
+        client.outgoingFrame(WebSocketFrame.binary(new byte[64 * 1024 * 1024]));
+        WebSocketFrame frame = network.getFrames().pop();
+        Assert.assertThat("compressed",frame.getPayloadLength(),lessThan(1024 * 1024));
+
+        IncomingFramesCapture capture = new IncomingFramesCapture();
+        server.setNextIncomingFrames(capture);
+        try
+        {
+            server.incomingFrame(frame);
+            Assert.fail("Expected MessageTooLargeException");
+        }
+        catch (MessageTooLargeException e)
+        {
+            Assert.assertThat(e.getMessage(),containsString("exceeds maximum size"));
+        }
+        capture.assertFrameCount(0);
+    }
+
+    @Test
+    public void testPoolClear()
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.release(pool.acquireDeflater());
+        pool.release(pool.acquireInflater());
+        pool.clear();
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(0));
+        Assert.assertThat("idle inflaters",pool.getIdleInflaters(),is(0));
+    }
+
+    @Test
+    public void testStopReleasesToPool() throws Exception
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.setContextTakeover(true);
+        PerMessageDeflateExtension server = newExtension(WebSocketPolicy.newServerPolicy(),pool,"permessage-deflate");
+        server.start();
+        server.setNextOutgoingFrames(new OutgoingFramesCapture());
+        server.outgoingFrame(WebSocketFrame.text("Hello"));
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(0));
+        server.stop();
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(1));
+    }
+
+    @Test
+    public void testPoolCapacity()
+    {
+        DeflaterPool pool = new DeflaterPool();
+        pool.setCapacity(1);
+        pool.release(pool.acquireDeflater());
+        pool.release(new Deflater(Deflater.BEST_SPEED,true));
+        Assert.assertThat("idle deflaters",pool.getIdleDeflaters(),is(1));
+    }
+
+    @Test
+    public void testPolicyCompressionLevel()
+    {
+        WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+        WebSocketExtensionFactory factory = new WebSocketExtensionFactory(policy,new MappedByteBufferPool());
+        Assert.assertThat("default level",factory.getDeflaterPool().getCompressionLevel(),is(Deflater.BEST_SPEED));
+
+        policy.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        PerMessageDeflateExtension ext = (PerMessageDeflateExtension)factory.newInstance(ExtensionConfig.parse("permessage-deflate"));
+        Assert.assertThat("extension pool",ext.getDeflaterPool(),sameInstance(factory.getDeflaterPool()));
+        Assert.assertThat("policy level",factory.getDeflaterPool().getCompressionLevel(),is(Deflater.BEST_COMPRESSION));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPolicyInvalidCompressionLevel()
+    {
+        WebSocketPolicy.newServerPolicy().setCompressionLevel(10);
+    }
+}
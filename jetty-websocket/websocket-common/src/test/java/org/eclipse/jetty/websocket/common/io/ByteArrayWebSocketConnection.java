@@ -0,0 +1,72 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.IncomingFrames;
+
+/**
+ * An {@link AbstractWebSocketConnection} writing to a growable {@link ByteArrayEndPoint}, with writes completing immediately.
+ */
+public class ByteArrayWebSocketConnection extends AbstractWebSocketConnection
+{
+    private static final Executor EXECUTOR = new Executor()
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    public ByteArrayWebSocketConnection(Scheduler scheduler, WebSocketPolicy policy, ByteBufferPool bufferPool)
+    {
+        super(newEndPoint(),EXECUTOR,scheduler,policy,bufferPool);
+    }
+
+    private static ByteArrayEndPoint newEndPoint()
+    {
+        ByteArrayEndPoint endPoint = new ByteArrayEndPoint(new byte[0],4096);
+        endPoint.setGrowOutput(true);
+        return endPoint;
+    }
+
+    @Override
+    public ByteArrayEndPoint getEndPoint()
+    {
+        return (ByteArrayEndPoint)super.getEndPoint();
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress()
+    {
+        return getEndPoint().getLocalAddress();
+    }
+
+    @Override
+    public void setNextIncomingFrames(IncomingFrames incoming)
+    {
+    }
+}
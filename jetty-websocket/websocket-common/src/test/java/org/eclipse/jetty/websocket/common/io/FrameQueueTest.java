@@ -0,0 +1,123 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.websocket.common.OpCode;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameQueueTest
+{
+    private static class TestFrameBytes extends FrameBytes
+    {
+        public TestFrameBytes(byte opcode)
+        {
+            super(null,new WebSocketFrame(opcode));
+        }
+
+        @Override
+        public ByteBuffer getByteBuffer()
+        {
+            return null;
+        }
+    }
+
+    @Test
+    public void testFifoOrder()
+    {
+        FrameQueue queue = new FrameQueue();
+        FrameBytes first = new TestFrameBytes(OpCode.TEXT);
+        FrameBytes second = new TestFrameBytes(OpCode.TEXT);
+        queue.append(first);
+        queue.append(second);
+
+        Assert.assertThat("size",queue.size(),is(2));
+        Assert.assertThat(queue.pop(),sameInstance(first));
+        Assert.assertThat(queue.pop(),sameInstance(second));
+        Assert.assertThat(queue.pop(),nullValue());
+        Assert.assertThat("isEmpty",queue.isEmpty(),is(true));
+    }
+
+    @Test
+    public void testPingPriority()
+    {
+        FrameQueue queue = new FrameQueue();
+        FrameBytes text = new TestFrameBytes(OpCode.TEXT);
+        FrameBytes ping = new TestFrameBytes(OpCode.PING);
+        queue.append(text);
+        queue.prioritize(ping);
+
+        Assert.assertThat(queue.pop(),sameInstance(ping));
+        Assert.assertThat(queue.pop(),sameInstance(text));
+    }
+
+    @Test
+    public void testResumedFrameBeforePing()
+    {
+        FrameQueue queue = new FrameQueue();
+        FrameBytes partial = new TestFrameBytes(OpCode.BINARY);
+        FrameBytes ping = new TestFrameBytes(OpCode.PING);
+        queue.prioritize(ping);
+        // remainder of a partially written frame must not be interleaved
+        queue.prepend(partial);
+
+        Assert.assertThat(queue.pop(),sameInstance(partial));
+        Assert.assertThat(queue.pop(),sameInstance(ping));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception
+    {
+        final FrameQueue queue = new FrameQueue();
+        final int producers = 8;
+        final int frames = 1000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++)
+        {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < frames; i++)
+                    {
+                        queue.append(new TestFrameBytes(OpCode.TEXT));
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        Assert.assertTrue(latch.await(10,TimeUnit.SECONDS));
+
+        int count = 0;
+        while (queue.pop() != null)
+        {
+            count++;
+        }
+        Assert.assertThat("frames",count,is(producers * frames));
+        Assert.assertThat("size",queue.size(),is(0));
+    }
+}
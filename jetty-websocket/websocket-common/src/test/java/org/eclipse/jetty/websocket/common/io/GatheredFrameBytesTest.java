@@ -0,0 +1,168 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.Generator;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GatheredFrameBytesTest
+{
+    private WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+    private ByteBufferPool bufferPool = new MappedByteBufferPool();
+    private TimerScheduler scheduler;
+    private ByteArrayEndPoint endPoint;
+    private ByteArrayWebSocketConnection connection;
+
+    @Before
+    public void init() throws Exception
+    {
+        scheduler = new TimerScheduler();
+        scheduler.start();
+        connection = new ByteArrayWebSocketConnection(scheduler,policy,bufferPool);
+        endPoint = connection.getEndPoint();
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        scheduler.stop();
+    }
+
+    private ByteBuffer expected(List<WebSocketFrame> frames)
+    {
+        Generator generator = new Generator(policy,bufferPool);
+        ByteBuffer expected = ByteBuffer.allocate(4096);
+        for (WebSocketFrame frame : frames)
+        {
+            WebSocketFrame copy = WebSocketFrame.text(frame.getPayloadAsUTF8());
+            expected.put(generator.generate(copy));
+        }
+        BufferUtil.flipToFlush(expected,0);
+        return expected;
+    }
+
+    @Test
+    public void testGatheredWrite() throws Exception
+    {
+        List<WebSocketFrame> frames = new ArrayList<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            WebSocketFrame frame = WebSocketFrame.text("Hello " + i);
+            frames.add(frame);
+            DataFrameBytes bytes = new DataFrameBytes(connection,frame);
+            futures.add(bytes);
+            connection.getQueue().append(bytes);
+        }
+        ByteBuffer expected = expected(frames);
+
+        connection.flush();
+
+        for (Future<Void> future : futures)
+        {
+            Assert.assertThat("frame completed",future.isDone(),is(true));
+            future.get(1,TimeUnit.SECONDS);
+        }
+        Assert.assertThat("queue.size",connection.getQueue().size(),is(0));
+        Assert.assertThat("output",endPoint.takeOutput(),is(expected));
+    }
+
+    @Test
+    public void testGatherLimit() throws Exception
+    {
+        connection.setMaxGatheredFrames(2);
+        List<WebSocketFrame> frames = new ArrayList<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            WebSocketFrame frame = WebSocketFrame.text("Hi " + i);
+            frames.add(frame);
+            DataFrameBytes bytes = new DataFrameBytes(connection,frame);
+            futures.add(bytes);
+            connection.getQueue().append(bytes);
+        }
+        ByteBuffer expected = expected(frames);
+
+        connection.flush();
+
+        for (Future<Void> future : futures)
+        {
+            Assert.assertThat("frame completed",future.isDone(),is(true));
+        }
+        Assert.assertThat("output",endPoint.takeOutput(),is(expected));
+    }
+
+    @Test
+    public void testFailedTwiceReleasesHeadersOnce() throws Exception
+    {
+        final AtomicInteger released = new AtomicInteger();
+        ByteBufferPool countingPool = new MappedByteBufferPool()
+        {
+            @Override
+            public void release(ByteBuffer buffer)
+            {
+                released.incrementAndGet();
+                super.release(buffer);
+            }
+        };
+        ByteArrayWebSocketConnection conn = new ByteArrayWebSocketConnection(scheduler,policy,countingPool);
+
+        List<FrameBytes> frames = new ArrayList<>();
+        DataFrameBytes bytes = new DataFrameBytes(conn,WebSocketFrame.text("Hello"));
+        frames.add(bytes);
+        GatheredFrameBytes gathered = new GatheredFrameBytes(conn,frames);
+        Assert.assertThat("buffers",gathered.getByteBuffers(),notNullValue());
+
+        // as by a write timeout, then by the endpoint failing the pending write
+        gathered.failed(new Exception("timeout"));
+        gathered.failed(new Exception("write"));
+        gathered.succeeded();
+
+        Assert.assertThat("released",released.get(),is(1));
+        try
+        {
+            bytes.get(1,TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException x)
+        {
+            Assert.assertThat(x.getCause().getMessage(),is("timeout"));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+//
+//  ========================================================================
+//  Copyright (c) 1995-2012 Mort Bay Consulting Pty. Ltd.
+//  ------------------------------------------------------------------------
+//  All rights reserved. This program and the accompanying materials
+//  are made available under the terms of the Eclipse Public License v1.0
+//  and Apache License v2.0 which accompanies this distribution.
+//
+//      The Eclipse Public License is available at
+//      http://www.eclipse.org/legal/epl-v10.html
+//
+//      The Apache License v2.0 is available at
+//      http://www.opensource.org/licenses/apache2.0.php
+//
+//  You may elect to redistribute this code under either of these licenses.
+//  ========================================================================
+//
+
+package org.eclipse.jetty.websocket.common.io;
+
+import static org.hamcrest.Matchers.*;
+
+import java.nio.channels.InterruptedByTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.ByteArrayEndPoint;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.thread.TimerScheduler;
+import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.common.WebSocketFrame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteTimeoutTest
+{
+    private static final int TIMEOUT = 500;
+
+    private WebSocketPolicy policy = WebSocketPolicy.newServerPolicy();
+    private ByteBufferPool bufferPool = new MappedByteBufferPool();
+    private TimerScheduler scheduler;
+    private ByteArrayEndPoint endPoint;
+    private ByteArrayWebSocketConnection connection;
+
+    @Before
+    public void init() throws Exception
+    {
+        scheduler = new TimerScheduler();
+        scheduler.start();
+        policy.setIdleTimeout(TIMEOUT);
+        connection = new ByteArrayWebSocketConnection(scheduler,policy,bufferPool);
+        connection.setMaxGatheredFrames(1);
+        // A small output that is never drained, so that larger frames never complete their write
+        endPoint = connection.getEndPoint();
+        endPoint.setGrowOutput(false);
+        endPoint.setOutput(BufferUtil.allocate(1024));
+    }
+
+    @After
+    public void destroy() throws Exception
+    {
+        scheduler.stop();
+    }
+
+    private Future<Void> enqueue(int size)
+    {
+        DataFrameBytes bytes = new DataFrameBytes(connection,WebSocketFrame.binary(new byte[size]));
+        connection.getQueue().append(bytes);
+        return bytes;
+    }
+
+    private void assertFailed(Future<Void> future, Class<? extends Throwable> cause) throws Exception
+    {
+        try
+        {
+            future.get(TIMEOUT * 4,TimeUnit.MILLISECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException x)
+        {
+            Assert.assertThat(x.getCause(),instanceOf(cause));
+        }
+    }
+
+    private void assertClosed() throws Exception
+    {
+        // The frames are failed just before the connection is disconnected
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (endPoint.isOpen() && (System.nanoTime() < end))
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertThat("endPoint closed",endPoint.isOpen(),is(false));
+    }
+
+    @Test
+    public void testStalledWriteTimesOut() throws Exception
+    {
+        Future<Void> stalled = enqueue(1500);
+        Future<Void> queued = enqueue(10);
+        connection.flush();
+
+        Assert.assertThat("stalled write pending",stalled.isDone(),is(false));
+
+        assertFailed(stalled,InterruptedByTimeoutException.class);
+        assertFailed(queued,InterruptedByTimeoutException.class);
+        assertClosed();
+    }
+
+    @Test
+    public void testWriteProgressPostponesTimeout() throws Exception
+    {
+        Future<Void> first = enqueue(1500);
+        Future<Void> second = enqueue(1500);
+        connection.flush();
+
+        Thread.sleep(TIMEOUT * 3 / 5);
+        // Drain the output: the first frame completes and the second one begins, and stalls
+        endPoint.takeOutput();
+        first.get(1,TimeUnit.SECONDS);
+        Assert.assertThat("second write pending",second.isDone(),is(false));
+
+        // Past the deadline of the first write, but not of the second
+        Thread.sleep(TIMEOUT * 3 / 5);
+        Assert.assertThat("second write pending",second.isDone(),is(false));
+        Assert.assertThat("endPoint open",endPoint.isOpen(),is(true));
+
+        assertFailed(second,InterruptedByTimeoutException.class);
+        assertClosed();
+    }
+
+    @Test
+    public void testIdleConnectionDoesNotTimeOut() throws Exception
+    {
+        Future<Void> small = enqueue(10);
+        connection.flush();
+        small.get(1,TimeUnit.SECONDS);
+
+        Thread.sleep(TIMEOUT * 2);
+        Assert.assertThat("endPoint open",endPoint.isOpen(),is(true));
+
+        // The deadline is still tracked for the next write
+        Future<Void> stalled = enqueue(1500);
+        connection.flush();
+        assertFailed(stalled,InterruptedByTimeoutException.class);
+    }
+
+    @Test
+    public void testClosedConnectionFailsQueuedFrames() throws Exception
+    {
+        connection.disconnect();
+
+        Future<Void> first = enqueue(10);
+        Future<Void> second = enqueue(10);
+        connection.flush();
+
+        assertFailed(first,EofException.class);
+        assertFailed(second,EofException.class);
+        Assert.assertThat("queue.size",connection.getQueue().size(),is(0));
+    }
+}
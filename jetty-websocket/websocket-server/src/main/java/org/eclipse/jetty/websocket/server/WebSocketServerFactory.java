@@ -45,6 +45,8 @@ import org.eclipse.jetty.websocket.api.UpgradeRequest;
 import org.eclipse.jetty.websocket.api.UpgradeResponse;
 import org.eclipse.jetty.websocket.api.WebSocketException;
 import org.eclipse.jetty.websocket.api.WebSocketPolicy;
+import org.eclipse.jetty.websocket.api.extensions.Extension;
+import org.eclipse.jetty.websocket.api.extensions.ExtensionConfig;
 import org.eclipse.jetty.websocket.api.extensions.ExtensionFactory;
 import org.eclipse.jetty.websocket.common.LogicalConnection;
 import org.eclipse.jetty.websocket.common.WebSocketSession;
@@ -237,6 +239,7 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
     {
         closeAllConnections();
         super.doStop();
+        extensionFactory.getDeflaterPool().clear();
     }
 
     @Override
@@ -391,6 +394,13 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         // Initialize / Negotiate Extensions
         ExtensionStack extensionStack = new ExtensionStack(getExtensionFactory());
         extensionStack.negotiate(request.getExtensions());
+        // Only answer with the extensions that were accepted, with their negotiated parameters
+        List<ExtensionConfig> negotiated = new ArrayList<>();
+        for (Extension ext : extensionStack.getExtensions())
+        {
+            negotiated.add(ext.getConfig());
+        }
+        response.setExtensions(negotiated);
 
         // Create connection
         UpgradeContext context = getActiveUpgradeContext();
@@ -417,6 +427,9 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         session.setPolicy(getPolicy().clonePolicy());
         session.setNegotiatedSubprotocol(response.getAcceptedSubProtocol());
         session.setNegotiatedExtensions(extensionStack.getNegotiatedExtensions());
+        session.setExtensionFactory(getExtensionFactory());
+        // The extensions are stopped with the session, returning their compression state to the pool
+        session.addBean(extensionStack,true);
         connection.setSession(session);
 
         // Setup Incoming Routing
@@ -427,7 +440,7 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         session.setOutgoingHandler(extensionStack);
         extensionStack.setNextOutgoing(connection);
 
-        // Start Components
+        // Start Components (and the Extension Stack with the Session)
         try
         {
             session.start();
@@ -436,14 +449,6 @@ public class WebSocketServerFactory extends ContainerLifeCycle implements WebSoc
         {
             throw new IOException("Unable to start Session",e);
         }
-        try
-        {
-            extensionStack.start();
-        }
-        catch (Exception e)
-        {
-            throw new IOException("Unable to start Extension Stack",e);
-        }
 
         // Tell jetty about the new connection
         request.setAttribute(HttpConnection.UPGRADE_CONNECTION_ATTRIBUTE,connection);
@@ -56,13 +56,9 @@ public class HandshakeRFC6455 implements WebSocketHandshake
             response.addHeader("Sec-WebSocket-Protocol",response.getAcceptedSubProtocol());
         }
 
-        if (request.getExtensions() != null)
+        for (ExtensionConfig ext : response.getExtensions())
         {
-            response.setExtensions(request.getExtensions());
-            for (ExtensionConfig ext : request.getExtensions())
-            {
-                response.addHeader("Sec-WebSocket-Extensions",ext.getParameterizedName());
-            }
+            response.addHeader("Sec-WebSocket-Extensions",ext.getParameterizedName());
         }
 
         response.setStatus(HttpServletResponse.SC_SWITCHING_PROTOCOLS);
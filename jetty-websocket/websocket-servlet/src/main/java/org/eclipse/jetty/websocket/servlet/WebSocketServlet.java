@@ -81,6 +81,10 @@ import org.eclipse.jetty.websocket.api.annotations.WebSocket;
  * <dt>maxBinaryMessagesSize</dt>
  * <dd>set the size in bytes that a websocket may be accept before closing<br>
  * <i>Default:</i></dd>
+ * 
+ * <dt>compressionLevel</dt>
+ * <dd>set the compression level (-1 for the deflater default, or 0-9) of the messages compressed by the permessage-deflate extension<br>
+ * <i>Default: 1</i></dd>
  * </dl>
  */
 @SuppressWarnings("serial")
@@ -129,6 +133,12 @@ public abstract class WebSocketServlet extends HttpServlet
                 policy.setMaxBinaryMessageSize(Integer.parseInt(max));
             }
 
+            String level = getInitParameter("compressionLevel");
+            if (level != null)
+            {
+                policy.setCompressionLevel(Integer.parseInt(level));
+            }
+
             WebSocketServletFactory baseFactory ;
             Iterator<WebSocketServletFactory> factories = ServiceLoader.load(WebSocketServletFactory.class).iterator();
             